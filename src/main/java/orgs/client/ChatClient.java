@@ -4,12 +4,17 @@ package orgs.client;
 import orgs.model.Message;
 import orgs.model.User;
 import orgs.model.Chat;
+import orgs.model.ChatSummary;
+import orgs.model.PendingDelivery;
+import orgs.model.UserUpdate;
 import orgs.protocol.Command;
 import orgs.protocol.Request;
 import orgs.protocol.Response;
 import orgs.utils.LocalDateTimeAdapter; // Make sure this is imported
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.google.gson.reflect.TypeToken;
 
 import java.io.BufferedReader;
@@ -19,10 +24,15 @@ import java.io.PrintWriter;
 import java.lang.reflect.Type;
 import java.net.Socket;
 import java.time.LocalDateTime; // Required for LocalDateTimeAdapter
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit; // For timeout
@@ -40,10 +50,26 @@ public class ChatClient {
             .create();
 
     private User currentUser; // Store logged-in user info
+    private String updatesState; // Opaque GET_UPDATES token, null until the first sync
 
     // A queue to hold responses received by the listener thread, to be picked up by the main thread
     private final BlockingQueue<Response> responseQueue = new LinkedBlockingQueue<>();
 
+    // Delivery is at-least-once: a retransmitted push is acked again but only shown the first time
+    private static final int MAX_ACK_BATCH = 64;
+    private static final int SEEN_DELIVERY_IDS = 1024;
+    private final Set<Long> seenDeliveryIds = Collections.newSetFromMap(new LinkedHashMap<Long, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+            return size() > SEEN_DELIVERY_IDS;
+        }
+    });
+    private List<Long> pendingAcks = new ArrayList<>(); // Only touched by the listener thread
+
+    private static final int USER_PAGE_SIZE = 50;
+    // GET_ALL_USERS chunks, read by the main thread once the final response of the page arrived
+    private final BlockingQueue<List<User>> userChunks = new LinkedBlockingQueue<>();
+
     public ChatClient() {
         try {
             socket = new Socket(SERVER_IP, SERVER_PORT);
@@ -64,19 +90,54 @@ public class ChatClient {
         try {
             String serverResponseJson;
             while ((serverResponseJson = in.readLine()) != null) {
+                // Typing indicators are plain text lines, not Response JSON
+                if (serverResponseJson.startsWith("SIGNAL ")) {
+                    showChatActivity(serverResponseJson);
+                    flushAcksIfIdle();
+                    continue;
+                }
+                // Read receipts: "READ <chatId> <readerId> <upToMessageId>"
+                if (serverResponseJson.startsWith("READ ")) {
+                    String[] receipt = serverResponseJson.split(" ");
+                    System.out.println("\n[User " + receipt[2] + " read Chat ID " + receipt[1] + " up to message " + receipt[3] + "]");
+                    System.out.print("> ");
+                    flushAcksIfIdle();
+                    continue;
+                }
+                // So are live edit/delete notices, which are not acked either
+                if (serverResponseJson.startsWith("MESSAGE_CHANGE ")) {
+                    showMessageChange(serverResponseJson.substring("MESSAGE_CHANGE ".length()));
+                    flushAcksIfIdle();
+                    continue;
+                }
                 Response response = gson.fromJson(serverResponseJson, Response.class);
 
-                // Check if this response is an unsolicited new message
-                if (response.isSuccess() && "New message received".equals(response.getMessage())) {
-                    Message newMessage = gson.fromJson(response.getData(), Message.class);
-                    // Print unsolicited messages directly to the console
-                    System.out.println("\n[NEW MESSAGE from User " + newMessage.getSenderId() + " in Chat ID " + newMessage.getChatId() + "]: " + newMessage.getContent());
-                    System.out.print("> "); // Re-prompt the user
+                // Pushes carry a delivery id; everything else is a reply to our own request
+                if (response.getDeliveryId() != null) {
+                    if (seenDeliveryIds.add(response.getDeliveryId())) {
+                        handlePush(response);
+                    }
+                    pendingAcks.add(response.getDeliveryId());
+                } else if (response.isSuccess() && "Users chunk".equals(response.getMessage())) {
+                    Type userListType = new TypeToken<List<User>>() {}.getType();
+                    userChunks.add(gson.fromJson(response.getData(), userListType));
+                } else if (response.isSuccess() && "Pending messages".equals(response.getMessage())) {
+                    // Backlog that queued up while we were offline (or was not acked in time), in one batch
+                    Type deliveryListType = new TypeToken<List<PendingDelivery>>() {}.getType();
+                    List<PendingDelivery> deliveries = gson.fromJson(response.getData(), deliveryListType);
+                    for (PendingDelivery delivery : deliveries) {
+                        if (seenDeliveryIds.add(delivery.getDeliveryId())) {
+                            handlePush(gson.fromJson(delivery.getPayload(), Response.class));
+                        }
+                        pendingAcks.add(delivery.getDeliveryId());
+                    }
+                    System.out.print("> ");
                 } else {
                     // All other responses (like login, send message confirmation, get messages)
                     // are put into the queue for the main thread to pick up.
                     responseQueue.put(response); // This is blocking if queue is full (unlikely here)
                 }
+                flushAcksIfIdle();
             }
         } catch (IOException e) {
             System.err.println("Server connection lost: " + e.getMessage());
@@ -88,6 +149,28 @@ public class ChatClient {
         }
     }
 
+    // Acks go out in batches: whenever the socket has nothing more buffered, or the batch is full
+    private void flushAcksIfIdle() throws IOException {
+        if (!pendingAcks.isEmpty() && (!in.ready() || pendingAcks.size() >= MAX_ACK_BATCH)) {
+            acknowledgeDeliveries(pendingAcks);
+            pendingAcks = new ArrayList<>();
+        }
+    }
+
+    private void handlePush(Response push) {
+        if (push.isSuccess() && "New message received".equals(push.getMessage())) {
+            Message newMessage = gson.fromJson(push.getData(), Message.class);
+            // Print unsolicited messages directly to the console
+            String sender = newMessage.getSenderDisplayName() != null ? newMessage.getSenderDisplayName() : "User " + newMessage.getSenderId();
+            System.out.println("\n[NEW MESSAGE from " + sender + " in Chat ID " + newMessage.getChatId() + "]: " + newMessage.getContent());
+            System.out.print("> "); // Re-prompt the user
+        } else if (push.isSuccess() && "Added to chat".equals(push.getMessage())) {
+            Chat chat = gson.fromJson(push.getData(), Chat.class);
+            System.out.println("\n[ADDED TO CHAT " + chat.getId() + " '" + chat.getChatName() + "' by User " + chat.getCreatorId() + "]");
+            System.out.print("> ");
+        }
+    }
+
     // Partial src/orgs/client/ChatClient.java (Focus on new parts)
 
 // ... (existing imports, class definition, socket setup) ...
@@ -111,6 +194,7 @@ public class ChatClient {
                 String password = scanner.nextLine();
                 if (login(username, password)) {
                     System.out.println("Logged in as: " + currentUser.getUsername());
+                    syncUpdates(); // Catch up on what changed while we were away
                     break;
                 } else {
                     System.out.println("Login failed. Please try again.");
@@ -138,21 +222,23 @@ public class ChatClient {
             System.out.println("11. Update/Delete Message");
             System.out.println("12. Delete Chat");
             System.out.println("13. Logout");
+            System.out.println("14. Sync Updates");
             System.out.print("Enter command number: ");
 
             String commandChoice = scanner.nextLine();
             switch (commandChoice) {
                 case "1":
                     System.out.print("Enter Chat ID: ");
-                    int chatId = getIntInput(scanner);
+                    long chatId = getLongInput(scanner);
                     if (chatId == -1) break;
+                    sendChatActivity(chatId, "typing"); // The server clears it when the message arrives
                     System.out.print("Enter message content: ");
                     String content = scanner.nextLine();
                     sendMessage(chatId, content);
                     break;
                 case "2":
                     System.out.print("Enter Chat ID to get messages from: ");
-                    int getChatId = getIntInput(scanner);
+                    long getChatId = getLongInput(scanner);
                     if (getChatId == -1) break;
                     getChatMessages(getChatId);
                     break;
@@ -161,13 +247,14 @@ public class ChatClient {
                     String chatName = scanner.nextLine();
                     System.out.print("Enter Chat Type (private/group): "); // Add more specific logic for group
                     String chatType = scanner.nextLine();
-                    createChat(chatName, chatType);
+                    System.out.print("Enter member User IDs, comma-separated (optional): ");
+                    createChat(chatName, chatType, parseIdList(scanner.nextLine()));
                     break;
                 case "4":
                     manageProfile(scanner);
                     break;
                 case "5":
-                    getAllUsers();
+                    getAllUsers(scanner);
                     break;
                 case "6":
                     getUserChats();
@@ -189,7 +276,7 @@ public class ChatClient {
                     break;
                 case "12":
                     System.out.print("Enter Chat ID to delete: ");
-                    int delChatId = getIntInput(scanner);
+                    long delChatId = getLongInput(scanner);
                     if (delChatId == -1) break;
                     deleteChat(delChatId);
                     break;
@@ -197,6 +284,9 @@ public class ChatClient {
                     System.out.println("Logging out...");
                     closeConnection();
                     return;
+                case "14":
+                    syncUpdates();
+                    break;
                 default:
                     System.out.println("Invalid command. Please try again.");
             }
@@ -213,6 +303,16 @@ public class ChatClient {
         }
     }
 
+    // Chat, message and notification ids are 64-bit
+    private long getLongInput(Scanner scanner) {
+        try {
+            return Long.parseLong(scanner.nextLine());
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid input. Please enter a number.");
+            return -1;
+        }
+    }
+
     // --- New Client Command Implementations ---
 
     private void registerUser(Scanner scanner) {
@@ -360,27 +460,50 @@ public class ChatClient {
         }
     }
 
-    private void getAllUsers() {
-        Request request = new Request(Command.GET_ALL_USERS, null);
-        Response response = sendRequestAndAwaitResponse(request);
+    // Pages through the directory; the server streams each page as "Users chunk" frames before its final response
+    private void getAllUsers(Scanner scanner) {
+        System.out.println("\n--- All Registered Users ---");
+        int afterId = 0;
+        int shown = 0;
+        while (true) {
+            Map<String, Integer> params = new HashMap<>();
+            params.put("afterId", afterId);
+            params.put("limit", USER_PAGE_SIZE);
+            Request request = new Request(Command.GET_ALL_USERS, gson.toJson(params));
+            userChunks.clear(); // Leftovers of a page that timed out
+            Response response = sendRequestAndAwaitResponse(request);
 
-        if (response != null && response.isSuccess()) {
-            Type userListType = new TypeToken<List<User>>() {}.getType();
-            List<User> users = gson.fromJson(response.getData(), userListType);
-            System.out.println("\n--- All Registered Users ---");
-            if (users.isEmpty()) {
-                System.out.println("No users found.");
-            } else {
-                for (User user : users) {
+            if (response == null) {
+                return;
+            }
+            if (!response.isSuccess()) {
+                System.out.println("Failed to get all users: " + response.getMessage());
+                return;
+            }
+            // The listener queued the chunks before the final response, so they are all here already
+            List<User> chunk;
+            while ((chunk = userChunks.poll()) != null) {
+                for (User user : chunk) {
                     System.out.println("ID: " + user.getId() + ", Username: " + user.getUsername() + ", Name: " + user.getFirstName() + " " + user.getLastName() + (user.isOnline() ? " (Online)" : ""));
+                    shown++;
                 }
             }
-        } else if (response != null) {
-            System.out.println("Failed to get all users: " + response.getMessage());
+            JsonObject page = JsonParser.parseString(response.getData()).getAsJsonObject();
+            if (page.get("nextAfterId").isJsonNull()) {
+                break;
+            }
+            afterId = page.get("nextAfterId").getAsInt();
+            System.out.print("Press Enter for more users, or type 'q' to stop: ");
+            if (scanner.nextLine().trim().equalsIgnoreCase("q")) {
+                return;
+            }
+        }
+        if (shown == 0) {
+            System.out.println("No users found.");
         }
     }
 
-    private void createChat(String chatName, String chatType) {
+    private void createChat(String chatName, String chatType, List<Integer> memberIds) {
         if (currentUser == null) {
             System.out.println("You must be logged in to create chats.");
             return;
@@ -391,7 +514,10 @@ public class ChatClient {
         newChat.setChatType(chatType); // "private" or "group"
         // Creator ID will be set on the server
 
-        Request request = new Request(Command.CREATE_CHAT, gson.toJson(newChat));
+        // Members go in the same request, so the chat and all participants are created together
+        JsonObject payload = gson.toJsonTree(newChat).getAsJsonObject();
+        payload.add("memberIds", gson.toJsonTree(memberIds));
+        Request request = new Request(Command.CREATE_CHAT, gson.toJson(payload));
         Response response = sendRequestAndAwaitResponse(request);
 
         if (response != null && response.isSuccess()) {
@@ -402,19 +528,40 @@ public class ChatClient {
         }
     }
 
+    private List<Integer> parseIdList(String input) {
+        List<Integer> ids = new ArrayList<>();
+        for (String part : input.split(",")) {
+            if (!part.isBlank()) {
+                try {
+                    ids.add(Integer.parseInt(part.trim()));
+                } catch (NumberFormatException e) {
+                    System.out.println("Ignoring invalid ID: " + part.trim());
+                }
+            }
+        }
+        return ids;
+    }
+
+    // The chat list: one request returns every chat with its last message and unread count
     private void getUserChats() {
-        Request request = new Request(Command.GET_USER_CHATS, null);
+        Request request = new Request(Command.GET_CHAT_SUMMARIES, null);
         Response response = sendRequestAndAwaitResponse(request);
 
         if (response != null && response.isSuccess()) {
-            Type chatListType = new TypeToken<List<Chat>>() {}.getType();
-            List<Chat> chats = gson.fromJson(response.getData(), chatListType);
+            Type summaryListType = new TypeToken<List<ChatSummary>>() {}.getType();
+            List<ChatSummary> summaries = gson.fromJson(response.getData(), summaryListType);
             System.out.println("\n--- Your Chats ---");
-            if (chats.isEmpty()) {
+            if (summaries.isEmpty()) {
                 System.out.println("No chats found.");
             } else {
-                for (Chat chat : chats) {
-                    System.out.println("ID: " + chat.getId() + ", Name: " + chat.getChatName() + ", Type: " + chat.getChatType());
+                for (ChatSummary summary : summaries) {
+                    String unread = summary.getUnreadCount() > 0 ? " (" + summary.getUnreadCount() + " unread)" : "";
+                    System.out.println("ID: " + summary.getChatId() + ", Name: " + summary.getChatName() + ", Type: " + summary.getChatType() + unread);
+                    if (summary.getLastMessageId() != null) {
+                        String sender = summary.getLastSenderUsername() != null ? summary.getLastSenderUsername() : "User " + summary.getLastSenderId();
+                        String text = summary.isLastMessageDeleted() ? "(deleted)" : summary.getLastMessageSnippet();
+                        System.out.println("    " + sender + ": " + text + " [" + summary.getLastMessageAt() + "]");
+                    }
                 }
             }
         } else if (response != null) {
@@ -422,8 +569,8 @@ public class ChatClient {
         }
     }
 
-    private void deleteChat(int chatId) {
-        Map<String, Integer> params = new HashMap<>();
+    private void deleteChat(long chatId) {
+        Map<String, Object> params = new HashMap<>();
         params.put("chatId", chatId);
         Request request = new Request(Command.DELETE_CHAT, gson.toJson(params));
         Response response = sendRequestAndAwaitResponse(request);
@@ -440,14 +587,16 @@ public class ChatClient {
         System.out.println("1. Update Message Content");
         System.out.println("2. Delete Message");
         System.out.println("3. Mark Message as Read (Increments View Count)");
-        System.out.println("4. Back to main menu");
+        System.out.println("4. Mark Chat as Read up to a Message");
+        System.out.println("5. Message View Stats");
+        System.out.println("6. Back to main menu");
         System.out.print("Choose an option: ");
         String choice = scanner.nextLine();
 
         switch (choice) {
             case "1":
                 System.out.print("Enter Message ID to update: ");
-                int msgIdToUpdate = getIntInput(scanner);
+                long msgIdToUpdate = getLongInput(scanner);
                 if (msgIdToUpdate == -1) break;
                 System.out.print("Enter new message content: ");
                 String newContent = scanner.nextLine();
@@ -455,24 +604,40 @@ public class ChatClient {
                 break;
             case "2":
                 System.out.print("Enter Message ID to delete: ");
-                int msgIdToDelete = getIntInput(scanner);
+                long msgIdToDelete = getLongInput(scanner);
                 if (msgIdToDelete == -1) break;
                 deleteMessage(msgIdToDelete);
                 break;
             case "3":
                 System.out.print("Enter Message ID to mark as read: ");
-                int msgIdToRead = getIntInput(scanner);
+                long msgIdToRead = getLongInput(scanner);
                 if (msgIdToRead == -1) break;
                 markMessageAsRead(msgIdToRead);
                 break;
             case "4":
+                System.out.print("Enter Chat ID: ");
+                long chatIdToRead = getLongInput(scanner);
+                if (chatIdToRead == -1) break;
+                System.out.print("Enter the last Message ID you have read: ");
+                long upToMessageId = getLongInput(scanner);
+                if (upToMessageId == -1) break;
+                System.out.print("Let the sender know (y/n)? ");
+                markChatReadUpTo(chatIdToRead, upToMessageId, "y".equalsIgnoreCase(scanner.nextLine().trim()));
+                break;
+            case "5":
+                System.out.print("Enter Message ID: ");
+                long msgIdForStats = getLongInput(scanner);
+                if (msgIdForStats == -1) break;
+                getMessageViewStats(msgIdForStats);
+                break;
+            case "6":
                 break;
             default:
                 System.out.println("Invalid option.");
         }
     }
 
-    private void updateMessage(int messageId, String newContent) {
+    private void updateMessage(long messageId, String newContent) {
         Message message = new Message();
         message.setId(messageId);
         message.setContent(newContent);
@@ -488,8 +653,8 @@ public class ChatClient {
         }
     }
 
-    private void deleteMessage(int messageId) {
-        Map<String, Integer> params = new HashMap<>();
+    private void deleteMessage(long messageId) {
+        Map<String, Object> params = new HashMap<>();
         params.put("messageId", messageId);
         Request request = new Request(Command.DELETE_MESSAGE, gson.toJson(params));
         Response response = sendRequestAndAwaitResponse(request);
@@ -501,8 +666,8 @@ public class ChatClient {
         }
     }
 
-    private void markMessageAsRead(int messageId) {
-        Map<String, Integer> params = new HashMap<>();
+    private void markMessageAsRead(long messageId) {
+        Map<String, Object> params = new HashMap<>();
         params.put("messageId", messageId);
         Request request = new Request(Command.MARK_MESSAGE_AS_READ, gson.toJson(params));
         Response response = sendRequestAndAwaitResponse(request);
@@ -514,20 +679,52 @@ public class ChatClient {
         }
     }
 
+    private void getMessageViewStats(long messageId) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("messageId", messageId);
+        Request request = new Request(Command.GET_MESSAGE_VIEW_STATS, gson.toJson(params));
+        Response response = sendRequestAndAwaitResponse(request);
+
+        if (response != null && response.isSuccess()) {
+            JsonObject stats = gson.fromJson(response.getData(), JsonObject.class);
+            System.out.println("Message " + messageId + ": " + stats.get("viewCount").getAsLong() + " views, about "
+                    + stats.get("uniqueViewers").getAsLong() + " unique viewers.");
+        } else if (response != null) {
+            System.out.println("Failed to get message view stats: " + response.getMessage());
+        }
+    }
+
+    private void markChatReadUpTo(long chatId, long messageId, boolean sendReceipt) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("chatId", chatId);
+        params.put("messageId", messageId);
+        params.put("sendReceipt", sendReceipt);
+        Request request = new Request(Command.MARK_CHAT_READ_UP_TO, gson.toJson(params));
+        Response response = sendRequestAndAwaitResponse(request);
+
+        if (response != null && response.isSuccess()) {
+            System.out.println("Chat " + chatId + " marked as read up to message " + messageId + ".");
+        } else if (response != null) {
+            System.out.println("Failed to mark chat as read: " + response.getMessage());
+        }
+    }
+
     private void manageChatParticipants(Scanner scanner) {
         System.out.println("\n--- Chat Participant Management ---");
         System.out.println("1. Add Participant to Chat");
         System.out.println("2. Get Chat Participants");
         System.out.println("3. Update Participant Role");
         System.out.println("4. Remove Participant from Chat");
-        System.out.println("5. Back to main menu");
+        System.out.println("5. Add Many Participants");
+        System.out.println("6. Remove Many Participants");
+        System.out.println("7. Back to main menu");
         System.out.print("Choose an option: ");
         String choice = scanner.nextLine();
 
         switch (choice) {
             case "1":
                 System.out.print("Enter Chat ID: ");
-                int addPartChatId = getIntInput(scanner);
+                long addPartChatId = getLongInput(scanner);
                 if (addPartChatId == -1) break;
                 System.out.print("Enter User ID to add: ");
                 int userIdToAdd = getIntInput(scanner);
@@ -538,7 +735,7 @@ public class ChatClient {
                 break;
             case "2":
                 System.out.print("Enter Chat ID to list participants: ");
-                int getPartChatId = getIntInput(scanner);
+                long getPartChatId = getLongInput(scanner);
                 if (getPartChatId == -1) break;
                 getChatParticipants(getPartChatId);
                 break;
@@ -552,7 +749,7 @@ public class ChatClient {
                 break;
             case "4":
                 System.out.print("Enter Chat ID to remove from: ");
-                int removePartChatId = getIntInput(scanner);
+                long removePartChatId = getLongInput(scanner);
                 if (removePartChatId == -1) break;
                 System.out.print("Enter Participant ID to remove: ");
                 int participantIdToRemove = getIntInput(scanner); // This refers to the chat_participants table ID
@@ -563,13 +760,38 @@ public class ChatClient {
                 removeChatParticipant(participantIdToRemove, removePartChatId, userIdToRemove);
                 break;
             case "5":
+            case "6":
+                System.out.print("Enter Chat ID: ");
+                long bulkChatId = getLongInput(scanner);
+                if (bulkChatId == -1) break;
+                System.out.print("Enter User IDs, comma-separated: ");
+                List<Integer> bulkUserIds = parseIdList(scanner.nextLine());
+                if (bulkUserIds.isEmpty()) break;
+                bulkChangeParticipants("5".equals(choice) ? Command.ADD_CHAT_PARTICIPANTS : Command.REMOVE_CHAT_PARTICIPANTS, bulkChatId, bulkUserIds);
+                break;
+            case "7":
                 break;
             default:
                 System.out.println("Invalid option.");
         }
     }
 
-    private void addChatParticipant(int chatId, int userId, String role) {
+    private void bulkChangeParticipants(Command command, long chatId, List<Integer> userIds) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("chatId", chatId);
+        params.put("userIds", userIds);
+        Response response = sendRequestAndAwaitResponse(new Request(command, gson.toJson(params)));
+
+        if (response != null && response.isSuccess()) {
+            System.out.println(response.getMessage());
+            JsonObject results = JsonParser.parseString(response.getData()).getAsJsonObject().getAsJsonObject("results");
+            results.entrySet().forEach(result -> System.out.println("User " + result.getKey() + ": " + result.getValue().getAsString()));
+        } else if (response != null) {
+            System.out.println("Failed: " + response.getMessage());
+        }
+    }
+
+    private void addChatParticipant(long chatId, int userId, String role) {
         orgs.model.ChatParticipant participant = new orgs.model.ChatParticipant();
         participant.setChatId(chatId);
         participant.setUserId(userId);
@@ -585,8 +807,8 @@ public class ChatClient {
         }
     }
 
-    private void getChatParticipants(int chatId) {
-        Map<String, Integer> params = new HashMap<>();
+    private void getChatParticipants(long chatId) {
+        Map<String, Object> params = new HashMap<>();
         params.put("chatId", chatId);
         Request request = new Request(Command.GET_CHAT_PARTICIPANTS, gson.toJson(params));
         Response response = sendRequestAndAwaitResponse(request);
@@ -622,8 +844,8 @@ public class ChatClient {
         }
     }
 
-    private void removeChatParticipant(int participantId, int chatId, int userIdToRemove) {
-        Map<String, Integer> params = new HashMap<>();
+    private void removeChatParticipant(int participantId, long chatId, int userIdToRemove) {
+        Map<String, Object> params = new HashMap<>();
         params.put("participantId", participantId);
         params.put("chatId", chatId); // Pass for server-side validation
         params.put("userId", userIdToRemove); // Pass for server-side validation
@@ -785,13 +1007,13 @@ public class ChatClient {
                 break;
             case "2":
                 System.out.print("Enter Notification ID to mark as read: ");
-                int notifIdToMark = getIntInput(scanner);
+                long notifIdToMark = getLongInput(scanner);
                 if (notifIdToMark == -1) break;
                 markNotificationAsRead(notifIdToMark);
                 break;
             case "3":
                 System.out.print("Enter Notification ID to delete: ");
-                int notifIdToDelete = getIntInput(scanner);
+                long notifIdToDelete = getLongInput(scanner);
                 if (notifIdToDelete == -1) break;
                 deleteNotification(notifIdToDelete);
                 break;
@@ -822,8 +1044,8 @@ public class ChatClient {
         }
     }
 
-    private void markNotificationAsRead(int notificationId) {
-        Map<String, Integer> params = new HashMap<>();
+    private void markNotificationAsRead(long notificationId) {
+        Map<String, Object> params = new HashMap<>();
         params.put("notificationId", notificationId);
         Request request = new Request(Command.MARK_NOTIFICATION_AS_READ, gson.toJson(params));
         Response response = sendRequestAndAwaitResponse(request);
@@ -835,8 +1057,8 @@ public class ChatClient {
         }
     }
 
-    private void deleteNotification(int notificationId) {
-        Map<String, Integer> params = new HashMap<>();
+    private void deleteNotification(long notificationId) {
+        Map<String, Object> params = new HashMap<>();
         params.put("notificationId", notificationId);
         Request request = new Request(Command.DELETE_NOTIFICATION, gson.toJson(params));
         Response response = sendRequestAndAwaitResponse(request);
@@ -849,6 +1071,57 @@ public class ChatClient {
     }
 
 
+    // "SIGNAL <chatId> typing=3,7 recording_voice=9"; no actions means nobody in the chat is active anymore
+    private void showChatActivity(String frame) {
+        String[] parts = frame.split(" ");
+        StringBuilder activity = new StringBuilder();
+        for (int i = 2; i < parts.length; i++) {
+            String[] actionAndUsers = parts[i].split("=", 2);
+            for (String userId : actionAndUsers[1].split(",")) {
+                if (currentUser != null && userId.equals(String.valueOf(currentUser.getId()))) {
+                    continue; // Our own indicator
+                }
+                activity.append(activity.length() == 0 ? "" : ", ")
+                        .append("User ").append(userId).append(" is ")
+                        .append("typing".equals(actionAndUsers[0]) ? "typing..." : "recording a voice note...");
+            }
+        }
+        if (activity.length() > 0) {
+            System.out.println("\n[Chat ID " + parts[1] + "]: " + activity);
+            System.out.print("> ");
+        }
+    }
+
+    // {"chatId":..,"messageId":..,"content":..,"editedAt":..}, or "deleted":true instead of content
+    private void showMessageChange(String json) {
+        JsonObject change = gson.fromJson(json, JsonObject.class);
+        String where = "Message " + change.get("messageId").getAsLong() + " in Chat ID " + change.get("chatId").getAsLong();
+        if (change.has("deleted") && change.get("deleted").getAsBoolean()) {
+            System.out.println("\n[" + where + " was deleted]");
+        } else {
+            System.out.println("\n[" + where + " edited]: " + (change.has("content") ? change.get("content").getAsString() : ""));
+        }
+        System.out.print("> ");
+    }
+
+    // Fire-and-forget like acks: the server never answers typing indicators
+    private void sendChatActivity(long chatId, String action) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("chatId", chatId);
+        params.put("action", action);
+        out.println(new Request(Command.CHAT_ACTIVITY, gson.toJson(params)).toJson());
+    }
+
+    // Acks get no response, so they bypass sendRequestAndAwaitResponse and its queue
+    private void acknowledgeDeliveries(List<Long> deliveryIds) {
+        if (deliveryIds.isEmpty()) {
+            return;
+        }
+        Map<String, List<Long>> params = new HashMap<>();
+        params.put("deliveryIds", deliveryIds);
+        out.println(new Request(Command.ACK_DELIVERY, gson.toJson(params)).toJson());
+    }
+
     // This method sends a request and then waits for its specific response from the queue
     private Response sendRequestAndAwaitResponse(Request request) {
         try {
@@ -891,7 +1164,7 @@ public class ChatClient {
         return false;
     }
 
-    private void sendMessage(int chatId, String content) {
+    private void sendMessage(long chatId, String content) {
         if (currentUser == null) {
             System.out.println("You must be logged in to send messages.");
             return;
@@ -899,9 +1172,14 @@ public class ChatClient {
         Message message = new Message();
         message.setChatId(chatId);
         message.setContent(content);
+        message.setClientMessageId(UUID.randomUUID().toString()); // Same id on retry, so the server stores it once
 
         Request request = new Request(Command.SEND_MESSAGE, gson.toJson(message));
         Response response = sendRequestAndAwaitResponse(request);
+        if (response == null) {
+            System.out.println("Retrying...");
+            response = sendRequestAndAwaitResponse(request);
+        }
 
         if (response != null && response.isSuccess()) {
             System.out.println("Message sent successfully!");
@@ -910,12 +1188,12 @@ public class ChatClient {
         }
     }
 
-    private void getChatMessages(int chatId) {
+    private void getChatMessages(long chatId) {
         if (currentUser == null) {
             System.out.println("You must be logged in to view messages.");
             return;
         }
-        Map<String, Integer> params = new HashMap<>();
+        Map<String, Object> params = new HashMap<>();
         params.put("chatId", chatId);
         params.put("limit", 20);
 
@@ -930,8 +1208,13 @@ public class ChatClient {
                 System.out.println("No messages found.");
             } else {
                 for (Message msg : messages) {
-                    // Ensure you can get sender's username if possible or just show ID
-                    System.out.println(msg.getSentAt().toLocalTime() + " - From User " + msg.getSenderId() + ": " + msg.getContent());
+                    // The server stores the sender's name and the reply preview on each row
+                    String sender = msg.getSenderDisplayName() != null ? msg.getSenderDisplayName() : "User " + msg.getSenderId();
+                    if (msg.getRepliedToMessageId() != null) {
+                        String quoted = msg.getReplySnippet() != null ? msg.getReplySnippet() : "(deleted)";
+                        System.out.println("    > " + quoted);
+                    }
+                    System.out.println(msg.getSentAt().toLocalTime() + " - From " + sender + ": " + msg.getContent());
                 }
             }
         } else if (response != null) {
@@ -939,6 +1222,33 @@ public class ChatClient {
         }
     }
 
+    // Fetches only what changed since the last sync instead of reloading every chat
+    private void syncUpdates() {
+        Map<String, String> params = new HashMap<>();
+        params.put("state", updatesState);
+
+        Request request = new Request(Command.GET_UPDATES, gson.toJson(params));
+        Response response = sendRequestAndAwaitResponse(request);
+
+        if (response != null && response.isSuccess()) {
+            JsonObject difference = JsonParser.parseString(response.getData()).getAsJsonObject();
+            updatesState = difference.get("state").getAsString();
+            if (difference.get("resyncRequired").getAsBoolean()) {
+                System.out.println("Local state is too old, reloading chats.");
+                getUserChats();
+                return;
+            }
+            Type updateListType = new TypeToken<List<UserUpdate>>() {}.getType();
+            List<UserUpdate> updates = gson.fromJson(difference.get("updates"), updateListType);
+            System.out.println("\n--- " + updates.size() + " update(s) since last sync ---");
+            for (UserUpdate update : updates) {
+                System.out.println("[" + update.getUpdateType() + "] Chat ID: " + update.getChatId() + (update.getMessageId() != null ? ", Message ID: " + update.getMessageId() : ""));
+            }
+        } else if (response != null) {
+            System.out.println("Failed to sync updates: " + response.getMessage());
+        }
+    }
+
     private void createChat(String chatName) {
         if (currentUser == null) {
             System.out.println("You must be logged in to create chats.");
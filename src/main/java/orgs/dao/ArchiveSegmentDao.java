@@ -0,0 +1,370 @@
+package orgs.dao;
+
+import orgs.model.ArchiveSegment;
+import orgs.model.Message;
+import orgs.utils.DatabaseConnection;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * archive_segments, the index of the segment files written by orgs.storage.MessageArchive, and the queries
+ * that pick messages to archive. Committing a segment deletes its messages from messages in the same
+ * transaction, so a message is always readable from exactly one of the two. For a chat on another shard (see
+ * ShardRouter) the rows are deleted there right after the segment commits; rows a failed delete leaves behind are
+ * at or below the chat's archived id, where reads no longer look, and go with the chat's next segment.
+ * Segment files are never rewritten: archive_tombstones and archive_deleted_senders record what reads leave out.
+ * On the message log (see MessageDao) a chat's newest messages are in the log, and archived ones are dropped from it.
+ */
+public class ArchiveSegmentDao {
+    private static final String ARCHIVER_LOCK = "tusal_archiver"; // MySQL named lock, see runAsArchiver
+    private final OutboxDao outboxDao = new OutboxDao();
+
+    // Read (Segments of a chat holding messages after afterId, oldest first)
+    public List<ArchiveSegment> getSegmentsAfter(long chatId, long afterId, int limit) {
+        List<ArchiveSegment> segments = new ArrayList<>();
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = NamedQuery.ARCHIVE_SEGMENTS_AFTER.prepare(conn)) {
+
+            pstmt.setLong(1, chatId);
+            pstmt.setLong(2, afterId);
+            pstmt.setInt(3, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    segments.add(mapResultSetToArchiveSegment(rs));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error getting archive segments: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return segments;
+    }
+
+    // Read (Segments whose id range holds the message id; ids are unique across chats, so this is at most one
+    // segment per chat, and in practice one)
+    public List<ArchiveSegment> getSegmentsContaining(long messageId) {
+        List<ArchiveSegment> segments = new ArrayList<>();
+        String sql = "SELECT id, chat_id, first_message_id, last_message_id, message_count, file_name, created_at FROM archive_segments " +
+                "WHERE last_message_id >= ? AND first_message_id <= ?";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setLong(1, messageId);
+            pstmt.setLong(2, messageId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    segments.add(mapResultSetToArchiveSegment(rs));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error finding archive segment: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return segments;
+    }
+
+    // Read (Archived messages of a chat deleted after archiving, within firstId..lastId)
+    public Set<Long> getTombstones(long chatId, long firstId, long lastId) throws SQLException {
+        Set<Long> messageIds = new HashSet<>();
+        String sql = "SELECT message_id FROM archive_tombstones WHERE chat_id = ? AND message_id BETWEEN ? AND ?";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setLong(1, chatId);
+            pstmt.setLong(2, firstId);
+            pstmt.setLong(3, lastId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    messageIds.add(rs.getLong(1));
+                }
+            }
+        }
+        return messageIds;
+    }
+
+    // Read (Which of the senders have been deleted)
+    public Set<Integer> getDeletedSenders(Collection<Integer> senderIds) throws SQLException {
+        Set<Integer> deleted = new HashSet<>();
+        if (senderIds.isEmpty()) {
+            return deleted;
+        }
+        String sql = "SELECT sender_id FROM archive_deleted_senders WHERE sender_id IN (" +
+                String.join(",", Collections.nCopies(senderIds.size(), "?")) + ")";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            int index = 1;
+            for (int senderId : senderIds) {
+                pstmt.setInt(index++, senderId);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    deleted.add(rs.getInt(1));
+                }
+            }
+        }
+        return deleted;
+    }
+
+    // Create (Tombstone an archived message, with its message_deleted event in the same transaction)
+    public boolean addTombstone(Message message) {
+        String sql = "INSERT IGNORE INTO archive_tombstones (message_id, chat_id) VALUES (?, ?)";
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setLong(1, message.getId());
+                pstmt.setLong(2, message.getChatId());
+                if (pstmt.executeUpdate() > 0) {
+                    outboxDao.record(conn, "message_deleted", message.getChatId(), message.getId(), Map.of("messageId", message.getId()));
+                }
+                conn.commit();
+                return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.err.println("Error deleting archived message: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Create (Hide a deleted user's archived messages)
+    public boolean addDeletedSender(int senderId) {
+        String sql = "INSERT IGNORE INTO archive_deleted_senders (sender_id) VALUES (?)";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setInt(1, senderId);
+            pstmt.executeUpdate();
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Error hiding archived messages of user " + senderId + ": " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Runs the task while this connection holds the ARCHIVER_LOCK named lock, so one server archives at a time; the
+    // lock goes with the session if the server dies. Returns false without running it when another server has it
+    public boolean runAsArchiver(Runnable task) {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            try (PreparedStatement pstmt = conn.prepareStatement("SELECT GET_LOCK(?, 0)")) {
+                pstmt.setString(1, ARCHIVER_LOCK);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next() || rs.getInt(1) != 1) {
+                        return false;
+                    }
+                }
+            }
+            try {
+                task.run();
+            } finally {
+                try (PreparedStatement pstmt = conn.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+                    pstmt.setString(1, ARCHIVER_LOCK);
+                    pstmt.executeQuery().close();
+                }
+            }
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Error taking the archiver lock: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Read (Highest archived message id of a chat, 0 if nothing is archived)
+    public long getArchivedUpTo(long chatId) {
+        String sql = "SELECT MAX(last_message_id) FROM archive_segments WHERE chat_id = ?";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setLong(1, chatId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0; // MAX of no rows is NULL, read as 0
+            }
+        } catch (SQLException e) {
+            System.err.println("Error getting archived range: " + e.getMessage());
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    // Read (Every chat with its archive_after_days, null for the server default)
+    public Map<Long, Integer> getArchiveAfterDays() {
+        Map<Long, Integer> settings = new LinkedHashMap<>();
+        String sql = "SELECT id, archive_after_days FROM chats ORDER BY id";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setFetchSize(1000); // Streamed with useCursorFetch
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    int days = rs.getInt(2);
+                    Integer setting = rs.wasNull() ? null : days; // Before getLong, which resets wasNull
+                    settings.put(rs.getLong(1), setting);
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error getting archive settings: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return settings;
+    }
+
+    // Read (Sent time of the chat's count-th message after afterId, null if there are fewer). One index dive
+    // that tells whether a chat has enough old messages to be worth a segment; on the message log the rest of
+    // the count is taken from the log
+    public Timestamp getSentAtOfNthMessageAfter(long chatId, long afterId, int count) {
+        String sql = "SELECT sent_at FROM messages WHERE chat_id = ? AND id > ? ORDER BY id LIMIT 1 OFFSET ?";
+        String countSql = "SELECT COUNT(*) FROM (SELECT id FROM messages WHERE chat_id = ? AND id > ? LIMIT ?) AS page";
+        try (Connection conn = ShardRouter.getConnection(chatId);
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setLong(1, chatId);
+            pstmt.setLong(2, afterId);
+            pstmt.setInt(3, count - 1);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getTimestamp(1);
+                }
+            }
+            if (!MessageDao.isLogBacked()) {
+                return null;
+            }
+            try (PreparedStatement countStmt = conn.prepareStatement(countSql)) {
+                countStmt.setLong(1, chatId);
+                countStmt.setLong(2, afterId);
+                countStmt.setInt(3, count);
+                try (ResultSet rs = countStmt.executeQuery()) {
+                    rs.next();
+                    return MessageDao.getLogSentAtOfNthMessageAfter(chatId, afterId, count - rs.getInt(1));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error probing messages to archive: " + e.getMessage());
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // Read (The chat's next messages after afterId sent before cutoff, in id order; stops at the first newer one
+    // so the archive stays a prefix of the chat. Soft-deleted rows are included, the caller drops them. On the
+    // message log, continues there once the chat's rows in messages run out)
+    public List<Message> getMessagesToArchive(long chatId, long afterId, Timestamp cutoff, int limit) {
+        List<Message> messages = new ArrayList<>();
+        String sql = "SELECT id, chat_id, sender_id, content, message_type, sent_at, media_id, replied_to_message_id, forwarded_from_user_id, " +
+                "forwarded_from_chat_id, edited_at, is_deleted, view_count, sender_display_name, reply_snippet " +
+                "FROM messages WHERE chat_id = ? AND id > ? ORDER BY id LIMIT ?";
+        try (Connection conn = ShardRouter.getConnection(chatId);
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setLong(1, chatId);
+            pstmt.setLong(2, afterId);
+            pstmt.setInt(3, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    if (!rs.getTimestamp("sent_at").before(cutoff)) {
+                        return messages;
+                    }
+                    messages.add(MessageDao.mapResultSetToMessage(rs));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error getting messages to archive: " + e.getMessage());
+            e.printStackTrace();
+            return messages;
+        }
+        if (messages.size() < limit) {
+            long lastId = messages.isEmpty() ? afterId : messages.get(messages.size() - 1).getId();
+            messages.addAll(MessageDao.getLogMessagesToArchive(chatId, lastId, cutoff, limit - messages.size()));
+        }
+        return messages;
+    }
+
+    // Create (Register a written segment and delete its range from messages, in one transaction when the chat is
+    // on the main database)
+    public boolean commitSegment(ArchiveSegment segment) {
+        String insertSql = "INSERT INTO archive_segments (chat_id, first_message_id, last_message_id, message_count, file_name) VALUES (?, ?, ?, ?, ?)";
+        String deleteSql = "DELETE FROM messages WHERE chat_id = ? AND id BETWEEN ? AND ?";
+        boolean onPrimary;
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            onPrimary = ShardRouter.shardOf(segment.getChatId()) == ShardRouter.PRIMARY;
+            conn.setAutoCommit(false);
+            try (PreparedStatement insert = conn.prepareStatement(insertSql, Statement.RETURN_GENERATED_KEYS);
+                 PreparedStatement delete = conn.prepareStatement(deleteSql)) {
+
+                insert.setLong(1, segment.getChatId());
+                insert.setLong(2, segment.getFirstMessageId());
+                insert.setLong(3, segment.getLastMessageId());
+                insert.setInt(4, segment.getMessageCount());
+                insert.setString(5, segment.getFileName());
+                insert.executeUpdate();
+                try (ResultSet rs = insert.getGeneratedKeys()) {
+                    if (rs.next()) {
+                        segment.setId(rs.getInt(1));
+                    }
+                }
+
+                if (onPrimary) {
+                    delete.setLong(1, segment.getChatId());
+                    delete.setLong(2, segment.getFirstMessageId());
+                    delete.setLong(3, segment.getLastMessageId());
+                    delete.executeUpdate();
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.err.println("Error committing archive segment: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+        if (!onPrimary) {
+            deleteArchivedOnShard(segment);
+        }
+        MessageDao.dropArchivedFromLog(segment.getChatId(), segment.getLastMessageId());
+        return true;
+    }
+
+    // Delete (Everything of the chat up to the segment's last id on the chat's shard, earlier leftovers included).
+    // The segment is committed either way, so a failure is only logged
+    private void deleteArchivedOnShard(ArchiveSegment segment) {
+        String sql = "DELETE FROM messages WHERE chat_id = ? AND id <= ?";
+        try (Connection conn = ShardRouter.getWriteConnection(segment.getChatId());
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setLong(1, segment.getChatId());
+            pstmt.setLong(2, segment.getLastMessageId());
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println("Error deleting archived messages of chat " + segment.getChatId() + ": " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Helper method to map ResultSet to ArchiveSegment object
+    private ArchiveSegment mapResultSetToArchiveSegment(ResultSet rs) throws SQLException {
+        ArchiveSegment segment = new ArchiveSegment(rs.getLong("chat_id"), rs.getLong("first_message_id"), rs.getLong("last_message_id"),
+                rs.getInt("message_count"), rs.getString("file_name"));
+        segment.setId(rs.getInt("id"));
+        Timestamp createdAt = rs.getTimestamp("created_at");
+        segment.setCreatedAt(createdAt != null ? createdAt.toLocalDateTime() : null);
+        return segment;
+    }
+}
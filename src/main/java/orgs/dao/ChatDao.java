@@ -2,42 +2,109 @@ package orgs.dao;
 
 import orgs.model.*;
 import orgs.utils.DatabaseConnection;
+import orgs.utils.SnowflakeIdGenerator;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public class ChatDao {
+    private final OutboxDao outboxDao = new OutboxDao();
+    private final DeletionJobDao deletionJobDao = new DeletionJobDao();
+    private final UserUpdateDao userUpdateDao = new UserUpdateDao();
 
     // Create (Add a New Chat)
-    public int createChat(Chat chat) {
-        String sql = "INSERT INTO chats (chat_type, chat_name, chat_picture_url, chat_description, public_link, creator_id) VALUES (?, ?, ?, ?, ?, ?)";
-        int generatedId = -1;
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+    public long createChat(Chat chat) {
+        String sql = "INSERT INTO chats (id, chat_type, chat_name, chat_picture_url, chat_description, public_link, creator_id) VALUES (?, ?, ?, ?, ?, ?, ?)";
+        long id = SnowflakeIdGenerator.NODE.nextId();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+                pstmt.setLong(1, id);
+                pstmt.setString(2, chat.getChatType());
+                pstmt.setString(3, chat.getChatName());
+                pstmt.setString(4, chat.getChatPictureUrl());
+                pstmt.setString(5, chat.getChatDescription());
+                pstmt.setString(6, chat.getPublicLink());
+                pstmt.setInt(7, chat.getCreatorId());
+                pstmt.executeUpdate();
+
+                chat.setId(id);
+                outboxDao.record(conn, "chat_created", id, id, chat);
+                conn.commit();
+                return id;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.err.println("Error creating chat: " + e.getMessage());
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    // Create (Chat plus its creator and initial members, all or nothing)
+    // One transaction: the chat insert and a single batch of chat_participants rows. The chat id is made here,
+    // so the participant batch does not wait for a generated key
+    public long createChatWithParticipants(Chat chat, Collection<Integer> memberIds) {
+        String chatSql = "INSERT INTO chats (id, chat_type, chat_name, chat_picture_url, chat_description, public_link, creator_id) VALUES (?, ?, ?, ?, ?, ?, ?)";
+        String participantSql = "INSERT INTO chat_participants (chat_id, user_id, role) VALUES (?, ?, ?)";
+        long chatId = SnowflakeIdGenerator.NODE.nextId();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement chatStmt = conn.prepareStatement(chatSql);
+                 PreparedStatement participantStmt = conn.prepareStatement(participantSql)) {
 
-            pstmt.setString(1, chat.getChatType());
-            pstmt.setString(2, chat.getChatName());
-            pstmt.setString(3, chat.getChatPictureUrl());
-            pstmt.setString(4, chat.getChatDescription());
-            pstmt.setString(5, chat.getPublicLink());
-            pstmt.setInt(6, chat.getCreatorId());
+                chatStmt.setLong(1, chatId);
+                chatStmt.setString(2, chat.getChatType());
+                chatStmt.setString(3, chat.getChatName());
+                chatStmt.setString(4, chat.getChatPictureUrl());
+                chatStmt.setString(5, chat.getChatDescription());
+                chatStmt.setString(6, chat.getPublicLink());
+                chatStmt.setInt(7, chat.getCreatorId());
+                chatStmt.executeUpdate();
 
-            int affectedRows = pstmt.executeUpdate();
-            if (affectedRows > 0) {
-                try (ResultSet rs = pstmt.getGeneratedKeys()) {
-                    if (rs.next()) {
-                        generatedId = rs.getInt(1);
-                        chat.setId(generatedId);
+                participantStmt.setLong(1, chatId);
+                participantStmt.setInt(2, chat.getCreatorId());
+                participantStmt.setString(3, "creator");
+                participantStmt.addBatch();
+                for (int memberId : memberIds) {
+                    if (memberId == chat.getCreatorId()) {
+                        continue; // Already added as creator
                     }
+                    participantStmt.setLong(1, chatId);
+                    participantStmt.setInt(2, memberId);
+                    participantStmt.setString(3, "member");
+                    participantStmt.addBatch();
                 }
+                participantStmt.executeBatch();
+
+                chat.setId(chatId);
+                Map<String, Object> created = new LinkedHashMap<>();
+                created.put("chat", chat);
+                created.put("memberIds", memberIds);
+                outboxDao.record(conn, "chat_created", chatId, chatId, created);
+                conn.commit();
+                return chatId;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
             }
         } catch (SQLException e) {
-            System.err.println("Error creating chat: " + e.getMessage());
+            System.err.println("Error creating chat with participants: " + e.getMessage());
             e.printStackTrace();
+            return -1;
         }
-        return generatedId;
     }
 
     // Read (Retrieve Chat Information)
@@ -58,12 +125,11 @@ public class ChatDao {
         return chats;
     }
 
-    public Optional<Chat> getChatById(int id) {
-        String sql = "SELECT * FROM chats WHERE id = ?";
+    public Optional<Chat> getChatById(long id) {
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = NamedQuery.CHAT_BY_ID.prepare(conn)) {
 
-            pstmt.setInt(1, id);
+            pstmt.setLong(1, id);
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
                     return Optional.of(mapResultSetToChat(rs));
@@ -76,6 +142,35 @@ public class ChatDao {
         return Optional.empty();
     }
 
+    // Read (Whether a chat exists and is not being deleted, share-locking its row until the caller's transaction ends)
+    // For writes that add to a chat: DELETE_CHAT's mark waits for them to commit, so its job sees what they wrote
+    static boolean lockIfOpen(Connection conn, long chatId) throws SQLException {
+        try (PreparedStatement pstmt = NamedQuery.CHAT_OPEN_SHARED.prepare(conn)) {
+            pstmt.setLong(1, chatId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    // Read (Only the creator id, for authorization checks; -1 if the chat does not exist)
+    public int getChatCreatorId(long chatId) {
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = NamedQuery.CHAT_CREATOR_ID.prepare(conn)) {
+
+            pstmt.setLong(1, chatId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error getting chat creator: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return -1;
+    }
+
     public List<Chat> getGroupsCreatedByUser(int creatorId) {
         List<Chat> chats = new ArrayList<>();
         String sql = "SELECT * FROM chats WHERE creator_id = ? AND chat_type = 'group'";
@@ -116,17 +211,28 @@ public class ChatDao {
     // Update (Modify Chat Information)
     public boolean updateChat(Chat chat) {
         String sql = "UPDATE chats SET chat_name = ?, chat_picture_url = ?, chat_description = ?, public_link = ? WHERE id = ?";
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-            pstmt.setString(1, chat.getChatName());
-            pstmt.setString(2, chat.getChatPictureUrl());
-            pstmt.setString(3, chat.getChatDescription());
-            pstmt.setString(4, chat.getPublicLink());
-            pstmt.setInt(5, chat.getId());
+                pstmt.setString(1, chat.getChatName());
+                pstmt.setString(2, chat.getChatPictureUrl());
+                pstmt.setString(3, chat.getChatDescription());
+                pstmt.setString(4, chat.getPublicLink());
+                pstmt.setLong(5, chat.getId());
 
-            int affectedRows = pstmt.executeUpdate();
-            return affectedRows > 0;
+                boolean updated = pstmt.executeUpdate() > 0;
+                if (updated) {
+                    outboxDao.record(conn, "chat_updated", chat.getId(), chat.getId(), chat);
+                }
+                conn.commit();
+                return updated;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
         } catch (SQLException e) {
             System.err.println("Error updating chat: " + e.getMessage());
             e.printStackTrace();
@@ -135,14 +241,30 @@ public class ChatDao {
     }
 
     // Delete (Remove a Chat)
-    public boolean deleteChat(int id) {
-        String sql = "DELETE FROM chats WHERE id = ?";
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+    // Only marks the chat and queues a deletion job; its messages and participants are removed in batches by
+    // orgs.server.DeletionWorker. For everyone else the chat is gone once this commits
+    public boolean deleteChat(long id) {
+        String sql = "UPDATE chats SET is_deleting = TRUE WHERE id = ? AND is_deleting = FALSE";
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-            pstmt.setInt(1, id);
-            int affectedRows = pstmt.executeUpdate();
-            return affectedRows > 0;
+                pstmt.setLong(1, id);
+                boolean deleted = pstmt.executeUpdate() > 0;
+                if (deleted) {
+                    deletionJobDao.enqueue(conn, DeletionJobDao.CHAT, id);
+                    outboxDao.record(conn, "chat_deleted", id, id, null);
+                    // Members' GET_UPDATES entry, while the participant rows it fans out to are still there
+                    userUpdateDao.recordForChatParticipants(conn, id, "chat_deleted", null, "{\"chatId\":" + id + "}");
+                }
+                conn.commit();
+                return deleted;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
         } catch (SQLException e) {
             System.err.println("Error deleting chat: " + e.getMessage());
             e.printStackTrace();
@@ -153,7 +275,7 @@ public class ChatDao {
     // Helper method to map ResultSet to Chat object
     private Chat mapResultSetToChat(ResultSet rs) throws SQLException {
         Chat chat = new Chat();
-        chat.setId(rs.getInt("id"));
+        chat.setId(rs.getLong("id"));
         chat.setChatType(rs.getString("chat_type"));
         chat.setChatName(rs.getString("chat_name"));
         chat.setChatPictureUrl(rs.getString("chat_picture_url"));
@@ -185,7 +307,7 @@ public class ChatDao {
         // Join with chat_participants to get chats the user is a part of
         String sql = "SELECT c.id, c.chat_type, c.chat_name, c.chat_picture_url, c.chat_description, c.public_link, c.creator_id, c.created_at, c.updated_at " +
                 "FROM chats c JOIN chat_participants cp ON c.id = cp.chat_id " +
-                "WHERE cp.user_id = ? " +
+                "WHERE cp.user_id = ? AND c.is_deleting = FALSE " +
                 "ORDER BY c.updated_at DESC"; // Order by most recent activity
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
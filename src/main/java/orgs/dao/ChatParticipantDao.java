@@ -5,30 +5,54 @@ import orgs.utils.DatabaseConnection;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 public class ChatParticipantDao {
+    private static final int BULK_CHUNK_SIZE = 500; // Rows per multi-row statement in the bulk add/remove
+    private final OutboxDao outboxDao = new OutboxDao();
 
     // Create (Add Chat Participants)
     public int createChatParticipant(ChatParticipant participant) {
         String sql = "INSERT INTO chat_participants (chat_id, user_id, role) VALUES (?, ?, ?)";
         int generatedId = -1;
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                if (!ChatDao.lockIfOpen(conn, participant.getChatId())) {
+                    throw new SQLException("Chat " + participant.getChatId() + " does not exist or is being deleted");
+                }
 
-            pstmt.setInt(1, participant.getChatId());
-            pstmt.setInt(2, participant.getUserId());
-            pstmt.setString(3, participant.getRole());
+                pstmt.setLong(1, participant.getChatId());
+                pstmt.setInt(2, participant.getUserId());
+                pstmt.setString(3, participant.getRole());
 
-            int affectedRows = pstmt.executeUpdate();
-            if (affectedRows > 0) {
-                try (ResultSet rs = pstmt.getGeneratedKeys()) {
-                    if (rs.next()) {
-                        generatedId = rs.getInt(1);
-                        participant.setId(generatedId);
+                int affectedRows = pstmt.executeUpdate();
+                if (affectedRows > 0) {
+                    try (ResultSet rs = pstmt.getGeneratedKeys()) {
+                        if (rs.next()) {
+                            generatedId = rs.getInt(1);
+                        }
                     }
                 }
+                if (generatedId != -1) {
+                    participant.setId(generatedId);
+                    recordParticipantsAdded(conn, participant.getChatId(), List.of(participant.getUserId()), participant.getRole());
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                generatedId = -1;
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
             }
         } catch (SQLException e) {
             System.err.println("Error creating chat participant: " + e.getMessage());
@@ -38,13 +62,13 @@ public class ChatParticipantDao {
     }
 
     // Read (Retrieve Chat Participants)
-    public List<ChatParticipant> getParticipantsByChatId(int chatId) {
+    public List<ChatParticipant> getParticipantsByChatId(long chatId) {
         List<ChatParticipant> participants = new ArrayList<>();
         String sql = "SELECT cp.*, u.username FROM chat_participants cp JOIN users u ON cp.user_id = u.id WHERE cp.chat_id = ?";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-            pstmt.setInt(1, chatId);
+            pstmt.setLong(1, chatId);
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
                     ChatParticipant participant = mapResultSetToChatParticipant(rs);
@@ -84,17 +108,28 @@ public class ChatParticipantDao {
     }
 
     // Update (Modify Participant Information)
-    public boolean updateParticipantRole(int chatId, int userId, String newRole) {
+    public boolean updateParticipantRole(long chatId, int userId, String newRole) {
         String sql = "UPDATE chat_participants SET role = ? WHERE chat_id = ? AND user_id = ?";
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-            pstmt.setString(1, newRole);
-            pstmt.setInt(2, chatId);
-            pstmt.setInt(3, userId);
+                pstmt.setString(1, newRole);
+                pstmt.setLong(2, chatId);
+                pstmt.setInt(3, userId);
 
-            int affectedRows = pstmt.executeUpdate();
-            return affectedRows > 0;
+                boolean updated = pstmt.executeUpdate() > 0;
+                if (updated) {
+                    recordRoleChanged(conn, chatId, userId, newRole);
+                }
+                conn.commit();
+                return updated;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
         } catch (SQLException e) {
             System.err.println("Error updating participant role: " + e.getMessage());
             e.printStackTrace();
@@ -102,13 +137,13 @@ public class ChatParticipantDao {
         }
     }
 
-    public boolean updateUnreadCount(int chatId, int userId, int newUnreadCount) {
+    public boolean updateUnreadCount(long chatId, int userId, int newUnreadCount) {
         String sql = "UPDATE chat_participants SET unread_count = ? WHERE chat_id = ? AND user_id = ?";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
             pstmt.setInt(1, newUnreadCount);
-            pstmt.setInt(2, chatId);
+            pstmt.setLong(2, chatId);
             pstmt.setInt(3, userId);
 
             int affectedRows = pstmt.executeUpdate();
@@ -120,13 +155,13 @@ public class ChatParticipantDao {
         }
     }
 
-    public boolean resetUnreadCountAndSetLastReadMessage(int chatId, int userId, int lastReadMessageId) {
+    public boolean resetUnreadCountAndSetLastReadMessage(long chatId, int userId, long lastReadMessageId) {
         String sql = "UPDATE chat_participants SET unread_count = 0, last_read_message_id = ? WHERE chat_id = ? AND user_id = ?";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-            pstmt.setInt(1, lastReadMessageId);
-            pstmt.setInt(2, chatId);
+            pstmt.setLong(1, lastReadMessageId);
+            pstmt.setLong(2, chatId);
             pstmt.setInt(3, userId);
 
             int affectedRows = pstmt.executeUpdate();
@@ -138,17 +173,93 @@ public class ChatParticipantDao {
         }
     }
 
+    // Update (Read watermarks: last_read_message_id forward and unread_count recounted, one statement per row, one batch)
+    // Returns the number of rows that moved forward, -1 on error. Chats whose messages are on another shard (see
+    // ShardRouter), and every chat on the message log (see MessageDao), are counted there and set one by one; a
+    // message sent between the count and the update can then be counted twice until the reader's next watermark
+    public int advanceReadWatermarks(Collection<ChatParticipant> watermarks) {
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = NamedQuery.PARTICIPANT_READ_WATERMARK_ADVANCE.prepare(conn)) {
+
+            int advanced = 0;
+            for (ChatParticipant watermark : watermarks) {
+                if (MessageDao.isLogBacked() || ShardRouter.shardOf(watermark.getChatId()) != ShardRouter.PRIMARY) {
+                    advanced += advanceReadWatermarkOnShard(conn, watermark);
+                    continue;
+                }
+                pstmt.setLong(1, watermark.getLastReadMessageId());
+                pstmt.setLong(2, watermark.getChatId());
+                pstmt.setLong(3, watermark.getLastReadMessageId());
+                pstmt.setLong(4, watermark.getChatId());
+                pstmt.setInt(5, watermark.getUserId());
+                pstmt.setLong(6, watermark.getLastReadMessageId());
+                pstmt.addBatch();
+            }
+            for (int count : pstmt.executeBatch()) {
+                advanced += Math.max(count, 0);
+            }
+            return advanced;
+        } catch (SQLException e) {
+            System.err.println("Error advancing read watermarks: " + e.getMessage());
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    private int advanceReadWatermarkOnShard(Connection conn, ChatParticipant watermark) throws SQLException {
+        long lastMessageId = 0;
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT last_message_id FROM chat_summaries WHERE chat_id = ?")) {
+            pstmt.setLong(1, watermark.getChatId());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    lastMessageId = rs.getLong(1);
+                }
+            }
+        }
+        long unread;
+        try (Connection shard = ShardRouter.getConnection(watermark.getChatId());
+             PreparedStatement pstmt = NamedQuery.MESSAGE_COUNT_IN_RANGE.prepare(shard)) {
+            pstmt.setLong(1, watermark.getChatId());
+            pstmt.setLong(2, watermark.getLastReadMessageId());
+            pstmt.setLong(3, lastMessageId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                unread = rs.getLong(1);
+            }
+        }
+        unread += MessageDao.countLogMessagesInRange(watermark.getChatId(), watermark.getLastReadMessageId(), lastMessageId);
+        try (PreparedStatement pstmt = NamedQuery.PARTICIPANT_READ_WATERMARK_SET.prepare(conn)) {
+            pstmt.setLong(1, watermark.getLastReadMessageId());
+            pstmt.setLong(2, unread);
+            pstmt.setLong(3, watermark.getChatId());
+            pstmt.setInt(4, watermark.getUserId());
+            pstmt.setLong(5, watermark.getLastReadMessageId());
+            return pstmt.executeUpdate();
+        }
+    }
+
 
     // Delete (Remove Chat Participants)
-    public boolean deleteChatParticipant(int chatId, int userId) {
+    public boolean deleteChatParticipant(long chatId, int userId) {
         String sql = "DELETE FROM chat_participants WHERE chat_id = ? AND user_id = ?";
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-            pstmt.setInt(1, chatId);
-            pstmt.setInt(2, userId);
-            int affectedRows = pstmt.executeUpdate();
-            return affectedRows > 0;
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+                pstmt.setLong(1, chatId);
+                pstmt.setInt(2, userId);
+                boolean deleted = pstmt.executeUpdate() > 0;
+                if (deleted) {
+                    recordParticipantsRemoved(conn, chatId, List.of(userId));
+                }
+                conn.commit();
+                return deleted;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
         } catch (SQLException e) {
             System.err.println("Error deleting chat participant: " + e.getMessage());
             e.printStackTrace();
@@ -160,13 +271,13 @@ public class ChatParticipantDao {
     private ChatParticipant mapResultSetToChatParticipant(ResultSet rs) throws SQLException {
         ChatParticipant participant = new ChatParticipant();
         participant.setId(rs.getInt("id"));
-        participant.setChatId(rs.getInt("chat_id"));
+        participant.setChatId(rs.getLong("chat_id"));
         participant.setUserId(rs.getInt("user_id"));
         participant.setRole(rs.getString("role"));
         participant.setUnreadCount(rs.getInt("unread_count"));
 
         // Handle nullable last_read_message_id
-        int lastReadMessageId = rs.getInt("last_read_message_id");
+        long lastReadMessageId = rs.getLong("last_read_message_id");
         if (rs.wasNull()) {
             participant.setLastReadMessageId(null);
         } else {
@@ -193,28 +304,216 @@ public class ChatParticipantDao {
     }
 
     // New method: isUserParticipant(chatId, currentUserId)
-    public boolean isUserParticipant(int chatId, int userId) throws SQLException {
-        String sql = "SELECT COUNT(*) FROM chat_participants WHERE chat_id = ? AND user_id = ?";
+    public boolean isUserParticipant(long chatId, int userId) throws SQLException {
+        return getParticipantRole(chatId, userId) != null;
+    }
+
+    // The user's role in the chat, or null if they are not a participant (one row off the (chat_id, user_id) key)
+    public String getParticipantRole(long chatId, int userId) throws SQLException {
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setInt(1, chatId);
+             PreparedStatement stmt = NamedQuery.PARTICIPANT_ROLE.prepare(conn)) {
+            stmt.setLong(1, chatId);
             stmt.setInt(2, userId);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
-                    return rs.getInt(1) > 0;
+                    return rs.getString(1);
+                }
+            }
+        }
+        return null;
+    }
+
+    // User ids only, for fanout (no need to materialize full participant rows per message)
+    public List<Integer> getParticipantUserIds(long chatId) {
+        List<Integer> userIds = new ArrayList<>();
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = NamedQuery.PARTICIPANT_USER_IDS.prepare(conn)) {
+
+            pstmt.setLong(1, chatId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    userIds.add(rs.getInt(1));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error getting participant user ids: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return userIds;
+    }
+
+    // Create (Many participants at once)
+    // Multi-row INSERT IGNORE per chunk, in a transaction with a lookup of who is already a member, so the
+    // caller can tell added users apart from existing ones. Returns the user ids that were added.
+    public Set<Integer> addParticipants(long chatId, List<Integer> userIds, String role) {
+        Set<Integer> added = new LinkedHashSet<>();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            for (int from = 0; from < userIds.size(); from += BULK_CHUNK_SIZE) {
+                List<Integer> chunk = userIds.subList(from, Math.min(from + BULK_CHUNK_SIZE, userIds.size()));
+                conn.setAutoCommit(false);
+                try {
+                    if (!ChatDao.lockIfOpen(conn, chatId)) {
+                        conn.rollback();
+                        break; // Deleted meanwhile; the users not added yet are reported as failed
+                    }
+                    Set<Integer> existing = getMembersAmong(conn, chatId, chunk);
+                    List<Integer> toInsert = new ArrayList<>(chunk.size());
+                    for (int userId : chunk) {
+                        if (!existing.contains(userId)) {
+                            toInsert.add(userId);
+                        }
+                    }
+                    if (!toInsert.isEmpty()) {
+                        String sql = "INSERT IGNORE INTO chat_participants (chat_id, user_id, role) VALUES " +
+                                String.join(", ", Collections.nCopies(toInsert.size(), "(?, ?, ?)"));
+                        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                            int index = 1;
+                            for (int userId : toInsert) {
+                                pstmt.setLong(index++, chatId);
+                                pstmt.setInt(index++, userId);
+                                pstmt.setString(index++, role);
+                            }
+                            pstmt.executeUpdate();
+                        }
+                        recordParticipantsAdded(conn, chatId, toInsert, role);
+                    }
+                    conn.commit();
+                    added.addAll(toInsert);
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                } finally {
+                    conn.setAutoCommit(true);
                 }
             }
+        } catch (SQLException e) {
+            System.err.println("Error adding chat participants: " + e.getMessage());
+            e.printStackTrace();
         }
-        return false;
+        return added;
+    }
+
+    // Delete (Many participants at once). Returns the user ids that were actually removed; the users of a chunk
+    // whose delete failed are added to failed, and the remaining chunks are still tried
+    public Set<Integer> removeParticipants(long chatId, List<Integer> userIds, Set<Integer> failed) {
+        Set<Integer> removed = new LinkedHashSet<>();
+        int from = 0;
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            for (; from < userIds.size(); from += BULK_CHUNK_SIZE) {
+                List<Integer> chunk = userIds.subList(from, Math.min(from + BULK_CHUNK_SIZE, userIds.size()));
+                try {
+                    removed.addAll(removeChunk(conn, chatId, chunk));
+                } catch (SQLException e) {
+                    System.err.println("Error removing chat participants: " + e.getMessage());
+                    e.printStackTrace();
+                    failed.addAll(chunk);
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error removing chat participants: " + e.getMessage()); // No connection
+            e.printStackTrace();
+            failed.addAll(userIds.subList(from, userIds.size()));
+        }
+        return removed;
+    }
+
+    // One chunk in one transaction; returns the members it removed
+    private Set<Integer> removeChunk(Connection conn, long chatId, List<Integer> chunk) throws SQLException {
+        conn.setAutoCommit(false);
+        try {
+            Set<Integer> existing = getMembersAmong(conn, chatId, chunk);
+            if (!existing.isEmpty()) {
+                String sql = "DELETE FROM chat_participants WHERE chat_id = ? AND user_id IN (" +
+                        String.join(", ", Collections.nCopies(existing.size(), "?")) + ")";
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    int index = 1;
+                    pstmt.setLong(index++, chatId);
+                    for (int userId : existing) {
+                        pstmt.setInt(index++, userId);
+                    }
+                    pstmt.executeUpdate();
+                }
+                recordParticipantsRemoved(conn, chatId, existing);
+            }
+            conn.commit();
+            return existing;
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    // Change events, recorded on the caller's connection inside its transaction
+    private void recordParticipantsAdded(Connection conn, long chatId, Collection<Integer> userIds, String role) throws SQLException {
+        Map<String, Object> change = new LinkedHashMap<>();
+        change.put("userIds", userIds);
+        change.put("role", role);
+        outboxDao.record(conn, "participants_added", chatId, null, change);
+    }
+
+    private void recordParticipantsRemoved(Connection conn, long chatId, Collection<Integer> userIds) throws SQLException {
+        outboxDao.record(conn, "participants_removed", chatId, null, Map.of("userIds", userIds));
+    }
+
+    private void recordRoleChanged(Connection conn, long chatId, int userId, String role) throws SQLException {
+        Map<String, Object> change = new LinkedHashMap<>();
+        change.put("userId", userId);
+        change.put("role", role);
+        outboxDao.record(conn, "participant_role_changed", chatId, (long) userId, change);
+    }
+
+    // Locks the matching rows, so the insert/delete that follows sees the same membership
+    private Set<Integer> getMembersAmong(Connection conn, long chatId, List<Integer> userIds) throws SQLException {
+        Set<Integer> members = new LinkedHashSet<>();
+        String sql = "SELECT user_id FROM chat_participants WHERE chat_id = ? AND user_id IN (" +
+                String.join(", ", Collections.nCopies(userIds.size(), "?")) + ") FOR UPDATE";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            int index = 1;
+            pstmt.setLong(index++, chatId);
+            for (int userId : userIds) {
+                pstmt.setInt(index++, userId);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    members.add(rs.getInt(1));
+                }
+            }
+        }
+        return members;
+    }
+
+    // Members of every chat the user belongs to, grouped by chat, in one query (warms the membership cache at login)
+    public Map<Long, List<Integer>> getCoParticipantsByChat(int userId) {
+        Map<Long, List<Integer>> membersByChat = new HashMap<>();
+        String sql = "SELECT cp.chat_id, cp.user_id FROM chat_participants cp " +
+                "JOIN chat_participants mine ON mine.chat_id = cp.chat_id " +
+                "JOIN chats c ON c.id = cp.chat_id " +
+                "WHERE mine.user_id = ? AND c.is_deleting = FALSE";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setInt(1, userId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    membersByChat.computeIfAbsent(rs.getLong(1), id -> new ArrayList<>()).add(rs.getInt(2));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error getting co-participants: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return membersByChat;
     }
 
     // New method: getChatParticipants(chatId)
-    public List<ChatParticipant> getChatParticipants(int chatId) throws SQLException {
+    public List<ChatParticipant> getChatParticipants(long chatId) throws SQLException {
         List<ChatParticipant> participants = new ArrayList<>();
         String sql = "SELECT id, chat_id, user_id, role, unread_count, last_read_message_id, joined_at FROM chat_participants WHERE chat_id = ?";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setInt(1, chatId);
+            stmt.setLong(1, chatId);
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
                     participants.add(mapResultSetToChatParticipant(rs));
@@ -258,27 +557,65 @@ public class ChatParticipantDao {
     // New method: updateChatParticipant(existingParticipant)
     public boolean updateChatParticipant(ChatParticipant participant) throws SQLException {
         String sql = "UPDATE chat_participants SET role = ?, unread_count = ?, last_read_message_id = ? WHERE id = ?";
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, participant.getRole());
-            stmt.setInt(2, participant.getUnreadCount());
-            if (participant.getLastReadMessageId() != null) {
-                stmt.setInt(3, participant.getLastReadMessageId());
-            } else {
-                stmt.setNull(3, java.sql.Types.INTEGER);
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setString(1, participant.getRole());
+                stmt.setInt(2, participant.getUnreadCount());
+                if (participant.getLastReadMessageId() != null) {
+                    stmt.setLong(3, participant.getLastReadMessageId());
+                } else {
+                    stmt.setNull(3, java.sql.Types.BIGINT);
+                }
+                stmt.setInt(4, participant.getId());
+                boolean updated = stmt.executeUpdate() > 0;
+                if (updated) {
+                    // Only the role is worth an event; read positions change far too often
+                    recordRoleChanged(conn, participant.getChatId(), participant.getUserId(), participant.getRole());
+                }
+                conn.commit();
+                return updated;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
             }
-            stmt.setInt(4, participant.getId());
-            return stmt.executeUpdate() > 0;
         }
     }
 
     // New method: deleteChatParticipant(participantId) - based on participant entry ID
     public boolean deleteChatParticipant(int participantId) throws SQLException {
         String sql = "DELETE FROM chat_participants WHERE id = ?";
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setInt(1, participantId);
-            return stmt.executeUpdate() > 0;
+        String lookupSql = "SELECT chat_id, user_id FROM chat_participants WHERE id = ? FOR UPDATE";
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement lookup = conn.prepareStatement(lookupSql);
+                 PreparedStatement stmt = conn.prepareStatement(sql)) {
+                lookup.setInt(1, participantId);
+                long chatId;
+                int userId;
+                try (ResultSet rs = lookup.executeQuery()) {
+                    if (!rs.next()) {
+                        conn.rollback();
+                        return false;
+                    }
+                    chatId = rs.getLong(1);
+                    userId = rs.getInt(2);
+                }
+                stmt.setInt(1, participantId);
+                boolean deleted = stmt.executeUpdate() > 0;
+                if (deleted) {
+                    recordParticipantsRemoved(conn, chatId, List.of(userId));
+                }
+                conn.commit();
+                return deleted;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
         }
     }
 
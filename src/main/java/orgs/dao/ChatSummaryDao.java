@@ -0,0 +1,163 @@
+package orgs.dao;
+
+import orgs.model.ChatSummary;
+import orgs.utils.DatabaseConnection;
+
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * chat_summaries: the last message of every chat, and through it the unread counts in chat_participants.
+ * Both are advanced from message_created events rather than in the sender's transaction, so sending into a
+ * large channel does not wait on one row update per member. The chat list itself is a single query.
+ */
+public class ChatSummaryDao {
+    public static final int SNIPPET_LENGTH = 100;
+
+    // Read (A user's chats with their last message and unread count, most recent activity first)
+    public List<ChatSummary> getChatSummaries(int userId, int limit) {
+        List<ChatSummary> summaries = new ArrayList<>();
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = NamedQuery.CHAT_SUMMARIES_FOR_USER.prepare(conn)) {
+
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    summaries.add(mapResultSetToChatSummary(rs));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error getting chat summaries: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return summaries;
+    }
+
+    // Update (A new message: summary, unread counts of the other members and chats.updated_at in one transaction)
+    // Events are delivered at least once and not always in id order. The summary only moves to a newer message;
+    // the unread counts take every message once, whatever its order, guarded by its chat_unread_counted row.
+    public boolean applyMessageCreated(long chatId, long messageId, int senderId, String snippet, LocalDateTime sentAt) {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                boolean newer = true;
+                try (PreparedStatement pstmt = NamedQuery.CHAT_SUMMARY_LAST_MESSAGE_ID.prepare(conn)) {
+                    pstmt.setLong(1, chatId);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        if (rs.next() && rs.getLong(1) >= messageId) {
+                            newer = false;
+                        }
+                    }
+                }
+                boolean uncounted;
+                try (PreparedStatement pstmt = NamedQuery.CHAT_UNREAD_COUNTED_INSERT.prepare(conn)) {
+                    pstmt.setLong(1, messageId);
+                    pstmt.setLong(2, chatId);
+                    uncounted = pstmt.executeUpdate() > 0;
+                }
+                if (uncounted) {
+                    try (PreparedStatement pstmt = NamedQuery.PARTICIPANT_UNREAD_INCREMENT.prepare(conn)) {
+                        pstmt.setLong(1, chatId);
+                        pstmt.setInt(2, senderId);
+                        pstmt.setLong(3, messageId);
+                        pstmt.executeUpdate();
+                    }
+                }
+                if (!newer) {
+                    conn.commit();
+                    return true;
+                }
+                try (PreparedStatement pstmt = NamedQuery.CHAT_SUMMARY_UPSERT.prepare(conn)) {
+                    pstmt.setLong(1, chatId);
+                    pstmt.setLong(2, messageId);
+                    pstmt.setInt(3, senderId);
+                    pstmt.setString(4, snippet);
+                    pstmt.setTimestamp(5, Timestamp.valueOf(sentAt));
+                    pstmt.executeUpdate();
+                }
+                try (PreparedStatement pstmt = NamedQuery.CHAT_TOUCH.prepare(conn)) {
+                    pstmt.setTimestamp(1, Timestamp.valueOf(sentAt));
+                    pstmt.setLong(2, chatId);
+                    pstmt.executeUpdate();
+                }
+                conn.commit();
+                return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.err.println("Error applying new message to chat summary: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Delete (Unread markers older than the cutoff; their events are long published)
+    public int deleteUnreadCountedBefore(Timestamp cutoff) {
+        String sql = "DELETE FROM chat_unread_counted WHERE counted_at < ?";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setTimestamp(1, cutoff);
+            return pstmt.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println("Error deleting unread markers: " + e.getMessage());
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    // Update (An edit or delete; only matters when it is the chat's last message)
+    public boolean applyMessageChanged(long chatId, long messageId, String snippet, boolean deleted) {
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = NamedQuery.CHAT_SUMMARY_SNIPPET_UPDATE.prepare(conn)) {
+
+            pstmt.setString(1, snippet);
+            pstmt.setBoolean(2, deleted);
+            pstmt.setLong(3, chatId);
+            pstmt.setLong(4, messageId);
+            pstmt.executeUpdate();
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Error applying message change to chat summary: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // What the chat list shows of a message: the start of its text, or its type when it has none
+    public static String snippetOf(String content, String messageType) {
+        if (content == null || content.isEmpty()) {
+            return "[" + messageType + "]";
+        }
+        return content.length() > SNIPPET_LENGTH ? content.substring(0, SNIPPET_LENGTH) : content;
+    }
+
+    // Helper method to map ResultSet to ChatSummary object
+    private ChatSummary mapResultSetToChatSummary(ResultSet rs) throws SQLException {
+        ChatSummary summary = new ChatSummary();
+        summary.setChatId(rs.getLong("id"));
+        summary.setChatType(rs.getString("chat_type"));
+        summary.setChatName(rs.getString("chat_name"));
+        summary.setChatPictureUrl(rs.getString("chat_picture_url"));
+        summary.setUnreadCount(rs.getInt("unread_count"));
+        summary.setLastReadMessageId(rs.getLong("last_read_message_id"));
+        if (rs.wasNull()) summary.setLastReadMessageId(null);
+        summary.setLastMessageId(rs.getLong("last_message_id"));
+        if (rs.wasNull()) summary.setLastMessageId(null); // No message in the chat yet
+        summary.setLastSenderId(rs.getInt("last_sender_id"));
+        if (rs.wasNull()) summary.setLastSenderId(null);
+        summary.setLastSenderUsername(rs.getString("username"));
+        summary.setLastMessageSnippet(rs.getString("last_message_snippet"));
+        summary.setLastMessageDeleted(rs.getBoolean("last_message_deleted"));
+        Timestamp lastMessageAt = rs.getTimestamp("last_message_at");
+        summary.setLastMessageAt(lastMessageAt != null ? lastMessageAt.toLocalDateTime() : null);
+        return summary;
+    }
+}
@@ -0,0 +1,183 @@
+package orgs.dao;
+
+import orgs.model.DeletionJob;
+import orgs.utils.DatabaseConnection;
+import orgs.utils.Metrics;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * deletion_jobs: chats and users marked is_deleting whose rows are still being removed. Each step deletes (or
+ * detaches) the rows of one table that reference the entity, at most a batch per statement in id order, so no
+ * statement holds locks for long; the ON DELETE CASCADEs left for the final delete only cover small tables.
+ * Progress needs no cursor: rows a finished batch removed are gone, so a step simply runs again after a restart.
+ * The steps on messages run on every shard (see ShardRouter): forwards and a user's messages can be anywhere.
+ * They are refused on a shard while a bucket on it is frozen by a move, and the batch is retried afterwards.
+ */
+public class DeletionJobDao {
+    public static final String CHAT = "chat";
+    public static final String USER = "user";
+
+    private static final String MESSAGES = "messages";
+    private static final String LATE_MESSAGES = "late_messages";
+    private static final String FORWARDS = "forwards";
+
+    // Steps in order; each statement takes the entity id and the batch size
+    private static final List<Map.Entry<String, String>> CHAT_STEPS = List.of(
+            Map.entry(MESSAGES, "DELETE FROM messages WHERE chat_id = ? ORDER BY id LIMIT ?"),
+            Map.entry(FORWARDS, "UPDATE messages SET forwarded_from_chat_id = NULL WHERE forwarded_from_chat_id = ? ORDER BY id LIMIT ?"),
+            Map.entry("participants", "DELETE FROM chat_participants WHERE chat_id = ? ORDER BY id LIMIT ?"),
+            // Once no one is a member any more: anything a send that passed its checks before the mark still wrote
+            Map.entry(LATE_MESSAGES, "DELETE FROM messages WHERE chat_id = ? ORDER BY id LIMIT ?"),
+            Map.entry("notifications", "UPDATE notifications SET related_chat_id = NULL WHERE related_chat_id = ? ORDER BY id LIMIT ?"));
+    private static final List<Map.Entry<String, String>> USER_STEPS = List.of(
+            Map.entry(MESSAGES, "DELETE FROM messages WHERE sender_id = ? ORDER BY id LIMIT ?"),
+            Map.entry(FORWARDS, "UPDATE messages SET forwarded_from_user_id = NULL WHERE forwarded_from_user_id = ? ORDER BY id LIMIT ?"),
+            Map.entry("participants", "DELETE FROM chat_participants WHERE user_id = ? ORDER BY id LIMIT ?"),
+            Map.entry("notifications", "DELETE FROM notifications WHERE recipient_user_id = ? ORDER BY id LIMIT ?"),
+            Map.entry("updates", "DELETE FROM user_updates WHERE user_id = ? ORDER BY id LIMIT ?"));
+
+    // Create (A job for a chat or user the caller has just marked, inside the caller's transaction)
+    public void enqueue(Connection conn, String entityType, long entityId) throws SQLException {
+        String sql = "INSERT INTO deletion_jobs (entity_type, entity_id, step) VALUES (?, ?, ?)";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, entityType);
+            pstmt.setLong(2, entityId);
+            pstmt.setString(3, stepsOf(entityType).get(0).getKey());
+            pstmt.executeUpdate();
+        }
+    }
+
+    // Read (Unfinished jobs, oldest first, so a user's own chats are gone before the user row is deleted)
+    public List<DeletionJob> getPendingJobs(int limit) {
+        List<DeletionJob> jobs = new ArrayList<>();
+        String sql = "SELECT * FROM deletion_jobs ORDER BY id LIMIT ?";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setInt(1, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    jobs.add(mapResultSetToDeletionJob(rs));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error getting deletion jobs: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return jobs;
+    }
+
+    // Delete (One batch of the job's current step, per shard for the message steps; returns the most rows any one
+    // shard affected, so a full batch on any shard means the step goes on, -1 on error)
+    public int runBatch(DeletionJob job, int batchSize) {
+        String sql = statementOf(job.getEntityType(), job.getStep());
+        boolean onMessages = MESSAGES.equals(job.getStep()) || LATE_MESSAGES.equals(job.getStep()) || FORWARDS.equals(job.getStep());
+        int shards = onMessages ? ShardRouter.shardCount() : 1;
+        int mostAffected = 0;
+        long total = 0;
+        try {
+            for (int shard = 0; shard < shards; shard++) {
+                try (Connection conn = onMessages ? ShardRouter.getShardWriteConnection(shard) : DatabaseConnection.getConnection();
+                     PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+                    pstmt.setLong(1, job.getEntityId());
+                    pstmt.setInt(2, batchSize);
+                    int affected = pstmt.executeUpdate();
+                    mostAffected = Math.max(mostAffected, affected);
+                    total += affected;
+                }
+            }
+            Metrics.add("deletion.rows", total);
+            return mostAffected;
+        } catch (SQLException e) {
+            System.err.println("Error running deletion step " + job.getStep() + " for " + job.getEntityType() + " " + job.getEntityId() + ": " + e.getMessage());
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    // After the last step only finish() is left
+    public static boolean isLastStep(DeletionJob job) {
+        List<Map.Entry<String, String>> steps = stepsOf(job.getEntityType());
+        return indexOf(steps, job.getStep()) == steps.size() - 1;
+    }
+
+    // Update (Move the job to the step after its current one, which must not be the last)
+    public boolean advance(DeletionJob job) {
+        List<Map.Entry<String, String>> steps = stepsOf(job.getEntityType());
+        int next = indexOf(steps, job.getStep()) + 1;
+        String sql = "UPDATE deletion_jobs SET step = ? WHERE id = ?";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setString(1, steps.get(next).getKey());
+            pstmt.setInt(2, job.getId());
+            pstmt.executeUpdate();
+            job.setStep(steps.get(next).getKey());
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Error advancing deletion job: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Delete (The chat or user row itself and the job, in one transaction, once every step is done)
+    public boolean finish(DeletionJob job) {
+        String sql = CHAT.equals(job.getEntityType()) ? "DELETE FROM chats WHERE id = ?" : "DELETE FROM users WHERE id = ?";
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql);
+                 PreparedStatement jobStmt = conn.prepareStatement("DELETE FROM deletion_jobs WHERE id = ?")) {
+                pstmt.setLong(1, job.getEntityId());
+                pstmt.executeUpdate();
+                jobStmt.setInt(1, job.getId());
+                jobStmt.executeUpdate();
+                conn.commit();
+                return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.err.println("Error finishing deletion of " + job.getEntityType() + " " + job.getEntityId() + ": " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private static List<Map.Entry<String, String>> stepsOf(String entityType) {
+        return CHAT.equals(entityType) ? CHAT_STEPS : USER_STEPS;
+    }
+
+    private static String statementOf(String entityType, String step) {
+        List<Map.Entry<String, String>> steps = stepsOf(entityType);
+        return steps.get(indexOf(steps, step)).getValue();
+    }
+
+    private static int indexOf(List<Map.Entry<String, String>> steps, String step) {
+        for (int i = 0; i < steps.size(); i++) {
+            if (steps.get(i).getKey().equals(step)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown deletion step: " + step);
+    }
+
+    // Helper method to map ResultSet to DeletionJob object
+    private DeletionJob mapResultSetToDeletionJob(ResultSet rs) throws SQLException {
+        DeletionJob job = new DeletionJob();
+        job.setId(rs.getInt("id"));
+        job.setEntityType(rs.getString("entity_type"));
+        job.setEntityId(rs.getLong("entity_id"));
+        job.setStep(rs.getString("step"));
+        job.setCreatedAt(rs.getTimestamp("created_at").toLocalDateTime());
+        return job;
+    }
+}
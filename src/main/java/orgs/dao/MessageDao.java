@@ -1,71 +1,163 @@
 package orgs.dao;
 
 import orgs.model.*;
+import orgs.storage.LogMessageStore;
 import orgs.utils.DatabaseConnection;
+import orgs.utils.SnowflakeIdGenerator;
 
+import java.io.IOException;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
 
 
 public class MessageDao {
+    // Shared by every MessageDao, so all reads see the views that are still buffered
+    private static final ViewCountBuffer VIEW_COUNTS = new ViewCountBuffer();
+    private static final int TIMELINE_REFRESH_CHUNK = 1000;
+    // Set with -Dtusal.messageStore=log: new messages, and changes to them, go to this node's append-only log
+    // instead of the messages table. Messages stored in MySQL before the switch are still read from there
+    private static final LogMessageStore LOG = LogMessageStore.openIfConfigured();
+    private final OutboxDao outboxDao = new OutboxDao();
 
     // Create (Send a Message)
-    public int createMessage(Message message) {
-        String sql = "INSERT INTO messages (chat_id, sender_id, content, message_type, media_id, replied_to_message_id, forwarded_from_user_id, forwarded_from_chat_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
-        int generatedId = -1;
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-
-            pstmt.setInt(1, message.getChatId());
-            pstmt.setInt(2, message.getSenderId());
-            pstmt.setString(3, message.getContent());
-            pstmt.setString(4, message.getMessageType());
-            pstmt.setObject(5, message.getMediaId(), Types.INTEGER); // Handle nullable Integer
-            pstmt.setObject(6, message.getRepliedToMessageId(), Types.INTEGER); // Handle nullable Integer
-            pstmt.setObject(7, message.getForwardedFromUserId(), Types.INTEGER); // Handle nullable Integer
-            pstmt.setObject(8, message.getForwardedFromChatId(), Types.INTEGER); // Handle nullable Integer
-
-            int affectedRows = pstmt.executeUpdate();
-            if (affectedRows > 0) {
-                try (ResultSet rs = pstmt.getGeneratedKeys()) {
-                    if (rs.next()) {
-                        generatedId = rs.getInt(1);
-                        message.setId(generatedId);
-                    }
+    // The insert and its message_created event commit together, on the chat's shard. The row also gets the
+    // sender's display name and the reply preview, so history pages never join users or the replied-to message.
+    // The name is read under a share lock on the main database that is held until the insert has committed,
+    // also when the message goes to another shard; so is the chat row, so a chat being deleted takes no messages
+    public long createMessage(Message message) {
+        if (LOG != null) {
+            // For the push; reads look the name up again (see withSenderNames), the log cannot follow renames
+            message.setSenderDisplayName(lookUpSenderDisplayName(message.getSenderId()));
+            return LOG.create(message);
+        }
+        long id = SnowflakeIdGenerator.NODE.nextId(); // Known before the insert: no generated-key round trip
+        try (Connection conn = ShardRouter.getWriteConnection(message.getChatId());
+             Connection users = ShardRouter.shardOf(message.getChatId()) == ShardRouter.PRIMARY ? conn : DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            users.setAutoCommit(false); // Returned to the pool rolled back, which releases the lock
+            try (PreparedStatement pstmt = NamedQuery.MESSAGE_INSERT.prepare(conn)) {
+                if (!ChatDao.lockIfOpen(users, message.getChatId())) {
+                    throw new SQLException("Chat " + message.getChatId() + " does not exist or is being deleted");
                 }
+                message.setSenderDisplayName(getSenderDisplayName(users, message.getSenderId()));
+                message.setReplySnippet(message.getRepliedToMessageId() != null ? getReplySnippet(conn, message.getRepliedToMessageId()) : null);
+
+                pstmt.setLong(1, id);
+                pstmt.setLong(2, message.getChatId());
+                pstmt.setInt(3, message.getSenderId());
+                pstmt.setString(4, message.getContent());
+                pstmt.setString(5, message.getMessageType());
+                pstmt.setObject(6, message.getMediaId(), Types.INTEGER); // Handle nullable Integer
+                pstmt.setObject(7, message.getRepliedToMessageId(), Types.BIGINT); // Handle nullable Long
+                pstmt.setObject(8, message.getForwardedFromUserId(), Types.INTEGER); // Handle nullable Integer
+                pstmt.setObject(9, message.getForwardedFromChatId(), Types.BIGINT); // Handle nullable Long
+                pstmt.setString(10, message.getClientMessageId()); // Nullable
+                pstmt.setString(11, message.getSenderDisplayName());
+                pstmt.setString(12, message.getReplySnippet());
+                pstmt.executeUpdate();
+
+                message.setId(id);
+                outboxDao.record(conn, "message_created", message.getChatId(), id, message);
+                conn.commit();
+                return id;
+            } catch (SQLException e) {
+                conn.rollback();
+                message.setId(0);
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLIntegrityConstraintViolationException e) {
+            if (message.getClientMessageId() == null) {
+                System.err.println("Error creating message: " + e.getMessage());
+                e.printStackTrace();
             }
+            // Otherwise a retried send; the caller looks up the original with getMessageIdByClientMessageId
         } catch (SQLException e) {
             System.err.println("Error creating message: " + e.getMessage());
             e.printStackTrace();
         }
-        return generatedId;
+        return -1;
+    }
+
+    // Read (Sender of a message, -1 unless the message exists and belongs to the chat)
+    public int getSenderIdInChat(long messageId, long chatId) {
+        if (inLog(messageId)) {
+            Message message = LOG.get(messageId);
+            return message != null && message.getChatId() == chatId ? message.getSenderId() : -1;
+        }
+        try (Connection conn = ShardRouter.getConnection(chatId);
+             PreparedStatement pstmt = NamedQuery.MESSAGE_SENDER_IN_CHAT.prepare(conn)) {
+
+            pstmt.setLong(1, messageId);
+            pstmt.setLong(2, chatId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error getting message sender: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return -1;
+    }
+
+    // Read (The message a sender already stored under a client message id, -1 if none)
+    public long getMessageIdByClientMessageId(int senderId, String clientMessageId) {
+        if (LOG != null) {
+            long id = LOG.getMessageIdByClientMessageId(senderId, clientMessageId);
+            if (id != -1) {
+                return id;
+            }
+        }
+        // Only asked after a rejected retry, so it may look at every shard
+        try {
+            for (int shard = 0; shard < ShardRouter.shardCount(); shard++) {
+                try (Connection conn = ShardRouter.getShardConnection(shard);
+                     PreparedStatement pstmt = NamedQuery.MESSAGE_ID_BY_CLIENT_MESSAGE_ID.prepare(conn)) {
+
+                    pstmt.setInt(1, senderId);
+                    pstmt.setString(2, clientMessageId);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        if (rs.next()) {
+                            return rs.getLong("id");
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error getting message by client message id: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return -1;
     }
 
     // Read (Retrieve Messages)
-    public List<Message> getMessagesByChatId(int chatId, int limit) {
-        List<Message> messages = new ArrayList<>();
+    public List<Message> getMessagesByChatId(long chatId, int limit) {
+        List<Message> messages = new ArrayList<>(Math.min(limit, 256));
         // Note: ORDER BY sent_at DESC for most recent first as suggested in SQL, adjusted to ASC for chronological if getting older messages
         // Changed to ASC for typical chat history loading (older to newer)
-        String sql = "SELECT m.*, u.username AS sender_username, " +
-                "r_m.content AS replied_to_content, r_u.username AS replied_to_sender_username " +
-                "FROM messages m " +
-                "JOIN users u ON m.sender_id = u.id " +
-                "LEFT JOIN messages r_m ON m.replied_to_message_id = r_m.id " +
-                "LEFT JOIN users r_u ON r_m.sender_id = r_u.id " +
-                "WHERE m.chat_id = ? AND m.is_deleted = FALSE " +
-                "ORDER BY m.sent_at  " + // Most recent first for initial load
-                "LIMIT ?";
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        // The sender/reply joins were never read by the mapper, so the list row no longer pays for them
+        try (Connection conn = ShardRouter.getConnection(chatId);
+             PreparedStatement pstmt = NamedQuery.MESSAGE_LIST_ROWS.prepare(conn)) {
 
-            pstmt.setInt(1, chatId);
+            pstmt.setLong(1, chatId);
             pstmt.setInt(2, limit);
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
-                    messages.add(mapResultSetToMessage(rs));
+                    messages.add(mapMessageListRow(rs, chatId));
                 }
             }
         } catch (SQLException e) {
@@ -75,42 +167,60 @@ public class MessageDao {
         return messages;
     }
 
-    public List<Message> getMessagesAfterId(int chatId, int lastMessageId, int limit) {
-        List<Message> messages = new ArrayList<>();
-        String sql = "SELECT m.* FROM messages m WHERE m.chat_id = ? AND m.id > ? AND m.is_deleted = FALSE ORDER BY m.sent_at ASC LIMIT ?";
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+    public List<Message> getMessagesAfterId(long chatId, long lastMessageId, int limit) {
+        List<Message> messages = new ArrayList<>(Math.min(limit, 256));
+        if (inLog(lastMessageId + 1)) {
+            return withSenderNames(withPendingViews(LOG.getMessagesAfterId(chatId, lastMessageId, limit)));
+        }
+        try (Connection conn = ShardRouter.getConnection(chatId);
+             PreparedStatement pstmt = NamedQuery.MESSAGE_LIST_ROWS_AFTER_ID.prepare(conn)) {
 
-            pstmt.setInt(1, chatId);
-            pstmt.setInt(2, lastMessageId);
+            pstmt.setLong(1, chatId);
+            pstmt.setLong(2, lastMessageId);
             pstmt.setInt(3, limit);
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
-                    messages.add(mapResultSetToMessage(rs));
+                    messages.add(mapMessageListRow(rs, chatId));
                 }
             }
         } catch (SQLException e) {
             System.err.println("Error getting messages after ID: " + e.getMessage());
             e.printStackTrace();
         }
+        if (LOG != null && messages.size() < limit) {
+            // Rows from before the switch to the log come first, the log continues after them
+            long lastId = messages.isEmpty() ? lastMessageId : messages.get(messages.size() - 1).getId();
+            messages.addAll(withSenderNames(withPendingViews(LOG.getMessagesAfterId(chatId, Math.max(lastId, LOG.getFirstId() - 1), limit - messages.size()))));
+        }
         return messages;
     }
 
-    public List<Message> getUnreadMessagesForUserInChat(int userId, int chatId) {
+    // The watermark is in the main database and the messages on the chat's shard, so this takes two queries
+    public List<Message> getUnreadMessagesForUserInChat(int userId, long chatId) {
         List<Message> messages = new ArrayList<>();
+        String watermarkSql = "SELECT COALESCE(last_read_message_id, 0) FROM chat_participants WHERE user_id = ? AND chat_id = ?";
         String sql = "SELECT m.* " +
                 "FROM messages m " +
-                "JOIN chat_participants cp ON m.chat_id = cp.chat_id " +
-                "WHERE cp.user_id = ? " +
-                "  AND m.chat_id = ? " +
-                "  AND (m.id > cp.last_read_message_id OR cp.last_read_message_id IS NULL) " +
+                "WHERE m.chat_id = ? " +
+                "  AND m.id > ? " +
                 "  AND m.is_deleted = FALSE " +
                 "ORDER BY m.sent_at ASC";
-        try (Connection conn = DatabaseConnection.getConnection();
+        try (Connection primary = DatabaseConnection.getConnection();
+             PreparedStatement watermarkStmt = primary.prepareStatement(watermarkSql);
+             Connection conn = ShardRouter.getConnection(chatId);
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-            pstmt.setInt(1, userId);
-            pstmt.setInt(2, chatId);
+            long lastReadId;
+            watermarkStmt.setInt(1, userId);
+            watermarkStmt.setLong(2, chatId);
+            try (ResultSet rs = watermarkStmt.executeQuery()) {
+                if (!rs.next()) {
+                    return messages; // Not a participant
+                }
+                lastReadId = rs.getLong(1);
+            }
+            pstmt.setLong(1, chatId);
+            pstmt.setLong(2, lastReadId);
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
                     messages.add(mapResultSetToMessage(rs));
@@ -126,12 +236,16 @@ public class MessageDao {
     public List<Message> getAllUndeletedMessages() {
         List<Message> messages = new ArrayList<>();
         String sql = "SELECT m.* FROM messages m WHERE m.is_deleted = FALSE";
-        try (Connection conn = DatabaseConnection.getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-
-            while (rs.next()) {
-                messages.add(mapResultSetToMessage(rs));
+        try {
+            for (int shard = 0; shard < ShardRouter.shardCount(); shard++) {
+                try (Connection conn = ShardRouter.getShardConnection(shard);
+                     Statement stmt = conn.createStatement();
+                     ResultSet rs = stmt.executeQuery(sql)) {
+
+                    while (rs.next()) {
+                        messages.add(mapResultSetToMessage(rs));
+                    }
+                }
             }
         } catch (SQLException e) {
             System.err.println("Error getting all undeleted messages: " + e.getMessage());
@@ -142,15 +256,37 @@ public class MessageDao {
 
 
     // Update (Modify Message Information)
-    public boolean editMessage(int messageId, String newContent) {
+    public boolean editMessage(long messageId, String newContent) {
+        return editMessage(messageId, newContent, LocalDateTime.now());
+    }
+
+    public boolean editMessage(long messageId, String newContent, LocalDateTime editedAt) {
+        if (inLog(messageId)) {
+            return LOG.edit(messageId, newContent, editedAt);
+        }
         String sql = "UPDATE messages SET content = ?, edited_at = ? WHERE id = ?";
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, newContent);
-            pstmt.setTimestamp(2, Timestamp.valueOf(LocalDateTime.now()));
-            pstmt.setInt(3, messageId);
-            int affectedRows = pstmt.executeUpdate();
-            return affectedRows > 0;
+        try (Connection conn = getConnectionForMessage(messageId, true)) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setString(1, newContent);
+                pstmt.setTimestamp(2, Timestamp.valueOf(editedAt));
+                pstmt.setLong(3, messageId);
+                boolean updated = pstmt.executeUpdate() > 0;
+                if (updated) {
+                    Map<String, Object> edit = new LinkedHashMap<>();
+                    edit.put("messageId", messageId);
+                    edit.put("content", newContent);
+                    edit.put("editedAt", editedAt);
+                    outboxDao.record(conn, "message_edited", getChatIdOfMessage(conn, messageId), messageId, edit);
+                }
+                conn.commit();
+                return updated;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
         } catch (SQLException e) {
             System.err.println("Error editing message: " + e.getMessage());
             e.printStackTrace();
@@ -158,13 +294,27 @@ public class MessageDao {
         }
     }
 
-    public boolean softDeleteMessage(int messageId) {
-        String sql = "UPDATE messages SET is_deleted = TRUE WHERE id = ?";
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setInt(1, messageId);
-            int affectedRows = pstmt.executeUpdate();
-            return affectedRows > 0;
+    public boolean softDeleteMessage(long messageId) {
+        if (inLog(messageId)) {
+            return LOG.delete(messageId);
+        }
+        String sql = "UPDATE messages SET is_deleted = TRUE, deleted_at = COALESCE(deleted_at, CURRENT_TIMESTAMP) WHERE id = ?";
+        try (Connection conn = getConnectionForMessage(messageId, true)) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setLong(1, messageId);
+                boolean updated = pstmt.executeUpdate() > 0;
+                if (updated) {
+                    outboxDao.record(conn, "message_deleted", getChatIdOfMessage(conn, messageId), messageId, Map.of("messageId", messageId));
+                }
+                conn.commit();
+                return updated;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
         } catch (SQLException e) {
             System.err.println("Error soft deleting message: " + e.getMessage());
             e.printStackTrace();
@@ -172,40 +322,463 @@ public class MessageDao {
         }
     }
 
-    public boolean incrementViewCount(int messageId) {
-        String sql = "UPDATE messages SET view_count = view_count + 1 WHERE id = ?";
-        try (Connection conn = DatabaseConnection.getConnection();
+    // Buffered in memory with the message's chat; the row is updated by the next flushViewCounts()
+    public boolean incrementViewCount(long messageId, long chatId) {
+        VIEW_COUNTS.increment(messageId, chatId);
+        return true;
+    }
+
+    // Update (Write the buffered views, one view_count = view_count + delta per message, in one batch per shard;
+    // messages in the message log get a new version there)
+    // Called periodically by the server; returns the number of messages updated. Each view goes to the shard of its
+    // chat only. Views of a chat whose bucket is frozen by a move are kept until it switches (the move copies the
+    // counts while frozen), and so are the views of a shard that fails
+    public int flushViewCounts() {
+        Map<Long, Long> deltas = VIEW_COUNTS.flush();
+        if (deltas.isEmpty()) {
+            return 0;
+        }
+        int logApplied = 0;
+        if (LOG != null) {
+            // Messages in the log get a new version with the count; the rest go on to the shards
+            Map<Long, Long> logDeltas = new TreeMap<>();
+            deltas.forEach((messageId, delta) -> {
+                if (inLog(messageId)) {
+                    logDeltas.put(messageId, delta);
+                }
+            });
+            if (!logDeltas.isEmpty()) {
+                Map<Long, Long> unwritten = LOG.addViews(logDeltas);
+                Map<Long, Long> done = new HashMap<>(logDeltas); // Views of messages no longer in the log are dropped, as below
+                done.keySet().removeAll(unwritten.keySet());
+                VIEW_COUNTS.committed(done);
+                VIEW_COUNTS.restore(unwritten); // Retried by the next flush
+                logApplied = done.size();
+                deltas = new TreeMap<>(deltas);
+                deltas.keySet().removeAll(logDeltas.keySet());
+            }
+        }
+        Map<Integer, Map<Long, Long>> byShard = new TreeMap<>();
+        Map<Long, Long> retry = new HashMap<>();
+        Map<Long, Long> dropped = new HashMap<>();
+        for (Map.Entry<Long, Long> delta : deltas.entrySet()) {
+            Long chatId = VIEW_COUNTS.chatOf(delta.getKey());
+            try {
+                long resolved = chatId != null ? chatId : findChatIdOfMessage(delta.getKey());
+                if (resolved == -1) {
+                    dropped.put(delta.getKey(), delta.getValue()); // The message no longer exists anywhere
+                } else if (ShardRouter.isFrozen(resolved)) {
+                    retry.put(delta.getKey(), delta.getValue());
+                } else {
+                    byShard.computeIfAbsent(ShardRouter.shardOf(resolved), shard -> new TreeMap<>()).put(delta.getKey(), delta.getValue());
+                }
+            } catch (SQLException e) {
+                retry.put(delta.getKey(), delta.getValue()); // No usable shard map, or a shard is down
+            }
+        }
+        int applied = 0;
+        for (Map.Entry<Integer, Map<Long, Long>> shardDeltas : byShard.entrySet()) {
+            int shard = shardDeltas.getKey();
+            try (Connection conn = ShardRouter.getShardConnection(shard);
+                 PreparedStatement pstmt = NamedQuery.MESSAGE_VIEW_COUNT_ADD.prepare(conn)) {
+
+                for (Map.Entry<Long, Long> delta : shardDeltas.getValue().entrySet()) {
+                    pstmt.setLong(1, delta.getValue());
+                    pstmt.setLong(2, delta.getKey());
+                    pstmt.addBatch();
+                }
+                for (int count : pstmt.executeBatch()) {
+                    if (count != 0) {
+                        applied++;
+                    }
+                }
+                dropped.putAll(shardDeltas.getValue()); // Views of messages deleted since are dropped with the rest
+            } catch (SQLException e) {
+                retry.putAll(shardDeltas.getValue());
+                System.err.println("Error flushing view counts to shard " + shard + ": " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+        VIEW_COUNTS.committed(dropped);
+        VIEW_COUNTS.restore(retry); // Retried by the next flush
+        return logApplied + applied;
+    }
+
+    // Delete (Remove a Message) - Hard delete for soft-deleted messages
+    public boolean hardDeleteSoftDeletedMessage(long messageId) {
+        String sql = "DELETE FROM messages WHERE id = ? AND is_deleted = TRUE";
+        try (Connection conn = getConnectionForMessage(messageId, true)) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                Long chatId = getChatIdOfMessage(conn, messageId); // Read before the row is gone
+                pstmt.setLong(1, messageId);
+                boolean deleted = pstmt.executeUpdate() > 0;
+                if (deleted) {
+                    outboxDao.record(conn, "message_purged", chatId, messageId, null);
+                }
+                conn.commit();
+                return deleted;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.err.println("Error hard deleting soft-deleted message: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Delete (Soft-deleted messages of a shard in the id range (afterId, upToId] deleted before the cutoff)
+    // Returns the number of rows removed, -1 on error. The range keeps each statement to one bounded walk of
+    // the primary key; no events are recorded, members already got the tombstone from message_deleted
+    public int purgeSoftDeletedMessages(int shard, long afterId, long upToId, Timestamp deletedBefore) {
+        String sql = "DELETE FROM messages WHERE id > ? AND id <= ? AND is_deleted = TRUE AND deleted_at < ?";
+        try (Connection conn = ShardRouter.getShardWriteConnection(shard); // Not while a bucket on the shard is frozen
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setLong(1, afterId);
+            pstmt.setLong(2, upToId);
+            pstmt.setTimestamp(3, deletedBefore);
+            return pstmt.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println("Error purging soft-deleted messages: " + e.getMessage());
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    // Read (The id n rows after afterId in primary key order, -1 when there are fewer rows). Errors are thrown:
+    // the purger reads -1 as "delete up to the end"
+    public long getNthMessageIdAfter(int shard, long afterId, int n) throws SQLException {
+        String sql = "SELECT id FROM messages WHERE id > ? ORDER BY id LIMIT 1 OFFSET ?";
+        try (Connection conn = ShardRouter.getShardConnection(shard);
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setInt(1, messageId);
-            int affectedRows = pstmt.executeUpdate();
-            return affectedRows > 0;
+
+            pstmt.setLong(1, afterId);
+            pstmt.setInt(2, n - 1);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : -1;
+            }
+        }
+    }
+
+    // Read (Highest id in a shard's messages, 0 when empty, -1 on error)
+    public long getMaxMessageId(int shard) {
+        String sql = "SELECT COALESCE(MAX(id), 0) FROM messages";
+        try (Connection conn = ShardRouter.getShardConnection(shard);
+             PreparedStatement pstmt = conn.prepareStatement(sql);
+             ResultSet rs = pstmt.executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        } catch (SQLException e) {
+            System.err.println("Error getting max message id: " + e.getMessage());
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    // Read (Chat of a message, -1 if there is no such message)
+    public long getChatIdOfMessage(long messageId) {
+        if (inLog(messageId)) {
+            Message message = LOG.get(messageId);
+            return message != null ? message.getChatId() : -1;
+        }
+        try {
+            return findChatIdOfMessage(messageId);
+        } catch (SQLException e) {
+            System.err.println("Error getting chat of message: " + e.getMessage());
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    // Update (Timeline rows of a sender after a profile change, in id ranges of TIMELINE_REFRESH_CHUNK)
+    // Oldest rows first, so once the sender's newest row has the name every older one has it too and a
+    // replayed event, or a profile change that kept the name, costs one lookup per shard. Returns rows changed, -1 on error
+    public int refreshSenderDisplayName(int senderId, String displayName) {
+        int changed = 0;
+        try {
+            for (int shard = 0; shard < ShardRouter.shardCount(); shard++) {
+                try (Connection conn = ShardRouter.getShardConnection(shard)) {
+                    changed += refreshSenderDisplayName(conn, senderId, displayName);
+                }
+            }
+            return changed;
         } catch (SQLException e) {
-            System.err.println("Error incrementing view count: " + e.getMessage());
+            System.err.println("Error refreshing sender display name: " + e.getMessage());
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    private int refreshSenderDisplayName(Connection conn, int senderId, String displayName) throws SQLException {
+        int changed = 0;
+        try (PreparedStatement pstmt = NamedQuery.MESSAGE_LATEST_SENDER_DISPLAY_NAME.prepare(conn)) {
+            pstmt.setInt(1, senderId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next() || Objects.equals(rs.getString(1), displayName)) {
+                    return 0;
+                }
+            }
+        }
+        long fromId = 0;
+        while (true) {
+            long toId = -1;
+            try (PreparedStatement pstmt = NamedQuery.MESSAGE_IDS_OF_SENDER_AFTER.prepare(conn)) {
+                pstmt.setInt(1, senderId);
+                pstmt.setLong(2, fromId);
+                pstmt.setInt(3, TIMELINE_REFRESH_CHUNK);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        toId = rs.getLong(1);
+                    }
+                }
+            }
+            if (toId == -1) {
+                return changed;
+            }
+            try (PreparedStatement pstmt = NamedQuery.MESSAGE_SENDER_DISPLAY_NAME_UPDATE.prepare(conn)) {
+                pstmt.setString(1, displayName);
+                pstmt.setInt(2, senderId);
+                pstmt.setLong(3, fromId);
+                pstmt.setLong(4, toId);
+                pstmt.setString(5, displayName);
+                changed += pstmt.executeUpdate(); // Auto-commit: each range holds its row locks only briefly
+            }
+            fromId = toId;
+        }
+    }
+
+    // Update (Reply previews pointing at a message that was edited, or deleted when snippet is null; on every shard,
+    // since only the message id is known)
+    public boolean refreshReplySnippets(long repliedToMessageId, String snippet) {
+        try {
+            for (int shard = 0; shard < ShardRouter.shardCount(); shard++) {
+                try (Connection conn = ShardRouter.getShardConnection(shard);
+                     PreparedStatement pstmt = NamedQuery.MESSAGE_REPLY_SNIPPET_UPDATE.prepare(conn)) {
+
+                    pstmt.setString(1, snippet);
+                    pstmt.setLong(2, repliedToMessageId);
+                    pstmt.executeUpdate();
+                }
+            }
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Error refreshing reply snippets: " + e.getMessage());
             e.printStackTrace();
             return false;
         }
     }
 
-    // Delete (Remove a Message) - Hard delete for soft-deleted messages
-    public boolean hardDeleteSoftDeletedMessage(int messageId) {
-        String sql = "DELETE FROM messages WHERE id = ? AND is_deleted = TRUE";
+    // What a timeline row shows as the sender: the username, else the full name
+    public static String displayNameOf(String username, String firstName, String lastName) {
+        if (username != null && !username.isEmpty()) {
+            return username;
+        }
+        String fullName = ((firstName != null ? firstName : "") + " " + (lastName != null ? lastName : "")).trim();
+        return fullName.isEmpty() ? null : fullName;
+    }
+
+    private String getSenderDisplayName(Connection conn, int senderId) throws SQLException {
+        try (PreparedStatement pstmt = NamedQuery.USER_DISPLAY_NAME_FIELDS.prepare(conn)) {
+            pstmt.setInt(1, senderId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? displayNameOf(rs.getString(1), rs.getString(2), rs.getString(3)) : null;
+            }
+        }
+    }
+
+    private String getReplySnippet(Connection conn, long repliedToMessageId) throws SQLException {
+        try (PreparedStatement pstmt = NamedQuery.MESSAGE_REPLY_SOURCE.prepare(conn)) {
+            pstmt.setLong(1, repliedToMessageId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() && !rs.getBoolean(3) ? ChatSummaryDao.snippetOf(rs.getString(1), rs.getString(2)) : null;
+            }
+        }
+    }
+
+    // True when the server runs on the message log (see LOG); the per-user update log is then fed from the
+    // log's change events instead of on the send path
+    public static boolean isLogBacked() {
+        return LOG != null;
+    }
+
+    private static boolean inLog(long messageId) {
+        return LOG != null && messageId >= LOG.getFirstId();
+    }
+
+    // Log messages carry the views flushed to them; add the ones still buffered, as the MySQL rows do
+    private static Message withPendingViews(Message message) {
+        message.setViewCount((int) Math.min(Integer.MAX_VALUE, message.getViewCount() + VIEW_COUNTS.pending(message.getId())));
+        return message;
+    }
+
+    private static List<Message> withPendingViews(List<Message> messages) {
+        messages.forEach(MessageDao::withPendingViews);
+        return messages;
+    }
+
+    // Log messages keep the sender name they were written with, and timeline_rows only renames MySQL rows, so the
+    // current names are filled in on read, one query per page. On error the stored names are left
+    private static List<Message> withSenderNames(List<Message> messages) {
+        Set<Integer> senderIds = new HashSet<>();
+        messages.forEach(message -> senderIds.add(message.getSenderId()));
+        if (senderIds.isEmpty()) {
+            return messages;
+        }
+        String sql = "SELECT id, username, first_name, last_name FROM users WHERE id IN (" +
+                String.join(", ", Collections.nCopies(senderIds.size(), "?")) + ")";
+        Map<Integer, String> names = new HashMap<>();
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setInt(1, messageId);
-            int affectedRows = pstmt.executeUpdate();
-            return affectedRows > 0;
+
+            int index = 1;
+            for (int senderId : senderIds) {
+                pstmt.setInt(index++, senderId);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    names.put(rs.getInt(1), displayNameOf(rs.getString(2), rs.getString(3), rs.getString(4)));
+                }
+            }
         } catch (SQLException e) {
-            System.err.println("Error hard deleting soft-deleted message: " + e.getMessage());
+            System.err.println("Error getting sender names: " + e.getMessage());
+            return messages;
+        }
+        messages.forEach(message -> message.setSenderDisplayName(names.get(message.getSenderId())));
+        return messages;
+    }
+
+    private String lookUpSenderDisplayName(int senderId) {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            return getSenderDisplayName(conn, senderId);
+        } catch (SQLException e) {
+            System.err.println("Error getting sender name: " + e.getMessage());
+            return null; // Filled in on read
+        }
+    }
+
+    // Read (Undeleted messages of a chat in (afterId, upToId] in the message log, 0 without one)
+    static long countLogMessagesInRange(long chatId, long afterId, long upToId) {
+        return LOG != null ? LOG.countMessages(chatId, Math.max(afterId, LOG.getFirstId() - 1), upToId) : 0;
+    }
+
+    // Delete (A deleted chat's messages from the message log; true when there is no log)
+    public boolean dropChatFromLog(long chatId) {
+        return dropFromLog(() -> LOG.dropChat(chatId, Long.MAX_VALUE), "chat " + chatId);
+    }
+
+    // Delete (A deleted user's messages from the message log; true when there is no log). Copies forwarded into
+    // other chats are messages of their forwarder and stay
+    public boolean dropSenderFromLog(int senderId) {
+        return dropFromLog(() -> LOG.dropSender(senderId), "sender " + senderId);
+    }
+
+    private static boolean dropFromLog(Runnable drop, String what) {
+        if (LOG == null) {
+            return true;
+        }
+        try {
+            drop.run();
+            return true;
+        } catch (RuntimeException e) {
+            System.err.println("Error dropping " + what + " from the message log: " + e.getMessage());
             e.printStackTrace();
             return false;
         }
     }
 
-    // Helper method to map ResultSet to Message object
-    private Message mapResultSetToMessage(ResultSet rs) throws SQLException {
+    // Delete (Compact the message log: dropped messages, old versions and messages deleted before the cutoff;
+    // returns the records removed, 0 when there is no log and -1 on failure)
+    public int compactLog(Timestamp deletedBefore) {
+        if (LOG == null) {
+            return 0;
+        }
+        try {
+            return LOG.compact(deletedBefore.toLocalDateTime());
+        } catch (IOException e) {
+            System.err.println("Error compacting the message log: " + e.getMessage());
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    // The log's part of a chat for ArchiveSegmentDao: messages after afterId sent before cutoff, deleted ones
+    // included, stopping at the first newer one
+    static List<Message> getLogMessagesToArchive(long chatId, long afterId, Timestamp cutoff, int limit) {
+        List<Message> messages = new ArrayList<>();
+        if (LOG == null) {
+            return messages;
+        }
+        for (Message message : LOG.getMessagesAfterId(chatId, Math.max(afterId, LOG.getFirstId() - 1), limit, true)) {
+            if (!Timestamp.valueOf(message.getSentAt()).before(cutoff)) {
+                break;
+            }
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    // Sent time of the chat's count-th log message after afterId, null if there are fewer
+    static Timestamp getLogSentAtOfNthMessageAfter(long chatId, long afterId, int count) {
+        if (LOG == null || count <= 0) {
+            return null;
+        }
+        List<Message> messages = LOG.getMessagesAfterId(chatId, Math.max(afterId, LOG.getFirstId() - 1), count, true);
+        return messages.size() == count ? Timestamp.valueOf(messages.get(count - 1).getSentAt()) : null;
+    }
+
+    // Archived messages leave the log; a failure leaves them at or below the archived id, where reads no longer look
+    static void dropArchivedFromLog(long chatId, long upToId) {
+        if (LOG != null && upToId >= LOG.getFirstId()) {
+            dropFromLog(() -> LOG.dropChat(chatId, upToId), "archived messages of chat " + chatId);
+        }
+    }
+
+    // The shard that holds a message, for callers that only have its id. With several shards its chat is
+    // looked up on each in turn; any copy will do, as a message never changes chats. A message found nowhere
+    // gets the main database, where the caller's statement finds no row either
+    private static Connection getConnectionForMessage(long messageId, boolean write) throws SQLException {
+        if (!ShardRouter.isSharded()) {
+            return DatabaseConnection.getConnection();
+        }
+        long chatId = findChatIdOfMessage(messageId);
+        if (chatId == -1) {
+            return DatabaseConnection.getConnection();
+        }
+        return write ? ShardRouter.getWriteConnection(chatId) : ShardRouter.getConnection(chatId);
+    }
+
+    private static long findChatIdOfMessage(long messageId) throws SQLException {
+        for (int shard = 0; shard < ShardRouter.shardCount(); shard++) {
+            try (Connection conn = ShardRouter.getShardConnection(shard)) {
+                Long chatId = getChatIdOfMessage(conn, messageId);
+                if (chatId != null) {
+                    return chatId;
+                }
+            }
+        }
+        return -1;
+    }
+
+    // Within a transaction, so the event carries the chat of the row it just changed
+    private static Long getChatIdOfMessage(Connection conn, long messageId) throws SQLException {
+        try (PreparedStatement pstmt = NamedQuery.MESSAGE_CHAT_ID.prepare(conn)) {
+            pstmt.setLong(1, messageId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : null;
+            }
+        }
+    }
+
+    // Helper method to map ResultSet to Message object; also maps the rows ArchiveSegmentDao reads for archiving
+    static Message mapResultSetToMessage(ResultSet rs) throws SQLException {
         Message message = new Message();
-        message.setId(rs.getInt("id"));
-        message.setChatId(rs.getInt("chat_id"));
+        message.setId(rs.getLong("id"));
+        message.setChatId(rs.getLong("chat_id"));
         message.setSenderId(rs.getInt("sender_id"));
         message.setContent(rs.getString("content"));
         message.setMessageType(rs.getString("message_type"));
@@ -216,7 +789,7 @@ public class MessageDao {
         if (rs.wasNull()) message.setMediaId(null);
         else message.setMediaId(mediaId);
 
-        int repliedToMessageId = rs.getInt("replied_to_message_id");
+        long repliedToMessageId = rs.getLong("replied_to_message_id");
         if (rs.wasNull()) message.setRepliedToMessageId(null);
         else message.setRepliedToMessageId(repliedToMessageId);
 
@@ -224,7 +797,7 @@ public class MessageDao {
         if (rs.wasNull()) message.setForwardedFromUserId(null);
         else message.setForwardedFromUserId(forwardedFromUserId);
 
-        int forwardedFromChatId = rs.getInt("forwarded_from_chat_id");
+        long forwardedFromChatId = rs.getLong("forwarded_from_chat_id");
         if (rs.wasNull()) message.setForwardedFromChatId(null);
         else message.setForwardedFromChatId(forwardedFromChatId);
 
@@ -232,7 +805,36 @@ public class MessageDao {
         message.setEditedAt(editedAtTimestamp != null ? editedAtTimestamp.toLocalDateTime() : null);
 
         message.setDeleted(rs.getBoolean("is_deleted"));
-        message.setViewCount(rs.getInt("view_count"));
+        message.setViewCount((int) (rs.getInt("view_count") + VIEW_COUNTS.pending(message.getId())));
+        message.setSenderDisplayName(rs.getString("sender_display_name"));
+        message.setReplySnippet(rs.getString("reply_snippet"));
+        return message;
+    }
+
+    // Helper method to map a MESSAGE_LIST_ROWS row by column position; the chat id is the one queried and
+    // list rows are never deleted ones
+    private Message mapMessageListRow(ResultSet rs, long chatId) throws SQLException {
+        Message message = new Message();
+        message.setId(rs.getLong(1));
+        message.setChatId(chatId);
+        message.setSenderId(rs.getInt(2));
+        message.setContent(rs.getString(3));
+        message.setMessageType(rs.getString(4));
+        message.setSentAt(rs.getObject(5, LocalDateTime.class));
+
+        int mediaId = rs.getInt(6);
+        if (!rs.wasNull()) message.setMediaId(mediaId);
+        long repliedToMessageId = rs.getLong(7);
+        if (!rs.wasNull()) message.setRepliedToMessageId(repliedToMessageId);
+        int forwardedFromUserId = rs.getInt(8);
+        if (!rs.wasNull()) message.setForwardedFromUserId(forwardedFromUserId);
+        long forwardedFromChatId = rs.getLong(9);
+        if (!rs.wasNull()) message.setForwardedFromChatId(forwardedFromChatId);
+
+        message.setEditedAt(rs.getObject(10, LocalDateTime.class)); // Null stays null
+        message.setViewCount((int) (rs.getInt(11) + VIEW_COUNTS.pending(message.getId())));
+        message.setSenderDisplayName(rs.getString(12));
+        message.setReplySnippet(rs.getString(13));
         return message;
     }
 
@@ -270,12 +872,12 @@ public class MessageDao {
 //    }
 
     // Assuming you have this already
-    public List<Message> getChatMessages(int chatId, int limit, int offset) throws SQLException {
+    public List<Message> getChatMessages(long chatId, int limit, int offset) throws SQLException {
         List<Message> messages = new ArrayList<>();
-        String sql = "SELECT id, chat_id, sender_id, content, message_type, sent_at, media_id, replied_to_message_id, forwarded_from_user_id, forwarded_from_chat_id, edited_at, is_deleted, view_count FROM messages WHERE chat_id = ? ORDER BY sent_at DESC LIMIT ? OFFSET ?";
-        try (Connection conn = DatabaseConnection.getConnection();
+        String sql = "SELECT id, chat_id, sender_id, content, message_type, sent_at, media_id, replied_to_message_id, forwarded_from_user_id, forwarded_from_chat_id, edited_at, is_deleted, view_count, sender_display_name, reply_snippet FROM messages WHERE chat_id = ? ORDER BY sent_at DESC LIMIT ? OFFSET ?";
+        try (Connection conn = ShardRouter.getConnection(chatId);
              PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setInt(1, chatId);
+            stmt.setLong(1, chatId);
             stmt.setInt(2, limit);
             stmt.setInt(3, offset);
             try (ResultSet rs = stmt.executeQuery()) {
@@ -288,11 +890,14 @@ public class MessageDao {
     }
 
     // New method: getMessageById(messageId)
-    public Optional<Message> getMessageById(int id) throws SQLException {
-        String sql = "SELECT id, chat_id, sender_id, content, message_type, sent_at, media_id, replied_to_message_id, forwarded_from_user_id, forwarded_from_chat_id, edited_at, is_deleted, view_count FROM messages WHERE id = ?";
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setInt(1, id);
+    public Optional<Message> getMessageById(long id) throws SQLException {
+        if (inLog(id)) {
+            Message message = LOG.get(id);
+            return message != null ? Optional.of(withSenderNames(List.of(withPendingViews(message))).get(0)) : Optional.empty();
+        }
+        try (Connection conn = getConnectionForMessage(id, false);
+             PreparedStatement stmt = NamedQuery.MESSAGE_BY_ID.prepare(conn)) {
+            stmt.setLong(1, id);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
                     return Optional.of(mapResultSetToMessage(rs));
@@ -304,26 +909,62 @@ public class MessageDao {
 
     // New method: updateMessage(existingMessage)
     public boolean updateMessage(Message message) throws SQLException {
-        String sql = "UPDATE messages SET content = ?, edited_at = ?, is_deleted = ?, view_count = ? WHERE id = ?";
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, message.getContent());
-            stmt.setTimestamp(2, message.getEditedAt() != null ? Timestamp.valueOf(message.getEditedAt()) : null);
-            stmt.setBoolean(3, message.isDeleted());
-            stmt.setInt(4, message.getViewCount());
-            stmt.setInt(5, message.getId());
-            return stmt.executeUpdate() > 0;
+        // view_count is left out: views go through incrementViewCount, and writing back a count that already
+        // includes buffered views would count them twice at the next flush
+        String sql = "UPDATE messages SET content = ?, edited_at = ?, is_deleted = ?, " +
+                "deleted_at = IF(?, COALESCE(deleted_at, CURRENT_TIMESTAMP), NULL) WHERE id = ?";
+        try (Connection conn = getConnectionForMessage(message.getId(), true)) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setString(1, message.getContent());
+                stmt.setTimestamp(2, message.getEditedAt() != null ? Timestamp.valueOf(message.getEditedAt()) : null);
+                stmt.setBoolean(3, message.isDeleted());
+                stmt.setBoolean(4, message.isDeleted());
+                stmt.setLong(5, message.getId());
+                boolean updated = stmt.executeUpdate() > 0;
+                if (updated) {
+                    Map<String, Object> update = new LinkedHashMap<>();
+                    update.put("messageId", message.getId());
+                    update.put("content", message.getContent());
+                    update.put("editedAt", message.getEditedAt());
+                    update.put("isDeleted", message.isDeleted());
+                    outboxDao.record(conn, "message_updated", message.getChatId(), message.getId(), update);
+                }
+                conn.commit();
+                return updated;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
         }
     }
 
     // New method: deleteMessage(messageId) - performs soft delete
-    public boolean deleteMessage(int id) throws SQLException {
-        String sql = "UPDATE messages SET is_deleted = TRUE, content = 'This message was deleted.', edited_at = CURRENT_TIMESTAMP WHERE id = ?";
+    public boolean deleteMessage(long id) throws SQLException {
+        if (inLog(id)) {
+            return LOG.delete(id);
+        }
+        String sql = "UPDATE messages SET is_deleted = TRUE, content = 'This message was deleted.', edited_at = CURRENT_TIMESTAMP, " +
+                "deleted_at = COALESCE(deleted_at, CURRENT_TIMESTAMP) WHERE id = ?";
         // Or for hard delete: "DELETE FROM messages WHERE id = ?"
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setInt(1, id);
-            return stmt.executeUpdate() > 0;
+        try (Connection conn = getConnectionForMessage(id, true)) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setLong(1, id);
+                boolean updated = stmt.executeUpdate() > 0;
+                if (updated) {
+                    outboxDao.record(conn, "message_deleted", getChatIdOfMessage(conn, id), id, Map.of("messageId", id));
+                }
+                conn.commit();
+                return updated;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
         }
     }
 
@@ -339,13 +980,13 @@ public class MessageDao {
 //        int mediaId = rs.getInt("media_id");
 //        if (rs.wasNull()) message.setMediaId(null); else message.setMediaId(mediaId);
 //
-//        int repliedToMessageId = rs.getInt("replied_to_message_id");
+//        long repliedToMessageId = rs.getLong("replied_to_message_id");
 //        if (rs.wasNull()) message.setRepliedToMessageId(null); else message.setRepliedToMessageId(repliedToMessageId);
 //
 //        int forwardedFromUserId = rs.getInt("forwarded_from_user_id");
 //        if (rs.wasNull()) message.setForwardedFromUserId(null); else message.setForwardedFromUserId(forwardedFromUserId);
 //
-//        int forwardedFromChatId = rs.getInt("forwarded_from_chat_id");
+//        long forwardedFromChatId = rs.getLong("forwarded_from_chat_id");
 //        if (rs.wasNull()) message.setForwardedFromChatId(null); else message.setForwardedFromChatId(forwardedFromChatId);
 //
 //        Timestamp editedAtTimestamp = rs.getTimestamp("edited_at");
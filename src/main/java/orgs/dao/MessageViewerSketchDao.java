@@ -0,0 +1,56 @@
+package orgs.dao;
+
+import orgs.utils.DatabaseConnection;
+
+import java.sql.*;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class MessageViewerSketchDao {
+
+    // Read (Stored sketches of the given messages; messages without one are left out). Errors are thrown: an
+    // empty result would be taken as "nothing stored" and the stored sketches overwritten
+    public Map<Long, byte[]> getSketches(Collection<Long> messageIds) throws SQLException {
+        Map<Long, byte[]> sketches = new HashMap<>();
+        if (messageIds.isEmpty()) {
+            return sketches;
+        }
+        String sql = "SELECT message_id, sketch FROM message_viewer_sketches WHERE message_id IN (" +
+                String.join(", ", Collections.nCopies(messageIds.size(), "?")) + ")";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            int index = 1;
+            for (long messageId : messageIds) {
+                pstmt.setLong(index++, messageId);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    sketches.put(rs.getLong(1), rs.getBytes(2));
+                }
+            }
+        }
+        return sketches;
+    }
+
+    // Create/Update (Upsert sketches in one batch; the caller has already merged in what was stored)
+    public boolean saveSketches(Map<Long, byte[]> sketches) {
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = NamedQuery.VIEWER_SKETCH_UPSERT.prepare(conn)) {
+
+            for (Map.Entry<Long, byte[]> sketch : sketches.entrySet()) {
+                pstmt.setLong(1, sketch.getKey());
+                pstmt.setBytes(2, sketch.getValue());
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Error saving viewer sketches: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package orgs.dao;
+
+import orgs.utils.DatabaseConnection;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The statements on the hot request paths, by name. Each is prepared once per pooled connection and then
+ * reused from its statement cache; reuse shows up in Metrics as db.statements.&lt;NAME&gt;.reused.
+ */
+public enum NamedQuery {
+    // Messages
+    MESSAGE_INSERT("INSERT INTO messages (id, chat_id, sender_id, content, message_type, media_id, replied_to_message_id, forwarded_from_user_id, forwarded_from_chat_id, client_message_id, " +
+            "sender_display_name, reply_snippet) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)"),
+    MESSAGE_BY_ID("SELECT id, chat_id, sender_id, content, message_type, sent_at, media_id, replied_to_message_id, forwarded_from_user_id, forwarded_from_chat_id, edited_at, is_deleted, view_count, " +
+            "sender_display_name, reply_snippet FROM messages WHERE id = ?"),
+    MESSAGE_REPLY_SOURCE("SELECT content, message_type, is_deleted FROM messages WHERE id = ?"),
+    MESSAGE_CHAT_ID("SELECT chat_id FROM messages WHERE id = ?"),
+    MESSAGE_VIEW_COUNT_ADD("UPDATE messages SET view_count = view_count + ? WHERE id = ?"),
+    MESSAGE_SENDER_IN_CHAT("SELECT sender_id FROM messages WHERE id = ? AND chat_id = ?"),
+    MESSAGE_ID_BY_CLIENT_MESSAGE_ID("SELECT id FROM messages WHERE sender_id = ? AND client_message_id = ?"),
+    // Message list rows: only what a chat history shows, read by position (see MessageDao.mapMessageListRow).
+    // Sender name and reply preview are stored on the row, so a page is one range scan with no joins. In id order:
+    // callers page on the last id, which sent_at order (ties, clock skew between nodes) would not match
+    MESSAGE_LIST_ROWS("SELECT id, sender_id, content, message_type, sent_at, media_id, replied_to_message_id, forwarded_from_user_id, forwarded_from_chat_id, edited_at, view_count, " +
+            "sender_display_name, reply_snippet FROM messages WHERE chat_id = ? AND is_deleted = FALSE ORDER BY id LIMIT ?"),
+    MESSAGE_LIST_ROWS_AFTER_ID("SELECT id, sender_id, content, message_type, sent_at, media_id, replied_to_message_id, forwarded_from_user_id, forwarded_from_chat_id, edited_at, view_count, " +
+            "sender_display_name, reply_snippet FROM messages WHERE chat_id = ? AND id > ? AND is_deleted = FALSE ORDER BY id LIMIT ?"),
+    // Timeline refresh after a profile change, one id range at a time (see MessageDao.refreshSenderDisplayName)
+    MESSAGE_IDS_OF_SENDER_AFTER("SELECT id FROM messages WHERE sender_id = ? AND id > ? ORDER BY id LIMIT ?"),
+    MESSAGE_SENDER_DISPLAY_NAME_UPDATE("UPDATE messages SET sender_display_name = ? WHERE sender_id = ? AND id > ? AND id <= ? " +
+            "AND NOT (sender_display_name <=> ?)"),
+    MESSAGE_LATEST_SENDER_DISPLAY_NAME("SELECT sender_display_name FROM messages WHERE sender_id = ? ORDER BY id DESC LIMIT 1"),
+    MESSAGE_REPLY_SNIPPET_UPDATE("UPDATE messages SET reply_snippet = ? WHERE replied_to_message_id = ?"),
+
+    // Archive segments covering a chat's messages after an id, in id order (see orgs.storage.MessageArchive)
+    ARCHIVE_SEGMENTS_AFTER("SELECT id, chat_id, first_message_id, last_message_id, message_count, file_name, created_at FROM archive_segments " +
+            "WHERE chat_id = ? AND last_message_id > ? ORDER BY first_message_id LIMIT ?"),
+
+    VIEWER_SKETCH_UPSERT("INSERT INTO message_viewer_sketches (message_id, sketch) VALUES (?, ?) " +
+            "ON DUPLICATE KEY UPDATE sketch = VALUES(sketch)"),
+
+    // Users
+    USER_BY_ID("SELECT * FROM users WHERE id = ?"),
+    USER_BY_PHONE_NUMBER("SELECT * FROM users WHERE phone_number = ?"),
+    USER_EXISTS("SELECT 1 FROM users WHERE id = ?"),
+    // Shared lock: a profile change commits, and publishes its event, only after sends that read the old name
+    USER_DISPLAY_NAME_FIELDS("SELECT username, first_name, last_name FROM users WHERE id = ? LOCK IN SHARE MODE"),
+    // Directory page, keyset-paginated on the primary key (see UserDao.streamUserDirectory)
+    USER_DIRECTORY_PAGE("SELECT id, username, first_name, last_name, profile_picture_url, is_online, last_seen_at " +
+            "FROM users WHERE id > ? ORDER BY id LIMIT ?"),
+    USER_ONLINE_STATUS_UPDATE("UPDATE users SET is_online = ?, last_seen_at = ? WHERE id = ?"),
+
+    // Chats and membership
+    // A chat marked for deletion is gone for everyone but the deletion job
+    CHAT_BY_ID("SELECT * FROM chats WHERE id = ? AND is_deleting = FALSE"),
+    CHAT_CREATOR_ID("SELECT creator_id FROM chats WHERE id = ? AND is_deleting = FALSE"),
+    CHAT_OPEN_SHARED("SELECT 1 FROM chats WHERE id = ? AND is_deleting = FALSE LOCK IN SHARE MODE"),
+    PARTICIPANT_USER_IDS("SELECT cp.user_id FROM chat_participants cp JOIN chats c ON c.id = cp.chat_id WHERE cp.chat_id = ? AND c.is_deleting = FALSE"),
+    PARTICIPANT_ROLE("SELECT role FROM chat_participants WHERE chat_id = ? AND user_id = ?"),
+    // Forward-only, so replaying an older watermark is a no-op. The unread count becomes the messages after the
+    // watermark that chat_summaries has already counted, so the increments still to come do not count them twice
+    PARTICIPANT_READ_WATERMARK_ADVANCE("UPDATE chat_participants SET last_read_message_id = ?, unread_count = " +
+            "(SELECT COUNT(*) FROM messages m JOIN chat_summaries s ON s.chat_id = m.chat_id " +
+            "WHERE m.chat_id = ? AND m.id > ? AND m.id <= s.last_message_id AND m.is_deleted = FALSE) " +
+            "WHERE chat_id = ? AND user_id = ? AND (last_read_message_id IS NULL OR last_read_message_id < ?)"),
+    // For chats on another shard, where the count above cannot join: counted there first, then set
+    PARTICIPANT_READ_WATERMARK_SET("UPDATE chat_participants SET last_read_message_id = ?, unread_count = ? " +
+            "WHERE chat_id = ? AND user_id = ? AND (last_read_message_id IS NULL OR last_read_message_id < ?)"),
+    MESSAGE_COUNT_IN_RANGE("SELECT COUNT(*) FROM messages WHERE chat_id = ? AND id > ? AND id <= ? AND is_deleted = FALSE"),
+    PARTICIPANT_UNREAD_INCREMENT("UPDATE chat_participants SET unread_count = unread_count + 1 " +
+            "WHERE chat_id = ? AND user_id <> ? AND (last_read_message_id IS NULL OR last_read_message_id < ?)"),
+    CHAT_TOUCH("UPDATE chats SET updated_at = ? WHERE id = ?"),
+
+    // Chat list (see ChatSummaryDao)
+    CHAT_SUMMARY_LAST_MESSAGE_ID("SELECT last_message_id FROM chat_summaries WHERE chat_id = ? FOR UPDATE"),
+    CHAT_SUMMARY_UPSERT("INSERT INTO chat_summaries (chat_id, last_message_id, last_sender_id, last_message_snippet, last_message_deleted, last_message_at) " +
+            "VALUES (?, ?, ?, ?, FALSE, ?) ON DUPLICATE KEY UPDATE last_message_id = VALUES(last_message_id), last_sender_id = VALUES(last_sender_id), " +
+            "last_message_snippet = VALUES(last_message_snippet), last_message_deleted = FALSE, last_message_at = VALUES(last_message_at)"),
+    CHAT_UNREAD_COUNTED_INSERT("INSERT IGNORE INTO chat_unread_counted (message_id, chat_id) VALUES (?, ?)"),
+    CHAT_SUMMARY_SNIPPET_UPDATE("UPDATE chat_summaries SET last_message_snippet = ?, last_message_deleted = ? WHERE chat_id = ? AND last_message_id = ?"),
+    CHAT_SUMMARIES_FOR_USER("SELECT c.id, c.chat_type, c.chat_name, c.chat_picture_url, cp.unread_count, cp.last_read_message_id, " +
+            "s.last_message_id, s.last_sender_id, u.username, s.last_message_snippet, s.last_message_deleted, s.last_message_at " +
+            "FROM chat_participants cp JOIN chats c ON c.id = cp.chat_id " +
+            "LEFT JOIN chat_summaries s ON s.chat_id = cp.chat_id LEFT JOIN users u ON u.id = s.last_sender_id " +
+            "WHERE cp.user_id = ? AND c.is_deleting = FALSE ORDER BY COALESCE(s.last_message_at, c.created_at) DESC LIMIT ?"),
+
+    // Update log
+    USER_UPDATE_INSERT("INSERT INTO user_updates (user_id, update_type, chat_id, message_id, payload) VALUES (?, ?, ?, ?, ?)"),
+    // IGNORE: relay deliveries repeat, and uq_user_updates_new_message turns a repeated new_message into a no-op
+    USER_UPDATE_INSERT_FOR_CHAT("INSERT IGNORE INTO user_updates (user_id, update_type, chat_id, message_id, payload) " +
+            "SELECT cp.user_id, ?, cp.chat_id, ?, ? FROM chat_participants cp WHERE cp.chat_id = ?"),
+    USER_UPDATES_SINCE("SELECT id, user_id, update_type, chat_id, message_id, payload, created_at FROM user_updates " +
+            "WHERE user_id = ? AND id > ? ORDER BY id ASC LIMIT ?"),
+
+    // Change event outbox
+    CHANGE_EVENT_INSERT("INSERT INTO change_events (event_type, chat_id, entity_id, payload) VALUES (?, ?, ?, ?)"),
+    CHANGE_EVENTS_UNPUBLISHED("SELECT id, event_type, chat_id, entity_id, payload, created_at FROM change_events " +
+            "WHERE published_at IS NULL ORDER BY id LIMIT ?"),
+    CHANGE_EVENTS_AFTER_ID("SELECT id, event_type, chat_id, entity_id, payload, created_at FROM change_events " +
+            "WHERE id > ? ORDER BY id LIMIT ?"),
+    CHANGE_EVENTS_LATEST_ID_BEFORE("SELECT COALESCE(MAX(id), 0) FROM change_events WHERE created_at < ?"),
+    CHANGE_EVENTS_DELETE_PUBLISHED_BEFORE("DELETE FROM change_events WHERE published_at < ? LIMIT ?"),
+    // Taken when free or expired, renewed by the holder; matches no row while another node holds it
+    CHANGE_EVENT_LEASE_HOLD("UPDATE change_event_lease SET node_id = ?, expires_at = NOW(3) + INTERVAL ? SECOND " +
+            "WHERE id = 1 AND (node_id = ? OR expires_at < NOW(3))");
+
+    private final String sql;
+    private final boolean returnsGeneratedKeys;
+
+    NamedQuery(String sql) {
+        this(sql, false);
+    }
+
+    NamedQuery(String sql, boolean returnsGeneratedKeys) {
+        this.sql = sql;
+        this.returnsGeneratedKeys = returnsGeneratedKeys;
+        DatabaseConnection.registerStatementName(sql, name());
+    }
+
+    public String sql() {
+        return sql;
+    }
+
+    public PreparedStatement prepare(Connection conn) throws SQLException {
+        return conn.prepareStatement(sql, returnsGeneratedKeys ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS);
+    }
+}
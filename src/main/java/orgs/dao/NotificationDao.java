@@ -1,42 +1,46 @@
 package orgs.dao;
 
+import com.google.gson.Gson;
 import orgs.model.*;
 import orgs.utils.DatabaseConnection;
+import orgs.utils.SnowflakeIdGenerator;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 
 public class NotificationDao {
 
     // Create (Send a Notification)
-    public int createNotification(Notification notification) {
-        String sql = "INSERT INTO notifications (recipient_user_id, message, event_type, related_chat_id) VALUES (?, ?, ?, ?)";
-        int generatedId = -1;
+    public long createNotification(Notification notification) {
+        String sql = "INSERT INTO notifications (id, recipient_user_id, message, event_type, related_chat_id) VALUES (?, ?, ?, ?, ?)";
+        long id = SnowflakeIdGenerator.NODE.nextId();
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-
-            pstmt.setInt(1, notification.getRecipientUserId());
-            pstmt.setString(2, notification.getMessage());
-            pstmt.setString(3, notification.getEventType());
-            pstmt.setObject(4, notification.getRelatedChatId(), Types.INTEGER); // Handle nullable Integer
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-            int affectedRows = pstmt.executeUpdate();
-            if (affectedRows > 0) {
-                try (ResultSet rs = pstmt.getGeneratedKeys()) {
-                    if (rs.next()) {
-                        generatedId = rs.getInt(1);
-                        notification.setId(generatedId);
-                    }
-                }
-            }
+            pstmt.setLong(1, id);
+            pstmt.setInt(2, notification.getRecipientUserId());
+            pstmt.setString(3, notification.getMessage());
+            pstmt.setString(4, notification.getEventType());
+            pstmt.setObject(5, notification.getRelatedChatId(), Types.BIGINT); // Handle nullable Long
+            pstmt.executeUpdate();
+            notification.setId(id);
         } catch (SQLException e) {
             System.err.println("Error creating notification: " + e.getMessage());
             e.printStackTrace();
+            return -1;
         }
-        return generatedId;
+        // Make the notification visible to GET_UPDATES as well
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("notificationId", id);
+        payload.put("eventType", notification.getEventType());
+        payload.put("message", notification.getMessage());
+        new UserUpdateDao().recordForUser(notification.getRecipientUserId(), "notification", notification.getRelatedChatId(), null, new Gson().toJson(payload));
+        return id;
     }
 
     // Read (Retrieve Notifications)
@@ -80,11 +84,11 @@ public class NotificationDao {
     }
 
     // Update (Mark Notification as Read)
-    public boolean markNotificationAsRead(int notificationId) {
+    public boolean markNotificationAsRead(long notificationId) {
         String sql = "UPDATE notifications SET is_read = TRUE WHERE id = ?";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setInt(1, notificationId);
+            pstmt.setLong(1, notificationId);
             int affectedRows = pstmt.executeUpdate();
             return affectedRows > 0;
         } catch (SQLException e) {
@@ -109,12 +113,12 @@ public class NotificationDao {
     }
 
     // Delete (Remove Notifications)
-    public boolean deleteNotification(int id) {
+    public boolean deleteNotification(long id) {
         String sql = "DELETE FROM notifications WHERE id = ?";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-            pstmt.setInt(1, id);
+            pstmt.setLong(1, id);
             int affectedRows = pstmt.executeUpdate();
             return affectedRows > 0;
         } catch (SQLException e) {
@@ -142,12 +146,12 @@ public class NotificationDao {
     // Helper method to map ResultSet to Notification object
     private Notification mapResultSetToNotification(ResultSet rs) throws SQLException {
         Notification notification = new Notification();
-        notification.setId(rs.getInt("id"));
+        notification.setId(rs.getLong("id"));
         notification.setRecipientUserId(rs.getInt("recipient_user_id"));
         notification.setMessage(rs.getString("message"));
         notification.setEventType(rs.getString("event_type"));
 
-        int relatedChatId = rs.getInt("related_chat_id");
+        long relatedChatId = rs.getLong("related_chat_id");
         if (rs.wasNull()) {
             notification.setRelatedChatId(null);
         } else {
@@ -208,11 +212,11 @@ public class NotificationDao {
     }
 
     // New method: getNotificationById(notificationId)
-    public Optional<Notification> getNotificationById(int id) throws SQLException {
+    public Optional<Notification> getNotificationById(long id) throws SQLException {
         String sql = "SELECT id, recipient_user_id, message, event_type, related_chat_id, is_read, timestamp FROM notifications WHERE id = ?";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setInt(1, id);
+            stmt.setLong(1, id);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
                     return Optional.of(mapResultSetToNotification(rs));
@@ -0,0 +1,187 @@
+package orgs.dao;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import orgs.model.*;
+import orgs.utils.DatabaseConnection;
+import orgs.utils.LocalDateTimeAdapter;
+
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The change_events outbox. Writing DAOs call record() on their own connection before they commit, so an
+ * event exists exactly when the change it describes does; ChangeEventRelay reads the table in id order, marks
+ * what it has published and deletes it after a retention period. Message changes are recorded on the chat's shard (see ShardRouter), which
+ * has its own change_events table, so the relay reads each shard in turn; a chat's events stay in order.
+ */
+public class OutboxDao {
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
+            .create();
+
+    // Create (Record an event inside the caller's transaction; the caller commits or rolls back)
+    public void record(Connection conn, String eventType, Long chatId, Long entityId, Object payload) throws SQLException {
+        try (PreparedStatement pstmt = NamedQuery.CHANGE_EVENT_INSERT.prepare(conn)) {
+            pstmt.setString(1, eventType);
+            pstmt.setObject(2, chatId, Types.BIGINT); // Handle nullable Long
+            pstmt.setObject(3, entityId, Types.BIGINT); // Handle nullable Long
+            pstmt.setString(4, payload != null ? GSON.toJson(payload) : null);
+            pstmt.executeUpdate();
+        }
+    }
+
+    // Create (Events whose payload is already JSON, one batch in its own transaction; used for changes that were
+    // not made in MySQL, see orgs.storage.MessageLogOutbox)
+    public boolean recordAll(List<ChangeEvent> events) {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = NamedQuery.CHANGE_EVENT_INSERT.prepare(conn)) {
+                for (ChangeEvent event : events) {
+                    pstmt.setString(1, event.getEventType());
+                    pstmt.setObject(2, event.getChatId(), Types.BIGINT); // Handle nullable Long
+                    pstmt.setObject(3, event.getEntityId(), Types.BIGINT); // Handle nullable Long
+                    pstmt.setString(4, event.getPayload());
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+                conn.commit();
+                return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.err.println("Error recording change events: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Update (Take or renew the shard's publishing lease for nodeId; true while this node holds it)
+    public boolean holdLease(int shard, int nodeId, int seconds) {
+        try (Connection conn = ShardRouter.getShardConnection(shard);
+             PreparedStatement pstmt = NamedQuery.CHANGE_EVENT_LEASE_HOLD.prepare(conn)) {
+
+            pstmt.setInt(1, nodeId);
+            pstmt.setInt(2, seconds);
+            pstmt.setInt(3, nodeId);
+            return pstmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            System.err.println("Error holding change event lease: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Read (Oldest events the run-once subscribers have not handled yet; only the lease holder reads these)
+    // Rows are marked once published rather than tracked by a high-water mark: an event whose transaction
+    // commits after a later id was already read is still picked up by the next batch instead of being skipped
+    public List<ChangeEvent> getUnpublishedEvents(int shard, int limit) {
+        List<ChangeEvent> events = new ArrayList<>();
+        try (Connection conn = ShardRouter.getShardConnection(shard);
+             PreparedStatement pstmt = NamedQuery.CHANGE_EVENTS_UNPUBLISHED.prepare(conn)) {
+
+            pstmt.setInt(1, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    events.add(mapResultSetToChangeEvent(rs));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error reading change events: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return events;
+    }
+
+    // Read (Events after a node's own cursor, published or not)
+    public List<ChangeEvent> getEventsAfter(int shard, long afterId, int limit) {
+        List<ChangeEvent> events = new ArrayList<>();
+        try (Connection conn = ShardRouter.getShardConnection(shard);
+             PreparedStatement pstmt = NamedQuery.CHANGE_EVENTS_AFTER_ID.prepare(conn)) {
+
+            pstmt.setLong(1, afterId);
+            pstmt.setInt(2, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    events.add(mapResultSetToChangeEvent(rs));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error reading change events: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return events;
+    }
+
+    // Read (Highest event id created before the given time, 0 if none; -1 on error)
+    public long getLatestEventId(int shard, Timestamp createdBefore) {
+        try (Connection conn = ShardRouter.getShardConnection(shard);
+             PreparedStatement pstmt = NamedQuery.CHANGE_EVENTS_LATEST_ID_BEFORE.prepare(conn)) {
+
+            pstmt.setTimestamp(1, createdBefore);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        } catch (SQLException e) {
+            System.err.println("Error reading latest change event id: " + e.getMessage());
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    // Update (Events the run-once subscribers have handled)
+    public int markPublished(int shard, List<Long> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        String sql = "UPDATE change_events SET published_at = NOW(3) WHERE id IN (" + String.join(", ", Collections.nCopies(ids.size(), "?")) + ")";
+        try (Connection conn = ShardRouter.getShardConnection(shard);
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            for (int i = 0; i < ids.size(); i++) {
+                pstmt.setLong(i + 1, ids.get(i));
+            }
+            return pstmt.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println("Error marking change events published: " + e.getMessage());
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    // Delete (Up to limit events published before the given time; every node's cursor is past them by then)
+    public int deletePublishedBefore(int shard, Timestamp publishedBefore, int limit) {
+        try (Connection conn = ShardRouter.getShardConnection(shard);
+             PreparedStatement pstmt = NamedQuery.CHANGE_EVENTS_DELETE_PUBLISHED_BEFORE.prepare(conn)) {
+
+            pstmt.setTimestamp(1, publishedBefore);
+            pstmt.setInt(2, limit);
+            return pstmt.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println("Error deleting change events: " + e.getMessage());
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    // Helper method to map ResultSet to ChangeEvent object
+    private ChangeEvent mapResultSetToChangeEvent(ResultSet rs) throws SQLException {
+        ChangeEvent event = new ChangeEvent();
+        event.setId(rs.getLong("id"));
+        event.setEventType(rs.getString("event_type"));
+        long chatId = rs.getLong("chat_id");
+        event.setChatId(rs.wasNull() ? null : chatId);
+        long entityId = rs.getLong("entity_id");
+        event.setEntityId(rs.wasNull() ? null : entityId);
+        event.setPayload(rs.getString("payload"));
+        event.setCreatedAt(rs.getTimestamp("created_at").toLocalDateTime());
+        return event;
+    }
+}
@@ -0,0 +1,152 @@
+package orgs.dao;
+
+import orgs.model.*;
+import orgs.utils.DatabaseConnection;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+public class PendingDeliveryDao {
+
+    // Create (Spill queued deliveries to the database in one batch)
+    public boolean createPendingDeliveries(List<PendingDelivery> deliveries) {
+        if (deliveries.isEmpty()) {
+            return true;
+        }
+        String sql = "INSERT IGNORE INTO pending_deliveries (user_id, delivery_id, chat_id, message_id, payload, created_at) VALUES (?, ?, ?, ?, ?, ?)";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            for (PendingDelivery delivery : deliveries) {
+                pstmt.setInt(1, delivery.getUserId());
+                pstmt.setLong(2, delivery.getDeliveryId());
+                pstmt.setLong(3, delivery.getChatId());
+                pstmt.setLong(4, delivery.getMessageId());
+                pstmt.setString(5, delivery.getPayload());
+                pstmt.setTimestamp(6, Timestamp.valueOf(delivery.getCreatedAt()));
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Error spilling pending deliveries: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Read (Everything spilled for a user, oldest first)
+    public List<PendingDelivery> getPendingDeliveries(int userId) {
+        List<PendingDelivery> deliveries = new ArrayList<>();
+        String sql = "SELECT user_id, delivery_id, chat_id, message_id, payload, created_at FROM pending_deliveries WHERE user_id = ? ORDER BY delivery_id ASC";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setInt(1, userId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    deliveries.add(mapResultSetToPendingDelivery(rs));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error getting pending deliveries: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return deliveries;
+    }
+
+    // Delete (Acknowledged deliveries)
+    public int deletePendingDeliveries(int userId, Collection<Long> deliveryIds) {
+        if (deliveryIds.isEmpty()) {
+            return 0;
+        }
+        String sql = "DELETE FROM pending_deliveries WHERE user_id = ? AND delivery_id = ?";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            for (Long deliveryId : deliveryIds) {
+                pstmt.setInt(1, userId);
+                pstmt.setLong(2, deliveryId);
+                pstmt.addBatch();
+            }
+            int deleted = 0;
+            for (int count : pstmt.executeBatch()) {
+                if (count > 0) deleted += count;
+            }
+            return deleted;
+        } catch (SQLException e) {
+            System.err.println("Error deleting pending deliveries: " + e.getMessage());
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    // Delete (A user's oldest spilled deliveries beyond the newest keep; returns how many went)
+    public int deleteOldestPendingDeliveries(int userId, int keep) {
+        // The derived table lets MySQL read the table it deletes from; with fewer than keep rows it is NULL
+        String sql = "DELETE FROM pending_deliveries WHERE user_id = ? AND delivery_id < (SELECT delivery_id FROM " +
+                "(SELECT delivery_id FROM pending_deliveries WHERE user_id = ? ORDER BY delivery_id DESC LIMIT 1 OFFSET ?) AS newest)";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, userId);
+            pstmt.setInt(3, keep - 1);
+            return pstmt.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println("Error trimming pending deliveries: " + e.getMessage());
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    // Read (Users with spilled deliveries created before the cutoff)
+    public List<Integer> getUsersWithPendingDeliveriesBefore(Timestamp cutoff) {
+        List<Integer> userIds = new ArrayList<>();
+        String sql = "SELECT DISTINCT user_id FROM pending_deliveries WHERE created_at < ?";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setTimestamp(1, cutoff);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    userIds.add(rs.getInt(1));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error getting users with expired deliveries: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return userIds;
+    }
+
+    // Delete (A user's spilled deliveries created before the cutoff)
+    public int deletePendingDeliveriesBefore(int userId, Timestamp cutoff) {
+        String sql = "DELETE FROM pending_deliveries WHERE user_id = ? AND created_at < ?";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setInt(1, userId);
+            pstmt.setTimestamp(2, cutoff);
+            return pstmt.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println("Error deleting expired deliveries: " + e.getMessage());
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    // Helper method to map ResultSet to PendingDelivery object
+    private PendingDelivery mapResultSetToPendingDelivery(ResultSet rs) throws SQLException {
+        PendingDelivery delivery = new PendingDelivery();
+        delivery.setUserId(rs.getInt("user_id"));
+        delivery.setDeliveryId(rs.getLong("delivery_id"));
+        delivery.setChatId(rs.getLong("chat_id"));
+        delivery.setMessageId(rs.getLong("message_id"));
+        delivery.setPayload(rs.getString("payload"));
+        delivery.setCreatedAt(rs.getTimestamp("created_at").toLocalDateTime());
+        return delivery;
+    }
+}
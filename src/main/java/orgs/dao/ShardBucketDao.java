@@ -0,0 +1,343 @@
+package orgs.dao;
+
+import orgs.model.ShardBucket;
+import orgs.utils.DatabaseConnection;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * shard_buckets in the main database, and the statements orgs.storage.BucketMover copies and removes a
+ * bucket's messages with. Copies are upserts on the primary key, so a copy that is repeated, or that overlaps
+ * the catch-up, leaves the target row equal to the source row.
+ */
+public class ShardBucketDao {
+    public static final String ACTIVE = "active";
+    public static final String COPYING = "copying";
+    public static final String FROZEN = "frozen";
+
+    private static final String MESSAGE_COLUMNS = "id, chat_id, sender_id, content, message_type, sent_at, media_id, replied_to_message_id, " +
+            "forwarded_from_user_id, forwarded_from_chat_id, edited_at, is_deleted, deleted_at, view_count, client_message_id, " +
+            "sender_display_name, reply_snippet";
+    private static final int MESSAGE_COLUMN_COUNT = MESSAGE_COLUMNS.split(",").length;
+    private static final String MESSAGE_UPSERT = "INSERT INTO messages (" + MESSAGE_COLUMNS + ") VALUES (" +
+            String.join(", ", Collections.nCopies(MESSAGE_COLUMN_COUNT, "?")) + ") " +
+            "ON DUPLICATE KEY UPDATE content = VALUES(content), edited_at = VALUES(edited_at), is_deleted = VALUES(is_deleted), " +
+            "deleted_at = VALUES(deleted_at), view_count = VALUES(view_count), sender_display_name = VALUES(sender_display_name), " +
+            "reply_snippet = VALUES(reply_snippet), forwarded_from_user_id = VALUES(forwarded_from_user_id), " +
+            "forwarded_from_chat_id = VALUES(forwarded_from_chat_id)";
+
+    // Read (The whole map, in bucket order)
+    public List<ShardBucket> getBuckets() throws SQLException {
+        List<ShardBucket> buckets = new ArrayList<>();
+        String sql = "SELECT bucket, shard_id, state, target_shard_id, updated_at FROM shard_buckets ORDER BY bucket";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                buckets.add(mapResultSetToShardBucket(rs));
+            }
+        }
+        return buckets;
+    }
+
+    // Create (Buckets 0..count-1 that have no row yet, on the main database; existing rows are left alone)
+    public void addMissingBuckets(int count) throws SQLException {
+        String sql = "INSERT IGNORE INTO shard_buckets (bucket, shard_id) VALUES (?, 0)";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int bucket = 0; bucket < count; bucket++) {
+                pstmt.setInt(1, bucket);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+    }
+
+    // Update (Start or abandon a move; a bucket only leaves the given state, so two movers cannot both start)
+    public boolean setState(int bucket, String fromState, String toState, Integer targetShardId) {
+        String sql = "UPDATE shard_buckets SET state = ?, target_shard_id = ? WHERE bucket = ? AND state = ?";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setString(1, toState);
+            pstmt.setObject(2, targetShardId, Types.INTEGER); // Handle nullable Integer
+            pstmt.setInt(3, bucket);
+            pstmt.setString(4, fromState);
+            return pstmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            System.err.println("Error changing state of bucket " + bucket + ": " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Update (A frozen bucket switches to its target shard and takes writes again)
+    public boolean completeMove(int bucket) {
+        String sql = "UPDATE shard_buckets SET shard_id = target_shard_id, state = 'active', target_shard_id = NULL " +
+                "WHERE bucket = ? AND state = 'frozen'";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setInt(1, bucket);
+            return pstmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            System.err.println("Error completing move of bucket " + bucket + ": " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Read (The main database's clock, which shard_map_acks and BucketMover compare against)
+    public Timestamp getDatabaseTime() throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement("SELECT CURRENT_TIMESTAMP(3)");
+             ResultSet rs = pstmt.executeQuery()) {
+            rs.next();
+            return rs.getTimestamp(1);
+        }
+    }
+
+    // Create/Update (The map a server routes with was read at readAt)
+    public void acknowledgeMap(int nodeId, Timestamp readAt) throws SQLException {
+        String sql = "INSERT INTO shard_map_acks (node_id, map_read_at) VALUES (?, ?) " +
+                "ON DUPLICATE KEY UPDATE map_read_at = GREATEST(map_read_at, VALUES(map_read_at))";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, nodeId);
+            pstmt.setTimestamp(2, readAt);
+            pstmt.executeUpdate();
+        }
+    }
+
+    // Read (Servers that may still route with a map read at or before changedAt: their ack is not newer, and the
+    // lease of that map has not run out yet)
+    public int countServersBehind(Timestamp changedAt, long leaseMillis) throws SQLException {
+        String sql = "SELECT COUNT(*) FROM shard_map_acks WHERE map_read_at <= ? " +
+                "AND map_read_at + INTERVAL ? * 1000 MICROSECOND > CURRENT_TIMESTAMP(3)";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setTimestamp(1, changedAt);
+            pstmt.setLong(2, leaseMillis);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    // Read (Chats of a bucket that have messages on a shard; MySQL's CRC32 of the id matches ShardRouter.bucketOf)
+    public List<Long> getChatIdsInBucket(int shard, int bucket) throws SQLException {
+        List<Long> chatIds = new ArrayList<>();
+        String sql = "SELECT DISTINCT chat_id FROM messages WHERE CRC32(chat_id) % ? = ?";
+        try (Connection conn = ShardRouter.getShardConnection(shard);
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setInt(1, ShardRouter.BUCKETS);
+            pstmt.setInt(2, bucket);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    chatIds.add(rs.getLong(1));
+                }
+            }
+        }
+        return chatIds;
+    }
+
+    // Read (Highest id of the chat's messages on a shard, 0 when it has none)
+    public long getMaxMessageIdOfChat(int shard, long chatId) throws SQLException {
+        String sql = "SELECT COALESCE(MAX(id), 0) FROM messages WHERE chat_id = ?";
+        try (Connection conn = ShardRouter.getShardConnection(shard);
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setLong(1, chatId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    // Create/Update (The chat's next messages in (afterId, upToId], in id order; returns the last id copied, afterId
+    // when there were none)
+    public long copyMessagesAfter(int fromShard, int toShard, long chatId, long afterId, long upToId, int limit) throws SQLException {
+        String sql = "SELECT " + MESSAGE_COLUMNS + " FROM messages WHERE chat_id = ? AND id > ? AND id <= ? ORDER BY id LIMIT ?";
+        try (Connection source = ShardRouter.getShardConnection(fromShard);
+             PreparedStatement pstmt = source.prepareStatement(sql)) {
+
+            pstmt.setLong(1, chatId);
+            pstmt.setLong(2, afterId);
+            pstmt.setLong(3, upToId);
+            pstmt.setInt(4, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return upsertMessages(rs, toShard, afterId);
+            }
+        }
+    }
+
+    // Create/Update (The chat's messages sent, edited or deleted since a time, whatever their id: ids from different
+    // nodes are not in commit order; returns rows copied)
+    public int copyMessagesChangedSince(int fromShard, int toShard, long chatId, Timestamp since) throws SQLException {
+        String sql = "SELECT " + MESSAGE_COLUMNS + " FROM messages WHERE chat_id = ? AND (sent_at >= ? OR edited_at >= ? OR deleted_at >= ?)";
+        int copied = 0;
+        try (Connection source = ShardRouter.getShardConnection(fromShard);
+             PreparedStatement pstmt = source.prepareStatement(sql)) {
+
+            pstmt.setLong(1, chatId);
+            pstmt.setTimestamp(2, since);
+            pstmt.setTimestamp(3, since);
+            pstmt.setTimestamp(4, since);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                try (Connection target = ShardRouter.getShardConnection(toShard);
+                     PreparedStatement upsert = target.prepareStatement(MESSAGE_UPSERT)) {
+                    while (rs.next()) {
+                        bindMessageRow(rs, upsert);
+                        upsert.addBatch();
+                        copied++;
+                    }
+                    upsert.executeBatch();
+                }
+            }
+        }
+        return copied;
+    }
+
+    // Update (The chat's view counts on toShard set to those on fromShard, limit rows at a time: views are added
+    // without touching any timestamp, so the copies above miss those of rows copied earlier. Returns rows changed)
+    public int copyViewCounts(int fromShard, int toShard, long chatId, int limit) throws SQLException {
+        String sourceSql = "SELECT id, view_count FROM messages WHERE chat_id = ? AND id > ? ORDER BY id LIMIT ?";
+        String updateSql = "UPDATE messages SET view_count = ? WHERE id = ? AND view_count <> ?";
+        int changed = 0;
+        try (Connection source = ShardRouter.getShardConnection(fromShard);
+             Connection target = ShardRouter.getShardConnection(toShard);
+             PreparedStatement sourceRows = source.prepareStatement(sourceSql);
+             PreparedStatement update = target.prepareStatement(updateSql)) {
+
+            long afterId = 0;
+            while (true) {
+                sourceRows.setLong(1, chatId);
+                sourceRows.setLong(2, afterId);
+                sourceRows.setInt(3, limit);
+                int rows = 0;
+                try (ResultSet rs = sourceRows.executeQuery()) {
+                    while (rs.next()) {
+                        afterId = rs.getLong(1);
+                        update.setInt(1, rs.getInt(2));
+                        update.setLong(2, afterId);
+                        update.setInt(3, rs.getInt(2));
+                        update.addBatch();
+                        rows++;
+                    }
+                }
+                if (rows == 0) {
+                    return changed;
+                }
+                for (int count : update.executeBatch()) {
+                    changed += count;
+                }
+                if (rows < limit) {
+                    return changed;
+                }
+            }
+        }
+    }
+
+    // Delete (The chat's rows on toShard that are gone from fromShard, compared limit ids at a time: hard deletes on
+    // the source after the rows were copied. Returns rows deleted)
+    public int deleteMessagesMissingFrom(int fromShard, int toShard, long chatId, int limit) throws SQLException {
+        String targetSql = "SELECT id FROM messages WHERE chat_id = ? AND id > ? ORDER BY id LIMIT ?";
+        String sourceSql = "SELECT id FROM messages WHERE chat_id = ? AND id >= ? AND id <= ?";
+        int deleted = 0;
+        try (Connection source = ShardRouter.getShardConnection(fromShard);
+             Connection target = ShardRouter.getShardConnection(toShard);
+             PreparedStatement targetIds = target.prepareStatement(targetSql);
+             PreparedStatement sourceIds = source.prepareStatement(sourceSql)) {
+
+            long afterId = 0;
+            while (true) {
+                List<Long> ids = new ArrayList<>();
+                targetIds.setLong(1, chatId);
+                targetIds.setLong(2, afterId);
+                targetIds.setInt(3, limit);
+                try (ResultSet rs = targetIds.executeQuery()) {
+                    while (rs.next()) {
+                        ids.add(rs.getLong(1));
+                    }
+                }
+                if (ids.isEmpty()) {
+                    return deleted;
+                }
+                Set<Long> missing = new HashSet<>(ids);
+                sourceIds.setLong(1, chatId);
+                sourceIds.setLong(2, ids.get(0));
+                sourceIds.setLong(3, ids.get(ids.size() - 1));
+                try (ResultSet rs = sourceIds.executeQuery()) {
+                    while (rs.next()) {
+                        missing.remove(rs.getLong(1));
+                    }
+                }
+                if (!missing.isEmpty()) {
+                    String sql = "DELETE FROM messages WHERE id IN (" + String.join(", ", Collections.nCopies(missing.size(), "?")) + ")";
+                    try (PreparedStatement pstmt = target.prepareStatement(sql)) {
+                        int i = 1;
+                        for (long id : missing) {
+                            pstmt.setLong(i++, id);
+                        }
+                        deleted += pstmt.executeUpdate();
+                    }
+                }
+                afterId = ids.get(ids.size() - 1);
+            }
+        }
+    }
+
+    // Delete (At most limit of the chat's messages on a shard, once the bucket has moved away from it)
+    public int deleteMessagesOfChat(int shard, long chatId, int limit) throws SQLException {
+        String sql = "DELETE FROM messages WHERE chat_id = ? ORDER BY id LIMIT ?";
+        try (Connection conn = ShardRouter.getShardConnection(shard);
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setLong(1, chatId);
+            pstmt.setInt(2, limit);
+            return pstmt.executeUpdate();
+        }
+    }
+
+    private long upsertMessages(ResultSet rs, int toShard, long afterId) throws SQLException {
+        long lastId = afterId;
+        try (Connection target = ShardRouter.getShardConnection(toShard);
+             PreparedStatement upsert = target.prepareStatement(MESSAGE_UPSERT)) {
+            while (rs.next()) {
+                bindMessageRow(rs, upsert);
+                upsert.addBatch();
+                lastId = rs.getLong(1);
+            }
+            upsert.executeBatch();
+        }
+        return lastId;
+    }
+
+    // Same column order in the select and the insert, so the row is copied as it is, NULLs included
+    private static void bindMessageRow(ResultSet rs, PreparedStatement upsert) throws SQLException {
+        for (int column = 1; column <= MESSAGE_COLUMN_COUNT; column++) {
+            upsert.setObject(column, rs.getObject(column));
+        }
+    }
+
+    // Helper method to map ResultSet to ShardBucket object
+    private ShardBucket mapResultSetToShardBucket(ResultSet rs) throws SQLException {
+        ShardBucket bucket = new ShardBucket();
+        bucket.setBucket(rs.getInt("bucket"));
+        bucket.setShardId(rs.getInt("shard_id"));
+        bucket.setState(rs.getString("state"));
+        int targetShardId = rs.getInt("target_shard_id");
+        bucket.setTargetShardId(rs.wasNull() ? null : targetShardId);
+        Timestamp updatedAt = rs.getTimestamp("updated_at");
+        bucket.setUpdatedAt(updatedAt != null ? updatedAt.toLocalDateTime() : null);
+        return bucket;
+    }
+}
@@ -0,0 +1,191 @@
+package orgs.dao;
+
+import orgs.model.ShardBucket;
+import orgs.utils.DatabaseConnection;
+import orgs.utils.Metrics;
+import orgs.utils.SnowflakeIdGenerator;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Which database holds a chat's messages. Shard 0 is the main database; -Dtusal.shards lists the JDBC URLs
+ * of shards 1..n, comma-separated, each with the schema of tusalShard.sql. A chat belongs to one of BUCKETS
+ * virtual buckets, CRC32 of its id, and each bucket to a shard as recorded in shard_buckets. Moving a bucket
+ * (orgs.storage.BucketMover) only changes that table, so buckets can be spread over new shards as they are
+ * added without rehashing any chat.
+ *
+ * Every server reloads the map each REFRESH_INTERVAL_MILLIS and records in shard_map_acks when the map it now
+ * routes with was read, which is what BucketMover waits on. A map older than MAP_LEASE_MILLIS is not used: it is
+ * reloaded on the spot, and if that fails the request fails rather than go to a shard the bucket may have left.
+ * While a move is catching up its bucket is frozen: reads still go to the old shard, writes are refused until the
+ * bucket switches. Without -Dtusal.shards there is one shard and the map is never read.
+ */
+public final class ShardRouter {
+    public static final int BUCKETS = 1024;
+    public static final int PRIMARY = 0;
+    public static final long REFRESH_INTERVAL_MILLIS = 5_000;
+    public static final long MAP_LEASE_MILLIS = 3 * REFRESH_INTERVAL_MILLIS;
+
+    private static final List<String> SHARD_URLS = shardUrls();
+    private static final ShardBucketDao bucketDao = new ShardBucketDao();
+    private static volatile ShardMap map; // Loaded on first use
+    private static ScheduledExecutorService refresher;
+
+    private static final class ShardMap {
+        private final int[] shards = new int[BUCKETS];
+        private final boolean[] frozen = new boolean[BUCKETS];
+        private final long loadStartedNanos; // Before the database time in the ack was taken, so the lease never outlasts it
+
+        private ShardMap(long loadStartedNanos) {
+            this.loadStartedNanos = loadStartedNanos;
+        }
+    }
+
+    private ShardRouter() {
+    }
+
+    public static boolean isSharded() {
+        return SHARD_URLS.size() > 1;
+    }
+
+    public static int shardCount() {
+        return SHARD_URLS.size();
+    }
+
+    // The same value as MySQL's CRC32(chat_id) % BUCKETS, which BucketMover selects a bucket's chats with
+    public static int bucketOf(long chatId) {
+        CRC32 crc = new CRC32();
+        crc.update(Long.toString(chatId).getBytes(StandardCharsets.US_ASCII));
+        return (int) (crc.getValue() % BUCKETS);
+    }
+
+    public static int shardOf(long chatId) throws SQLException {
+        return isSharded() ? map().shards[bucketOf(chatId)] : PRIMARY;
+    }
+
+    // For reading a chat's messages
+    public static Connection getConnection(long chatId) throws SQLException {
+        return getShardConnection(shardOf(chatId));
+    }
+
+    // For changing a chat's messages; refused while the chat's bucket is frozen by a move
+    public static Connection getWriteConnection(long chatId) throws SQLException {
+        if (!isSharded()) {
+            return DatabaseConnection.getConnection();
+        }
+        int bucket = bucketOf(chatId);
+        ShardMap current = map();
+        if (current.frozen[bucket]) {
+            Metrics.increment("shards.frozen_writes");
+            throw new SQLException("Bucket " + bucket + " of chat " + chatId + " is being moved; try again shortly");
+        }
+        return getShardConnection(current.shards[bucket]);
+    }
+
+    // Whether writes to the chat's messages are refused for now, for callers that hold them back rather than fail
+    public static boolean isFrozen(long chatId) throws SQLException {
+        return isSharded() && map().frozen[bucketOf(chatId)];
+    }
+
+    // For changing messages of any chat on a shard (deletion jobs, the purger); refused while any bucket on the
+    // shard is frozen, since the move catching it up would not see which chats changed
+    public static Connection getShardWriteConnection(int shard) throws SQLException {
+        if (!isSharded()) {
+            return DatabaseConnection.getConnection();
+        }
+        ShardMap current = map();
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            if (current.frozen[bucket] && current.shards[bucket] == shard) {
+                Metrics.increment("shards.frozen_writes");
+                throw new SQLException("Bucket " + bucket + " on shard " + shard + " is being moved; try again shortly");
+            }
+        }
+        return getShardConnection(shard);
+    }
+
+    public static Connection getShardConnection(int shard) throws SQLException {
+        return DatabaseConnection.getConnection(SHARD_URLS.get(shard), "shard" + shard);
+    }
+
+    // Reload the map now and acknowledge it; also adds the buckets that have no row yet, on shard 0. The map is only
+    // used once the ack is written, so a server never routes with a map BucketMover does not know about
+    public static synchronized void refresh() throws SQLException {
+        long started = System.nanoTime();
+        Timestamp readAt = bucketDao.getDatabaseTime();
+        List<ShardBucket> buckets = bucketDao.getBuckets();
+        if (buckets.size() < BUCKETS) {
+            bucketDao.addMissingBuckets(BUCKETS);
+            buckets = bucketDao.getBuckets();
+        }
+        ShardMap loaded = new ShardMap(started);
+        for (ShardBucket bucket : buckets) {
+            if (bucket.getShardId() >= SHARD_URLS.size()) {
+                throw new SQLException("Bucket " + bucket.getBucket() + " is on shard " + bucket.getShardId() + ", which is not configured");
+            }
+            loaded.shards[bucket.getBucket()] = bucket.getShardId();
+            loaded.frozen[bucket.getBucket()] = ShardBucketDao.FROZEN.equals(bucket.getState());
+        }
+        bucketDao.acknowledgeMap(SnowflakeIdGenerator.NODE.getNodeId(), readAt);
+        map = loaded;
+    }
+
+    // Called by the server; a no-op without shards
+    public static synchronized void start() {
+        if (!isSharded() || refresher != null) {
+            return;
+        }
+        refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ShardRouter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(() -> {
+            try {
+                refresh();
+            } catch (Exception e) {
+                Metrics.increment("shards.refresh_errors"); // Keeps routing with the map it has
+                System.err.println("Error refreshing shard map: " + e.getMessage());
+            }
+        }, 0, REFRESH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public static synchronized void stop() {
+        if (refresher != null) {
+            refresher.shutdown();
+            refresher = null;
+        }
+    }
+
+    private static ShardMap map() throws SQLException {
+        ShardMap current = map;
+        if (current == null || System.nanoTime() - current.loadStartedNanos > TimeUnit.MILLISECONDS.toNanos(MAP_LEASE_MILLIS)) {
+            if (current != null) {
+                Metrics.increment("shards.stale_map"); // The refresher has been failing
+            }
+            refresh();
+            current = map;
+        }
+        return current;
+    }
+
+    private static List<String> shardUrls() {
+        List<String> urls = new ArrayList<>();
+        urls.add(DatabaseConnection.getPrimaryUrl());
+        for (String url : System.getProperty("tusal.shards", "").split(",")) {
+            if (!url.isBlank()) {
+                urls.add(url.trim());
+            }
+        }
+        return Collections.unmodifiableList(urls);
+    }
+}
@@ -6,36 +6,58 @@ import orgs.utils.DatabaseConnection;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
 public class UserDao {
+    private static final int DIRECTORY_FETCH_SIZE = 100;
+    private final OutboxDao outboxDao = new OutboxDao();
+    private final DeletionJobDao deletionJobDao = new DeletionJobDao();
 
     // Create (Add a New User)
     public int createUser(User user) {
         String sql = "INSERT INTO users (phone_number, username, first_name, last_name, password, bio, profile_picture_url, is_online, last_seen_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
         int generatedId = -1;
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-
-            pstmt.setString(1, user.getPhoneNumber());
-            pstmt.setString(2, user.getUsername());
-            pstmt.setString(3, user.getFirstName());
-            pstmt.setString(4, user.getLastName());
-            pstmt.setString(5, user.getPassword());
-            pstmt.setString(6, user.getBio());
-            pstmt.setString(7, user.getProfilePictureUrl());
-            pstmt.setBoolean(8, user.isOnline());
-            pstmt.setTimestamp(9, user.getLastSeenAt() != null ? Timestamp.valueOf(user.getLastSeenAt()) : null);
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
 
-            int affectedRows = pstmt.executeUpdate();
-            if (affectedRows > 0) {
-                try (ResultSet rs = pstmt.getGeneratedKeys()) {
-                    if (rs.next()) {
-                        generatedId = rs.getInt(1);
-                        user.setId(generatedId);
+                pstmt.setString(1, user.getPhoneNumber());
+                pstmt.setString(2, user.getUsername());
+                pstmt.setString(3, user.getFirstName());
+                pstmt.setString(4, user.getLastName());
+                pstmt.setString(5, user.getPassword());
+                pstmt.setString(6, user.getBio());
+                pstmt.setString(7, user.getProfilePictureUrl());
+                pstmt.setBoolean(8, user.isOnline());
+                pstmt.setTimestamp(9, user.getLastSeenAt() != null ? Timestamp.valueOf(user.getLastSeenAt()) : null);
+
+                int affectedRows = pstmt.executeUpdate();
+                if (affectedRows > 0) {
+                    try (ResultSet rs = pstmt.getGeneratedKeys()) {
+                        if (rs.next()) {
+                            generatedId = rs.getInt(1);
+                        }
                     }
                 }
+                if (generatedId != -1) {
+                    user.setId(generatedId);
+                    outboxDao.record(conn, "user_created", null, (long) generatedId, publicProfile(user));
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                generatedId = -1;
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
             }
         } catch (SQLException e) {
             System.err.println("Error creating user: " + e.getMessage());
@@ -62,10 +84,41 @@ public class UserDao {
         return users;
     }
 
+    // Read (Directory page after the given user id, streamed row by row to the consumer instead of collected)
+    // Returns the number of users passed to the consumer, or -1 on error
+    public int streamUserDirectory(int afterId, int limit, Consumer<User> consumer) {
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = NamedQuery.USER_DIRECTORY_PAGE.prepare(conn)) {
+
+            pstmt.setInt(1, afterId);
+            pstmt.setInt(2, limit);
+            pstmt.setFetchSize(DIRECTORY_FETCH_SIZE); // Forward-only cursor, fetched in batches
+            int count = 0;
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    User user = new User();
+                    user.setId(rs.getInt(1));
+                    user.setUsername(rs.getString(2));
+                    user.setFirstName(rs.getString(3));
+                    user.setLastName(rs.getString(4));
+                    user.setProfilePictureUrl(rs.getString(5));
+                    user.setOnline(rs.getBoolean(6));
+                    user.setLastSeenAt(rs.getObject(7, LocalDateTime.class));
+                    consumer.accept(user);
+                    count++;
+                }
+            }
+            return count;
+        } catch (SQLException e) {
+            System.err.println("Error streaming user directory: " + e.getMessage());
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
     public Optional<User> getUserById(int id) {
-        String sql = "SELECT * FROM users WHERE id = ?";
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = NamedQuery.USER_BY_ID.prepare(conn)) {
 
             pstmt.setInt(1, id);
             try (ResultSet rs = pstmt.executeQuery()) {
@@ -80,11 +133,52 @@ public class UserDao {
         return Optional.empty();
     }
 
-    public Optional<User> getUserByPhoneNumber(String phoneNumber) {
-        String sql = "SELECT * FROM users WHERE phone_number = ?";
+    // Existence check without loading the profile columns (bio, picture url, password hash)
+    public boolean userExists(int id) {
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = NamedQuery.USER_EXISTS.prepare(conn)) {
+
+            pstmt.setInt(1, id);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        } catch (SQLException e) {
+            System.err.println("Error checking user exists: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    // Which of the given ids belong to existing users, in one query
+    public Set<Integer> getExistingUserIds(Collection<Integer> ids) {
+        Set<Integer> existing = new HashSet<>();
+        if (ids.isEmpty()) {
+            return existing;
+        }
+        String sql = "SELECT id FROM users WHERE id IN (" + String.join(", ", Collections.nCopies(ids.size(), "?")) + ")";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
+            int index = 1;
+            for (int id : ids) {
+                pstmt.setInt(index++, id);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    existing.add(rs.getInt(1));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error checking user ids: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return existing;
+    }
+
+    public Optional<User> getUserByPhoneNumber(String phoneNumber) {
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = NamedQuery.USER_BY_PHONE_NUMBER.prepare(conn)) {
+
             pstmt.setString(1, phoneNumber);
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
@@ -99,7 +193,7 @@ public class UserDao {
     }
 
     public Optional<User> getUserByUsername(String username) {
-        String sql = "SELECT * FROM users WHERE username = ?";
+        String sql = "SELECT * FROM users WHERE username = ? AND is_deleting = FALSE"; // Deleted accounts cannot log in
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
@@ -141,20 +235,31 @@ public class UserDao {
     // Update (Modify User Information)
     public boolean updateUser(User user) {
         String sql = "UPDATE users SET phone_number = ?, username = ?, first_name = ?, last_name = ?, password = ?, bio = ?, profile_picture_url = ? WHERE id = ?";
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-            pstmt.setString(1, user.getPhoneNumber());
-            pstmt.setString(2, user.getUsername());
-            pstmt.setString(3, user.getFirstName());
-            pstmt.setString(4, user.getLastName());
-            pstmt.setString(5, user.getPassword());
-            pstmt.setString(6, user.getBio());
-            pstmt.setString(7, user.getProfilePictureUrl());
-            pstmt.setInt(8, user.getId());
+                pstmt.setString(1, user.getPhoneNumber());
+                pstmt.setString(2, user.getUsername());
+                pstmt.setString(3, user.getFirstName());
+                pstmt.setString(4, user.getLastName());
+                pstmt.setString(5, user.getPassword());
+                pstmt.setString(6, user.getBio());
+                pstmt.setString(7, user.getProfilePictureUrl());
+                pstmt.setInt(8, user.getId());
 
-            int affectedRows = pstmt.executeUpdate();
-            return affectedRows > 0;
+                boolean updated = pstmt.executeUpdate() > 0;
+                if (updated) {
+                    outboxDao.record(conn, "user_updated", null, (long) user.getId(), publicProfile(user));
+                }
+                conn.commit();
+                return updated;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
         } catch (SQLException e) {
             System.err.println("Error updating user: " + e.getMessage());
             e.printStackTrace();
@@ -178,9 +283,8 @@ public class UserDao {
     }
 
     public boolean updateUserOnlineStatus(int userId, boolean isOnline) {
-        String sql = "UPDATE users SET is_online = ?, last_seen_at = ? WHERE id = ?";
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = NamedQuery.USER_ONLINE_STATUS_UPDATE.prepare(conn)) {
             pstmt.setBoolean(1, isOnline);
             pstmt.setTimestamp(2, Timestamp.valueOf(LocalDateTime.now()));
             pstmt.setInt(3, userId);
@@ -194,14 +298,31 @@ public class UserDao {
     }
 
     // Delete (Remove a User)
+    // Only marks the user and queues a deletion job, see ChatDao.deleteChat. As before, a user who still
+    // created chats cannot be deleted (chats.creator_id is ON DELETE RESTRICT); chats already being deleted
+    // do not count, their jobs are older and finish first
     public boolean deleteUser(int id) {
-        String sql = "DELETE FROM users WHERE id = ?";
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        String sql = "UPDATE users SET is_deleting = TRUE WHERE id = ? AND is_deleting = FALSE " +
+                "AND NOT EXISTS (SELECT 1 FROM chats WHERE creator_id = ? AND is_deleting = FALSE)";
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-            pstmt.setInt(1, id);
-            int affectedRows = pstmt.executeUpdate();
-            return affectedRows > 0;
+                pstmt.setInt(1, id);
+                pstmt.setInt(2, id);
+                boolean deleted = pstmt.executeUpdate() > 0;
+                if (deleted) {
+                    deletionJobDao.enqueue(conn, DeletionJobDao.USER, id);
+                    outboxDao.record(conn, "user_deleted", null, (long) id, null);
+                }
+                conn.commit();
+                return deleted;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
         } catch (SQLException e) {
             System.err.println("Error deleting user: " + e.getMessage());
             e.printStackTrace();
@@ -209,6 +330,18 @@ public class UserDao {
         }
     }
 
+    // What user events carry: never the password or phone number, and not presence, which is not an event
+    private static Map<String, Object> publicProfile(User user) {
+        Map<String, Object> profile = new LinkedHashMap<>();
+        profile.put("userId", user.getId());
+        profile.put("username", user.getUsername());
+        profile.put("firstName", user.getFirstName());
+        profile.put("lastName", user.getLastName());
+        profile.put("bio", user.getBio());
+        profile.put("profilePictureUrl", user.getProfilePictureUrl());
+        return profile;
+    }
+
     // Helper method to map ResultSet to User object
     private User mapResultSetToUser(ResultSet rs) throws SQLException {
         User user = new User();
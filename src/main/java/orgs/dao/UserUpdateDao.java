@@ -0,0 +1,151 @@
+package orgs.dao;
+
+import orgs.model.*;
+import orgs.utils.DatabaseConnection;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+public class UserUpdateDao {
+
+    // Create (Record an update for a single user)
+    public boolean recordForUser(int userId, String updateType, Long chatId, Long messageId, String payload) {
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = NamedQuery.USER_UPDATE_INSERT.prepare(conn)) {
+
+            pstmt.setInt(1, userId);
+            pstmt.setString(2, updateType);
+            pstmt.setObject(3, chatId, Types.BIGINT); // Handle nullable Long
+            pstmt.setObject(4, messageId, Types.BIGINT); // Handle nullable Long
+            pstmt.setString(5, payload);
+            return pstmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            System.err.println("Error recording user update: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Create (Record the same update for many users in one batch)
+    public int recordForUsers(Collection<Integer> userIds, String updateType, Long chatId, Long messageId, String payload) {
+        if (userIds.isEmpty()) {
+            return 0;
+        }
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = NamedQuery.USER_UPDATE_INSERT.prepare(conn)) {
+
+            for (int userId : userIds) {
+                pstmt.setInt(1, userId);
+                pstmt.setString(2, updateType);
+                pstmt.setObject(3, chatId, Types.BIGINT); // Handle nullable Long
+                pstmt.setObject(4, messageId, Types.BIGINT); // Handle nullable Long
+                pstmt.setString(5, payload);
+                pstmt.addBatch();
+            }
+            return pstmt.executeBatch().length;
+        } catch (SQLException e) {
+            System.err.println("Error recording user updates: " + e.getMessage());
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    // Create (Record the same update for every participant of a chat)
+    // Done as one INSERT ... SELECT so the fan-out happens inside MySQL instead of one round trip per member
+    public int recordForChatParticipants(long chatId, String updateType, Long messageId, String payload) {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            return recordForChatParticipants(conn, chatId, updateType, messageId, payload);
+        } catch (SQLException e) {
+            System.err.println("Error recording chat participant updates: " + e.getMessage());
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    // Create (The same on the caller's connection, inside its transaction)
+    public int recordForChatParticipants(Connection conn, long chatId, String updateType, Long messageId, String payload) throws SQLException {
+        try (PreparedStatement pstmt = NamedQuery.USER_UPDATE_INSERT_FOR_CHAT.prepare(conn)) {
+            pstmt.setString(1, updateType);
+            pstmt.setObject(2, messageId, Types.BIGINT); // Handle nullable Long
+            pstmt.setString(3, payload);
+            pstmt.setLong(4, chatId);
+            return pstmt.executeUpdate();
+        }
+    }
+
+    // Read (Updates after the client's last seen update id, oldest first)
+    public List<UserUpdate> getUpdatesSince(int userId, long afterUpdateId, int limit) {
+        List<UserUpdate> updates = new ArrayList<>();
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = NamedQuery.USER_UPDATES_SINCE.prepare(conn)) {
+
+            pstmt.setInt(1, userId);
+            pstmt.setLong(2, afterUpdateId);
+            pstmt.setInt(3, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    updates.add(mapResultSetToUserUpdate(rs));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error getting user updates: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return updates;
+    }
+
+    // Read (Highest update id of the user created before the cutoff, 0 if none)
+    public long getLatestUpdateId(int userId, Timestamp createdBefore) {
+        String sql = "SELECT COALESCE(MAX(id), 0) FROM user_updates WHERE user_id = ? AND created_at < ?";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setInt(1, userId);
+            pstmt.setTimestamp(2, createdBefore);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getLong(1);
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error getting latest user update id: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    // Delete (Trim the log; clients older than this are told to resync)
+    public int deleteUpdatesOlderThan(Timestamp cutoff) {
+        String sql = "DELETE FROM user_updates WHERE created_at < ?";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setTimestamp(1, cutoff);
+            return pstmt.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println("Error deleting old user updates: " + e.getMessage());
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    // Helper method to map ResultSet to UserUpdate object
+    private UserUpdate mapResultSetToUserUpdate(ResultSet rs) throws SQLException {
+        UserUpdate update = new UserUpdate();
+        update.setId(rs.getLong("id"));
+        update.setUserId(rs.getInt("user_id"));
+        update.setUpdateType(rs.getString("update_type"));
+
+        // Handle nullable fields
+        long chatId = rs.getLong("chat_id");
+        update.setChatId(rs.wasNull() ? null : chatId);
+        long messageId = rs.getLong("message_id");
+        update.setMessageId(rs.wasNull() ? null : messageId);
+
+        update.setPayload(rs.getString("payload"));
+        update.setCreatedAt(rs.getTimestamp("created_at").toLocalDateTime());
+        return update;
+    }
+}
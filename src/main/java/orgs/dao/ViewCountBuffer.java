@@ -0,0 +1,81 @@
+package orgs.dao;
+
+import orgs.utils.Metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Views not yet written to messages.view_count. Each message has its own LongAdder, which spreads concurrent
+ * increments of a hot channel post over striped cells instead of one locked row; flush() takes the deltas
+ * and MessageDao writes them in one batch. Readers add pending() to the stored count, so a count can lag
+ * by at most the batch that is being written.
+ *
+ * An idle message's adder is retired from the map at flush. An increment that lands on a retired adder
+ * notices it and moves its count into the live one; since both sides take counts with sumThenReset, every
+ * view is taken exactly once.
+ *
+ * The chat of each message is kept with its views so the flush can send them to the chat's shard alone; it is
+ * dropped with the adder, and chatOf() is null for a message whose chat is not known any more.
+ */
+class ViewCountBuffer {
+    private final Map<Long, LongAdder> pending = new ConcurrentHashMap<>();
+    private final Map<Long, Long> flushing = new ConcurrentHashMap<>(); // Taken from pending, not yet committed
+    private final Map<Long, Long> chats = new ConcurrentHashMap<>(); // Message id to chat id
+
+    void increment(long messageId, long chatId) {
+        chats.put(messageId, chatId);
+        LongAdder adder = pending.computeIfAbsent(messageId, id -> new LongAdder());
+        adder.increment();
+        if (pending.get(messageId) != adder) {
+            // Retired by a flush in the meantime; whatever the flush did not take moves to the live adder
+            long orphaned = adder.sumThenReset();
+            if (orphaned > 0) {
+                pending.computeIfAbsent(messageId, id -> new LongAdder()).add(orphaned);
+            }
+        }
+        Metrics.increment("views.buffered");
+    }
+
+    long pending(long messageId) {
+        LongAdder adder = pending.get(messageId);
+        Long inFlight = flushing.get(messageId);
+        return (adder != null ? adder.sum() : 0) + (inFlight != null ? inFlight : 0);
+    }
+
+    Long chatOf(long messageId) {
+        return chats.get(messageId);
+    }
+
+    // Deltas by message id, ascending so concurrent writers lock rows in the same order; call committed() or
+    // restore() with the result once it has been written or has failed
+    synchronized Map<Long, Long> flush() {
+        Map<Long, Long> deltas = new TreeMap<>();
+        for (Map.Entry<Long, LongAdder> entry : pending.entrySet()) {
+            LongAdder adder = entry.getValue();
+            long delta = adder.sumThenReset();
+            if (delta == 0 && pending.remove(entry.getKey(), adder)) {
+                delta = adder.sumThenReset(); // Increments that raced with the retirement
+                if (delta == 0 && !flushing.containsKey(entry.getKey())) {
+                    chats.remove(entry.getKey());
+                }
+            }
+            if (delta > 0) {
+                deltas.put(entry.getKey(), delta);
+                flushing.merge(entry.getKey(), delta, Long::sum);
+            }
+        }
+        return deltas;
+    }
+
+    void committed(Map<Long, Long> deltas) {
+        deltas.forEach((messageId, delta) -> flushing.computeIfPresent(messageId, (id, inFlight) -> inFlight - delta == 0 ? null : inFlight - delta));
+    }
+
+    void restore(Map<Long, Long> deltas) {
+        deltas.forEach((messageId, delta) -> pending.computeIfAbsent(messageId, id -> new LongAdder()).add(delta));
+        committed(deltas);
+    }
+}
@@ -0,0 +1,82 @@
+package orgs.model;
+
+import java.time.LocalDateTime;
+
+public class ArchiveSegment {
+    private int id;
+    private long chatId;
+    private long firstMessageId;
+    private long lastMessageId;
+    private int messageCount;
+    private String fileName; // Relative to the archive directory
+    private LocalDateTime createdAt;
+
+    // Constructors
+    public ArchiveSegment() {
+    }
+
+    public ArchiveSegment(long chatId, long firstMessageId, long lastMessageId, int messageCount, String fileName) {
+        this.chatId = chatId;
+        this.firstMessageId = firstMessageId;
+        this.lastMessageId = lastMessageId;
+        this.messageCount = messageCount;
+        this.fileName = fileName;
+    }
+
+    // Getters and Setters
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public long getChatId() {
+        return chatId;
+    }
+
+    public void setChatId(long chatId) {
+        this.chatId = chatId;
+    }
+
+    public long getFirstMessageId() {
+        return firstMessageId;
+    }
+
+    public void setFirstMessageId(long firstMessageId) {
+        this.firstMessageId = firstMessageId;
+    }
+
+    public long getLastMessageId() {
+        return lastMessageId;
+    }
+
+    public void setLastMessageId(long lastMessageId) {
+        this.lastMessageId = lastMessageId;
+    }
+
+    public int getMessageCount() {
+        return messageCount;
+    }
+
+    public void setMessageCount(int messageCount) {
+        this.messageCount = messageCount;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+}
@@ -0,0 +1,74 @@
+package orgs.model;
+
+import java.time.LocalDateTime;
+
+public class ChangeEvent {
+    private long id; // Publication order
+    private String eventType; // e.g. "message_created", "participants_removed", "user_deleted"
+    private Long chatId; // Nullable for events that are not chat-related
+    private Long entityId;
+    private String payload; // JSON describing the change
+    private LocalDateTime createdAt;
+
+    // Constructors
+    public ChangeEvent() {
+    }
+
+    public ChangeEvent(long id, String eventType, Long chatId, Long entityId, String payload, LocalDateTime createdAt) {
+        this.id = id;
+        this.eventType = eventType;
+        this.chatId = chatId;
+        this.entityId = entityId;
+        this.payload = payload;
+        this.createdAt = createdAt;
+    }
+
+    // Getters and Setters
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getEventType() {
+        return eventType;
+    }
+
+    public void setEventType(String eventType) {
+        this.eventType = eventType;
+    }
+
+    public Long getChatId() {
+        return chatId;
+    }
+
+    public void setChatId(Long chatId) {
+        this.chatId = chatId;
+    }
+
+    public Long getEntityId() {
+        return entityId;
+    }
+
+    public void setEntityId(Long entityId) {
+        this.entityId = entityId;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+}
@@ -3,7 +3,7 @@ package orgs.model;
 import java.time.LocalDateTime;
 
 public class Chat {
-    private int id;
+    private long id; // Time-ordered, see orgs.utils.SnowflakeIdGenerator
     private String chatType; // ENUM: 'private', 'group', 'channel'
     private String chatName;
     private String chatPictureUrl;
@@ -17,7 +17,7 @@ public class Chat {
     public Chat() {
     }
 
-    public Chat(int id, String chatType, String chatName, String chatPictureUrl, String chatDescription, String publicLink, int creatorId, LocalDateTime createdAt, LocalDateTime updatedAt) {
+    public Chat(long id, String chatType, String chatName, String chatPictureUrl, String chatDescription, String publicLink, int creatorId, LocalDateTime createdAt, LocalDateTime updatedAt) {
         this.id = id;
         this.chatType = chatType;
         this.chatName = chatName;
@@ -30,11 +30,11 @@ public class Chat {
     }
 
     // Getters and Setters
-    public int getId() {
+    public long getId() {
         return id;
     }
 
-    public void setId(int id) {
+    public void setId(long id) {
         this.id = id;
     }
 
@@ -4,18 +4,18 @@ import java.time.LocalDateTime;
 
 public class ChatParticipant {
     private int id;
-    private int chatId;
+    private long chatId;
     private int userId;
     private String role; // ENUM: 'member', 'admin', 'creator', 'subscriber'
     private int unreadCount;
-    private Integer lastReadMessageId; // Use Integer for nullable
+    private Long lastReadMessageId; // Use Long for nullable
     private LocalDateTime joinedAt;
 
     // Constructors
     public ChatParticipant() {
     }
 
-    public ChatParticipant(int id, int chatId, int userId, String role, int unreadCount, Integer lastReadMessageId, LocalDateTime joinedAt) {
+    public ChatParticipant(int id, long chatId, int userId, String role, int unreadCount, Long lastReadMessageId, LocalDateTime joinedAt) {
         this.id = id;
         this.chatId = chatId;
         this.userId = userId;
@@ -34,11 +34,11 @@ public class ChatParticipant {
         this.id = id;
     }
 
-    public int getChatId() {
+    public long getChatId() {
         return chatId;
     }
 
-    public void setChatId(int chatId) {
+    public void setChatId(long chatId) {
         this.chatId = chatId;
     }
 
@@ -66,11 +66,11 @@ public class ChatParticipant {
         this.unreadCount = unreadCount;
     }
 
-    public Integer getLastReadMessageId() {
+    public Long getLastReadMessageId() {
         return lastReadMessageId;
     }
 
-    public void setLastReadMessageId(Integer lastReadMessageId) {
+    public void setLastReadMessageId(Long lastReadMessageId) {
         this.lastReadMessageId = lastReadMessageId;
     }
 
@@ -0,0 +1,120 @@
+package orgs.model;
+
+import java.time.LocalDateTime;
+
+// One row of a user's chat list: the chat, its last message and the user's own read position
+public class ChatSummary {
+    private long chatId;
+    private String chatType;
+    private String chatName;
+    private String chatPictureUrl;
+    private Long lastMessageId; // Null until the chat has a message
+    private Integer lastSenderId;
+    private String lastSenderUsername;
+    private String lastMessageSnippet;
+    private boolean lastMessageDeleted;
+    private LocalDateTime lastMessageAt;
+    private int unreadCount;
+    private Long lastReadMessageId; // Nullable
+
+    // Constructors
+    public ChatSummary() {
+    }
+
+    // Getters and Setters
+    public long getChatId() {
+        return chatId;
+    }
+
+    public void setChatId(long chatId) {
+        this.chatId = chatId;
+    }
+
+    public String getChatType() {
+        return chatType;
+    }
+
+    public void setChatType(String chatType) {
+        this.chatType = chatType;
+    }
+
+    public String getChatName() {
+        return chatName;
+    }
+
+    public void setChatName(String chatName) {
+        this.chatName = chatName;
+    }
+
+    public String getChatPictureUrl() {
+        return chatPictureUrl;
+    }
+
+    public void setChatPictureUrl(String chatPictureUrl) {
+        this.chatPictureUrl = chatPictureUrl;
+    }
+
+    public Long getLastMessageId() {
+        return lastMessageId;
+    }
+
+    public void setLastMessageId(Long lastMessageId) {
+        this.lastMessageId = lastMessageId;
+    }
+
+    public Integer getLastSenderId() {
+        return lastSenderId;
+    }
+
+    public void setLastSenderId(Integer lastSenderId) {
+        this.lastSenderId = lastSenderId;
+    }
+
+    public String getLastSenderUsername() {
+        return lastSenderUsername;
+    }
+
+    public void setLastSenderUsername(String lastSenderUsername) {
+        this.lastSenderUsername = lastSenderUsername;
+    }
+
+    public String getLastMessageSnippet() {
+        return lastMessageSnippet;
+    }
+
+    public void setLastMessageSnippet(String lastMessageSnippet) {
+        this.lastMessageSnippet = lastMessageSnippet;
+    }
+
+    public boolean isLastMessageDeleted() {
+        return lastMessageDeleted;
+    }
+
+    public void setLastMessageDeleted(boolean lastMessageDeleted) {
+        this.lastMessageDeleted = lastMessageDeleted;
+    }
+
+    public LocalDateTime getLastMessageAt() {
+        return lastMessageAt;
+    }
+
+    public void setLastMessageAt(LocalDateTime lastMessageAt) {
+        this.lastMessageAt = lastMessageAt;
+    }
+
+    public int getUnreadCount() {
+        return unreadCount;
+    }
+
+    public void setUnreadCount(int unreadCount) {
+        this.unreadCount = unreadCount;
+    }
+
+    public Long getLastReadMessageId() {
+        return lastReadMessageId;
+    }
+
+    public void setLastReadMessageId(Long lastReadMessageId) {
+        this.lastReadMessageId = lastReadMessageId;
+    }
+}
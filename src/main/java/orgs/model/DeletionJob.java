@@ -0,0 +1,56 @@
+package orgs.model;
+
+import java.time.LocalDateTime;
+
+public class DeletionJob {
+    private int id;
+    private String entityType; // "chat" or "user"
+    private long entityId;
+    private String step; // The step in progress, see orgs.dao.DeletionJobDao
+    private LocalDateTime createdAt;
+
+    // Constructors
+    public DeletionJob() {
+    }
+
+    // Getters and Setters
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public String getEntityType() {
+        return entityType;
+    }
+
+    public void setEntityType(String entityType) {
+        this.entityType = entityType;
+    }
+
+    public long getEntityId() {
+        return entityId;
+    }
+
+    public void setEntityId(long entityId) {
+        this.entityId = entityId;
+    }
+
+    public String getStep() {
+        return step;
+    }
+
+    public void setStep(String step) {
+        this.step = step;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+}
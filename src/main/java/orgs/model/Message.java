@@ -3,25 +3,28 @@ package orgs.model;
 import java.time.LocalDateTime;
 
 public class Message {
-    private int id;
-    private int chatId;
+    private long id; // Time-ordered, see orgs.utils.SnowflakeIdGenerator
+    private long chatId;
     private int senderId;
     private String content;
     private String messageType; // ENUM: 'text', 'image', 'video', 'voiceNote', 'file', 'system'
     private LocalDateTime sentAt;
     private Integer mediaId; // Use Integer for nullable
-    private Integer repliedToMessageId; // Use Integer for nullable
+    private Long repliedToMessageId; // Use Long for nullable
     private Integer forwardedFromUserId; // Use Integer for nullable
-    private Integer forwardedFromChatId; // Use Integer for nullable
+    private Long forwardedFromChatId; // Use Long for nullable
     private LocalDateTime editedAt; // Nullable
     private boolean isDeleted;
     private int viewCount;
+    private String clientMessageId; // Optional, generated by the sending client so a retried send is not stored twice
+    private String senderDisplayName; // Denormalized from the sender's profile; may lag a rename briefly
+    private String replySnippet; // Start of the replied-to message, null if there is none or it was deleted
 
     // Constructors
     public Message() {
     }
 
-    public Message(int id, int chatId, int senderId, String content, String messageType, LocalDateTime sentAt, Integer mediaId, Integer repliedToMessageId, Integer forwardedFromUserId, Integer forwardedFromChatId, LocalDateTime editedAt, boolean isDeleted, int viewCount) {
+    public Message(long id, long chatId, int senderId, String content, String messageType, LocalDateTime sentAt, Integer mediaId, Long repliedToMessageId, Integer forwardedFromUserId, Long forwardedFromChatId, LocalDateTime editedAt, boolean isDeleted, int viewCount) {
         this.id = id;
         this.chatId = chatId;
         this.senderId = senderId;
@@ -38,19 +41,19 @@ public class Message {
     }
 
     // Getters and Setters
-    public int getId() {
+    public long getId() {
         return id;
     }
 
-    public void setId(int id) {
+    public void setId(long id) {
         this.id = id;
     }
 
-    public int getChatId() {
+    public long getChatId() {
         return chatId;
     }
 
-    public void setChatId(int chatId) {
+    public void setChatId(long chatId) {
         this.chatId = chatId;
     }
 
@@ -94,11 +97,11 @@ public class Message {
         this.mediaId = mediaId;
     }
 
-    public Integer getRepliedToMessageId() {
+    public Long getRepliedToMessageId() {
         return repliedToMessageId;
     }
 
-    public void setRepliedToMessageId(Integer repliedToMessageId) {
+    public void setRepliedToMessageId(Long repliedToMessageId) {
         this.repliedToMessageId = repliedToMessageId;
     }
 
@@ -110,11 +113,11 @@ public class Message {
         this.forwardedFromUserId = forwardedFromUserId;
     }
 
-    public Integer getForwardedFromChatId() {
+    public Long getForwardedFromChatId() {
         return forwardedFromChatId;
     }
 
-    public void setForwardedFromChatId(Integer forwardedFromChatId) {
+    public void setForwardedFromChatId(Long forwardedFromChatId) {
         this.forwardedFromChatId = forwardedFromChatId;
     }
 
@@ -141,4 +144,28 @@ public class Message {
     public void setViewCount(int viewCount) {
         this.viewCount = viewCount;
     }
+
+    public String getClientMessageId() {
+        return clientMessageId;
+    }
+
+    public void setClientMessageId(String clientMessageId) {
+        this.clientMessageId = clientMessageId;
+    }
+
+    public String getSenderDisplayName() {
+        return senderDisplayName;
+    }
+
+    public void setSenderDisplayName(String senderDisplayName) {
+        this.senderDisplayName = senderDisplayName;
+    }
+
+    public String getReplySnippet() {
+        return replySnippet;
+    }
+
+    public void setReplySnippet(String replySnippet) {
+        this.replySnippet = replySnippet;
+    }
 }
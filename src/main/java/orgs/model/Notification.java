@@ -3,11 +3,11 @@ package orgs.model;
 import java.time.LocalDateTime;
 
 public class Notification {
-    private int id;
+    private long id; // Time-ordered, see orgs.utils.SnowflakeIdGenerator
     private int recipientUserId;
     private String message;
     private String eventType;
-    private Integer relatedChatId; // Use Integer for nullable
+    private Long relatedChatId; // Use Long for nullable
     private boolean isRead;
     private LocalDateTime timestamp;
 
@@ -15,7 +15,7 @@ public class Notification {
     public Notification() {
     }
 
-    public Notification(int id, int recipientUserId, String message, String eventType, Integer relatedChatId, boolean isRead, LocalDateTime timestamp) {
+    public Notification(long id, int recipientUserId, String message, String eventType, Long relatedChatId, boolean isRead, LocalDateTime timestamp) {
         this.id = id;
         this.recipientUserId = recipientUserId;
         this.message = message;
@@ -26,11 +26,11 @@ public class Notification {
     }
 
     // Getters and Setters
-    public int getId() {
+    public long getId() {
         return id;
     }
 
-    public void setId(int id) {
+    public void setId(long id) {
         this.id = id;
     }
 
@@ -58,11 +58,11 @@ public class Notification {
         this.eventType = eventType;
     }
 
-    public Integer getRelatedChatId() {
+    public Long getRelatedChatId() {
         return relatedChatId;
     }
 
-    public void setRelatedChatId(Integer relatedChatId) {
+    public void setRelatedChatId(Long relatedChatId) {
         this.relatedChatId = relatedChatId;
     }
 
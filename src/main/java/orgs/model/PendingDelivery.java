@@ -0,0 +1,74 @@
+package orgs.model;
+
+import java.time.LocalDateTime;
+
+public class PendingDelivery {
+    private long deliveryId; // Echoed back by the client in ACK_DELIVERY
+    private int userId;
+    private long chatId;
+    private long messageId;
+    private String payload; // The frame exactly as it would have been pushed live
+    private LocalDateTime createdAt;
+
+    // Constructors
+    public PendingDelivery() {
+    }
+
+    public PendingDelivery(long deliveryId, int userId, long chatId, long messageId, String payload, LocalDateTime createdAt) {
+        this.deliveryId = deliveryId;
+        this.userId = userId;
+        this.chatId = chatId;
+        this.messageId = messageId;
+        this.payload = payload;
+        this.createdAt = createdAt;
+    }
+
+    // Getters and Setters
+    public long getDeliveryId() {
+        return deliveryId;
+    }
+
+    public void setDeliveryId(long deliveryId) {
+        this.deliveryId = deliveryId;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public void setUserId(int userId) {
+        this.userId = userId;
+    }
+
+    public long getChatId() {
+        return chatId;
+    }
+
+    public void setChatId(long chatId) {
+        this.chatId = chatId;
+    }
+
+    public long getMessageId() {
+        return messageId;
+    }
+
+    public void setMessageId(long messageId) {
+        this.messageId = messageId;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+}
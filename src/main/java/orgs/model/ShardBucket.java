@@ -0,0 +1,56 @@
+package orgs.model;
+
+import java.time.LocalDateTime;
+
+public class ShardBucket {
+    private int bucket;
+    private int shardId;
+    private String state; // "active", "copying" or "frozen", see orgs.storage.BucketMover
+    private Integer targetShardId; // Nullable, set while a move is in progress
+    private LocalDateTime updatedAt;
+
+    // Constructors
+    public ShardBucket() {
+    }
+
+    // Getters and Setters
+    public int getBucket() {
+        return bucket;
+    }
+
+    public void setBucket(int bucket) {
+        this.bucket = bucket;
+    }
+
+    public int getShardId() {
+        return shardId;
+    }
+
+    public void setShardId(int shardId) {
+        this.shardId = shardId;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    public Integer getTargetShardId() {
+        return targetShardId;
+    }
+
+    public void setTargetShardId(Integer targetShardId) {
+        this.targetShardId = targetShardId;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(LocalDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,84 @@
+package orgs.model;
+
+import java.time.LocalDateTime;
+
+public class UserUpdate {
+    private long id;
+    private int userId;
+    private String updateType; // 'new_message', 'edit_message', 'delete_message', 'participant_added', 'participant_removed', 'notification'
+    private Long chatId; // Use Long for nullable
+    private Long messageId; // Use Long for nullable
+    private String payload; // Compact JSON describing the change
+    private LocalDateTime createdAt;
+
+    // Constructors
+    public UserUpdate() {
+    }
+
+    public UserUpdate(long id, int userId, String updateType, Long chatId, Long messageId, String payload, LocalDateTime createdAt) {
+        this.id = id;
+        this.userId = userId;
+        this.updateType = updateType;
+        this.chatId = chatId;
+        this.messageId = messageId;
+        this.payload = payload;
+        this.createdAt = createdAt;
+    }
+
+    // Getters and Setters
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public void setUserId(int userId) {
+        this.userId = userId;
+    }
+
+    public String getUpdateType() {
+        return updateType;
+    }
+
+    public void setUpdateType(String updateType) {
+        this.updateType = updateType;
+    }
+
+    public Long getChatId() {
+        return chatId;
+    }
+
+    public void setChatId(Long chatId) {
+        this.chatId = chatId;
+    }
+
+    public Long getMessageId() {
+        return messageId;
+    }
+
+    public void setMessageId(Long messageId) {
+        this.messageId = messageId;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+}
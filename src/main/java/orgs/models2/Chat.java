@@ -1,6 +1,7 @@
 package orgs.models2;
 
 import orgs.utils.DatabaseConnection;
+import orgs.utils.SnowflakeIdGenerator;
 
 import java.sql.*;
 import java.util.ArrayList;
@@ -80,37 +81,36 @@ public class Chat {
 
     /**
      * Saves a new chat record to the database.
-     * The `id`, `created_at`, and `updated_at` timestamps are handled by the database.
+     * The id comes from SnowflakeIdGenerator (chats have no AUTO_INCREMENT); `created_at` and `updated_at` are
+     * handled by the database.
      *
      * @return true if the chat was successfully inserted, false otherwise.
      * @throws SQLException if a database access error occurs.
      */
     public boolean save() throws SQLException {
         // Removed 'created_at' and 'updated_at' from INSERT statement as they are handled by DB defaults
-        String sql = "INSERT INTO chats (chat_type, chat_name, chat_description, chat_picture_url, creator_id, public_link) " +
-                "VALUES (?, ?, ?, ?, ?, ?)";
+        String sql = "INSERT INTO chats (id, chat_type, chat_name, chat_description, chat_picture_url, creator_id, public_link) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?)";
 
+        long id = SnowflakeIdGenerator.NODE.nextId();
         try (Connection connection = DatabaseConnection.getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+             PreparedStatement statement = connection.prepareStatement(sql)) {
 
-            statement.setString(1, chatType.name().toLowerCase());
-            statement.setString(2, chatName);
-            statement.setString(3, chatDescription);
-            statement.setString(4, chatPictureUrl);
-            statement.setLong(5, creatorUserId);
-            statement.setString(6, publicLink);
+            statement.setLong(1, id);
+            statement.setString(2, chatType.name().toLowerCase());
+            statement.setString(3, chatName);
+            statement.setString(4, chatDescription);
+            statement.setString(5, chatPictureUrl);
+            statement.setLong(6, creatorUserId);
+            statement.setString(7, publicLink);
 
             boolean isInserted = statement.executeUpdate() > 0;
             if (isInserted) {
-                try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
-                    if (generatedKeys.next()) {
-                        this.chatId = generatedKeys.getLong(1); // Set the auto-generated ID
-                        // Optionally, fetch createdAt and updatedAt if needed immediately:
-                        // Chat fetchedChat = Chat.findById(this.chatId);
-                        // this.setCreatedAt(fetchedChat.getCreatedAt());
-                        // this.setUpdatedAt(fetchedChat.getUpdatedAt());
-                    }
-                }
+                this.chatId = id;
+                // Optionally, fetch createdAt and updatedAt if needed immediately:
+                // Chat fetchedChat = Chat.findById(this.chatId);
+                // this.setCreatedAt(fetchedChat.getCreatedAt());
+                // this.setUpdatedAt(fetchedChat.getUpdatedAt());
             }
             return isInserted;
         }
@@ -8,7 +8,7 @@ import java.sql.Timestamp;
 public class ChatFactory {
 
     public static Chat createChatFromResultSet(ResultSet rs) throws SQLException {
-        Long chatId = Long.valueOf(rs.getInt("id"));
+        Long chatId = rs.getLong("id");
         Chat.ChatType chatType = Chat.ChatType.valueOf(rs.getString("chat_type").toUpperCase()); // Convert string to enum
         String chatName = rs.getString("chat_name");
         String chatDescription = rs.getString("chat_description");
@@ -1,6 +1,8 @@
 package orgs.models2;
 
+import orgs.dao.ShardRouter;
 import orgs.utils.DatabaseConnection;
+import orgs.utils.SnowflakeIdGenerator;
 
 import java.sql.*;
 
@@ -111,6 +113,7 @@ public class Message {
 
     /**
      * Saves a new message record to the database.
+     * The id comes from SnowflakeIdGenerator (messages have no AUTO_INCREMENT) and the row goes to the chat's shard.
      * The `sent_at` timestamp is automatically handled by the database's `DEFAULT CURRENT_TIMESTAMP`.
      *
      * @return true if the message was successfully inserted, false otherwise.
@@ -118,34 +121,30 @@ public class Message {
      */
     public boolean save() throws SQLException {
         // Removed 'sent_at' from the INSERT statement as it's handled by DB default
-        String sql = "INSERT INTO messages (chat_id, sender_id, message_type, content, media_id, replied_to_message_id, " +
+        String sql = "INSERT INTO messages (id, chat_id, sender_id, message_type, content, media_id, replied_to_message_id, " +
                 "forwarded_from_user_id, forwarded_from_chat_id, edited_at, is_deleted, view_count) " +
-                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
 
-        try (Connection connection = DatabaseConnection.getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        long id = SnowflakeIdGenerator.NODE.nextId();
+        try (Connection connection = ShardRouter.getWriteConnection(chatId);
+             PreparedStatement statement = connection.prepareStatement(sql)) {
 
-            statement.setLong(1, chatId);
-            statement.setLong(2, senderUserId);
-            statement.setString(3, messageType);
-            statement.setString(4, content);
-            statement.setObject(5, mediaId); // Use setObject for nullable Long
-            statement.setObject(6, repliedToMessageId); // Use setObject for nullable Long
-            statement.setObject(7, forwardedFromUserId); // Use setObject for nullable Long
-            statement.setObject(8, forwardedFromChatId); // Use setObject for nullable Long
-            statement.setTimestamp(9, editedAt);
-            statement.setBoolean(10, isDeleted != null ? isDeleted : false); // Ensure boolean value
-            statement.setInt(11, viewCount != null ? viewCount : 0); // Ensure int value
+            statement.setLong(1, id);
+            statement.setLong(2, chatId);
+            statement.setLong(3, senderUserId);
+            statement.setString(4, messageType);
+            statement.setString(5, content);
+            statement.setObject(6, mediaId); // Use setObject for nullable Long
+            statement.setObject(7, repliedToMessageId); // Use setObject for nullable Long
+            statement.setObject(8, forwardedFromUserId); // Use setObject for nullable Long
+            statement.setObject(9, forwardedFromChatId); // Use setObject for nullable Long
+            statement.setTimestamp(10, editedAt);
+            statement.setBoolean(11, isDeleted != null ? isDeleted : false); // Ensure boolean value
+            statement.setInt(12, viewCount != null ? viewCount : 0); // Ensure int value
 
             boolean isInserted = statement.executeUpdate() > 0;
             if (isInserted) {
-                try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
-                    if (generatedKeys.next()) {
-                        this.messageId = generatedKeys.getLong(1); // Set the auto-generated ID
-                        // Optionally, fetch the sentAt from DB if needed immediately after insert
-                        // But generally, the DB's default is reliable.
-                    }
-                }
+                this.messageId = id;
             }
             return isInserted;
         }
@@ -13,6 +13,7 @@ public enum Command {
     // Chat Management
     CREATE_CHAT, // Create Chat (C)
     GET_USER_CHATS, // Read Chats (R) - Chats a user is part of
+    GET_CHAT_SUMMARIES, // Read the chat list (R) - Last message preview and unread count per chat
     GET_CHAT_DETAILS, // Read Chat Details (R)
     UPDATE_CHAT, // Update Chat (U) - Name, type
     DELETE_CHAT, // Delete Chat (D)
@@ -23,12 +24,16 @@ public enum Command {
     UPDATE_MESSAGE, // Update Message (U)
     DELETE_MESSAGE, // Delete Message (D)
     MARK_MESSAGE_AS_READ, // Update view_count (U)
+    GET_MESSAGE_VIEW_STATS, // Read total views and approximate unique viewers (R)
+    MARK_CHAT_READ_UP_TO, // Advance the chat's read watermark (U), optionally with a receipt to the sender
 
     // Chat Participant Management
     ADD_CHAT_PARTICIPANT, // Create Chat Participant (C)
     GET_CHAT_PARTICIPANTS, // Read Chat Participants (R)
     UPDATE_CHAT_PARTICIPANT, // Update Chat Participant (U) - Role
     REMOVE_CHAT_PARTICIPANT, // Delete Chat Participant (D)
+    ADD_CHAT_PARTICIPANTS, // Bulk create, result reported per user
+    REMOVE_CHAT_PARTICIPANTS, // Bulk delete, result reported per user
 
     // Contact Management (These would interact with the contact table in your DB)
     ADD_CONTACT, // C
@@ -43,6 +48,11 @@ public enum Command {
     MARK_NOTIFICATION_AS_READ, // U
     DELETE_NOTIFICATION, // D
 
+    // Sync
+    GET_UPDATES, // R - Changes since the client's last state token
+    ACK_DELIVERY, // Client confirms pushed deliveries (no response is sent)
+    CHAT_ACTIVITY, // Ephemeral typing/recording indicator (no response is sent, never stored)
+
     // Generic Server Response
     SERVER_RESPONSE, // Generic success/failure response
     ERROR // For server-side errors
@@ -5,6 +5,7 @@ import com.google.gson.GsonBuilder;
 
 // This class will be serialized to JSON and sent over the network
 public class Request {
+    private static final Gson GSON = new GsonBuilder().create(); // Gson is thread-safe; building one per call is not free
     private Command command;
     private String payload; // JSON string representing the data for the command
 
@@ -23,13 +24,11 @@ public class Request {
 
     // Helper for serialization to JSON string
     public String toJson() {
-        Gson gson = new GsonBuilder().create();
-        return gson.toJson(this);
+        return GSON.toJson(this);
     }
 
     // Helper for deserialization from JSON string
     public static Request fromJson(String jsonString) {
-        Gson gson = new GsonBuilder().create();
-        return gson.fromJson(jsonString, Request.class);
+        return GSON.fromJson(jsonString, Request.class);
     }
 }
@@ -5,9 +5,11 @@ import com.google.gson.GsonBuilder;
 
 // This class will be serialized to JSON and sent over the network
 public class Response {
+    private static final Gson GSON = new GsonBuilder().create(); // Gson is thread-safe; building one per call is not free
     private boolean success;
     private String message;
     private String data; // JSON string representing the response data (e.g., list of messages, user info)
+    private Long deliveryId; // Set on server pushes only; the client acknowledges it with ACK_DELIVERY
 
     public Response(boolean success, String message, String data) {
         this.success = success;
@@ -27,15 +29,21 @@ public class Response {
         return data;
     }
 
+    public Long getDeliveryId() {
+        return deliveryId;
+    }
+
+    public void setDeliveryId(Long deliveryId) {
+        this.deliveryId = deliveryId;
+    }
+
     // Helper for serialization to JSON string
     public String toJson() {
-        Gson gson = new GsonBuilder().create();
-        return gson.toJson(this);
+        return GSON.toJson(this);
     }
 
     // Helper for deserialization from JSON string
     public static Response fromJson(String jsonString) {
-        Gson gson = new GsonBuilder().create();
-        return gson.fromJson(jsonString, Response.class);
+        return GSON.fromJson(jsonString, Response.class);
     }
 }
@@ -0,0 +1,248 @@
+package orgs.server;
+
+import orgs.dao.OutboxDao;
+import orgs.dao.ShardRouter;
+import orgs.model.ChangeEvent;
+import orgs.utils.Metrics;
+import orgs.utils.SnowflakeIdGenerator;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Publishes the change_events outbox to in-process subscribers, which come in two kinds when several server
+ * processes share the databases:
+ *
+ * Run-once subscribers (subscribe, subscribeByChat) maintain shared tables. Only the node holding a shard's
+ * change_event_lease feeds them: it reads the oldest unpublished events, hands each to every subscriber of its
+ * type in id order, then marks the batch published. A crash or a lost lease between publishing and marking
+ * publishes the batch again, so these subscribers have to be idempotent (upserts and INSERT IGNOREs are). The
+ * holder also deletes events once they have been published for RETENTION_SECONDS.
+ *
+ * Every-node subscribers (subscribeOnEveryNode) maintain this process's own state: caches and pushes to its
+ * connections. Each node reads every event past its own cursor, which only moves over events older than
+ * SETTLE_SECONDS, so an event whose transaction commits after a later id was read is still picked up; events
+ * above the cursor that were already published are remembered until it passes them. The cursor starts at the
+ * present: state built after start-up is read from the database anyway.
+ *
+ * A subscriber that throws is logged and skipped; it does not hold up the others or the stream. Each shard has
+ * its own outbox and lease and is drained in turn.
+ *
+ * Run-once subscribers whose work grows with the chat (a row per member) run on lanes of their own instead of the
+ * relay thread: a chat's events always go to the same lane, in order, and a batch is marked only once every lane
+ * has finished its part, so these subscribers get the same ordering and redelivery as the others.
+ */
+class ChangeEventRelay {
+    private static final int BATCH_SIZE = 500;
+    private static final long POLL_INTERVAL_MILLIS = 100; // Only waited when the outbox is drained
+    private static final int LANES = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final int NODE_ID = SnowflakeIdGenerator.NODE.getNodeId(); // Unique per server process
+    private static final int LEASE_SECONDS = 30;
+    private static final long LEASE_RENEW_MILLIS = 10_000; // Well inside LEASE_SECONDS, so a holder never works on an expired lease
+    private static final long SETTLE_SECONDS = 30; // Commit lag of an outbox insert, plus clock skew to the database
+    private static final long RETENTION_SECONDS = 600; // How far behind a node's cursor may fall before it misses events
+    private static final long PURGE_INTERVAL_MILLIS = 60_000;
+    private static final int PURGE_BATCH_SIZE = 5000;
+
+    private final OutboxDao outboxDao = new OutboxDao();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService relay = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ChangeEventRelay");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ShardState[] shards; // Only touched by the relay thread
+
+    private static final class Subscription {
+        private final String name;
+        private final Set<String> eventTypes;
+        private final Consumer<ChangeEvent> handler;
+        private final ExecutorService[] lanes; // Null: runs on the relay thread
+        private final boolean everyNode;
+
+        private Subscription(String name, Set<String> eventTypes, Consumer<ChangeEvent> handler, ExecutorService[] lanes, boolean everyNode) {
+            this.name = name;
+            this.eventTypes = eventTypes;
+            this.handler = handler;
+            this.lanes = lanes;
+            this.everyNode = everyNode;
+        }
+    }
+
+    private static final class ShardState {
+        private long cursor = -1; // Every-node events up to here are handled; -1 until read from the outbox
+        private final Set<Long> handledAfterCursor = new HashSet<>();
+        private boolean leaseHeld;
+        private long leaseCheckedAtMillis;
+        private long purgedAtMillis;
+    }
+
+    // Subscribe before start(); the name is used in logs and metrics. Runs once per event across all nodes
+    void subscribe(String name, Set<String> eventTypes, Consumer<ChangeEvent> handler) {
+        subscriptions.add(new Subscription(name, eventTypes, handler, null, false));
+    }
+
+    // The same, for handlers with per-member work: they run on LANES threads of their own, by chat
+    void subscribeByChat(String name, Set<String> eventTypes, Consumer<ChangeEvent> handler) {
+        ExecutorService[] lanes = new ExecutorService[LANES];
+        for (int i = 0; i < LANES; i++) {
+            String threadName = "ChangeEventRelay-" + name + "-" + i;
+            lanes[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        subscriptions.add(new Subscription(name, eventTypes, handler, lanes, false));
+    }
+
+    // For handlers that update this process's own state: every node gets every event
+    void subscribeOnEveryNode(String name, Set<String> eventTypes, Consumer<ChangeEvent> handler) {
+        subscriptions.add(new Subscription(name, eventTypes, handler, null, true));
+    }
+
+    void start() {
+        shards = new ShardState[ShardRouter.shardCount()];
+        for (int shard = 0; shard < shards.length; shard++) {
+            shards[shard] = new ShardState();
+        }
+        relay.scheduleWithFixedDelay(this::drain, POLL_INTERVAL_MILLIS, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        relay.shutdown();
+        for (Subscription subscription : subscriptions) {
+            if (subscription.lanes != null) {
+                for (ExecutorService lane : subscription.lanes) {
+                    lane.shutdown(); // Unfinished batches stay unpublished and are published again
+                }
+            }
+        }
+    }
+
+    private void drain() {
+        for (int shard = 0; shard < shards.length; shard++) {
+            try {
+                drainOnThisNode(shard, shards[shard]);
+                if (holdsLease(shard, shards[shard])) {
+                    drainOnce(shard, shards[shard]);
+                }
+            } catch (Exception e) {
+                System.err.println("Error relaying change events of shard " + shard + ": " + e.getMessage()); // Keep the schedule alive
+            }
+        }
+    }
+
+    private void drainOnThisNode(int shard, ShardState state) {
+        if (state.cursor < 0) {
+            state.cursor = outboxDao.getLatestEventId(shard, Timestamp.valueOf(LocalDateTime.now().minusSeconds(SETTLE_SECONDS)));
+            if (state.cursor < 0) {
+                return; // Try again next poll
+            }
+        }
+        List<ChangeEvent> batch;
+        int limit;
+        do {
+            limit = BATCH_SIZE + state.handledAfterCursor.size();
+            batch = outboxDao.getEventsAfter(shard, state.cursor, limit);
+            LocalDateTime settledBefore = LocalDateTime.now().minusSeconds(SETTLE_SECONDS);
+            long settled = state.cursor;
+            int handled = 0;
+            for (ChangeEvent event : batch) {
+                if (state.handledAfterCursor.add(event.getId())) {
+                    publish(event, true, null);
+                    handled++;
+                }
+                if (event.getCreatedAt().isBefore(settledBefore)) {
+                    settled = event.getId(); // Any lower id was inserted before it and has committed by now
+                }
+            }
+            long cursor = settled;
+            state.handledAfterCursor.removeIf(id -> id <= cursor);
+            state.cursor = cursor;
+            Metrics.add("outbox.published_on_node", handled);
+        } while (batch.size() == limit);
+    }
+
+    private boolean holdsLease(int shard, ShardState state) {
+        long now = System.currentTimeMillis();
+        if (now - state.leaseCheckedAtMillis >= LEASE_RENEW_MILLIS) {
+            boolean held = outboxDao.holdLease(shard, NODE_ID, LEASE_SECONDS);
+            if (held != state.leaseHeld) {
+                System.out.println((held ? "Took" : "Lost") + " the change event lease of shard " + shard);
+            }
+            state.leaseHeld = held;
+            state.leaseCheckedAtMillis = now;
+        }
+        return state.leaseHeld;
+    }
+
+    private void drainOnce(int shard, ShardState state) throws Exception {
+        List<ChangeEvent> batch;
+        do {
+            batch = outboxDao.getUnpublishedEvents(shard, BATCH_SIZE);
+            if (batch.isEmpty()) {
+                break;
+            }
+            List<Long> published = new ArrayList<>(batch.size());
+            List<Future<?>> onLanes = new ArrayList<>();
+            for (ChangeEvent event : batch) {
+                publish(event, false, onLanes);
+                published.add(event.getId());
+            }
+            for (Future<?> handled : onLanes) {
+                handled.get(); // Handlers catch their own errors; this only waits
+            }
+            outboxDao.markPublished(shard, published);
+            Metrics.add("outbox.published", batch.size());
+            ChangeEvent last = batch.get(batch.size() - 1);
+            Metrics.recordMillis("outbox.lag", Duration.between(last.getCreatedAt(), LocalDateTime.now()).toMillis());
+        } while (batch.size() == BATCH_SIZE && holdsLease(shard, state));
+
+        long now = System.currentTimeMillis();
+        if (now - state.purgedAtMillis >= PURGE_INTERVAL_MILLIS) {
+            Timestamp publishedBefore = Timestamp.valueOf(LocalDateTime.now().minusSeconds(RETENTION_SECONDS));
+            int deleted;
+            do {
+                deleted = outboxDao.deletePublishedBefore(shard, publishedBefore, PURGE_BATCH_SIZE);
+                Metrics.add("outbox.deleted", Math.max(deleted, 0));
+            } while (deleted == PURGE_BATCH_SIZE);
+            state.purgedAtMillis = now;
+        }
+    }
+
+    private void publish(ChangeEvent event, boolean everyNode, List<Future<?>> onLanes) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.everyNode != everyNode || !subscription.eventTypes.contains(event.getEventType())) {
+                continue;
+            }
+            if (subscription.lanes == null) {
+                handle(subscription, event);
+            } else {
+                long chatId = event.getChatId() != null ? event.getChatId() : 0;
+                onLanes.add(subscription.lanes[Math.floorMod(Long.hashCode(chatId), LANES)].submit(() -> handle(subscription, event)));
+            }
+        }
+    }
+
+    private static void handle(Subscription subscription, ChangeEvent event) {
+        try {
+            subscription.handler.accept(event);
+        } catch (Exception e) {
+            System.err.println("Change event subscriber " + subscription.name + " failed on event " + event.getId() + ": " + e.getMessage());
+            Metrics.increment("outbox.subscriber_errors." + subscription.name);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package orgs.server;
+
+import orgs.utils.Metrics;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * "typing…" / "recording voice note…" indicators. Nothing here is stored or goes through Response: signals are
+ * checked against the in-memory membership, rate-limited per sender, and collected per chat. Every
+ * FLUSH_INTERVAL_MILLIS each changed chat gets one plain-text line with the full set of active senders, so a
+ * big group sees a couple of frames per second however many people type in it.
+ *
+ * Frame: {@code SIGNAL <chatId> [<action>=<userId>,<userId>...]...} (no actions means nobody is active).
+ */
+class ChatActivitySignals {
+    static final Set<String> ACTIONS = Set.of("typing", "recording_voice");
+    static final String CANCEL = "cancel";
+
+    private static final long FLUSH_INTERVAL_MILLIS = 500;
+    private static final long ACTIVITY_TTL_MILLIS = 6_000; // Clients resend while the user keeps typing
+    private static final int SENDER_BURST = 10;
+    private static final double SENDER_SIGNALS_PER_SECOND = 2.0;
+
+    private final ChatMembershipCache membershipCache;
+    private final OnlineUsers onlineUsers;
+    private final IntFunction<PrintWriter> onlineWriter; // null when the user is not connected
+    private final Map<Long, ChatActivity> activeChats = new ConcurrentHashMap<>();
+    private final Map<Integer, TokenBucket> senderBuckets = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ChatActivitySignals");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final class Activity {
+        private final String action;
+        private final long expiresAtMillis;
+
+        private Activity(String action, long expiresAtMillis) {
+            this.action = action;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    private static final class ChatActivity {
+        private final Map<Integer, Activity> bySender = new TreeMap<>();
+        private boolean changed;
+        private boolean removed;
+    }
+
+    private static final class TokenBucket {
+        private double tokens = SENDER_BURST;
+        private long refilledAtMillis = System.currentTimeMillis();
+
+        private synchronized boolean tryTake(long now) {
+            tokens = Math.min(SENDER_BURST, tokens + (now - refilledAtMillis) / 1000.0 * SENDER_SIGNALS_PER_SECOND);
+            refilledAtMillis = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+
+    ChatActivitySignals(ChatMembershipCache membershipCache, OnlineUsers onlineUsers, IntFunction<PrintWriter> onlineWriter) {
+        this.membershipCache = membershipCache;
+        this.onlineUsers = onlineUsers;
+        this.onlineWriter = onlineWriter;
+    }
+
+    void start() {
+        flusher.scheduleAtFixedRate(this::flush, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        flusher.shutdown();
+    }
+
+    // Returns false when the signal was dropped (not a member, unknown action or rate-limited)
+    boolean signal(int senderId, long chatId, String action) {
+        if (!ACTIONS.contains(action) && !CANCEL.equals(action)) {
+            return false;
+        }
+        ChatMembers members = membershipCache.peekMembers(chatId);
+        if (members == null || !members.contains(senderId)) {
+            Metrics.increment("signals.rejected");
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (!senderBuckets.computeIfAbsent(senderId, id -> new TokenBucket()).tryTake(now)) {
+            Metrics.increment("signals.rate_limited");
+            return false;
+        }
+
+        while (true) {
+            ChatActivity chat = activeChats.computeIfAbsent(chatId, id -> new ChatActivity());
+            synchronized (chat) {
+                if (chat.removed) {
+                    continue; // The flusher just dropped this idle chat, start a fresh one
+                }
+                if (CANCEL.equals(action)) {
+                    chat.changed |= chat.bySender.remove(senderId) != null;
+                } else {
+                    Activity previous = chat.bySender.put(senderId, new Activity(action, now + ACTIVITY_TTL_MILLIS));
+                    // A refresh of the same action only extends its lifetime, it does not need a frame
+                    chat.changed |= previous == null || !previous.action.equals(action);
+                }
+            }
+            Metrics.increment("signals.accepted");
+            return true;
+        }
+    }
+
+    // The sender's indicator is implied to stop once their message arrives
+    void clear(int senderId, long chatId) {
+        ChatActivity chat = activeChats.get(chatId);
+        if (chat != null) {
+            synchronized (chat) {
+                if (chat.bySender.remove(senderId) != null) {
+                    chat.changed = true;
+                }
+            }
+        }
+    }
+
+    private void flush() {
+        try {
+            long now = System.currentTimeMillis();
+            Iterator<Map.Entry<Long, ChatActivity>> chats = activeChats.entrySet().iterator();
+            while (chats.hasNext()) {
+                Map.Entry<Long, ChatActivity> entry = chats.next();
+                ChatActivity chat = entry.getValue();
+                String frame = null;
+                synchronized (chat) {
+                    if (chat.bySender.values().removeIf(activity -> activity.expiresAtMillis <= now)) {
+                        chat.changed = true;
+                    }
+                    if (chat.changed) {
+                        frame = frame(entry.getKey(), chat);
+                        chat.changed = false;
+                    }
+                    if (chat.bySender.isEmpty()) {
+                        chat.removed = true;
+                        chats.remove();
+                    }
+                }
+                if (frame != null) {
+                    broadcast(entry.getKey(), frame);
+                }
+            }
+            senderBuckets.values().removeIf(bucket -> now - bucket.refilledAtMillis > 60_000);
+        } catch (Exception e) {
+            System.err.println("Error flushing chat activity: " + e.getMessage()); // Keep the schedule alive
+        }
+    }
+
+    private void broadcast(long chatId, String frame) {
+        ChatMembers members = membershipCache.peekMembers(chatId);
+        if (members == null) {
+            return;
+        }
+        int sent = 0;
+        for (int userId : members.online(onlineUsers)) {
+            PrintWriter out = onlineWriter.apply(userId);
+            if (out != null) {
+                out.println(frame);
+                sent++;
+            }
+        }
+        Metrics.add("signals.frames_sent", sent);
+    }
+
+    private static String frame(long chatId, ChatActivity chat) {
+        Map<String, List<Integer>> byAction = new TreeMap<>();
+        chat.bySender.forEach((userId, activity) -> byAction.computeIfAbsent(activity.action, a -> new ArrayList<>()).add(userId));
+        StringBuilder frame = new StringBuilder("SIGNAL ").append(chatId);
+        byAction.forEach((action, userIds) -> {
+            frame.append(' ').append(action).append('=');
+            for (int i = 0; i < userIds.size(); i++) {
+                if (i > 0) frame.append(',');
+                frame.append(userIds.get(i));
+            }
+        });
+        return frame.toString();
+    }
+}
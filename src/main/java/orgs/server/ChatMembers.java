@@ -0,0 +1,189 @@
+package orgs.server;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.IntConsumer;
+
+/**
+ * Immutable set of a chat's member user ids. Sparse chats are a sorted int[] (4 bytes per member); dense ones,
+ * where members make up more than 1 in 32 of the id range, a bitmap over the id range. That keeps the
+ * footprint at min(4 bytes per member, 1 bit per id) and lets big channels intersect with OnlineUsers a
+ * 64-bit word at a time. Changes produce a new instance, so fanout can iterate without locking.
+ */
+abstract class ChatMembers {
+    static final ChatMembers EMPTY = new SortedArray(new int[0]);
+
+    static ChatMembers of(Collection<Integer> userIds) {
+        int[] ids = new int[userIds.size()];
+        int i = 0;
+        for (int userId : userIds) {
+            ids[i++] = userId;
+        }
+        return ofUnsorted(ids);
+    }
+
+    private static ChatMembers ofUnsorted(int[] ids) {
+        Arrays.sort(ids);
+        int size = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (i == 0 || ids[i] != ids[i - 1]) {
+                ids[size++] = ids[i];
+            }
+        }
+        if (size == 0) {
+            return EMPTY;
+        }
+        int maxId = ids[size - 1];
+        long bitmapWords = (maxId >>> 6) + 1L;
+        if (bitmapWords * 2 < size) { // 8 bytes per word against 4 per array entry
+            long[] words = new long[(int) bitmapWords];
+            for (int j = 0; j < size; j++) {
+                words[ids[j] >>> 6] |= 1L << ids[j];
+            }
+            return new Bitmap(words, size);
+        }
+        return new SortedArray(size == ids.length ? ids : Arrays.copyOf(ids, size));
+    }
+
+    abstract int size();
+
+    abstract boolean contains(int userId);
+
+    abstract void forEach(IntConsumer action);
+
+    // Members with a bit set in OnlineUsers, ascending
+    abstract int[] online(OnlineUsers onlineUsers);
+
+    // Members without one, ascending
+    abstract int[] offline(OnlineUsers onlineUsers);
+
+    ChatMembers with(Collection<Integer> userIds) {
+        int[] ids = new int[size() + userIds.size()];
+        int[] next = {0};
+        forEach(id -> ids[next[0]++] = id);
+        for (int userId : userIds) {
+            ids[next[0]++] = userId;
+        }
+        return ofUnsorted(ids);
+    }
+
+    ChatMembers without(Collection<Integer> userIds) {
+        int[] ids = new int[size()];
+        int[] next = {0};
+        forEach(id -> {
+            if (!userIds.contains(id)) {
+                ids[next[0]++] = id;
+            }
+        });
+        return ofUnsorted(Arrays.copyOf(ids, next[0]));
+    }
+
+    private static final class SortedArray extends ChatMembers {
+        private final int[] ids;
+
+        private SortedArray(int[] ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        int size() {
+            return ids.length;
+        }
+
+        @Override
+        boolean contains(int userId) {
+            return Arrays.binarySearch(ids, userId) >= 0;
+        }
+
+        @Override
+        void forEach(IntConsumer action) {
+            for (int id : ids) {
+                action.accept(id);
+            }
+        }
+
+        @Override
+        int[] online(OnlineUsers onlineUsers) {
+            return select(onlineUsers, true);
+        }
+
+        @Override
+        int[] offline(OnlineUsers onlineUsers) {
+            return select(onlineUsers, false);
+        }
+
+        private int[] select(OnlineUsers onlineUsers, boolean online) {
+            long[] words = onlineUsers.words();
+            int[] selected = new int[ids.length];
+            int count = 0;
+            for (int id : ids) {
+                int word = id >>> 6;
+                boolean isOnline = word < words.length && (words[word] & (1L << id)) != 0;
+                if (isOnline == online) {
+                    selected[count++] = id;
+                }
+            }
+            return Arrays.copyOf(selected, count);
+        }
+    }
+
+    private static final class Bitmap extends ChatMembers {
+        private final long[] words;
+        private final int size;
+
+        private Bitmap(long[] words, int size) {
+            this.words = words;
+            this.size = size;
+        }
+
+        @Override
+        int size() {
+            return size;
+        }
+
+        @Override
+        boolean contains(int userId) {
+            int word = userId >>> 6;
+            return word < words.length && (words[word] & (1L << userId)) != 0;
+        }
+
+        @Override
+        void forEach(IntConsumer action) {
+            for (int w = 0; w < words.length; w++) {
+                for (long bits = words[w]; bits != 0; bits &= bits - 1) {
+                    action.accept((w << 6) + Long.numberOfTrailingZeros(bits));
+                }
+            }
+        }
+
+        @Override
+        int[] online(OnlineUsers onlineUsers) {
+            return select(onlineUsers, true);
+        }
+
+        @Override
+        int[] offline(OnlineUsers onlineUsers) {
+            return select(onlineUsers, false);
+        }
+
+        // Word-wise AND (or AND NOT) with the online bitmap
+        private int[] select(OnlineUsers onlineUsers, boolean online) {
+            long[] onlineWords = onlineUsers.words();
+            int count = 0;
+            long[] selected = new long[words.length];
+            for (int w = 0; w < words.length; w++) {
+                long onlineBits = w < onlineWords.length ? onlineWords[w] : 0L;
+                selected[w] = words[w] & (online ? onlineBits : ~onlineBits);
+                count += Long.bitCount(selected[w]);
+            }
+            int[] ids = new int[count];
+            int next = 0;
+            for (int w = 0; w < selected.length; w++) {
+                for (long bits = selected[w]; bits != 0; bits &= bits - 1) {
+                    ids[next++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+                }
+            }
+            return ids;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package orgs.server;
+
+import orgs.dao.ChatParticipantDao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * User ids per chat, kept in memory so pushes and ephemeral signals can be routed without a
+ * chat_participants query. Chats are loaded on first use (or for all of a user's chats at login) and then
+ * kept up to date by the handlers that change membership. Each chat is an immutable ChatMembers that is
+ * swapped on change, so readers never see a half-applied bulk add or remove.
+ *
+ * The cache holds at most MAX_CHATS chats: past that, the least recently used go until it is back to
+ * EVICT_TO_CHATS, and evictIdle() drops chats unused for IDLE_MILLIS. Evicted chats load again on demand (peekMembers
+ * sees them only once something has). Chats with no members, including ids that are no chat at all, are not cached.
+ */
+class ChatMembershipCache {
+    private static final int MAX_CHATS = Integer.getInteger("tusal.membershipCache.maxChats", 100_000);
+    private static final int EVICT_TO_CHATS = MAX_CHATS / 10 * 9; // Evictions sort the map, so not one per insert
+    private static final long IDLE_MILLIS = 30 * 60_000;
+
+    private final ChatParticipantDao chatParticipantDao = new ChatParticipantDao();
+    private final Map<Long, Entry> members = new ConcurrentHashMap<>();
+    private final AtomicLong changes = new AtomicLong(); // Membership changes applied, for warmForUser
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private static final class Entry {
+        private final ChatMembers members;
+        private volatile long lastUsedMillis = System.currentTimeMillis();
+
+        private Entry(ChatMembers members) {
+            this.members = members;
+        }
+
+        private ChatMembers touch() {
+            lastUsedMillis = System.currentTimeMillis();
+            return members;
+        }
+    }
+
+    // Loads the chat from the database if it is not cached yet. The load runs inside computeIfAbsent, so a
+    // change to the chat made meanwhile waits for it and is applied to what it loaded instead of being lost
+    ChatMembers getMembers(long chatId) {
+        Entry cached = members.get(chatId);
+        if (cached != null) {
+            return cached.touch();
+        }
+        Entry loaded = members.computeIfAbsent(chatId, id -> entryOf(chatParticipantDao.getParticipantUserIds(id)));
+        if (loaded == null) {
+            return ChatMembers.EMPTY;
+        }
+        evictIfFull();
+        return loaded.members;
+    }
+
+    // Never touches the database: null when the chat is not cached
+    ChatMembers peekMembers(long chatId) {
+        Entry cached = members.get(chatId);
+        return cached != null ? cached.touch() : null;
+    }
+
+    // One query for all of the user's chats, too slow to hold the map's locks for. If membership changed
+    // anywhere while it ran, nothing is cached: the chats load one by one through getMembers instead
+    void warmForUser(int userId) {
+        long before = changes.get();
+        Map<Long, List<Integer>> loaded = chatParticipantDao.getCoParticipantsByChat(userId);
+        loaded.forEach((chatId, userIds) -> members.computeIfAbsent(chatId, id -> changes.get() == before ? entryOf(userIds) : null));
+        evictIfFull();
+    }
+
+    void putChat(long chatId, List<Integer> userIds) {
+        members.put(chatId, new Entry(ChatMembers.of(userIds)));
+        evictIfFull();
+    }
+
+    // Uncached chats are left alone, they are loaded with the change already applied
+    void addMember(long chatId, int userId) {
+        addMembers(chatId, List.of(userId));
+    }
+
+    void removeMember(long chatId, int userId) {
+        removeMembers(chatId, List.of(userId));
+    }
+
+    void addMembers(long chatId, Collection<Integer> userIds) {
+        changes.incrementAndGet();
+        members.computeIfPresent(chatId, (id, cached) -> new Entry(cached.members.with(userIds)));
+    }
+
+    void removeMembers(long chatId, Collection<Integer> userIds) {
+        changes.incrementAndGet();
+        members.computeIfPresent(chatId, (id, cached) -> new Entry(cached.members.without(userIds)));
+    }
+
+    void removeChat(long chatId) {
+        changes.incrementAndGet();
+        members.remove(chatId);
+    }
+
+    void removeUser(int userId) {
+        changes.incrementAndGet();
+        List<Integer> user = List.of(userId);
+        members.replaceAll((chatId, cached) -> cached.members.contains(userId) ? new Entry(cached.members.without(user)) : cached);
+    }
+
+    // Drops chats nobody has used for IDLE_MILLIS; returns how many
+    int evictIdle() {
+        long idleSince = System.currentTimeMillis() - IDLE_MILLIS;
+        int before = members.size();
+        members.values().removeIf(entry -> entry.lastUsedMillis < idleSince);
+        return before - members.size();
+    }
+
+    // Least recently used first, down to EVICT_TO_CHATS; one caller at a time, the others go on
+    private void evictIfFull() {
+        if (members.size() <= MAX_CHATS || !evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<Map.Entry<Long, Long>> byLastUse = new ArrayList<>(members.size());
+            members.forEach((chatId, entry) -> byLastUse.add(Map.entry(chatId, entry.lastUsedMillis)));
+            byLastUse.sort(Map.Entry.comparingByValue(Comparator.naturalOrder()));
+            for (int i = 0; i < byLastUse.size() - EVICT_TO_CHATS; i++) {
+                members.remove(byLastUse.get(i).getKey());
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private static Entry entryOf(List<Integer> userIds) {
+        return userIds.isEmpty() ? null : new Entry(ChatMembers.of(userIds));
+    }
+}
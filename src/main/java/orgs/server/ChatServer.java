@@ -6,12 +6,22 @@ import orgs.protocol.Request;
 import orgs.protocol.Response;
 import orgs.dao.UserDao; // Example DAO usage
 import orgs.dao.MessageDao; // Example DAO usage
+import orgs.dao.UserUpdateDao;
+import orgs.dao.ChatSummaryDao;
+import orgs.dao.ShardRouter;
 import orgs.model.Message;
+import orgs.model.PendingDelivery;
 import orgs.model.User;
+import orgs.model.UserUpdate;
+import orgs.storage.MessageArchive;
+import orgs.storage.MessagePurger;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
 import com.google.gson.reflect.TypeToken;
+import orgs.utils.HyperLogLog;
 import orgs.utils.LocalDateTimeAdapter;
+import orgs.utils.Metrics;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -20,22 +30,83 @@ import java.io.PrintWriter;
 import java.lang.reflect.Type;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class ChatServer {
     private static final int PORT = 12345;
+    private static final int MAX_UPDATES_PER_SYNC = 1000; // Beyond this GET_UPDATES tells the client to resync
+    private static final long UPDATE_SETTLE_SECONDS = 60; // Commit lag of an update log insert, plus clock skew to the database
+    private static final long UPDATE_LOG_RETENTION_SECONDS = TimeUnit.DAYS.toSeconds(7);
+    private static final int DEFAULT_USER_PAGE = 200; // GET_ALL_USERS page size when the client does not ask
+    private static final int MAX_USER_PAGE = 1000;
+    private static final int USER_CHUNK_SIZE = 50; // Users per "Users chunk" frame
+    private static final int MAX_INITIAL_MEMBERS = 500; // Members accepted in one CREATE_CHAT
+    private static final int MAX_BULK_PARTICIPANTS = 10_000; // Users per ADD/REMOVE_CHAT_PARTICIPANTS request
+    private static final int DEFAULT_CHAT_LIST_LIMIT = 500; // GET_CHAT_SUMMARIES rows when the client does not ask
+    private static final int MAX_CHAT_LIST_LIMIT = 2000;
+    private static final long VIEW_COUNT_FLUSH_SECONDS = 3;
+    private static final long VIEWER_SKETCH_FLUSH_SECONDS = 30;
+    private static final int ARCHIVE_AFTER_DAYS = 180; // For chats without their own archive_after_days
+    // Every server reads segments from here, so with several servers this has to be storage they all mount
+    private static final Path ARCHIVE_DIRECTORY = Paths.get(System.getProperty("tusal.archiveDir", "archive"));
+    // Soft-deleted messages are hard-deleted after this many days, at most this many rows per second
+    private static final int PURGE_RETENTION_DAYS = Integer.getInteger("tusal.purge.retentionDays", 30);
+    private static final int PURGE_ROWS_PER_SECOND = Integer.getInteger("tusal.purge.rowsPerSecond", 500);
     private ExecutorService pool = Executors.newFixedThreadPool(10); // Thread pool for clients
+    private ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(); // Background housekeeping
     private UserDao userDao = new UserDao();
     private MessageDao messageDao = new MessageDao();
+    private ChatSummaryDao chatSummaryDao = new ChatSummaryDao();
+    private UserUpdateDao userUpdateDao = new UserUpdateDao();
+    private OfflineDeliveryQueue offlineDeliveryQueue = new OfflineDeliveryQueue(
+            new Response(true, "Offline backlog truncated, resync with GET_UPDATES", null).toJson());
+    private ClientMessageIdWindow clientMessageIdWindow = new ClientMessageIdWindow();
+    private ChatMembershipCache membershipCache = new ChatMembershipCache();
+    private OnlineUsers onlineUsers = new OnlineUsers(); // Bitmap mirror of loggedInUsers' keys, for fanout
+    private ChatActivitySignals activitySignals = new ChatActivitySignals(membershipCache, onlineUsers, userId -> {
+        ClientHandler handler = loggedInUsers.get(userId);
+        return handler != null ? handler.out : null;
+    });
+    private FanoutEngine fanoutEngine = new FanoutEngine(onlineUsers, offlineDeliveryQueue, (userId, frame, chatId, messageId) -> {
+        ClientHandler handler = loggedInUsers.get(userId);
+        if (handler == null) {
+            return false;
+        }
+        handler.deliver(frame, chatId, messageId);
+        return true;
+    });
+    private MessageChangeEvents messageChanges = new MessageChangeEvents(membershipCache, onlineUsers, userId -> {
+        ClientHandler handler = loggedInUsers.get(userId);
+        return handler != null ? handler.out : null;
+    });
+    private ReadWatermarks readWatermarks = new ReadWatermarks(userId -> {
+        ClientHandler handler = loggedInUsers.get(userId);
+        return handler != null ? handler.out : null;
+    });
+    private ViewerSketches viewerSketches = new ViewerSketches();
+    private ChangeEventRelay changeEventRelay = new ChangeEventRelay();
+    private MessageArchive messageArchive = new MessageArchive(ARCHIVE_DIRECTORY, ARCHIVE_AFTER_DAYS);
+    private MessagePurger messagePurger = new MessagePurger(PURGE_RETENTION_DAYS, PURGE_ROWS_PER_SECOND);
+    private DeletionWorker deletionWorker = new DeletionWorker(messageArchive);
     private Gson gson = new GsonBuilder()
             .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
             .serializeNulls() // Keep this if you want nulls serialized
@@ -49,6 +120,39 @@ public class ChatServer {
     }
 
     public void start() {
+        // Trim the update log; tokens older than the retention window get a resync response anyway
+        maintenance.scheduleAtFixedRate(() -> {
+            Timestamp cutoff = Timestamp.from(Instant.now().minusSeconds(UPDATE_LOG_RETENTION_SECONDS));
+            int removed = userUpdateDao.deleteUpdatesOlderThan(cutoff);
+            System.out.println("Trimmed " + removed + " old user updates.");
+        }, 1, 24, TimeUnit.HOURS);
+        maintenance.scheduleWithFixedDelay(() -> Metrics.add("chat_summaries.markers_trimmed",
+                chatSummaryDao.deleteUnreadCountedBefore(Timestamp.from(Instant.now().minusSeconds(TimeUnit.DAYS.toSeconds(1))))), 1, 1, TimeUnit.HOURS);
+        // Re-push backlog batches the client has not acknowledged yet
+        maintenance.scheduleAtFixedRate(() -> loggedInUsers.forEach((userId, handler) -> {
+            List<PendingDelivery> due = offlineDeliveryQueue.retransmitDue(userId);
+            if (!due.isEmpty()) {
+                handler.pushPendingDeliveries(due);
+            }
+        }), 10, 10, TimeUnit.SECONDS);
+        // Backlogs of users who stay away; they resync through GET_UPDATES
+        maintenance.scheduleWithFixedDelay(offlineDeliveryQueue::expire, 1, 1, TimeUnit.HOURS);
+        maintenance.scheduleAtFixedRate(() -> System.out.println("Metrics: " + Metrics.snapshot()), 5, 5, TimeUnit.MINUTES);
+        maintenance.scheduleWithFixedDelay(() -> Metrics.add("membership_cache.evicted", membershipCache.evictIdle()), 5, 5, TimeUnit.MINUTES);
+        // Buffered message views, one batched UPDATE per interval instead of one per view
+        maintenance.scheduleWithFixedDelay(() -> Metrics.add("views.flushed_messages", messageDao.flushViewCounts()),
+                VIEW_COUNT_FLUSH_SECONDS, VIEW_COUNT_FLUSH_SECONDS, TimeUnit.SECONDS);
+        maintenance.scheduleWithFixedDelay(viewerSketches::flush, VIEWER_SKETCH_FLUSH_SECONDS, VIEWER_SKETCH_FLUSH_SECONDS, TimeUnit.SECONDS);
+        ShardRouter.start(); // Keeps the bucket map fresh while buckets are moved; nothing to do without shards
+        activitySignals.start();
+        messageChanges.start();
+        readWatermarks.start();
+        subscribeToChangeEvents();
+        changeEventRelay.start();
+        messageArchive.start();
+        messagePurger.start();
+        deletionWorker.start();
+
         try (ServerSocket serverSocket = new ServerSocket(PORT)) {
             System.out.println("Chat Server started on port " + PORT);
             while (true) {
@@ -62,14 +166,121 @@ public class ChatServer {
             e.printStackTrace();
         } finally {
             pool.shutdown();
+            maintenance.shutdown();
+            messageDao.flushViewCounts();
+            viewerSketches.flush();
+            activitySignals.stop();
+            fanoutEngine.stop();
+            changeEventRelay.stop();
+            messageChanges.stop();
+            readWatermarks.stop();
+            messageArchive.stop();
+            messagePurger.stop();
+            deletionWorker.stop();
+            ShardRouter.stop();
         }
     }
 
+    // Derived state kept in step with committed writes, whichever code path made them. Handlers still
+    // update the cache directly for read-your-writes; replaying the same change here is harmless.
+    // The cache and live pushes belong to this process, so every node subscribes to them; shared tables once.
+    private void subscribeToChangeEvents() {
+        changeEventRelay.subscribeOnEveryNode("membership_cache", Set.of("participants_added", "participants_removed", "chat_deleted", "user_deleted"), event -> {
+            switch (event.getEventType()) {
+                case "participants_added":
+                    membershipCache.addMembers(event.getChatId(), userIdsOf(event.getPayload()));
+                    break;
+                case "participants_removed":
+                    membershipCache.removeMembers(event.getChatId(), userIdsOf(event.getPayload()));
+                    break;
+                case "chat_deleted":
+                    membershipCache.removeChat(event.getChatId());
+                    break;
+                case "user_deleted":
+                    membershipCache.removeUser(event.getEntityId().intValue());
+                    break;
+            }
+        });
+        changeEventRelay.subscribeOnEveryNode("message_changes", Set.of("message_edited", "message_deleted"), event -> {
+            JsonObject change = gson.fromJson(event.getPayload(), JsonObject.class);
+            if ("message_edited".equals(event.getEventType())) {
+                messageChanges.edited(event.getChatId(), event.getEntityId(), change.has("content") ? change.get("content").getAsString() : null,
+                        gson.fromJson(change.get("editedAt"), LocalDateTime.class));
+            } else {
+                messageChanges.deleted(event.getChatId(), event.getEntityId(), event.getCreatedAt());
+            }
+        });
+        // The chat list preview and unread counts (see ChatSummaryDao); the event time stands in for sent_at,
+        // both are set by the same transaction. Unread counts are a row per member, so off the relay thread
+        changeEventRelay.subscribeByChat("chat_summaries", Set.of("message_created", "message_edited", "message_updated", "message_deleted"), event -> {
+            long chatId = event.getChatId();
+            long messageId = event.getEntityId();
+            JsonObject change = gson.fromJson(event.getPayload(), JsonObject.class);
+            boolean applied;
+            switch (event.getEventType()) {
+                case "message_created":
+                    Message message = gson.fromJson(change, Message.class);
+                    applied = chatSummaryDao.applyMessageCreated(chatId, messageId, message.getSenderId(),
+                            ChatSummaryDao.snippetOf(message.getContent(), message.getMessageType()), event.getCreatedAt());
+                    break;
+                case "message_deleted":
+                    applied = chatSummaryDao.applyMessageChanged(chatId, messageId, null, true);
+                    break;
+                default: // An edit, or an update that may also be a delete
+                    boolean deleted = change.has("isDeleted") && change.get("isDeleted").getAsBoolean();
+                    applied = chatSummaryDao.applyMessageChanged(chatId, messageId, deleted ? null : ChatSummaryDao.snippetOf(stringOrNull(change, "content"), "text"), deleted);
+                    break;
+            }
+            if (!applied) {
+                Metrics.increment("chat_summaries.apply_errors");
+            }
+        });
+        // Denormalized timeline columns on messages (see MessageDao.createMessage). Renames can touch many rows,
+        // so they are applied here, in id ranges, rather than in UPDATE_USER_PROFILE
+        changeEventRelay.subscribe("timeline_rows", Set.of("user_updated", "message_edited", "message_updated", "message_deleted"), event -> {
+            JsonObject change = event.getPayload() != null ? gson.fromJson(event.getPayload(), JsonObject.class) : new JsonObject();
+            boolean applied;
+            if ("user_updated".equals(event.getEventType())) {
+                int refreshed = messageDao.refreshSenderDisplayName(event.getEntityId().intValue(), MessageDao.displayNameOf(
+                        stringOrNull(change, "username"), stringOrNull(change, "firstName"), stringOrNull(change, "lastName")));
+                applied = refreshed != -1;
+                Metrics.add("timeline_rows.renamed", Math.max(refreshed, 0));
+            } else {
+                boolean deleted = "message_deleted".equals(event.getEventType()) || (change.has("isDeleted") && change.get("isDeleted").getAsBoolean());
+                applied = messageDao.refreshReplySnippets(event.getEntityId(),
+                        deleted ? null : ChatSummaryDao.snippetOf(stringOrNull(change, "content"), "text"));
+            }
+            if (!applied) {
+                Metrics.increment("timeline_rows.apply_errors");
+            }
+        });
+        // Members' GET_UPDATES entries for a new message, one row per member, so not on the send path. Both message
+        // stores record message_created: the MySQL one with the insert, the log one from its own outbox
+        changeEventRelay.subscribeByChat("update_log", Set.of("message_created"), event -> {
+            try {
+                userUpdateDao.recordForChatParticipants(event.getChatId(), "new_message", event.getEntityId(), event.getPayload());
+            } catch (Exception e) {
+                System.err.println("Error recording chat update: " + e.getMessage());
+            }
+        });
+    }
+
+    private static String stringOrNull(JsonObject object, String member) {
+        return object.has(member) && !object.get(member).isJsonNull() ? object.get(member).getAsString() : null;
+    }
+
+    private List<Integer> userIdsOf(String payload) {
+        List<Integer> userIds = new ArrayList<>();
+        gson.fromJson(payload, JsonObject.class).getAsJsonArray("userIds").forEach(id -> userIds.add(id.getAsInt()));
+        return userIds;
+    }
+
     private class ClientHandler implements Runnable {
         private Socket clientSocket;
         private PrintWriter out;
         private BufferedReader in;
         private int currentUserId = -1; // To store the ID of the logged-in user for this handler
+        private DeliveryWindow deliveryWindow; // Unacknowledged pushes to this connection, created at login
 
         public ClientHandler(Socket socket) {
             this.clientSocket = socket;
@@ -89,17 +300,30 @@ public class ChatServer {
                 }
             } catch (IOException e) {
                 if (currentUserId != -1) {
-                    System.out.println("Client " + currentUserId + " disconnected.");
-                    loggedInUsers.remove(currentUserId);
-                    userDao.updateUserOnlineStatus(currentUserId, false); // Mark user offline
+                    System.out.println("Client " + currentUserId + " disconnected."); // Cleanup happens in finally
                 } else {
                     System.out.println("Client disconnected unexpectedly: " + clientSocket.getInetAddress().getHostAddress() + " - " + e.getMessage());
                 }
             } finally {
                 try {
-                    if (currentUserId != -1) {
-                        loggedInUsers.remove(currentUserId);
+                    if (deliveryWindow != null) {
+                        // Unacked pushes are retransmitted when the user resumes. The window is closed from here on,
+                        // so a push that still finds this connection in loggedInUsers is queued, not lost
+                        deliveryWindow.handOff();
+                    }
+                    // Only clean up if a newer connection of the same user has not taken over already
+                    if (currentUserId != -1 && loggedInUsers.remove(currentUserId, this)) {
+                        onlineUsers.remove(currentUserId);
+                        if (loggedInUsers.containsKey(currentUserId)) {
+                            onlineUsers.add(currentUserId); // A new login slipped in between the two removes
+                        }
                         userDao.updateUserOnlineStatus(currentUserId, false); // Ensure offline status on exit
+                        offlineDeliveryQueue.requeueUnacknowledged(currentUserId); // Retransmitted on the next login
+                    } else if (currentUserId != -1) {
+                        ClientHandler resumed = loggedInUsers.get(currentUserId);
+                        if (resumed != null) {
+                            resumed.pushBacklog(); // The user already reconnected, resume on the new connection
+                        }
                     }
                     if (in != null) in.close();
                     if (out != null) out.close();
@@ -119,6 +343,17 @@ public class ChatServer {
                 return;
             }
 
+            // Acks are fire-and-forget: answering them would interleave with the responses the client is waiting for
+            if (request.getCommand() == Command.ACK_DELIVERY) {
+                handleAckDelivery(request.getPayload());
+                return;
+            }
+            // Same for typing indicators, which are also far too frequent to acknowledge
+            if (request.getCommand() == Command.CHAT_ACTIVITY) {
+                handleChatActivity(request.getPayload());
+                return;
+            }
+
             try {
                 switch (request.getCommand()) {
                     // Existing commands
@@ -149,13 +384,16 @@ public class ChatServer {
                         response = handleDeleteUser(request.getPayload());
                         break;
                     case GET_ALL_USERS:
-                        response = handleGetAllUsers();
+                        response = handleGetAllUsers(request.getPayload());
                         break;
 
                     // --- New Commands (Chat Management) ---
                     case GET_USER_CHATS:
                         response = handleGetUserChats();
                         break;
+                    case GET_CHAT_SUMMARIES:
+                        response = handleGetChatSummaries(request.getPayload());
+                        break;
                     case GET_CHAT_DETAILS:
                         response = handleGetChatDetails(request.getPayload());
                         break;
@@ -177,6 +415,12 @@ public class ChatServer {
                     case MARK_MESSAGE_AS_READ:
                         response = handleMarkMessageAsRead(request.getPayload());
                         break;
+                    case GET_MESSAGE_VIEW_STATS:
+                        response = handleGetMessageViewStats(request.getPayload());
+                        break;
+                    case MARK_CHAT_READ_UP_TO:
+                        response = handleMarkChatReadUpTo(request.getPayload());
+                        break;
 
                     // --- New Commands (Chat Participant Management) ---
                     case ADD_CHAT_PARTICIPANT:
@@ -191,6 +435,12 @@ public class ChatServer {
                     case REMOVE_CHAT_PARTICIPANT:
                         response = handleRemoveChatParticipant(request.getPayload());
                         break;
+                    case ADD_CHAT_PARTICIPANTS:
+                        response = handleAddChatParticipants(request.getPayload());
+                        break;
+                    case REMOVE_CHAT_PARTICIPANTS:
+                        response = handleRemoveChatParticipants(request.getPayload());
+                        break;
 
                     // --- New Commands (Contact Management) ---
                     case ADD_CONTACT:
@@ -221,6 +471,11 @@ public class ChatServer {
                         response = handleDeleteNotification(request.getPayload());
                         break;
 
+                    // --- Sync ---
+                    case GET_UPDATES:
+                        response = handleGetUpdates(request.getPayload());
+                        break;
+
                     default:
                         response = new Response(false, "Unknown command: " + request.getCommand(), null);
                 }
@@ -230,27 +485,82 @@ public class ChatServer {
                 response = new Response(false, "Server internal error: " + e.getMessage(), null);
             }
             out.println(response.toJson());
+
+            // The backlog follows the login response so the client sees it after it knows it is logged in
+            if (request.getCommand() == Command.LOGIN && response.isSuccess()) {
+                pushBacklog();
+            }
         }
 
-        // --- Helper for broadcasting messages (simplistic example) ---
-        private void notifyChatParticipants(int chatId, Response notificationResponse) {
+        private void pushBacklog() {
+            List<PendingDelivery> backlog = offlineDeliveryQueue.drain(currentUserId);
+            if (!backlog.isEmpty()) {
+                pushPendingDeliveries(backlog);
+            }
+        }
+
+        // Live push to this connection; the frame is tracked until the client acks its delivery id
+        private void deliver(Response frame, long chatId, long messageId) {
+            DeliveryWindow window = deliveryWindow;
+            if (window != null) {
+                window.push(frame, chatId, messageId);
+            } else {
+                offlineDeliveryQueue.enqueue(currentUserId, chatId, messageId, frame.toJson());
+            }
+        }
+
+        // One frame for the whole batch; each entry is a frame as it would have been pushed live,
+        // carrying its own delivery id for ACK_DELIVERY
+        private void pushPendingDeliveries(List<PendingDelivery> deliveries) {
+            DeliveryWindow window = deliveryWindow;
+            if (window != null && !window.send(new Response(true, "Pending messages", gson.toJson(deliveries)).toJson())) {
+                Metrics.increment("delivery.backlog_deferred"); // Still in flight; retransmitDue offers it again
+            }
+        }
+
+        private void handleAckDelivery(String payload) {
             try {
-                // In a real app, fetch participants of this chatId from DB
-                // For demo, let's just get all logged-in users and send to them
-                // You'd need ChatParticipantDao here to get actual participants
-                // and then check if their IDs are in loggedInUsers.
-                // For now, a simple broadcast to all connected clients (if it's a critical update)
-                loggedInUsers.forEach((userId, handler) -> {
-                    // Refine this: Only send if userId is a participant of chatId
-                    if (handler.currentUserId != -1 && handler.out != null) {
-                        handler.out.println(notificationResponse.toJson());
+                Type type = new TypeToken<Map<String, List<Long>>>() {}.getType();
+                Map<String, List<Long>> params = gson.fromJson(payload, type);
+                List<Long> deliveryIds = params.get("deliveryIds");
+                if (deliveryIds != null) {
+                    // An id belongs either to a live push or to a backlog entry; each side ignores ids it does not know
+                    if (deliveryWindow != null) {
+                        deliveryWindow.acknowledge(deliveryIds);
                     }
-                });
+                    offlineDeliveryQueue.acknowledge(currentUserId, deliveryIds);
+                }
             } catch (Exception e) {
-                System.err.println("Error notifying chat participants: " + e.getMessage());
+                System.err.println("Error handling delivery ack: " + e.getMessage());
             }
         }
 
+        private void handleChatActivity(String payload) {
+            try {
+                Type type = new TypeToken<Map<String, String>>() {}.getType();
+                Map<String, String> params = gson.fromJson(payload, type);
+                activitySignals.signal(currentUserId, Long.parseLong(params.get("chatId")), params.get("action"));
+            } catch (Exception e) {
+                System.err.println("Error handling chat activity: " + e.getMessage());
+            }
+        }
+
+        // --- Helper for the per-user update log (read back through GET_UPDATES) ---
+        private void recordChatUpdate(long chatId, String updateType, Long messageId, Object payload) {
+            try {
+                userUpdateDao.recordForChatParticipants(chatId, updateType, messageId, gson.toJson(payload));
+            } catch (Exception e) {
+                System.err.println("Error recording chat update: " + e.getMessage());
+            }
+        }
+
+        private Map<String, Object> participantChange(long chatId, int userId) {
+            Map<String, Object> change = new LinkedHashMap<>();
+            change.put("chatId", chatId);
+            change.put("userId", userId);
+            return change;
+        }
+
 
         // --- New Command Implementations (User Management) ---
 
@@ -363,13 +673,17 @@ public class ChatServer {
             }
 
             try {
-                // Log out user first
-                loggedInUsers.remove(currentUserId);
-                userDao.updateUserOnlineStatus(currentUserId, false); // Mark offline
-                this.currentUserId = -1; // Reset handler's user ID
-
+                // Marks the account; its data goes in the background. Refused while the user still owns chats,
+                // so the session stays as it is until the deletion is accepted. The user_deleted event takes
+                // them out of the membership cache
                 boolean success = userDao.deleteUser(targetUserId);
                 if (success) {
+                    // Log out the user
+                    loggedInUsers.remove(currentUserId, this);
+                    onlineUsers.remove(currentUserId);
+                    userDao.updateUserOnlineStatus(currentUserId, false); // Mark offline
+                    this.currentUserId = -1; // Reset handler's user ID, the finally block has nothing left to clean up
+                    deletionWorker.wake();
                     // Also close client socket
                     try {
                         clientSocket.close();
@@ -386,14 +700,41 @@ public class ChatServer {
             }
         }
 
-        private Response handleGetAllUsers() {
+        // Pages of the user directory, keyset-paginated by user id. The rows are streamed from the database
+        // and written as "Users chunk" frames of USER_CHUNK_SIZE as they arrive; the final response only
+        // carries the count and the cursor for the next page, so no page is ever held in memory as a whole.
+        private Response handleGetAllUsers(String payload) {
             // This is typically an admin function or for populating a contact list.
             // Be mindful of privacy and performance for large user bases.
             try {
-                List<User> users = userDao.getAllUsers();
-                // Strip sensitive data before sending
-                users.forEach(u -> u.setPassword(null));
-                return new Response(true, "All users retrieved.", gson.toJson(users));
+                Type type = new TypeToken<Map<String, Integer>>() {}.getType();
+                Map<String, Integer> params = payload != null ? gson.fromJson(payload, type) : null;
+                int afterId = params != null ? params.getOrDefault("afterId", 0) : 0;
+                int limit = params != null ? params.getOrDefault("limit", DEFAULT_USER_PAGE) : DEFAULT_USER_PAGE;
+                limit = Math.max(1, Math.min(limit, MAX_USER_PAGE));
+
+                List<User> chunk = new ArrayList<>(USER_CHUNK_SIZE);
+                int[] lastId = {afterId};
+                // Only directory columns are selected, so there is no password or phone number to strip
+                int count = userDao.streamUserDirectory(afterId, limit, user -> {
+                    chunk.add(user);
+                    lastId[0] = user.getId();
+                    if (chunk.size() == USER_CHUNK_SIZE) {
+                        out.println(new Response(true, "Users chunk", gson.toJson(chunk)).toJson());
+                        chunk.clear();
+                    }
+                });
+                if (count == -1) {
+                    return new Response(false, "Server error retrieving users.", null);
+                }
+                if (!chunk.isEmpty()) {
+                    out.println(new Response(true, "Users chunk", gson.toJson(chunk)).toJson());
+                }
+
+                Map<String, Object> page = new LinkedHashMap<>();
+                page.put("count", count);
+                page.put("nextAfterId", count == limit ? lastId[0] : null); // null: this was the last page
+                return new Response(true, "All users retrieved.", gson.toJson(page));
             } catch (Exception e) {
                 System.err.println("Error getting all users: " + e.getMessage());
                 return new Response(false, "Server error retrieving users.", null);
@@ -415,11 +756,30 @@ public class ChatServer {
             }
         }
 
+        // Payload: {"limit": ..} or nothing for the first DEFAULT_CHAT_LIST_LIMIT chats
+        private Response handleGetChatSummaries(String payload) {
+            try {
+                int limit = DEFAULT_CHAT_LIST_LIMIT;
+                if (payload != null) {
+                    Type type = new TypeToken<Map<String, Integer>>() {}.getType();
+                    Map<String, Integer> params = gson.fromJson(payload, type);
+                    if (params != null && params.get("limit") != null) {
+                        limit = Math.max(1, Math.min(params.get("limit"), MAX_CHAT_LIST_LIMIT));
+                    }
+                }
+                List<orgs.model.ChatSummary> summaries = chatSummaryDao.getChatSummaries(currentUserId, limit);
+                return new Response(true, "Chat summaries retrieved.", gson.toJson(summaries));
+            } catch (Exception e) {
+                System.err.println("Error getting chat summaries: " + e.getMessage());
+                return new Response(false, "Server error retrieving chat summaries.", null);
+            }
+        }
+
         private Response handleGetChatDetails(String payload) {
             try {
-                Type type = new TypeToken<Map<String, Integer>>() {}.getType();
-                Map<String, Integer> params = gson.fromJson(payload, type);
-                int chatId = params.get("chatId");
+                Type type = new TypeToken<Map<String, Long>>() {}.getType();
+                Map<String, Long> params = gson.fromJson(payload, type);
+                long chatId = params.get("chatId");
 
                 orgs.dao.ChatDao chatDao = new orgs.dao.ChatDao();
                 Optional<orgs.model.Chat> chatOptional = chatDao.getChatById(chatId);
@@ -477,26 +837,28 @@ public class ChatServer {
 
         private Response handleDeleteChat(String payload) {
             try {
-                Type type = new TypeToken<Map<String, Integer>>() {}.getType();
-                Map<String, Integer> params = gson.fromJson(payload, type);
-                int chatId = params.get("chatId");
+                Type type = new TypeToken<Map<String, Long>>() {}.getType();
+                Map<String, Long> params = gson.fromJson(payload, type);
+                long chatId = params.get("chatId");
 
                 orgs.dao.ChatDao chatDao = new orgs.dao.ChatDao();
-                Optional<orgs.model.Chat> chatOptional = chatDao.getChatById(chatId);
+                int creatorId = chatDao.getChatCreatorId(chatId);
 
-                if (!chatOptional.isPresent()) {
+                if (creatorId == -1) {
                     return new Response(false, "Chat not found.", null);
                 }
-                orgs.model.Chat chatToDelete = chatOptional.get();
 
                 // Authorization: Only the creator can delete the chat
-                if (chatToDelete.getCreatorId() != currentUserId) {
+                if (creatorId != currentUserId) {
                     return new Response(false, "Unauthorized: Only the chat creator can delete this chat.", null);
                 }
 
-                // Deleting a chat should also delete related messages and chat participants (CASCADE DELETE in DB or manually)
+                // Marks the chat and records chat_deleted for its members in one transaction, then returns; messages
+                // and participants are deleted in batches by the DeletionWorker
                 boolean success = chatDao.deleteChat(chatId);
                 if (success) {
+                    deletionWorker.wake();
+                    membershipCache.removeChat(chatId);
                     return new Response(true, "Chat deleted successfully.", null);
                 } else {
                     return new Response(false, "Failed to delete chat.", null);
@@ -518,6 +880,9 @@ public class ChatServer {
                 // Ensure current user is the sender of the message
                 Optional<Message> existingMessageOptional = messageDao.getMessageById(updatedMessage.getId());
                 if (!existingMessageOptional.isPresent()) {
+                    if (messageArchive.getMessage(updatedMessage.getId()).isPresent()) {
+                        return new Response(false, "Archived messages cannot be edited.", null);
+                    }
                     return new Response(false, "Message not found.", null);
                 }
                 Message existingMessage = existingMessageOptional.get();
@@ -530,10 +895,15 @@ public class ChatServer {
                 existingMessage.setContent(updatedMessage.getContent());
                 existingMessage.setEditedAt(LocalDateTime.now());
 
-                boolean success = messageDao.updateMessage(existingMessage);
+                // editMessage records a message_edited event, which becomes the live notice to online members
+                boolean success = messageDao.editMessage(existingMessage.getId(), existingMessage.getContent(), existingMessage.getEditedAt());
                 if (success) {
-                    // Potentially notify chat participants of the message edit
-                    // notifyChatParticipants(existingMessage.getChatId(), new Response(true, "Message updated", gson.toJson(existingMessage)));
+                    Map<String, Object> edit = new LinkedHashMap<>();
+                    edit.put("messageId", existingMessage.getId());
+                    edit.put("chatId", existingMessage.getChatId());
+                    edit.put("content", existingMessage.getContent());
+                    edit.put("editedAt", existingMessage.getEditedAt());
+                    recordChatUpdate(existingMessage.getChatId(), "edit_message", existingMessage.getId(), edit);
                     return new Response(true, "Message updated successfully!", gson.toJson(existingMessage));
                 } else {
                     return new Response(false, "Failed to update message.", null);
@@ -546,11 +916,16 @@ public class ChatServer {
 
         private Response handleDeleteMessage(String payload) {
             try {
-                Type type = new TypeToken<Map<String, Integer>>() {}.getType();
-                Map<String, Integer> params = gson.fromJson(payload, type);
-                int messageId = params.get("messageId");
+                Type type = new TypeToken<Map<String, Long>>() {}.getType();
+                Map<String, Long> params = gson.fromJson(payload, type);
+                long messageId = params.get("messageId");
 
                 Optional<Message> messageOptional = messageDao.getMessageById(messageId);
+                boolean archived = false;
+                if (!messageOptional.isPresent()) {
+                    messageOptional = messageArchive.getMessage(messageId);
+                    archived = true;
+                }
                 if (!messageOptional.isPresent()) {
                     return new Response(false, "Message not found.", null);
                 }
@@ -562,10 +937,13 @@ public class ChatServer {
                     return new Response(false, "Unauthorized: You can only delete your own messages.", null);
                 }
 
-                boolean success = messageDao.deleteMessage(messageId);
+                boolean success = archived ? messageArchive.deleteMessage(messageToDelete) : messageDao.deleteMessage(messageId);
                 if (success) {
-                    // Potentially notify chat participants that a message was deleted
-                    // notifyChatParticipants(messageToDelete.getChatId(), new Response(true, "Message deleted", gson.toJson(messageToDelete)));
+                    Map<String, Object> deletion = new LinkedHashMap<>();
+                    deletion.put("messageId", messageId);
+                    deletion.put("chatId", messageToDelete.getChatId());
+                    recordChatUpdate(messageToDelete.getChatId(), "delete_message", messageId, deletion);
+                    // Online members get a tombstone from the message_deleted event (see subscribeToChangeEvents)
                     return new Response(true, "Message deleted successfully.", null);
                 } else {
                     return new Response(false, "Failed to delete message.", null);
@@ -578,19 +956,18 @@ public class ChatServer {
 
         private Response handleMarkMessageAsRead(String payload) {
             try {
-                Type type = new TypeToken<Map<String, Integer>>() {}.getType();
-                Map<String, Integer> params = gson.fromJson(payload, type);
-                int messageId = params.get("messageId");
+                Type type = new TypeToken<Map<String, Long>>() {}.getType();
+                Map<String, Long> params = gson.fromJson(payload, type);
+                long messageId = params.get("messageId");
 
-                Optional<Message> messageOptional = messageDao.getMessageById(messageId);
-                if (!messageOptional.isPresent()) {
+                long chatId = messageDao.getChatIdOfMessage(messageId);
+                if (chatId == -1) {
                     return new Response(false, "Message not found.", null);
                 }
-                Message message = messageOptional.get();
 
-                // Increment view count
-                message.setViewCount(message.getViewCount() + 1);
-                boolean success = messageDao.updateMessage(message); // Re-using updateMessage, or specific updateViewCount in DAO
+                // Increment view count: buffered in memory, written in batches by the maintenance flush
+                boolean success = messageDao.incrementViewCount(messageId, chatId);
+                viewerSketches.add(messageId, currentUserId); // Repeat views by the same user do not change it
                 if (success) {
                     return new Response(true, "Message marked as read.", null);
                 } else {
@@ -602,6 +979,63 @@ public class ChatServer {
             }
         }
 
+        // Total views count every MARK_MESSAGE_AS_READ; unique viewers is a HyperLogLog estimate (about 2% error)
+        private Response handleGetMessageViewStats(String payload) {
+            try {
+                Type type = new TypeToken<Map<String, Long>>() {}.getType();
+                Map<String, Long> params = gson.fromJson(payload, type);
+                long messageId = params.get("messageId");
+
+                Optional<Message> messageOptional = messageDao.getMessageById(messageId);
+                if (!messageOptional.isPresent()) {
+                    return new Response(false, "Message not found.", null);
+                }
+                Message message = messageOptional.get();
+                if (!membershipCache.getMembers(message.getChatId()).contains(currentUserId)) {
+                    return new Response(false, "Unauthorized: You are not a participant of this chat.", null);
+                }
+
+                Map<String, Object> stats = new LinkedHashMap<>();
+                stats.put("messageId", messageId);
+                stats.put("viewCount", message.getViewCount());
+                stats.put("uniqueViewers", viewerSketches.uniqueViewers(messageId));
+                stats.put("uniqueViewersRelativeError", HyperLogLog.standardError());
+                return new Response(true, "Message view stats retrieved.", gson.toJson(stats));
+            } catch (Exception e) {
+                System.err.println("Error getting message view stats: " + e.getMessage());
+                return new Response(false, "Server error retrieving message view stats.", null);
+            }
+        }
+
+        // Payload: {"chatId": .., "messageId": .., "sendReceipt": true|false}
+        // Answered once the watermark is queued; the row is written by the next ReadWatermarks flush
+        private Response handleMarkChatReadUpTo(String payload) {
+            try {
+                JsonObject params = gson.fromJson(payload, JsonObject.class);
+                long chatId = params.get("chatId").getAsLong();
+                long messageId = params.get("messageId").getAsLong();
+                boolean sendReceipt = params.has("sendReceipt") && params.get("sendReceipt").getAsBoolean();
+
+                if (!membershipCache.getMembers(chatId).contains(currentUserId)) {
+                    return new Response(false, "Unauthorized: You are not a participant of this chat.", null);
+                }
+                // One primary-key lookup: the watermark must point at a message of this chat
+                int senderId = messageDao.getSenderIdInChat(messageId, chatId);
+                if (senderId == -1) {
+                    return new Response(false, "Message not found in this chat.", null);
+                }
+
+                readWatermarks.advance(chatId, currentUserId, messageId, sendReceipt ? senderId : -1);
+                Map<String, Long> data = new LinkedHashMap<>();
+                data.put("chatId", chatId);
+                data.put("upToMessageId", messageId);
+                return new Response(true, "Chat marked as read.", gson.toJson(data));
+            } catch (Exception e) {
+                System.err.println("Error marking chat as read: " + e.getMessage());
+                return new Response(false, "Server error marking chat as read.", null);
+            }
+        }
+
 
         // --- New Command Implementations (Chat Participant Management) ---
 
@@ -611,18 +1045,17 @@ public class ChatServer {
 
                 // Basic validation: user and chat exist, and current user has permission
                 orgs.dao.ChatDao chatDao = new orgs.dao.ChatDao();
-                Optional<orgs.model.Chat> chatOptional = chatDao.getChatById(participant.getChatId());
-                if (!chatOptional.isPresent()) {
+                int creatorId = chatDao.getChatCreatorId(participant.getChatId());
+                if (creatorId == -1) {
                     return new Response(false, "Chat not found.", null);
                 }
-                orgs.model.Chat chat = chatOptional.get();
 
                 // Authorization: Only chat creator/admin can add participants
-                if (chat.getCreatorId() != currentUserId) {
+                if (creatorId != currentUserId) {
                     return new Response(false, "Unauthorized: Only the chat creator can add participants.", null);
                 }
                 // Ensure target user exists
-                if (!userDao.getUserById(participant.getUserId()).isPresent()) {
+                if (!userDao.userExists(participant.getUserId())) {
                     return new Response(false, "Target user for adding to chat not found.", null);
                 }
 
@@ -630,6 +1063,9 @@ public class ChatServer {
                 int participantId = cpDao.createChatParticipant(participant);
                 if (participantId != -1) {
                     participant.setId(participantId);
+                    membershipCache.addMember(participant.getChatId(), participant.getUserId());
+                    recordChatUpdate(participant.getChatId(), "participant_added", null,
+                            participantChange(participant.getChatId(), participant.getUserId()));
                     return new Response(true, "Participant added successfully!", gson.toJson(participant));
                 } else {
                     return new Response(false, "Failed to add participant (possibly already exists).", null);
@@ -642,9 +1078,9 @@ public class ChatServer {
 
         private Response handleGetChatParticipants(String payload) {
             try {
-                Type type = new TypeToken<Map<String, Integer>>() {}.getType();
-                Map<String, Integer> params = gson.fromJson(payload, type);
-                int chatId = params.get("chatId");
+                Type type = new TypeToken<Map<String, Long>>() {}.getType();
+                Map<String, Long> params = gson.fromJson(payload, type);
+                long chatId = params.get("chatId");
 
                 // Authorization: Only participants of the chat can see other participants
                 orgs.dao.ChatParticipantDao cpDao = new orgs.dao.ChatParticipantDao();
@@ -674,8 +1110,7 @@ public class ChatServer {
 
                 // Authorization: Only chat creator/admin can update participant roles
                 orgs.dao.ChatDao chatDao = new orgs.dao.ChatDao();
-                Optional<orgs.model.Chat> chatOptional = chatDao.getChatById(existingParticipant.getChatId());
-                if (!chatOptional.isPresent() || chatOptional.get().getCreatorId() != currentUserId) {
+                if (chatDao.getChatCreatorId(existingParticipant.getChatId()) != currentUserId) {
                     return new Response(false, "Unauthorized: Only the chat creator can update participant roles.", null);
                 }
 
@@ -694,28 +1129,32 @@ public class ChatServer {
 
         private Response handleRemoveChatParticipant(String payload) {
             try {
-                Type type = new TypeToken<Map<String, Integer>>() {}.getType();
-                Map<String, Integer> params = gson.fromJson(payload, type);
-                int participantId = params.get("participantId"); // This is the ID of the participant entry
-                int chatId = params.get("chatId"); // Required for authorization checks
-                int userIdToRemove = params.get("userId"); // The actual user ID to remove
+                Type type = new TypeToken<Map<String, Long>>() {}.getType();
+                Map<String, Long> params = gson.fromJson(payload, type);
+                int participantId = params.get("participantId").intValue(); // This is the ID of the participant entry
+                long chatId = params.get("chatId"); // Required for authorization checks
+                int userIdToRemove = params.get("userId").intValue(); // The actual user ID to remove
 
                 orgs.dao.ChatParticipantDao cpDao = new orgs.dao.ChatParticipantDao();
                 orgs.dao.ChatDao chatDao = new orgs.dao.ChatDao();
-                Optional<orgs.model.Chat> chatOptional = chatDao.getChatById(chatId);
+                int creatorId = chatDao.getChatCreatorId(chatId);
 
-                if (!chatOptional.isPresent()) {
+                if (creatorId == -1) {
                     return new Response(false, "Chat not found.", null);
                 }
-                orgs.model.Chat chat = chatOptional.get();
 
                 // Authorization: Only chat creator can remove others, or user can leave themselves
-                if (chat.getCreatorId() != currentUserId && userIdToRemove != currentUserId) {
+                if (creatorId != currentUserId && userIdToRemove != currentUserId) {
                     return new Response(false, "Unauthorized: Only the chat creator can remove others, or you can leave yourself.", null);
                 }
 
                 boolean success = cpDao.deleteChatParticipant(participantId); // Or delete by (chatId, userId) pair
                 if (success) {
+                    membershipCache.removeMember(chatId, userIdToRemove);
+                    // The removed user is no longer a participant, so they get their copy directly
+                    Map<String, Object> removal = participantChange(chatId, userIdToRemove);
+                    recordChatUpdate(chatId, "participant_removed", null, removal);
+                    userUpdateDao.recordForUser(userIdToRemove, "participant_removed", chatId, null, gson.toJson(removal));
                     return new Response(true, "Participant removed successfully.", null);
                 } else {
                     return new Response(false, "Failed to remove participant.", null);
@@ -726,6 +1165,153 @@ public class ChatServer {
             }
         }
 
+        // Payload: {"chatId": 1, "userIds": [..], "role": "member"}. Data: per-user result plus totals.
+        // Results: added, already_member, unknown_user, failed
+        private Response handleAddChatParticipants(String payload) {
+            try {
+                JsonObject params = gson.fromJson(payload, JsonObject.class);
+                long chatId = params.get("chatId").getAsLong();
+                List<Integer> userIds = new ArrayList<>(new LinkedHashSet<>(gson.<List<Integer>>fromJson(params.get("userIds"), new TypeToken<List<Integer>>() {}.getType())));
+                String role = params.has("role") && !params.get("role").isJsonNull() ? params.get("role").getAsString() : "member";
+                if (userIds.size() > MAX_BULK_PARTICIPANTS) {
+                    return new Response(false, "Too many users (at most " + MAX_BULK_PARTICIPANTS + " per request).", null);
+                }
+
+                // Authorization once for the whole batch: Only the chat creator can add participants
+                orgs.dao.ChatDao chatDao = new orgs.dao.ChatDao();
+                Optional<orgs.model.Chat> chatOptional = chatDao.getChatById(chatId);
+                if (!chatOptional.isPresent()) {
+                    return new Response(false, "Chat not found.", null);
+                }
+                if (chatOptional.get().getCreatorId() != currentUserId) {
+                    return new Response(false, "Unauthorized: Only the chat creator can add participants.", null);
+                }
+
+                Set<Integer> existingUsers = userDao.getExistingUserIds(userIds);
+                List<Integer> candidates = new ArrayList<>(existingUsers.size());
+                for (int userId : userIds) {
+                    if (existingUsers.contains(userId)) {
+                        candidates.add(userId);
+                    }
+                }
+                Set<Integer> added = new orgs.dao.ChatParticipantDao().addParticipants(chatId, candidates, role);
+                Set<Integer> alreadyMembers = membershipOf(chatId, candidates, added);
+
+                Map<Integer, String> results = new LinkedHashMap<>();
+                for (int userId : userIds) {
+                    if (!existingUsers.contains(userId)) {
+                        results.put(userId, "unknown_user");
+                    } else if (added.contains(userId)) {
+                        results.put(userId, "added");
+                    } else if (alreadyMembers.contains(userId)) {
+                        results.put(userId, "already_member");
+                    } else {
+                        results.put(userId, "failed");
+                    }
+                }
+
+                if (!added.isEmpty()) {
+                    membershipCache.addMembers(chatId, added);
+                    Map<String, Object> change = new LinkedHashMap<>();
+                    change.put("chatId", chatId);
+                    change.put("userIds", added);
+                    recordChatUpdate(chatId, "participants_added", null, change);
+
+                    String chatJson = gson.toJson(chatOptional.get());
+                    for (int userId : added) {
+                        ClientHandler handler = loggedInUsers.get(userId);
+                        if (handler != null) {
+                            handler.deliver(new Response(true, "Added to chat", chatJson), chatId, 0);
+                        }
+                    }
+                }
+                return new Response(true, added.size() + " of " + userIds.size() + " participants added.", gson.toJson(bulkResult(chatId, results)));
+            } catch (Exception e) {
+                System.err.println("Error adding chat participants: " + e.getMessage());
+                e.printStackTrace();
+                return new Response(false, "Server error adding participants.", null);
+            }
+        }
+
+        // Payload: {"chatId": 1, "userIds": [..]}. Results: removed, not_member, is_creator, failed
+        private Response handleRemoveChatParticipants(String payload) {
+            try {
+                JsonObject params = gson.fromJson(payload, JsonObject.class);
+                long chatId = params.get("chatId").getAsLong();
+                List<Integer> userIds = new ArrayList<>(new LinkedHashSet<>(gson.<List<Integer>>fromJson(params.get("userIds"), new TypeToken<List<Integer>>() {}.getType())));
+                if (userIds.size() > MAX_BULK_PARTICIPANTS) {
+                    return new Response(false, "Too many users (at most " + MAX_BULK_PARTICIPANTS + " per request).", null);
+                }
+
+                int creatorId = new orgs.dao.ChatDao().getChatCreatorId(chatId);
+                if (creatorId == -1) {
+                    return new Response(false, "Chat not found.", null);
+                }
+                // Authorization: Only chat creator can remove others, or user can leave themselves
+                if (creatorId != currentUserId && !(userIds.size() == 1 && userIds.get(0) == currentUserId)) {
+                    return new Response(false, "Unauthorized: Only the chat creator can remove others, or you can leave yourself.", null);
+                }
+
+                List<Integer> candidates = new ArrayList<>(userIds);
+                if (creatorId == currentUserId) {
+                    candidates.remove(Integer.valueOf(creatorId)); // The creator cannot remove themselves in bulk
+                }
+                Set<Integer> failed = new LinkedHashSet<>();
+                Set<Integer> removed = new orgs.dao.ChatParticipantDao().removeParticipants(chatId, candidates, failed);
+
+                Map<Integer, String> results = new LinkedHashMap<>();
+                for (int userId : userIds) {
+                    if (removed.contains(userId)) {
+                        results.put(userId, "removed");
+                    } else if (!candidates.contains(userId)) {
+                        results.put(userId, "is_creator");
+                    } else if (failed.contains(userId)) {
+                        results.put(userId, "failed"); // Their chunk was rolled back; the client may retry them
+                    } else {
+                        results.put(userId, "not_member");
+                    }
+                }
+
+                if (!removed.isEmpty()) {
+                    membershipCache.removeMembers(chatId, removed);
+                    Map<String, Object> change = new LinkedHashMap<>();
+                    change.put("chatId", chatId);
+                    change.put("userIds", removed);
+                    String changeJson = gson.toJson(change);
+                    recordChatUpdate(chatId, "participants_removed", null, change);
+                    // The removed users are no longer participants, so they get their copy directly
+                    userUpdateDao.recordForUsers(removed, "participants_removed", chatId, null, changeJson);
+                }
+                return new Response(true, removed.size() + " of " + userIds.size() + " participants removed.", gson.toJson(bulkResult(chatId, results)));
+            } catch (Exception e) {
+                System.err.println("Error removing chat participants: " + e.getMessage());
+                e.printStackTrace();
+                return new Response(false, "Server error removing participants.", null);
+            }
+        }
+
+        // Users of the batch that are members now but were not added by it
+        private Set<Integer> membershipOf(long chatId, List<Integer> candidates, Set<Integer> added) {
+            ChatMembers members = membershipCache.getMembers(chatId);
+            Set<Integer> result = new LinkedHashSet<>();
+            for (int userId : candidates) {
+                if (members.contains(userId) && !added.contains(userId)) {
+                    result.add(userId);
+                }
+            }
+            return result;
+        }
+
+        private Map<String, Object> bulkResult(long chatId, Map<Integer, String> results) {
+            Map<String, Integer> totals = new LinkedHashMap<>();
+            results.values().forEach(result -> totals.merge(result, 1, Integer::sum));
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("chatId", chatId);
+            data.put("totals", totals);
+            data.put("results", results);
+            return data;
+        }
+
         // --- New Command Implementations (Contact Management) ---
         // Requires a ContactDao and Contact model
 
@@ -738,7 +1324,7 @@ public class ChatServer {
                 if (contactUserId == currentUserId) {
                     return new Response(false, "Cannot add yourself as a contact.", null);
                 }
-                if (!userDao.getUserById(contactUserId).isPresent()) {
+                if (!userDao.userExists(contactUserId)) {
                     return new Response(false, "Contact user not found.", null);
                 }
 
@@ -806,7 +1392,7 @@ public class ChatServer {
                 if (targetUserId == currentUserId) {
                     return new Response(false, "Cannot block yourself.", null);
                 }
-                if (!userDao.getUserById(targetUserId).isPresent()) {
+                if (!userDao.userExists(targetUserId)) {
                     return new Response(false, "Target user not found.", null);
                 }
 
@@ -863,9 +1449,9 @@ public class ChatServer {
 
         private Response handleMarkNotificationAsRead(String payload) {
             try {
-                Type type = new TypeToken<Map<String, Integer>>() {}.getType();
-                Map<String, Integer> params = gson.fromJson(payload, type);
-                int notificationId = params.get("notificationId");
+                Type type = new TypeToken<Map<String, Long>>() {}.getType();
+                Map<String, Long> params = gson.fromJson(payload, type);
+                long notificationId = params.get("notificationId");
 
                 orgs.dao.NotificationDao notificationDao = new orgs.dao.NotificationDao();
                 Optional<orgs.model.Notification> notificationOptional = notificationDao.getNotificationById(notificationId);
@@ -888,9 +1474,9 @@ public class ChatServer {
 
         private Response handleDeleteNotification(String payload) {
             try {
-                Type type = new TypeToken<Map<String, Integer>>() {}.getType();
-                Map<String, Integer> params = gson.fromJson(payload, type);
-                int notificationId = params.get("notificationId");
+                Type type = new TypeToken<Map<String, Long>>() {}.getType();
+                Map<String, Long> params = gson.fromJson(payload, type);
+                long notificationId = params.get("notificationId");
 
                 orgs.dao.NotificationDao notificationDao = new orgs.dao.NotificationDao();
                 Optional<orgs.model.Notification> notificationOptional = notificationDao.getNotificationById(notificationId);
@@ -912,6 +1498,74 @@ public class ChatServer {
         }
 
 
+        // --- Sync ---
+
+        private Response handleGetUpdates(String payload) {
+            try {
+                Type type = new TypeToken<Map<String, String>>() {}.getType();
+                Map<String, String> params = payload != null ? gson.fromJson(payload, type) : null;
+                SyncState state = SyncState.decode(params != null ? params.get("state") : null);
+                long now = Instant.now().getEpochSecond();
+
+                // No usable token, or one older than the log retention: the client has to reload chats from scratch
+                if (state == null || state.getUserId() != currentUserId
+                        || now - state.getIssuedAtEpochSecond() > UPDATE_LOG_RETENTION_SECONDS) {
+                    return resyncResponse(now);
+                }
+
+                Set<Long> delivered = state.getDeliveredAfterSettled();
+                List<UserUpdate> updates = new ArrayList<>();
+                List<UserUpdate> read = userUpdateDao.getUpdatesSince(currentUserId, state.getSettledUpdateId(), MAX_UPDATES_PER_SYNC + 1 + delivered.size());
+                for (UserUpdate update : read) {
+                    if (!delivered.contains(update.getId())) {
+                        updates.add(update);
+                    }
+                }
+                if (updates.size() > MAX_UPDATES_PER_SYNC) {
+                    return resyncResponse(now);
+                }
+
+                Map<String, Object> difference = new LinkedHashMap<>();
+                difference.put("state", nextSyncState(state.getSettledUpdateId(), read, now).encode());
+                difference.put("resyncRequired", false);
+                difference.put("updates", updates);
+                return new Response(true, "Updates retrieved.", gson.toJson(difference));
+            } catch (Exception e) {
+                System.err.println("Error getting updates: " + e.getMessage());
+                return new Response(false, "Server error retrieving updates.", null);
+            }
+        }
+
+        // The client now has every row read (after settledUpdateId). The settled id moves up to the newest of them
+        // older than UPDATE_SETTLE_SECONDS: any lower id was inserted before it and has committed by then
+        private SyncState nextSyncState(long settledUpdateId, List<UserUpdate> read, long now) {
+            LocalDateTime settledBefore = LocalDateTime.now().minusSeconds(UPDATE_SETTLE_SECONDS);
+            long settled = settledUpdateId;
+            for (UserUpdate update : read) {
+                if (update.getCreatedAt().isBefore(settledBefore)) {
+                    settled = Math.max(settled, update.getId());
+                }
+            }
+            List<Long> deliveredAfterSettled = new ArrayList<>();
+            for (UserUpdate update : read) {
+                if (update.getId() > settled) {
+                    deliveredAfterSettled.add(update.getId());
+                }
+            }
+            return new SyncState(currentUserId, settled, now, deliveredAfterSettled);
+        }
+
+        // After a reload the client has everything committed so far; rows still in flight come with the next sync
+        private Response resyncResponse(long now) {
+            long settled = userUpdateDao.getLatestUpdateId(currentUserId, Timestamp.valueOf(LocalDateTime.now().minusSeconds(UPDATE_SETTLE_SECONDS)));
+            List<UserUpdate> recent = userUpdateDao.getUpdatesSince(currentUserId, settled, MAX_UPDATES_PER_SYNC);
+            Map<String, Object> difference = new LinkedHashMap<>();
+            difference.put("state", nextSyncState(settled, recent, now).encode());
+            difference.put("resyncRequired", true);
+            difference.put("updates", Collections.emptyList());
+            return new Response(true, "Too many updates, resync required.", gson.toJson(difference));
+        }
+
         private Response handleLogin(String payload) {
             // Payload should contain username and password (or phone_number and password)
             Type type = new TypeToken<Map<String, String>>() {}.getType();
@@ -927,7 +1581,13 @@ public class ChatServer {
                 // if (PasswordHasher.verify(password, user.getPassword())) {
                 if (user.getPassword().equals(password)) { // Simplified for demonstration
                     this.currentUserId = user.getId();
+                    if (deliveryWindow != null) {
+                        deliveryWindow.handOff(); // Logged in again on this connection; stops its writer
+                    }
+                    this.deliveryWindow = new DeliveryWindow(currentUserId, out, offlineDeliveryQueue);
+                    membershipCache.warmForUser(currentUserId); // Typing indicators only consult the cache
                     loggedInUsers.put(currentUserId, this);
+                    onlineUsers.add(currentUserId);
                     userDao.updateUserOnlineStatus(currentUserId, true); // Mark user online
                     return new Response(true, "Login successful!", gson.toJson(user));
                 } else {
@@ -951,23 +1611,42 @@ public class ChatServer {
                 message.setDeleted(false);
                 message.setViewCount(0);
 
-                int messageId = messageDao.createMessage(message);
+                String clientMessageId = message.getClientMessageId();
+                if (clientMessageId != null) {
+                    if (clientMessageId.isEmpty() || clientMessageId.length() > ClientMessageIdWindow.MAX_CLIENT_MESSAGE_ID_LENGTH) {
+                        return new Response(false, "Invalid client message id.", null);
+                    }
+                    // A retry of a send we already stored: answer with the original id, no insert and no fanout
+                    long originalId = clientMessageIdWindow.lookup(currentUserId, clientMessageId);
+                    if (originalId != -1) {
+                        return duplicateSendResponse(message, originalId);
+                    }
+                }
+
+                // Members only; a chat being deleted has none (see ChatParticipantDao.getParticipantUserIds)
+                if (!membershipCache.getMembers(message.getChatId()).contains(currentUserId)) {
+                    return new Response(false, "Chat not found or not a member.", null);
+                }
+
+                long messageId = messageDao.createMessage(message);
+                if (messageId == -1 && clientMessageId != null) {
+                    // Past the in-memory window (or a concurrent retry won the race): the unique key rejected it
+                    long originalId = messageDao.getMessageIdByClientMessageId(currentUserId, clientMessageId);
+                    if (originalId != -1) {
+                        clientMessageIdWindow.remember(currentUserId, clientMessageId, originalId);
+                        return duplicateSendResponse(message, originalId);
+                    }
+                }
                 if (messageId != -1) {
-                    message.setId(messageId); // Set the generated ID
-
-                    // Simplified: Broadcast to all active handlers who are participants in the chat
-                    // In a real system, you'd manage chat memberships and only send to relevant participants
-                    loggedInUsers.forEach((userId, handler) -> {
-                        // Check if the user is a participant in 'message.getChatId()'
-                        // For simplicity, let's just assume all logged in users might see it if it's a "public" demo
-                        // Or, better, fetch chat participants and iterate over them.
-                        // For now, if the sender is sending to themselves, or just for demo:
-                        // This is where you'd implement message delivery to other clients based on chat_id
-                        // Example: A more advanced design would have a ChatService that notifies participants
-                        if (handler.currentUserId != currentUserId) { // Don't send back to self (unless echo is desired)
-                            handler.out.println(new Response(true, "New message received", gson.toJson(message)).toJson());
-                        }
-                    });
+                    message.setId(messageId); // The id generated before the insert
+                    if (clientMessageId != null) {
+                        clientMessageIdWindow.remember(currentUserId, clientMessageId, messageId);
+                    }
+                    // The message is durable now: answer the sender right away and let the fanout lanes deliver it to
+                    // the chat's participants; offline ones get it from the store-and-forward queue on login
+                    activitySignals.clear(currentUserId, message.getChatId());
+                    fanoutEngine.submit(message.getChatId(), messageId, currentUserId, membershipCache.getMembers(message.getChatId()),
+                            "New message received", gson.toJson(message), System.currentTimeMillis());
 
                     return new Response(true, "Message sent successfully!", gson.toJson(message));
                 } else {
@@ -980,17 +1659,25 @@ public class ChatServer {
             }
         }
 
+        private Response duplicateSendResponse(Message message, long originalId) {
+            Metrics.increment("send.duplicates");
+            message.setId(originalId);
+            return new Response(true, "Message sent successfully!", gson.toJson(message));
+        }
+
         private Response handleGetChatMessages(String payload) {
             if (currentUserId == -1) {
                 return new Response(false, "Not logged in.", null);
             }
             try {
-                Type type = new TypeToken<Map<String, Integer>>() {}.getType();
-                Map<String, Integer> params = gson.fromJson(payload, type);
-                int chatId = params.get("chatId");
-                int limit = params.getOrDefault("limit", 50); // Default to 50 messages
-
-                List<Message> messages = messageDao.getMessagesByChatId(chatId, limit);
+                Type type = new TypeToken<Map<String, Long>>() {}.getType();
+                Map<String, Long> params = gson.fromJson(payload, type);
+                long chatId = params.get("chatId");
+                int limit = params.getOrDefault("limit", 50L).intValue(); // Default to 50 messages
+                long afterId = params.getOrDefault("afterId", 0L); // Cursor: the last id of the previous page
+
+                // Older pages come from archive segments, newer ones from the messages table
+                List<Message> messages = messageArchive.getMessagesAfterId(chatId, afterId, limit);
                 // Return messages to client
                 return new Response(true, "Messages retrieved successfully.", gson.toJson(messages));
             } catch (Exception e) {
@@ -1014,15 +1701,44 @@ public class ChatServer {
                 newChat.setCreatorId(currentUserId); // Set the creator
                 //newChat.setChatType("private"); // Example: assume private chat for simplicity
 
-                int chatId = new orgs.dao.ChatDao().createChat(newChat);
+                // Optional initial members: validated together, then inserted with the chat in one transaction
+                JsonObject createRequest = gson.fromJson(payload, JsonObject.class);
+                Set<Integer> memberIds = new LinkedHashSet<>();
+                if (createRequest.has("memberIds") && !createRequest.get("memberIds").isJsonNull()) {
+                    memberIds.addAll(gson.<List<Integer>>fromJson(createRequest.get("memberIds"), new TypeToken<List<Integer>>() {}.getType()));
+                    memberIds.remove(currentUserId);
+                }
+                if (memberIds.size() > MAX_INITIAL_MEMBERS) {
+                    return new Response(false, "Too many initial members (at most " + MAX_INITIAL_MEMBERS + ").", null);
+                }
+                if (!memberIds.isEmpty()) {
+                    Set<Integer> unknown = new LinkedHashSet<>(memberIds);
+                    unknown.removeAll(userDao.getExistingUserIds(memberIds));
+                    if (!unknown.isEmpty()) {
+                        return new Response(false, "Unknown user ids: " + unknown, null);
+                    }
+                }
+
+                long chatId = new orgs.dao.ChatDao().createChatWithParticipants(newChat, memberIds);
                 if (chatId != -1) {
-                    newChat.setId(chatId);
-                    // Also add creator as a participant
-                    orgs.model.ChatParticipant creatorParticipant = new orgs.model.ChatParticipant();
-                    creatorParticipant.setChatId(chatId);
-                    creatorParticipant.setUserId(currentUserId);
-                    creatorParticipant.setRole("creator");
-                    new orgs.dao.ChatParticipantDao().createChatParticipant(creatorParticipant);
+                    List<Integer> allMembers = new ArrayList<>(memberIds.size() + 1);
+                    allMembers.add(currentUserId);
+                    allMembers.addAll(memberIds);
+                    membershipCache.putChat(chatId, allMembers);
+
+                    Map<String, Object> created = new LinkedHashMap<>();
+                    created.put("chat", newChat);
+                    created.put("memberIds", allMembers);
+                    recordChatUpdate(chatId, "chat_created", null, created);
+
+                    // Online members hear about it right away; everyone else picks it up from GET_UPDATES
+                    String chatJson = gson.toJson(newChat);
+                    for (int memberId : memberIds) {
+                        ClientHandler handler = loggedInUsers.get(memberId);
+                        if (handler != null) {
+                            handler.deliver(new Response(true, "Added to chat", chatJson), chatId, 0);
+                        }
+                    }
 
                     return new Response(true, "Chat created successfully!", gson.toJson(newChat));
                 } else {
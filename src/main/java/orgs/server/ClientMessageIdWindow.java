@@ -0,0 +1,54 @@
+package orgs.server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Recently stored (sender, client message id) pairs and the message id they produced, so a retried
+ * SEND_MESSAGE is answered from memory. Entries expire after a while; older retries fall through to the
+ * unique key on messages, which is what actually guarantees a single row.
+ */
+class ClientMessageIdWindow {
+    static final int MAX_CLIENT_MESSAGE_ID_LENGTH = 64; // Matches messages.client_message_id
+    private static final int MAX_ENTRIES = 50_000;
+    private static final long TTL_MILLIS = 10 * 60 * 1000L;
+
+    private final LinkedHashMap<String, Entry> recent = new LinkedHashMap<>(); // Insertion order = age
+
+    private static final class Entry {
+        private final long messageId;
+        private final long storedAtMillis;
+
+        private Entry(long messageId, long storedAtMillis) {
+            this.messageId = messageId;
+            this.storedAtMillis = storedAtMillis;
+        }
+    }
+
+    // The message id stored earlier for this pair, or -1
+    synchronized long lookup(int senderId, String clientMessageId) {
+        Entry entry = recent.get(key(senderId, clientMessageId));
+        if (entry == null || System.currentTimeMillis() - entry.storedAtMillis > TTL_MILLIS) {
+            return -1;
+        }
+        return entry.messageId;
+    }
+
+    synchronized void remember(int senderId, String clientMessageId, long messageId) {
+        long now = System.currentTimeMillis();
+        recent.put(key(senderId, clientMessageId), new Entry(messageId, now));
+        Iterator<Entry> oldest = recent.values().iterator();
+        while (oldest.hasNext()) {
+            Entry entry = oldest.next();
+            if (recent.size() <= MAX_ENTRIES && now - entry.storedAtMillis <= TTL_MILLIS) {
+                break;
+            }
+            oldest.remove();
+        }
+    }
+
+    private static String key(int senderId, String clientMessageId) {
+        return senderId + ":" + clientMessageId;
+    }
+}
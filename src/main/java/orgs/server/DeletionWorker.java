@@ -0,0 +1,106 @@
+package orgs.server;
+
+import orgs.dao.DeletionJobDao;
+import orgs.dao.MessageDao;
+import orgs.model.DeletionJob;
+import orgs.storage.MessageArchive;
+import orgs.utils.Metrics;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Carries out DELETE_CHAT and DELETE_USER after the request has returned. Jobs run one at a time, oldest first,
+ * each step in batches of BATCH_SIZE rows with a short pause in between so other writers get the tables back.
+ * The step in progress is stored with the job, so after a restart the worker picks up where it stopped.
+ */
+class DeletionWorker {
+    private static final int BATCH_SIZE = 500;
+    private static final long PAUSE_MILLIS = 50;
+    private static final long POLL_SECONDS = 60; // Jobs left over from a restart or a failed run; new ones wake() the worker
+    private static final int JOBS_PER_RUN = 20;
+
+    private final DeletionJobDao deletionJobDao = new DeletionJobDao();
+    private final MessageDao messageDao = new MessageDao();
+    private final MessageArchive messageArchive;
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "DeletionWorker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    DeletionWorker(MessageArchive messageArchive) {
+        this.messageArchive = messageArchive;
+    }
+
+    void start() {
+        worker.scheduleWithFixedDelay(this::runJobs, 5, POLL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    void stop() {
+        worker.shutdownNow(); // Interrupts the pause between batches; the job continues at its step next start
+    }
+
+    // A job was just queued
+    void wake() {
+        try {
+            worker.execute(this::runJobs);
+        } catch (RejectedExecutionException e) {
+            // Shutting down; the job is picked up after the restart
+        }
+    }
+
+    private void runJobs() {
+        try {
+            List<DeletionJob> jobs = deletionJobDao.getPendingJobs(JOBS_PER_RUN);
+            Metrics.setGauge("deletion.pending_jobs", jobs.size());
+            for (DeletionJob job : jobs) {
+                if (!runJob(job)) {
+                    break; // Later jobs may depend on this one (a user's chats before the user); retried next poll
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // Shutting down
+        } catch (Exception e) {
+            System.err.println("Error running deletion jobs: " + e.getMessage()); // Keep the schedule alive
+        }
+    }
+
+    private boolean runJob(DeletionJob job) throws InterruptedException {
+        while (true) {
+            int affected;
+            do {
+                affected = deletionJobDao.runBatch(job, BATCH_SIZE);
+                if (affected < 0) {
+                    return false;
+                }
+                Thread.sleep(PAUSE_MILLIS);
+            } while (affected == BATCH_SIZE); // Per shard: any shard with a full batch may have more rows
+            if (DeletionJobDao.isLastStep(job)) {
+                break;
+            }
+            if (!deletionJobDao.advance(job)) {
+                return false;
+            }
+        }
+
+        if (DeletionJobDao.CHAT.equals(job.getEntityType())) {
+            messageArchive.deleteChat(job.getEntityId()); // Before the index rows go with the chat
+            if (!messageDao.dropChatFromLog(job.getEntityId())) {
+                return false;
+            }
+        } else if (!messageArchive.deleteSender((int) job.getEntityId())
+                || !messageDao.dropSenderFromLog((int) job.getEntityId())) {
+            return false; // Retried, or the user's archived or logged messages would stay visible
+        }
+        if (!deletionJobDao.finish(job)) {
+            return false;
+        }
+        Metrics.increment("deletion.jobs_finished");
+        System.out.println("Deleted " + job.getEntityType() + " " + job.getEntityId() + ".");
+        return true;
+    }
+}
@@ -0,0 +1,133 @@
+package orgs.server;
+
+import orgs.protocol.Response;
+import orgs.utils.Metrics;
+
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pushed frames a connection has not acknowledged yet. Every push gets a delivery id; the client acks them in
+ * batches with ACK_DELIVERY. Frames still unacknowledged when the connection ends, or pushed out of a full
+ * window, go to the offline queue with their original delivery id and are retransmitted when the user resumes,
+ * so delivery is at-least-once. Once handed off the window is closed: a push that found the connection in
+ * loggedInUsers just before it was removed goes to the offline queue as well.
+ *
+ * Frames are written by the connection's own writer thread from a queue of at most MAX_QUEUED frames, so a client
+ * that stops reading only stalls that thread, never the fan-out lane pushing to it. A push that finds the queue
+ * full goes to the offline queue and reaches the client on its next resume.
+ */
+class DeliveryWindow {
+    private static final int MAX_UNACKED = 512;
+    private static final int MAX_QUEUED = 256;
+
+    private final int userId;
+    private final PrintWriter out;
+    private final OfflineDeliveryQueue offlineDeliveryQueue;
+    private final LinkedHashMap<Long, Unacked> unacked = new LinkedHashMap<>(); // Insertion order = push order
+    private final BlockingQueue<String> outbound = new ArrayBlockingQueue<>(MAX_QUEUED);
+    private final Thread writer;
+    private volatile boolean closed;
+
+    private static final class Unacked {
+        private final long chatId;
+        private final long messageId;
+        private final String frame;
+        private final long sentAtMillis;
+
+        private Unacked(long chatId, long messageId, String frame, long sentAtMillis) {
+            this.chatId = chatId;
+            this.messageId = messageId;
+            this.frame = frame;
+            this.sentAtMillis = sentAtMillis;
+        }
+    }
+
+    DeliveryWindow(int userId, PrintWriter out, OfflineDeliveryQueue offlineDeliveryQueue) {
+        this.userId = userId;
+        this.out = out;
+        this.offlineDeliveryQueue = offlineDeliveryQueue;
+        writer = new Thread(this::writeLoop, "DeliveryWindow-" + userId);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    synchronized void push(Response frame, long chatId, long messageId) {
+        long deliveryId = offlineDeliveryQueue.nextDeliveryId();
+        frame.setDeliveryId(deliveryId);
+        String json = frame.toJson();
+        if (closed) {
+            offlineDeliveryQueue.enqueue(userId, deliveryId, chatId, messageId, json);
+            Metrics.increment("delivery.pushed_after_close");
+            return;
+        }
+
+        if (unacked.size() >= MAX_UNACKED) {
+            // The oldest frame leaves the window but is kept for the next resume rather than dropped
+            Iterator<Map.Entry<Long, Unacked>> oldest = unacked.entrySet().iterator();
+            Map.Entry<Long, Unacked> entry = oldest.next();
+            oldest.remove();
+            offlineDeliveryQueue.enqueue(userId, entry.getKey(), entry.getValue().chatId, entry.getValue().messageId, entry.getValue().frame);
+            Metrics.increment("delivery.window_overflow");
+        }
+        if (!outbound.offer(json)) {
+            // The client is not reading; keep the frame for its next resume instead of waiting on its socket
+            offlineDeliveryQueue.enqueue(userId, deliveryId, chatId, messageId, json);
+            Metrics.increment("delivery.slow_consumer");
+            return;
+        }
+        unacked.put(deliveryId, new Unacked(chatId, messageId, json, System.currentTimeMillis()));
+        Metrics.increment("delivery.pushed");
+    }
+
+    // A frame that is not tracked here (a backlog batch, whose deliveries the offline queue tracks); false when
+    // the writer is too far behind to take it
+    boolean send(String frame) {
+        return !closed && outbound.offer(frame);
+    }
+
+    private void writeLoop() {
+        try {
+            while (!closed) {
+                out.println(outbound.take());
+                if (out.checkError()) { // PrintWriter swallows IOExceptions; the frame stays unacked and is handed off on close
+                    Metrics.increment("delivery.write_errors");
+                }
+            }
+        } catch (InterruptedException e) {
+            // Handed off
+        }
+    }
+
+    synchronized int acknowledge(Collection<Long> deliveryIds) {
+        long now = System.currentTimeMillis();
+        int acknowledged = 0;
+        for (Long deliveryId : deliveryIds) {
+            Unacked entry = unacked.remove(deliveryId);
+            if (entry != null) {
+                acknowledged++;
+                Metrics.recordMillis("delivery.ack_latency", now - entry.sentAtMillis);
+            }
+        }
+        Metrics.add("delivery.acked", acknowledged);
+        return acknowledged;
+    }
+
+    // Connection is gone: whatever the client did not confirm is retransmitted on resume
+    synchronized int handOff() {
+        closed = true;
+        writer.interrupt(); // Queued frames are all in unacked; a write stuck on the socket ends when it is closed
+        outbound.clear();
+        int handedOff = unacked.size();
+        unacked.forEach((deliveryId, entry) ->
+                offlineDeliveryQueue.enqueue(userId, deliveryId, entry.chatId, entry.messageId, entry.frame));
+        unacked.clear();
+        Metrics.add("delivery.unacked_on_close", handedOff);
+        return handedOff;
+    }
+}
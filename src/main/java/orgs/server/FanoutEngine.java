@@ -0,0 +1,178 @@
+package orgs.server;
+
+import orgs.protocol.Response;
+import orgs.utils.Metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers a stored message to a chat's members off the sender's request thread. Work runs on LANES
+ * single-threaded lanes, and a recipient always goes to the lane of their user id, whatever the chat and its
+ * size. That keeps per-recipient order without locking, also when a chat grows past SHARD_THRESHOLD between
+ * two messages: a message is one task per lane that has recipients, so a 50k-member channel is written by
+ * every lane in parallel and a two-member chat by one or two.
+ * Lag from store to the last recipient is recorded as fanout.lag, and per chat as fanout.lag.chat.&lt;id&gt;
+ * for chats over SHARD_THRESHOLD only, so small chats do not add a metric each.
+ */
+class FanoutEngine {
+    private static final int SHARD_THRESHOLD = 512; // Only decides which chats get a lag metric of their own
+    private static final int LANES = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    // Pushes to the user's live connection; false when they have none (any more)
+    interface LivePush {
+        boolean push(int userId, Response frame, long chatId, long messageId);
+    }
+
+    private final OnlineUsers onlineUsers;
+    private final OfflineDeliveryQueue offlineDeliveryQueue;
+    private final LivePush livePush;
+    private final ExecutorService[] lanes = new ExecutorService[LANES];
+    private final AtomicInteger queued = new AtomicInteger(); // Shards submitted but not finished
+
+    FanoutEngine(OnlineUsers onlineUsers, OfflineDeliveryQueue offlineDeliveryQueue, LivePush livePush) {
+        this.onlineUsers = onlineUsers;
+        this.offlineDeliveryQueue = offlineDeliveryQueue;
+        this.livePush = livePush;
+        for (int i = 0; i < LANES; i++) {
+            String name = "fanout-" + i;
+            lanes[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    // The message is already stored; returns as soon as the shards are queued
+    void submit(long chatId, long messageId, int senderId, ChatMembers members, String message, String data, long storedAtMillis) {
+        Fanout fanout = new Fanout(chatId, messageId, senderId, message, data, storedAtMillis, members.size() > SHARD_THRESHOLD);
+        List<int[]> onlineShards = split(members.online(onlineUsers));
+        List<int[]> offlineShards = split(members.offline(onlineUsers));
+        List<Integer> busyLanes = new ArrayList<>();
+        for (int lane = 0; lane < LANES; lane++) {
+            if (onlineShards.get(lane).length > 0 || offlineShards.get(lane).length > 0) {
+                busyLanes.add(lane);
+            }
+        }
+        fanout.remaining.set(busyLanes.size()); // Set before the first shard can finish
+        for (int lane : busyLanes) {
+            int[] onlineShard = onlineShards.get(lane);
+            int[] offlineShard = offlineShards.get(lane);
+            run(lanes[lane], () -> fanout.deliver(onlineShard, offlineShard));
+        }
+        if (fanout.sharded) {
+            Metrics.increment("fanout.sharded");
+        }
+    }
+
+    void stop() {
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+        for (ExecutorService lane : lanes) {
+            try {
+                lane.awaitTermination(5, TimeUnit.SECONDS); // Let queued shards reach the offline queue
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void run(ExecutorService lane, Runnable shard) {
+        Metrics.setGauge("fanout.queued_shards", queued.incrementAndGet());
+        lane.execute(() -> {
+            try {
+                shard.run();
+            } catch (Exception e) {
+                System.err.println("Error during fanout: " + e.getMessage()); // Keep the lane alive
+                e.printStackTrace();
+            } finally {
+                Metrics.setGauge("fanout.queued_shards", queued.decrementAndGet());
+            }
+        });
+    }
+
+    // One array per lane, by recipient id, so a recipient is always served by the same lane
+    private static List<int[]> split(int[] userIds) {
+        int[] counts = new int[LANES];
+        for (int userId : userIds) {
+            counts[userId % LANES]++;
+        }
+        List<int[]> shards = new ArrayList<>(LANES);
+        for (int lane = 0; lane < LANES; lane++) {
+            shards.add(new int[counts[lane]]);
+        }
+        int[] next = new int[LANES];
+        for (int userId : userIds) {
+            int lane = userId % LANES;
+            shards.get(lane)[next[lane]++] = userId;
+        }
+        return shards;
+    }
+
+    private final class Fanout {
+        private final long chatId;
+        private final long messageId;
+        private final int senderId;
+        private final String message;
+        private final String data;
+        private final long storedAtMillis;
+        private final boolean sharded;
+        private final AtomicInteger remaining = new AtomicInteger();
+        private volatile String offlineFrame; // Built once, only if somebody is offline
+
+        private Fanout(long chatId, long messageId, int senderId, String message, String data, long storedAtMillis, boolean sharded) {
+            this.chatId = chatId;
+            this.messageId = messageId;
+            this.senderId = senderId;
+            this.message = message;
+            this.data = data;
+            this.storedAtMillis = storedAtMillis;
+            this.sharded = sharded;
+        }
+
+        private void deliver(int[] online, int[] offline) {
+            int pushed = 0;
+            for (int userId : online) {
+                if (userId == senderId) {
+                    continue; // Don't send back to self
+                }
+                // Each push gets its own frame, the delivery id is set on it
+                if (livePush.push(userId, new Response(true, message, data), chatId, messageId)) {
+                    pushed++;
+                } else {
+                    enqueue(userId); // Logged out since the split
+                }
+            }
+            for (int userId : offline) {
+                if (userId != senderId) {
+                    enqueue(userId);
+                }
+            }
+            Metrics.add("fanout.pushed", pushed);
+            if (remaining.decrementAndGet() == 0) {
+                long lag = System.currentTimeMillis() - storedAtMillis;
+                Metrics.recordMillis("fanout.lag", lag);
+                if (sharded) {
+                    Metrics.recordMillis("fanout.lag.chat." + chatId, lag);
+                }
+            }
+        }
+
+        private void enqueue(int userId) {
+            String frame = offlineFrame;
+            if (frame == null) {
+                frame = new Response(true, message, data).toJson();
+                offlineFrame = frame;
+            }
+            offlineDeliveryQueue.enqueue(userId, chatId, messageId, frame);
+            Metrics.increment("fanout.enqueued");
+        }
+    }
+}
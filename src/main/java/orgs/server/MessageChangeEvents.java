@@ -0,0 +1,139 @@
+package orgs.server;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import orgs.utils.LocalDateTimeAdapter;
+import orgs.utils.Metrics;
+
+import java.io.PrintWriter;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * Live edit and delete notices for the online members of a chat. A message gets at most one notice per
+ * COLLAPSE_WINDOW_MILLIS: edits arriving inside the window replace the pending one, so a burst of quick
+ * corrections reaches members as its final text. Deletes go out on the next tick and drop any pending edit.
+ * Offline members are not queued; they see the change through GET_UPDATES.
+ *
+ * Frame: {@code MESSAGE_CHANGE {"chatId":..,"messageId":..,"content":..,"editedAt":..}}, or with
+ * {@code "deleted":true} and no content for a tombstone.
+ */
+class MessageChangeEvents {
+    private static final long COLLAPSE_WINDOW_MILLIS = 1_000;
+    private static final long TICK_MILLIS = 100;
+
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
+            .create();
+
+    private final ChatMembershipCache membershipCache;
+    private final OnlineUsers onlineUsers;
+    private final IntFunction<PrintWriter> onlineWriter; // null when the user is not connected
+    private final Map<Long, MessageState> messages = new LinkedHashMap<>(); // Guarded by itself
+    private final ScheduledExecutorService sender = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "MessageChangeEvents");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Field names are the wire format
+    private static final class Change {
+        private final long chatId;
+        private final long messageId;
+        private final String content;
+        private final Boolean deleted;
+        private final LocalDateTime editedAt;
+
+        private Change(long chatId, long messageId, String content, Boolean deleted, LocalDateTime editedAt) {
+            this.chatId = chatId;
+            this.messageId = messageId;
+            this.content = content;
+            this.deleted = deleted;
+            this.editedAt = editedAt;
+        }
+    }
+
+    private static final class MessageState {
+        private Change pending;
+        private long lastSentAtMillis;
+    }
+
+    MessageChangeEvents(ChatMembershipCache membershipCache, OnlineUsers onlineUsers, IntFunction<PrintWriter> onlineWriter) {
+        this.membershipCache = membershipCache;
+        this.onlineUsers = onlineUsers;
+        this.onlineWriter = onlineWriter;
+    }
+
+    void start() {
+        sender.scheduleAtFixedRate(this::flush, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        sender.shutdown();
+    }
+
+    void edited(long chatId, long messageId, String content, LocalDateTime editedAt) {
+        queue(new Change(chatId, messageId, content, null, editedAt));
+    }
+
+    void deleted(long chatId, long messageId, LocalDateTime deletedAt) {
+        queue(new Change(chatId, messageId, null, true, deletedAt));
+    }
+
+    private void queue(Change change) {
+        synchronized (messages) {
+            MessageState state = messages.computeIfAbsent(change.messageId, id -> new MessageState());
+            if (state.pending != null) {
+                if (Boolean.TRUE.equals(state.pending.deleted)) {
+                    return; // Nothing follows a tombstone
+                }
+                Metrics.increment("message_changes.collapsed");
+            }
+            state.pending = change;
+        }
+    }
+
+    private void flush() {
+        try {
+            long now = System.currentTimeMillis();
+            Map<Long, Change> due = new LinkedHashMap<>();
+            synchronized (messages) {
+                Iterator<MessageState> states = messages.values().iterator();
+                while (states.hasNext()) {
+                    MessageState state = states.next();
+                    boolean windowOver = now - state.lastSentAtMillis >= COLLAPSE_WINDOW_MILLIS;
+                    if (state.pending != null && (windowOver || Boolean.TRUE.equals(state.pending.deleted))) {
+                        due.put(state.pending.messageId, state.pending);
+                        state.pending = null;
+                        state.lastSentAtMillis = now;
+                    } else if (state.pending == null && windowOver) {
+                        states.remove(); // Quiet for a whole window, the next edit goes out right away
+                    }
+                }
+            }
+            due.values().forEach(this::broadcast);
+        } catch (Exception e) {
+            System.err.println("Error sending message changes: " + e.getMessage()); // Keep the schedule alive
+        }
+    }
+
+    private void broadcast(Change change) {
+        ChatMembers members = membershipCache.getMembers(change.chatId);
+        String frame = "MESSAGE_CHANGE " + GSON.toJson(change);
+        int sent = 0;
+        for (int userId : members.online(onlineUsers)) {
+            PrintWriter out = onlineWriter.apply(userId);
+            if (out != null) {
+                out.println(frame);
+                sent++;
+            }
+        }
+        Metrics.add("message_changes.frames_sent", sent);
+    }
+}
@@ -0,0 +1,249 @@
+package orgs.server;
+
+import orgs.dao.PendingDeliveryDao;
+import orgs.model.PendingDelivery;
+import orgs.utils.Metrics;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Store-and-forward queue for pushes addressed to users that are not connected.
+ * Frames are kept in memory per user and spilled to pending_deliveries once a user's queue grows past
+ * MAX_IN_MEMORY_PER_USER, or all queues together past MAX_IN_MEMORY_TOTAL. On login the whole backlog is drained
+ * in one batch and stays in flight until the client acknowledges it; anything unacknowledged when the connection
+ * drops is queued again.
+ *
+ * The queue is a shortcut, not the record: a user's spilled rows are capped at MAX_SPILLED_PER_USER (oldest go
+ * first) and expire() drops deliveries older than MAX_AGE_DAYS. A user who lost deliveries either way gets the
+ * truncation notice as a delivery of its own and catches up through GET_UPDATES, which has the same retention.
+ */
+public class OfflineDeliveryQueue {
+    private static final int MAX_IN_MEMORY_PER_USER = 256;
+    private static final int MAX_IN_MEMORY_TOTAL = 100_000;
+    private static final int MAX_SPILLED_PER_USER = 5_000;
+    private static final long MAX_AGE_DAYS = 7; // The update log's retention
+    private static final long RETRANSMIT_AFTER_MILLIS = 30_000;
+
+    // Seeded from the clock so ids stay unique across restarts while spilled rows are still around
+    private final AtomicLong nextDeliveryId = new AtomicLong(System.currentTimeMillis() * 1000);
+    private final PendingDeliveryDao pendingDeliveryDao = new PendingDeliveryDao();
+    private final Map<Integer, Deque<PendingDelivery>> queued = new ConcurrentHashMap<>();
+    private final Map<Integer, Map<Long, InFlight>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicInteger inMemory = new AtomicInteger();
+    private final Set<Integer> truncated = ConcurrentHashMap.newKeySet(); // Notice queued, not drained yet
+    private final String truncatedNotice;
+
+    private static final class InFlight {
+        private final PendingDelivery delivery;
+        private final boolean persisted; // Also stored in pending_deliveries, so the ack has to delete the row
+        private long sentAtMillis;
+
+        private InFlight(PendingDelivery delivery, boolean persisted, long sentAtMillis) {
+            this.delivery = delivery;
+            this.persisted = persisted;
+            this.sentAtMillis = sentAtMillis;
+        }
+    }
+
+    // truncatedNotice is the frame that tells a client its backlog is incomplete
+    public OfflineDeliveryQueue(String truncatedNotice) {
+        this.truncatedNotice = truncatedNotice;
+    }
+
+    public long nextDeliveryId() {
+        return nextDeliveryId.incrementAndGet();
+    }
+
+    public void enqueue(int userId, long chatId, long messageId, String payload) {
+        enqueue(userId, nextDeliveryId(), chatId, messageId, payload);
+    }
+
+    // Keeps an already assigned delivery id, so a client that did get the frame can recognize the retransmission
+    public void enqueue(int userId, long deliveryId, long chatId, long messageId, String payload) {
+        PendingDelivery delivery = new PendingDelivery(deliveryId, userId, chatId, messageId, payload, LocalDateTime.now());
+        List<PendingDelivery> spill = withQueue(userId, queue -> {
+            queue.addLast(delivery);
+            int total = inMemory.incrementAndGet();
+            if (queue.size() <= MAX_IN_MEMORY_PER_USER && total <= MAX_IN_MEMORY_TOTAL) {
+                return null;
+            }
+            List<PendingDelivery> all = new ArrayList<>(queue);
+            queue.clear();
+            inMemory.addAndGet(-all.size());
+            return all;
+        });
+        if (spill == null) {
+            return;
+        }
+        if (!pendingDeliveryDao.createPendingDeliveries(spill)) {
+            // Keep them in memory rather than lose them; the next enqueue retries the spill
+            requeue(userId, spill);
+            return;
+        }
+        int trimmed = pendingDeliveryDao.deleteOldestPendingDeliveries(userId, MAX_SPILLED_PER_USER);
+        if (trimmed > 0) {
+            Metrics.add("delivery.backlog_trimmed", trimmed);
+            markTruncated(userId);
+        }
+    }
+
+    // Drops deliveries older than MAX_AGE_DAYS, queued and spilled; returns how many. Queues left empty are
+    // removed from memory
+    public int expire() {
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(MAX_AGE_DAYS);
+        int expired = 0;
+        for (Map.Entry<Integer, Deque<PendingDelivery>> entry : queued.entrySet()) {
+            Deque<PendingDelivery> queue = entry.getValue();
+            int dropped;
+            synchronized (queue) {
+                int before = queue.size();
+                queue.removeIf(delivery -> delivery.getCreatedAt().isBefore(cutoff));
+                dropped = before - queue.size();
+                if (queue.isEmpty()) {
+                    queued.remove(entry.getKey(), queue); // Under the queue's lock, see withQueue
+                }
+            }
+            inMemory.addAndGet(-dropped);
+            if (dropped > 0) {
+                expired += dropped;
+                markTruncated(entry.getKey());
+            }
+        }
+        for (int userId : pendingDeliveryDao.getUsersWithPendingDeliveriesBefore(Timestamp.valueOf(cutoff))) {
+            int dropped = pendingDeliveryDao.deletePendingDeliveriesBefore(userId, Timestamp.valueOf(cutoff));
+            if (dropped > 0) {
+                expired += dropped;
+                markTruncated(userId);
+            }
+        }
+        Metrics.add("delivery.backlog_expired", expired);
+        Metrics.setGauge("delivery.queued_in_memory", inMemory.get());
+        return expired;
+    }
+
+    private void markTruncated(int userId) {
+        if (truncated.add(userId)) {
+            enqueue(userId, 0, 0, truncatedNotice);
+        }
+    }
+
+    // Runs the action on the user's queue under its lock. expire() removes empty queues under that lock, so a
+    // queue found removed once locked is replaced by a new one
+    private <T> T withQueue(int userId, Function<Deque<PendingDelivery>, T> action) {
+        while (true) {
+            Deque<PendingDelivery> queue = queued.computeIfAbsent(userId, id -> new ArrayDeque<>());
+            synchronized (queue) {
+                if (queued.get(userId) == queue) {
+                    return action.apply(queue);
+                }
+            }
+        }
+    }
+
+    // Puts deliveries back in front of the user's queue, oldest first
+    private void requeue(int userId, List<PendingDelivery> deliveries) {
+        withQueue(userId, queue -> {
+            for (int i = deliveries.size() - 1; i >= 0; i--) {
+                queue.addFirst(deliveries.get(i));
+            }
+            return null;
+        });
+        inMemory.addAndGet(deliveries.size());
+    }
+
+    // Everything waiting for the user, oldest first; the returned deliveries are in flight until acknowledged
+    public List<PendingDelivery> drain(int userId) {
+        List<PendingDelivery> batch = new ArrayList<>();
+        Deque<PendingDelivery> queue = queued.get(userId);
+        if (queue != null) {
+            synchronized (queue) {
+                batch.addAll(queue);
+                queue.clear();
+            }
+        }
+        truncated.remove(userId); // The notice, if any, is in this batch
+        int fromMemory = batch.size();
+        inMemory.addAndGet(-fromMemory);
+        // Read the spilled rows after emptying memory, so a concurrent spill cannot slip between the two
+        batch.addAll(pendingDeliveryDao.getPendingDeliveries(userId));
+
+        long now = System.currentTimeMillis();
+        Map<Long, InFlight> window = inFlight.computeIfAbsent(userId, id -> new ConcurrentHashMap<>());
+        for (int i = 0; i < batch.size(); i++) {
+            PendingDelivery delivery = batch.get(i);
+            window.put(delivery.getDeliveryId(), new InFlight(delivery, i >= fromMemory, now));
+        }
+        batch.sort(Comparator.comparingLong(PendingDelivery::getDeliveryId));
+        Metrics.add("delivery.backlog_drained", batch.size());
+        return batch;
+    }
+
+    public int acknowledge(int userId, Collection<Long> deliveryIds) {
+        Map<Long, InFlight> window = inFlight.get(userId);
+        if (window == null) {
+            return 0;
+        }
+        int acknowledged = 0;
+        List<Long> persistedIds = new ArrayList<>();
+        for (Long deliveryId : deliveryIds) {
+            InFlight entry = window.remove(deliveryId);
+            if (entry != null) {
+                acknowledged++;
+                if (entry.persisted) {
+                    persistedIds.add(deliveryId);
+                }
+            }
+        }
+        pendingDeliveryDao.deletePendingDeliveries(userId, persistedIds);
+        Metrics.add("delivery.backlog_acked", acknowledged);
+        return acknowledged;
+    }
+
+    // Deliveries that have been in flight longer than the retransmit window; their clock restarts
+    public List<PendingDelivery> retransmitDue(int userId) {
+        Map<Long, InFlight> window = inFlight.get(userId);
+        List<PendingDelivery> due = new ArrayList<>();
+        if (window == null) {
+            return due;
+        }
+        long now = System.currentTimeMillis();
+        for (InFlight entry : window.values()) {
+            if (now - entry.sentAtMillis >= RETRANSMIT_AFTER_MILLIS) {
+                entry.sentAtMillis = now;
+                due.add(entry.delivery);
+            }
+        }
+        due.sort(Comparator.comparingLong(PendingDelivery::getDeliveryId));
+        Metrics.add("delivery.retransmitted", due.size());
+        return due;
+    }
+
+    // Called when the user's connection goes away: unacknowledged deliveries go out again on the next login
+    public void requeueUnacknowledged(int userId) {
+        Map<Long, InFlight> window = inFlight.remove(userId);
+        if (window == null || window.isEmpty()) {
+            return;
+        }
+        List<PendingDelivery> retry = new ArrayList<>();
+        for (InFlight entry : window.values()) {
+            if (!entry.persisted) { // Persisted ones are still in pending_deliveries
+                retry.add(entry.delivery);
+            }
+        }
+        retry.sort(Comparator.comparingLong(PendingDelivery::getDeliveryId));
+        requeue(userId, retry);
+    }
+}
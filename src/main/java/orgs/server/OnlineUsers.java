@@ -0,0 +1,38 @@
+package orgs.server;
+
+import java.util.Arrays;
+
+/**
+ * Bitmap of the user ids that currently have a logged-in connection, bit i = user i. Fanout intersects a
+ * chat's members with it instead of probing loggedInUsers once per member. Writers synchronize; readers
+ * take the current words array without locking and may see a change a moment late, which is fine because
+ * the handler lookup after the intersection is authoritative.
+ */
+class OnlineUsers {
+    private volatile long[] words = new long[1024]; // Grows to the highest online user id
+
+    synchronized void add(int userId) {
+        int word = userId >>> 6;
+        if (word >= words.length) {
+            words = Arrays.copyOf(words, Math.max(word + 1, words.length * 2));
+        }
+        words[word] |= 1L << userId;
+    }
+
+    synchronized void remove(int userId) {
+        int word = userId >>> 6;
+        if (word < words.length) {
+            words[word] &= ~(1L << userId);
+        }
+    }
+
+    boolean contains(int userId) {
+        long[] current = words;
+        int word = userId >>> 6;
+        return word < current.length && (current[word] & (1L << userId)) != 0;
+    }
+
+    long[] words() {
+        return words;
+    }
+}
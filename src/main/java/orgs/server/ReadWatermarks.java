@@ -0,0 +1,126 @@
+package orgs.server;
+
+import orgs.dao.ChatParticipantDao;
+import orgs.model.ChatParticipant;
+import orgs.utils.Metrics;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * Per-(chat, reader) read positions from MARK_CHAT_READ_UP_TO. Requests only raise the position in memory;
+ * every FLUSH_INTERVAL_MILLIS the highest position per pair is written in one batch, so a reader scrolling
+ * through a busy chat costs one row update per interval rather than one per message. The update only ever
+ * moves last_read_message_id forward, so a late or replayed flush cannot move it back.
+ *
+ * Readers that asked for it also produce a receipt for the sender of the message they read up to, sent after
+ * the flush if the sender is online: {@code READ <chatId> <readerId> <upToMessageId>}.
+ */
+class ReadWatermarks {
+    private static final long FLUSH_INTERVAL_MILLIS = 1_000;
+
+    private final ChatParticipantDao chatParticipantDao = new ChatParticipantDao();
+    private final IntFunction<PrintWriter> onlineWriter; // null when the user is not connected
+    private final Map<String, Watermark> pending = new ConcurrentHashMap<>(); // Key: see key()
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ReadWatermarks");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final class Watermark {
+        private final long chatId;
+        private final int readerId;
+        private final long upToMessageId;
+        private final int notifyUserId; // Sender to tell, -1 for none
+
+        private Watermark(long chatId, int readerId, long upToMessageId, int notifyUserId) {
+            this.chatId = chatId;
+            this.readerId = readerId;
+            this.upToMessageId = upToMessageId;
+            this.notifyUserId = notifyUserId;
+        }
+
+        private static Watermark higher(Watermark a, Watermark b) {
+            return b.upToMessageId > a.upToMessageId ? b : a;
+        }
+    }
+
+    ReadWatermarks(IntFunction<PrintWriter> onlineWriter) {
+        this.onlineWriter = onlineWriter;
+    }
+
+    void start() {
+        flusher.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // Writes what is still pending before the server goes away
+    void stop() {
+        flusher.shutdown();
+        flush();
+    }
+
+    // notifyUserId: the sender of upToMessageId when the reader sends receipts, otherwise -1
+    void advance(long chatId, int readerId, long upToMessageId, int notifyUserId) {
+        Watermark watermark = new Watermark(chatId, readerId, upToMessageId, notifyUserId);
+        if (pending.merge(key(chatId, readerId), watermark, Watermark::higher) != watermark) {
+            Metrics.increment("read_watermarks.coalesced");
+        }
+    }
+
+    private synchronized void flush() {
+        try {
+            List<Watermark> batch = new ArrayList<>(pending.size());
+            for (String key : pending.keySet()) {
+                Watermark watermark = pending.remove(key);
+                if (watermark != null) {
+                    batch.add(watermark);
+                }
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            List<ChatParticipant> rows = new ArrayList<>(batch.size());
+            for (Watermark watermark : batch) {
+                ChatParticipant row = new ChatParticipant();
+                row.setChatId(watermark.chatId);
+                row.setUserId(watermark.readerId);
+                row.setLastReadMessageId(watermark.upToMessageId);
+                rows.add(row);
+            }
+            if (chatParticipantDao.advanceReadWatermarks(rows) == -1) {
+                batch.forEach(w -> pending.merge(key(w.chatId, w.readerId), w, Watermark::higher)); // Next flush retries
+                Metrics.increment("read_watermarks.flush_errors");
+                return;
+            }
+            Metrics.add("read_watermarks.flushed", batch.size());
+
+            int receipts = 0;
+            for (Watermark watermark : batch) {
+                if (watermark.notifyUserId == -1 || watermark.notifyUserId == watermark.readerId) {
+                    continue;
+                }
+                PrintWriter out = onlineWriter.apply(watermark.notifyUserId);
+                if (out != null) {
+                    out.println("READ " + watermark.chatId + " " + watermark.readerId + " " + watermark.upToMessageId);
+                    receipts++;
+                }
+            }
+            Metrics.add("read_watermarks.receipts_sent", receipts);
+        } catch (Exception e) {
+            System.err.println("Error flushing read watermarks: " + e.getMessage()); // Keep the schedule alive
+        }
+    }
+
+    private static String key(long chatId, int readerId) {
+        return chatId + ":" + readerId; // Chat ids take all 64 bits, so the pair no longer packs into a long
+    }
+}
@@ -0,0 +1,79 @@
+package orgs.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+// Opaque state token handed to clients by GET_UPDATES.
+// Clients must treat it as an opaque string and send back whatever they were given last.
+//
+// user_updates ids are handed out at insert but rows commit in any order, so "everything up to the highest id
+// returned" would skip a lower id that commits later. The token instead carries a settled id, below which every
+// row has committed, and the ids above it the client already has; the next sync re-reads from the settled id and
+// leaves those out.
+final class SyncState {
+    private static final String VERSION = "v2";
+
+    private final int userId;
+    private final long settledUpdateId;
+    private final long issuedAtEpochSecond;
+    private final Set<Long> deliveredAfterSettled;
+
+    SyncState(int userId, long settledUpdateId, long issuedAtEpochSecond, Collection<Long> deliveredAfterSettled) {
+        this.userId = userId;
+        this.settledUpdateId = settledUpdateId;
+        this.issuedAtEpochSecond = issuedAtEpochSecond;
+        this.deliveredAfterSettled = new TreeSet<>(deliveredAfterSettled);
+    }
+
+    int getUserId() {
+        return userId;
+    }
+
+    long getSettledUpdateId() {
+        return settledUpdateId;
+    }
+
+    long getIssuedAtEpochSecond() {
+        return issuedAtEpochSecond;
+    }
+
+    Set<Long> getDeliveredAfterSettled() {
+        return deliveredAfterSettled;
+    }
+
+    String encode() {
+        StringBuilder raw = new StringBuilder(VERSION).append(':').append(userId).append(':').append(settledUpdateId)
+                .append(':').append(issuedAtEpochSecond).append(':');
+        for (long id : deliveredAfterSettled) {
+            raw.append(id - settledUpdateId).append(','); // Small offsets keep the token short
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Returns null for anything that is not a token we issued (the caller falls back to a resync)
+    static SyncState decode(String token) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split(":", -1);
+            if (parts.length != 5 || !VERSION.equals(parts[0])) {
+                return null; // v1 tokens too: their id may have skipped a late commit
+            }
+            long settled = Long.parseLong(parts[2]);
+            Set<Long> delivered = new TreeSet<>();
+            for (String offset : parts[4].split(",")) {
+                if (!offset.isEmpty()) {
+                    delivered.add(settled + Long.parseLong(offset));
+                }
+            }
+            return new SyncState(Integer.parseInt(parts[1]), settled, Long.parseLong(parts[3]), delivered);
+        } catch (IllegalArgumentException e) { // Also covers NumberFormatException
+            return null;
+        }
+    }
+}
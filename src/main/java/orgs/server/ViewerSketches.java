@@ -0,0 +1,132 @@
+package orgs.server;
+
+import orgs.dao.MessageViewerSketchDao;
+import orgs.utils.HyperLogLog;
+import orgs.utils.Metrics;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Approximate unique viewers per message. Views are added to an in-memory HyperLogLog without reading
+ * anything first: sketches are unions, so a sketch started empty can be merged with the stored one later.
+ * flush() does that merge for every changed sketch and upserts the result; the stats path merges on first
+ * read. Each sketch is 2 KB in memory whatever the audience; unchanged ones beyond MAX_IN_MEMORY are dropped,
+ * least recently used first, and reloaded when needed.
+ */
+class ViewerSketches {
+    private static final int MAX_IN_MEMORY = 10_000;
+
+    private final MessageViewerSketchDao sketchDao = new MessageViewerSketchDao();
+    private final Map<Long, Entry> sketches = new ConcurrentHashMap<>();
+
+    private static final class Entry {
+        private final HyperLogLog sketch = new HyperLogLog();
+        private volatile boolean dirty;
+        private boolean loaded; // The stored sketch has been merged in; guarded by the entry
+        private volatile long lastUsedMillis = System.currentTimeMillis();
+    }
+
+    void add(long messageId, int viewerId) {
+        Entry entry = sketches.computeIfAbsent(messageId, id -> new Entry());
+        entry.lastUsedMillis = System.currentTimeMillis();
+        if (entry.sketch.add(viewerId)) {
+            entry.dirty = true;
+            if (sketches.get(messageId) != entry) {
+                add(messageId, viewerId); // Evicted meanwhile; record the view in the entry that replaced it
+            }
+        }
+    }
+
+    // A failed load leaves the entry unloaded, so the next read or flush tries again
+    long uniqueViewers(long messageId) throws SQLException {
+        Entry entry = sketches.computeIfAbsent(messageId, id -> new Entry());
+        entry.lastUsedMillis = System.currentTimeMillis();
+        synchronized (entry) {
+            if (!entry.loaded) {
+                byte[] stored = sketchDao.getSketches(List.of(messageId)).get(messageId);
+                if (stored != null) {
+                    entry.sketch.merge(HyperLogLog.fromBytes(stored));
+                }
+                entry.loaded = true;
+            }
+        }
+        return entry.sketch.estimate();
+    }
+
+    // Called periodically by the server
+    synchronized void flush() {
+        try {
+            Map<Long, Entry> changed = new HashMap<>();
+            List<Long> toLoad = new ArrayList<>();
+            sketches.forEach((messageId, entry) -> {
+                if (entry.dirty) {
+                    entry.dirty = false; // A view arriving from here on marks it again for the next flush
+                    changed.put(messageId, entry);
+                    synchronized (entry) {
+                        if (!entry.loaded) {
+                            toLoad.add(messageId);
+                        }
+                    }
+                }
+            });
+            if (!changed.isEmpty()) {
+                Map<Long, byte[]> stored;
+                try {
+                    stored = sketchDao.getSketches(toLoad);
+                } catch (SQLException e) {
+                    System.err.println("Error loading viewer sketches: " + e.getMessage());
+                    changed.values().forEach(entry -> entry.dirty = true); // Unloaded and retried by the next flush
+                    return;
+                }
+                Map<Long, byte[]> merged = new HashMap<>();
+                changed.forEach((messageId, entry) -> {
+                    synchronized (entry) {
+                        if (!entry.loaded) {
+                            byte[] bytes = stored.get(messageId);
+                            if (bytes != null) {
+                                entry.sketch.merge(HyperLogLog.fromBytes(bytes));
+                            }
+                            entry.loaded = true;
+                        }
+                    }
+                    merged.put(messageId, entry.sketch.toBytes());
+                });
+                if (sketchDao.saveSketches(merged)) {
+                    Metrics.add("viewer_sketches.flushed", merged.size());
+                } else {
+                    changed.values().forEach(entry -> entry.dirty = true); // Retried by the next flush
+                }
+            }
+            evict();
+            Metrics.setGauge("viewer_sketches.in_memory", sketches.size());
+        } catch (Exception e) {
+            System.err.println("Error flushing viewer sketches: " + e.getMessage());
+        }
+    }
+
+    private void evict() {
+        int excess = sketches.size() - MAX_IN_MEMORY;
+        if (excess <= 0) {
+            return;
+        }
+        List<Map.Entry<Long, Entry>> clean = new ArrayList<>();
+        sketches.entrySet().forEach(e -> {
+            if (!e.getValue().dirty) {
+                clean.add(e);
+            }
+        });
+        clean.sort(Comparator.comparingLong(e -> e.getValue().lastUsedMillis));
+        for (int i = 0; i < Math.min(excess, clean.size()); i++) {
+            Map.Entry<Long, Entry> e = clean.get(i);
+            if (!e.getValue().dirty) {
+                sketches.remove(e.getKey(), e.getValue());
+            }
+        }
+    }
+}
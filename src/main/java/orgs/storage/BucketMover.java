@@ -0,0 +1,172 @@
+package orgs.storage;
+
+import orgs.dao.ShardBucketDao;
+import orgs.dao.ShardRouter;
+import orgs.model.ShardBucket;
+import orgs.utils.DatabaseConnection;
+import orgs.utils.Metrics;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Moves one virtual bucket of chats to another shard while the servers keep running, with the same -Dtusal.shards
+ * as the servers: {@code java orgs.storage.BucketMover <bucket> <targetShard>}.
+ *
+ * 1. copying: the bucket's messages are copied to the target in id order, COPY_ROWS per statement with a pause
+ *    after each, while the source still takes reads and writes. Each chat is copied up to its highest id when its
+ *    copy starts, so a busy chat does not keep the copy chasing its newest messages.
+ * 2. frozen: servers refuse writes to the bucket once they have reloaded the map, then whatever arrived or
+ *    changed during the copy is copied again: rows after the last copied id, and rows sent, edited or deleted since
+ *    the move started. Rows removed from the source since they were copied (deletion jobs, the purger, archiving)
+ *    are removed from the target, and view counts are copied over; the jobs and the purger do not run on the
+ *    source shard while it is frozen, and servers hold the views of the bucket's messages until it switches.
+ * 3. active on the target: servers read and write there once they have reloaded the map; after that the bucket's
+ *    rows are deleted from the source.
+ *
+ * "Once they have reloaded the map" is checked, not assumed: the mover waits until every server's entry in
+ * shard_map_acks is newer than the change. A server that cannot reload stops routing when its map's lease
+ * (ShardRouter.MAP_LEASE_MILLIS) runs out, so a dead or disconnected server holds a move up by one lease at most.
+ *
+ * A failure before the switch puts the bucket back to active on the source; rows already copied stay on the
+ * target unread and are overwritten by the next attempt. View counts flushed to the source between reading a row
+ * and writing its copy are lost, which is a handful of views at most.
+ */
+public class BucketMover {
+    private static final int COPY_ROWS = 1_000;
+    private static final long COPY_PAUSE_MILLIS = 50;
+    private static final long CLOCK_MARGIN_MILLIS = 60_000; // Between this process and the database clocks
+    private static final long LEASE_MARGIN_MILLIS = 1_000; // A request that took its map just before the lease ran out
+    private static final long ACK_POLL_MILLIS = 500;
+
+    private final ShardBucketDao bucketDao = new ShardBucketDao();
+
+    // Returns the number of chats moved
+    public int move(int bucket, int targetShard) throws SQLException, InterruptedException {
+        ShardBucket current = findBucket(bucket);
+        if (targetShard < 0 || targetShard >= ShardRouter.shardCount()) {
+            throw new IllegalArgumentException("Shard " + targetShard + " is not configured");
+        }
+        int sourceShard = current.getShardId();
+        if (sourceShard == targetShard) {
+            throw new IllegalArgumentException("Bucket " + bucket + " is already on shard " + targetShard);
+        }
+        Timestamp movedSince = new Timestamp(System.currentTimeMillis() - CLOCK_MARGIN_MILLIS);
+        if (!bucketDao.setState(bucket, ShardBucketDao.ACTIVE, ShardBucketDao.COPYING, targetShard)) {
+            throw new IllegalStateException("Bucket " + bucket + " is not active; is another move running?");
+        }
+
+        Map<Long, Long> copiedUpTo = new HashMap<>();
+        boolean switched = false;
+        try {
+            for (long chatId : bucketDao.getChatIdsInBucket(sourceShard, bucket)) {
+                copyChat(sourceShard, targetShard, chatId, copiedUpTo, true);
+            }
+            System.out.println("Bucket " + bucket + ": copied " + copiedUpTo.size() + " chats, freezing.");
+
+            if (!bucketDao.setState(bucket, ShardBucketDao.COPYING, ShardBucketDao.FROZEN, targetShard)) {
+                throw new IllegalStateException("Bucket " + bucket + " left the copying state");
+            }
+            awaitServers(bucketDao.getDatabaseTime());
+            // Chats new since the copy, and chats whose rows are all gone from the source since, or since an earlier attempt
+            Set<Long> chatIds = new LinkedHashSet<>(bucketDao.getChatIdsInBucket(sourceShard, bucket));
+            chatIds.addAll(copiedUpTo.keySet());
+            chatIds.addAll(bucketDao.getChatIdsInBucket(targetShard, bucket));
+            long dropped = 0;
+            for (long chatId : chatIds) {
+                copyChat(sourceShard, targetShard, chatId, copiedUpTo, false);
+                bucketDao.copyMessagesChangedSince(sourceShard, targetShard, chatId, movedSince);
+                bucketDao.copyViewCounts(sourceShard, targetShard, chatId, COPY_ROWS);
+                dropped += bucketDao.deleteMessagesMissingFrom(sourceShard, targetShard, chatId, COPY_ROWS);
+            }
+            System.out.println("Bucket " + bucket + ": caught up, dropped " + dropped + " rows deleted from shard " + sourceShard + " during the copy.");
+
+            if (!bucketDao.completeMove(bucket)) {
+                throw new IllegalStateException("Bucket " + bucket + " could not be switched to shard " + targetShard);
+            }
+            switched = true;
+        } finally {
+            if (!switched) {
+                bucketDao.setState(bucket, ShardBucketDao.COPYING, ShardBucketDao.ACTIVE, null);
+                bucketDao.setState(bucket, ShardBucketDao.FROZEN, ShardBucketDao.ACTIVE, null);
+            }
+        }
+        Timestamp switchedAt = bucketDao.getDatabaseTime();
+        Metrics.increment("shards.buckets_moved");
+        System.out.println("Bucket " + bucket + " is on shard " + targetShard + ", removing it from shard " + sourceShard + ".");
+
+        awaitServers(switchedAt); // No server reads the source any more
+        long removed = 0;
+        for (long chatId : bucketDao.getChatIdsInBucket(sourceShard, bucket)) {
+            int deleted;
+            do {
+                deleted = bucketDao.deleteMessagesOfChat(sourceShard, chatId, COPY_ROWS);
+                removed += deleted;
+                Thread.sleep(COPY_PAUSE_MILLIS);
+            } while (deleted == COPY_ROWS);
+        }
+        System.out.println("Bucket " + bucket + ": removed " + removed + " messages from shard " + sourceShard + ".");
+        return copiedUpTo.size();
+    }
+
+    // Copies the chat's rows after the last id copied so far, in batches. While the bucket takes writes (pause) only
+    // up to the chat's highest id at the start, and with pauses; frozen, everything that is there
+    private void copyChat(int sourceShard, int targetShard, long chatId, Map<Long, Long> copiedUpTo, boolean pause)
+            throws SQLException, InterruptedException {
+        long afterId = copiedUpTo.getOrDefault(chatId, 0L);
+        long upToId = pause ? bucketDao.getMaxMessageIdOfChat(sourceShard, chatId) : Long.MAX_VALUE;
+        while (true) {
+            long lastId = bucketDao.copyMessagesAfter(sourceShard, targetShard, chatId, afterId, upToId, COPY_ROWS);
+            if (lastId == afterId) {
+                return;
+            }
+            afterId = lastId;
+            copiedUpTo.put(chatId, afterId);
+            if (pause) {
+                Thread.sleep(COPY_PAUSE_MILLIS);
+            }
+        }
+    }
+
+    // Until no server can still be routing with a map read before changedAt
+    private void awaitServers(Timestamp changedAt) throws SQLException, InterruptedException {
+        int behind;
+        while ((behind = bucketDao.countServersBehind(changedAt, ShardRouter.MAP_LEASE_MILLIS + LEASE_MARGIN_MILLIS)) > 0) {
+            Metrics.setGauge("shards.servers_behind", behind);
+            Thread.sleep(ACK_POLL_MILLIS);
+        }
+        Metrics.setGauge("shards.servers_behind", 0);
+    }
+
+    private ShardBucket findBucket(int bucket) throws SQLException {
+        bucketDao.addMissingBuckets(ShardRouter.BUCKETS); // Seeds shard_buckets on first use
+        List<ShardBucket> buckets = bucketDao.getBuckets();
+        for (ShardBucket candidate : buckets) {
+            if (candidate.getBucket() == bucket) {
+                return candidate;
+            }
+        }
+        throw new IllegalArgumentException("No bucket " + bucket + "; buckets are 0.." + (ShardRouter.BUCKETS - 1));
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: BucketMover <bucket> <targetShard>");
+            return;
+        }
+        try {
+            int chats = new BucketMover().move(Integer.parseInt(args[0]), Integer.parseInt(args[1]));
+            System.out.println("Moved bucket " + args[0] + " (" + chats + " chats).");
+        } catch (Exception e) {
+            System.err.println("Error moving bucket: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            DatabaseConnection.closeConnection();
+        }
+    }
+}
@@ -0,0 +1,794 @@
+package orgs.storage;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import orgs.model.Message;
+import orgs.utils.LocalDateTimeAdapter;
+import orgs.utils.Metrics;
+import orgs.utils.SnowflakeIdGenerator;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Per-node append-only message log, the alternative to the messages table behind MessageDao when the server
+ * runs with -Dtusal.messageStore=log. Records are appended to memory-mapped segment files of SEGMENT_BYTES:
+ * {@code [int length][int crc32][byte type][JSON message]}, where length counts type and body and a zero length
+ * marks the end of the written part. A change (an edit, a delete, flushed views) appends a whole new version of
+ * the message, so the newest record of an id is its current state. Removing messages appends a drop record
+ * instead: a chat's messages up to an id (archived, or the chat deleted) or everything of a sender (the user
+ * deleted).
+ *
+ * In memory there is the position of each message's newest version by id (ids are assigned here in ascending
+ * order, so a binary search over them finds a message), each chat's ids in order and the recent client message
+ * ids; a dropped message keeps its slot, with no position, until the next compaction. Opening the store rebuilds
+ * them by replaying the log, which stops at the first record whose checksum fails: that is where a crash cut the
+ * tail off.
+ *
+ * compact() is the retention: it rewrites the segments the outbox has copied, oldest first, keeping only newest
+ * versions of messages that are neither dropped nor deleted before the cutoff, and shrinks the in-memory index
+ * to match. Segment numbers and the positions of everything not yet compacted stay the same.
+ *
+ * Durability is group commit: append() returns once the flusher thread has forced the record to disk, and the
+ * flusher forces once for everything appended since its previous pass, so concurrent senders share an fsync.
+ * Other readers may see a record a few milliseconds before it is durable.
+ */
+public class LogMessageStore {
+    public static final String BACKEND_PROPERTY = "tusal.messageStore"; // "mysql" (default) or "log"
+    public static final String DIRECTORY_PROPERTY = "tusal.messageLog.dir";
+
+    static final byte CREATED = 1;
+    static final byte EDITED = 2;
+    static final byte DELETED = 3;
+    static final byte VIEWED = 4; // New view_count only; not published to the outbox
+    static final byte CHAT_DROPPED = 5; // Body: chatId, and id = the highest id dropped
+    static final byte SENDER_DROPPED = 6; // Body: senderId
+
+    private static final int SEGMENT_BYTES = 64 * 1024 * 1024;
+    private static final int HEADER_BYTES = 9;
+    private static final int RECENT_CLIENT_IDS = 100_000; // Retried sends are recognized within this window
+    private static final int COUNT_PAGE = 1_000;
+
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
+            .create();
+
+    private final Path directory;
+    private final ReentrantLock lock = new ReentrantLock(); // Guards appends and the in-memory indexes
+    private final Condition appendedSignal = lock.newCondition();
+    private final Condition durableSignal = lock.newCondition();
+    private final List<MappedByteBuffer> segments = new ArrayList<>(); // Index = segment number - 1
+    private long appendPosition; // Global position: segment number * SEGMENT_BYTES + offset
+    private long durablePosition;
+    private long publishedPosition; // Copied to the outbox up to here (MessageLogOutbox), so safe to compact before
+    private long firstId; // Ids below this were never stored here
+    private long[] ids = new long[1024]; // Every id in the log, ascending
+    private long[] locations = new long[1024]; // Newest version of ids[i], 0 once dropped
+    private int[] senders = new int[1024];
+    private int size;
+    private final Object compaction = new Object(); // One compaction at a time
+    private final Map<Long, ChatIds> chats = new HashMap<>();
+    private final Map<String, Long> clientIds = new LinkedHashMap<String, Long>(1024, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > RECENT_CLIENT_IDS;
+        }
+    };
+    private final Thread flusher;
+
+    // A chat's message ids in ascending order
+    private static final class ChatIds {
+        private long[] ids = new long[16];
+        private int size;
+
+        // Appends, or inserts in order (replaying a compacted segment)
+        private void add(long id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            int index = firstAfter(id);
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            ids[index] = id;
+            size++;
+        }
+
+        // Index of the first id greater than afterId
+        private int firstAfter(long afterId) {
+            int index = Arrays.binarySearch(ids, 0, size, afterId);
+            return index >= 0 ? index + 1 : -index - 1;
+        }
+
+        // Removes the ids up to upToId
+        private void dropUpTo(long upToId) {
+            int from = firstAfter(upToId);
+            System.arraycopy(ids, from, ids, 0, size - from);
+            size -= from;
+        }
+    }
+
+    // A replayed or tailed record
+    interface RecordConsumer {
+        void accept(byte type, Message message);
+    }
+
+    // Null unless the log backend is selected. Ids are time-ordered, so a new log's ids continue after the ones
+    // this node already gave to messages in MySQL
+    public static LogMessageStore openIfConfigured() {
+        if (!"log".equals(System.getProperty(BACKEND_PROPERTY))) {
+            return null;
+        }
+        try {
+            LogMessageStore store = new LogMessageStore(Paths.get(System.getProperty(DIRECTORY_PROPERTY, "message-log")));
+            new MessageLogOutbox(store, store.directory).start();
+            return store;
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open the message log: " + e.getMessage(), e);
+        }
+    }
+
+    LogMessageStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        recover();
+        flusher = new Thread(this::flushLoop, "LogMessageStore-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public long getFirstId() {
+        return firstId;
+    }
+
+    // Create; -1 when the sender already stored a message under its client message id
+    public long create(Message message) {
+        long end;
+        lock.lock();
+        try {
+            String clientKey = clientKey(message.getSenderId(), message.getClientMessageId());
+            if (clientKey != null && clientIds.containsKey(clientKey)) {
+                return -1;
+            }
+            long id = SnowflakeIdGenerator.NODE.nextId();
+            message.setId(size > 0 ? Math.max(id, ids[size - 1] + 1) : id); // Ascending even if the clock stepped back over a restart
+            if (message.getSentAt() == null) {
+                message.setSentAt(LocalDateTime.now());
+            }
+            end = append(CREATED, message);
+        } finally {
+            lock.unlock();
+        }
+        awaitDurable(end);
+        return message.getId();
+    }
+
+    public boolean edit(long messageId, String newContent, LocalDateTime editedAt) {
+        long end;
+        lock.lock();
+        try {
+            Message message = read(locationOf(messageId));
+            if (message == null || message.isDeleted()) {
+                return false;
+            }
+            message.setContent(newContent);
+            message.setEditedAt(editedAt);
+            end = append(EDITED, message);
+        } finally {
+            lock.unlock();
+        }
+        awaitDurable(end);
+        return true;
+    }
+
+    public boolean delete(long messageId) {
+        long end;
+        lock.lock();
+        try {
+            Message message = read(locationOf(messageId));
+            if (message == null || message.isDeleted()) {
+                return false;
+            }
+            message.setDeleted(true);
+            message.setContent("This message was deleted.");
+            message.setEditedAt(LocalDateTime.now());
+            end = append(DELETED, message);
+        } finally {
+            lock.unlock();
+        }
+        awaitDurable(end);
+        return true;
+    }
+
+    // Null when the log has no such message. The segment is taken with the position: compaction may replace it
+    public Message get(long messageId) {
+        long location;
+        MappedByteBuffer segment;
+        lock.lock();
+        try {
+            location = locationOf(messageId);
+            segment = location != 0 ? segmentAt(location) : null;
+        } finally {
+            lock.unlock();
+        }
+        return read(segment, location);
+    }
+
+    // A page of the chat's undeleted messages after afterId, in id order
+    public List<Message> getMessagesAfterId(long chatId, long afterId, int limit) {
+        return getMessagesAfterId(chatId, afterId, limit, false);
+    }
+
+    // The same, deleted ones included when asked for (archiving takes the whole range)
+    public List<Message> getMessagesAfterId(long chatId, long afterId, int limit, boolean includeDeleted) {
+        List<Message> messages = new ArrayList<>(Math.min(limit, 256));
+        long cursor = afterId;
+        while (messages.size() < limit) {
+            int wanted = limit - messages.size();
+            long[] pageIds = new long[wanted];
+            long[] pageLocations = new long[wanted];
+            MappedByteBuffer[] pageSegments = new MappedByteBuffer[wanted];
+            int found = 0;
+            lock.lock();
+            try {
+                ChatIds ids = chats.get(chatId);
+                if (ids != null) {
+                    for (int i = ids.firstAfter(cursor); i < ids.size && found < wanted; i++, found++) {
+                        pageIds[found] = ids.ids[i];
+                        pageLocations[found] = locationOf(ids.ids[i]);
+                        pageSegments[found] = pageLocations[found] != 0 ? segmentAt(pageLocations[found]) : null;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            for (int i = 0; i < found; i++) {
+                Message message = read(pageSegments[i], pageLocations[i]);
+                if (message != null && (includeDeleted || !message.isDeleted())) {
+                    messages.add(message);
+                }
+            }
+            if (found < wanted) {
+                break; // End of the chat
+            }
+            cursor = pageIds[found - 1]; // Deleted or dropped ones were skipped; go on after the last id looked at
+        }
+        return messages;
+    }
+
+    // Undeleted messages of the chat in (afterId, upToId], for unread counts
+    public int countMessages(long chatId, long afterId, long upToId) {
+        int count = 0;
+        long cursor = afterId;
+        while (true) {
+            List<Message> page = getMessagesAfterId(chatId, cursor, COUNT_PAGE);
+            for (Message message : page) {
+                if (message.getId() > upToId) {
+                    return count;
+                }
+                count++;
+            }
+            if (page.size() < COUNT_PAGE) {
+                return count;
+            }
+            cursor = page.get(page.size() - 1).getId();
+        }
+    }
+
+    // Adds flushed views to the messages' view_count, one VIEWED version per message. Returns the views that could
+    // not be written, to be retried; views of messages no longer in the log count as done
+    public Map<Long, Long> addViews(Map<Long, Long> views) {
+        Map<Long, Long> unwritten = new HashMap<>(views);
+        long end = 0;
+        lock.lock();
+        try {
+            for (Map.Entry<Long, Long> view : views.entrySet()) {
+                Message message = read(locationOf(view.getKey()));
+                if (message != null) {
+                    message.setViewCount((int) Math.min(Integer.MAX_VALUE, message.getViewCount() + view.getValue()));
+                    end = append(VIEWED, message);
+                }
+                unwritten.remove(view.getKey());
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error writing views to the message log: " + e.getMessage()); // A segment could not be added
+        } finally {
+            lock.unlock();
+        }
+        awaitDurable(end);
+        return unwritten;
+    }
+
+    // Drops the chat's messages up to upToId: archived ones, or all of them (Long.MAX_VALUE) for a deleted chat
+    public void dropChat(long chatId, long upToId) {
+        Message drop = new Message();
+        drop.setChatId(chatId);
+        drop.setId(upToId);
+        appendDrop(CHAT_DROPPED, drop);
+    }
+
+    // Drops every message of a deleted user
+    public void dropSender(int senderId) {
+        Message drop = new Message();
+        drop.setSenderId(senderId);
+        appendDrop(SENDER_DROPPED, drop);
+    }
+
+    private void appendDrop(byte type, Message drop) {
+        long end;
+        lock.lock();
+        try {
+            end = append(type, drop);
+        } finally {
+            lock.unlock();
+        }
+        awaitDurable(end);
+    }
+
+    // Called by MessageLogOutbox once records before position are in the outbox
+    void published(long position) {
+        lock.lock();
+        try {
+            publishedPosition = Math.max(publishedPosition, position);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Rewrites every sealed segment the outbox has copied, oldest first, without dropped messages, older versions
+    // and messages deleted before deletedBefore; returns the number of records removed. Always from segment 1:
+    // a drop record is only left out once every older segment has been rewritten without what it dropped
+    public int compact(LocalDateTime deletedBefore) throws IOException {
+        synchronized (compaction) {
+            int last;
+            lock.lock();
+            try {
+                // The newest segment takes appends; an unpublished one is still read by the outbox
+                last = (int) Math.min(segments.size() - 1, publishedPosition / SEGMENT_BYTES - 1);
+            } finally {
+                lock.unlock();
+            }
+            int removed = 0;
+            for (int number = 1; number <= last; number++) {
+                removed += compactSegment(number, deletedBefore);
+            }
+            if (last > 0) {
+                lock.lock();
+                try {
+                    shrinkIndex();
+                } finally {
+                    lock.unlock();
+                }
+            }
+            Metrics.add("message_log.compacted_records", removed);
+            Metrics.setGauge("message_log.indexed_messages", size);
+            return removed;
+        }
+    }
+
+    private int compactSegment(int number, LocalDateTime deletedBefore) throws IOException {
+        MappedByteBuffer source = segmentAt((long) number * SEGMENT_BYTES);
+        List<Integer> offsets = new ArrayList<>();
+        List<Message> records = new ArrayList<>();
+        for (int offset = 0; offset + HEADER_BYTES <= SEGMENT_BYTES; ) {
+            int length = source.getInt(offset);
+            if (length <= 0 || offset + 8 + length > SEGMENT_BYTES) {
+                break;
+            }
+            offsets.add(offset);
+            records.add(decode(source, offset, length));
+            offset += 8 + length;
+        }
+
+        // What to keep is decided in one go under the lock; whatever changes after that is in a later segment,
+        // which replay applies on top of the rewritten one
+        boolean[] keep = new boolean[records.size()];
+        lock.lock();
+        try {
+            for (int i = 0; i < records.size(); i++) {
+                byte type = source.get(offsets.get(i) + 8);
+                Message message = records.get(i);
+                long location = (long) number * SEGMENT_BYTES + offsets.get(i);
+                keep[i] = type != CHAT_DROPPED && type != SENDER_DROPPED && locationOf(message.getId()) == location
+                        && !(message.isDeleted() && message.getEditedAt() != null && message.getEditedAt().isBefore(deletedBefore));
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        Path file = directory.resolve(String.format("%010d.log", number));
+        Path temp = directory.resolve(String.format("%010d.log.compact", number));
+        MappedByteBuffer target;
+        try (RandomAccessFile raf = new RandomAccessFile(temp.toFile(), "rw")) {
+            raf.setLength(0);
+            raf.setLength(SEGMENT_BYTES);
+            target = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+        }
+        long[] moved = new long[records.size()];
+        int written = 0;
+        for (int i = 0; i < records.size(); i++) {
+            if (keep[i]) {
+                int offset = offsets.get(i);
+                byte[] record = new byte[8 + source.getInt(offset)];
+                source.get(offset, record);
+                target.put(written, record);
+                moved[i] = (long) number * SEGMENT_BYTES + written;
+                written += record.length;
+            }
+        }
+        target.force();
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        int removed = 0;
+        lock.lock();
+        try {
+            segments.set(number - 1, target); // Still mapped after the rename; readers holding the old one finish on it
+            for (int i = 0; i < records.size(); i++) {
+                int slot = Arrays.binarySearch(ids, 0, size, records.get(i).getId());
+                long location = (long) number * SEGMENT_BYTES + offsets.get(i);
+                if (slot >= 0 && locations[slot] == location) {
+                    locations[slot] = keep[i] ? moved[i] : 0; // Not kept while newest: deleted past retention
+                }
+                if (!keep[i]) {
+                    removed++;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return removed;
+    }
+
+    // Call with the lock held: drops the slots of messages no longer in the log and rebuilds the chat lists
+    private void shrinkIndex() {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (locations[i] != 0) {
+                ids[kept] = ids[i];
+                locations[kept] = locations[i];
+                senders[kept] = senders[i];
+                kept++;
+            }
+        }
+        size = kept;
+        int capacity = Math.max(1024, Integer.highestOneBit(Math.max(size, 1)) * 2);
+        if (capacity < ids.length) {
+            ids = Arrays.copyOf(ids, capacity);
+            locations = Arrays.copyOf(locations, capacity);
+            senders = Arrays.copyOf(senders, capacity);
+        }
+        chats.values().removeIf(chat -> {
+            int live = 0;
+            for (int i = 0; i < chat.size; i++) {
+                if (locationOf(chat.ids[i]) != 0) {
+                    chat.ids[live++] = chat.ids[i];
+                }
+            }
+            chat.size = live;
+            return live == 0;
+        });
+    }
+
+    public long getMessageIdByClientMessageId(int senderId, String clientMessageId) {
+        lock.lock();
+        try {
+            Long id = clientIds.get(clientKey(senderId, clientMessageId));
+            return id != null ? id : -1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Reads durable records from position on, up to max of them; returns the position after the last one read
+    long tail(long position, int max, RecordConsumer consumer) {
+        long durable;
+        lock.lock();
+        try {
+            durable = durablePosition;
+        } finally {
+            lock.unlock();
+        }
+        long current = Math.max(position, SEGMENT_BYTES);
+        int read = 0;
+        while (read < max && current < durable) {
+            MappedByteBuffer segment = segmentAt(current);
+            int offset = (int) (current % SEGMENT_BYTES);
+            int length = offset + HEADER_BYTES <= SEGMENT_BYTES ? segment.getInt(offset) : 0;
+            if (length == 0) {
+                current = (current / SEGMENT_BYTES + 1) * SEGMENT_BYTES; // Rest of the segment is unused
+                continue;
+            }
+            consumer.accept(segment.get(offset + 8), decode(segment, offset, length));
+            current += 8 + length;
+            read++;
+        }
+        return current;
+    }
+
+    // Call with the lock held; returns the global position after the record
+    private long append(byte type, Message message) {
+        byte[] body = GSON.toJson(message).getBytes(StandardCharsets.UTF_8);
+        int recordBytes = HEADER_BYTES + body.length;
+        if (recordBytes > SEGMENT_BYTES) {
+            throw new IllegalArgumentException("Message too large for the log: " + recordBytes + " bytes");
+        }
+        int offset = (int) (appendPosition % SEGMENT_BYTES);
+        if (offset + recordBytes > SEGMENT_BYTES) {
+            roll();
+            offset = 0;
+        }
+        long location = appendPosition;
+        MappedByteBuffer segment = segments.get(segments.size() - 1);
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(body);
+        segment.put(offset + 8, type);
+        segment.put(offset + HEADER_BYTES, body);
+        segment.putInt(offset + 4, (int) crc.getValue());
+        segment.putInt(offset, 1 + body.length); // Written last: a reader that sees the length sees the record
+        appendPosition += recordBytes;
+        index(type, message, location);
+        appendedSignal.signal();
+        Metrics.increment("message_log.appends");
+        return appendPosition;
+    }
+
+    // Call with the lock held
+    private void index(byte type, Message message, long location) {
+        if (type == CHAT_DROPPED) {
+            ChatIds chat = chats.get(message.getChatId());
+            if (chat != null) {
+                for (int i = 0; i < chat.firstAfter(message.getId()); i++) {
+                    int slot = Arrays.binarySearch(ids, 0, size, chat.ids[i]);
+                    if (slot >= 0) {
+                        locations[slot] = 0;
+                    }
+                }
+                chat.dropUpTo(message.getId());
+                if (chat.size == 0) {
+                    chats.remove(message.getChatId());
+                }
+            }
+            return;
+        }
+        if (type == SENDER_DROPPED) {
+            for (int i = 0; i < size; i++) {
+                if (senders[i] == message.getSenderId()) {
+                    locations[i] = 0; // Left in the chat lists until compaction; reads skip them
+                }
+            }
+            return;
+        }
+        int slot = Arrays.binarySearch(ids, 0, size, message.getId());
+        if (slot >= 0) {
+            locations[slot] = location;
+            return;
+        }
+        // A new message; on replay also the newest version of one whose CREATED record compaction removed, which
+        // may come after higher ids
+        slot = -slot - 1;
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            locations = Arrays.copyOf(locations, size * 2);
+            senders = Arrays.copyOf(senders, size * 2);
+        }
+        System.arraycopy(ids, slot, ids, slot + 1, size - slot);
+        System.arraycopy(locations, slot, locations, slot + 1, size - slot);
+        System.arraycopy(senders, slot, senders, slot + 1, size - slot);
+        ids[slot] = message.getId();
+        senders[slot] = message.getSenderId();
+        locations[slot] = location;
+        size++;
+        chats.computeIfAbsent(message.getChatId(), id -> new ChatIds()).add(message.getId());
+        String clientKey = clientKey(message.getSenderId(), message.getClientMessageId());
+        if (clientKey != null) {
+            clientIds.put(clientKey, message.getId());
+        }
+    }
+
+    private void roll() {
+        try {
+            if (!segments.isEmpty()) {
+                segments.get(segments.size() - 1).force(); // The flusher only forces the newest segment
+            }
+            segments.add(map(segments.size() + 1));
+            appendPosition = (long) segments.size() * SEGMENT_BYTES;
+            Metrics.increment("message_log.segments");
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot create message log segment: " + e.getMessage(), e);
+        }
+    }
+
+    private MappedByteBuffer map(int segmentNumber) throws IOException {
+        Path file = directory.resolve(String.format("%010d.log", segmentNumber));
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(SEGMENT_BYTES); // Sparse and zero-filled: zero length is the end marker
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            long target;
+            lock.lock();
+            try {
+                while (appendPosition == durablePosition) {
+                    appendedSignal.awaitUninterruptibly();
+                }
+                target = appendPosition;
+            } finally {
+                lock.unlock();
+            }
+            long start = System.nanoTime();
+            try {
+                segmentAt(target - 1).force(); // Older segments were forced when they were rolled over
+            } catch (RuntimeException e) {
+                System.err.println("Error forcing message log: " + e.getMessage()); // Senders keep waiting; retried
+                Metrics.increment("message_log.fsync_errors");
+                sleepQuietly(100);
+                continue;
+            }
+            Metrics.recordMillis("message_log.fsync", (System.nanoTime() - start) / 1_000_000);
+            lock.lock();
+            try {
+                durablePosition = target;
+                durableSignal.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void awaitDurable(long end) {
+        lock.lock();
+        try {
+            while (durablePosition < end) {
+                durableSignal.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(p -> p.getFileName().toString().endsWith(".log")).sorted().toList();
+        }
+        try (Stream<Path> listing = Files.list(directory)) {
+            for (Path leftover : (Iterable<Path>) listing.filter(p -> p.getFileName().toString().endsWith(".log.compact"))::iterator) {
+                Files.delete(leftover); // A compaction cut short; the segment it was rewriting is intact
+            }
+        }
+        for (int i = 0; i < files.size(); i++) {
+            segments.add(map(i + 1));
+        }
+        if (segments.isEmpty()) {
+            segments.add(map(1));
+        }
+        firstId = -1;
+        int replayed = 0;
+        long position = SEGMENT_BYTES;
+        for (int number = 1; number <= segments.size(); number++) {
+            MappedByteBuffer segment = segments.get(number - 1);
+            int offset = 0;
+            boolean last = number == segments.size();
+            while (offset + HEADER_BYTES <= SEGMENT_BYTES) {
+                int length = segment.getInt(offset);
+                if (length <= 0 || offset + 8 + length > SEGMENT_BYTES || !checksumMatches(segment, offset, length)) {
+                    break;
+                }
+                Message message = decode(segment, offset, length);
+                byte type = segment.get(offset + 8);
+                if (type != CHAT_DROPPED && type != SENDER_DROPPED && (firstId == -1 || message.getId() < firstId)) {
+                    firstId = message.getId(); // The lowest, not the first: compaction keeps a newer version of an older message
+                }
+                index(type, message, (long) number * SEGMENT_BYTES + offset);
+                offset += 8 + length;
+                replayed++;
+            }
+            position = (long) number * SEGMENT_BYTES + offset;
+            if (last) {
+                clearTail(segment, offset);
+            }
+        }
+        if (firstId == -1) {
+            firstId = SnowflakeIdGenerator.NODE.nextId(); // Below every id create() will hand out
+        }
+        appendPosition = position;
+        durablePosition = position;
+        System.out.println("Message log: replayed " + replayed + " records from " + segments.size() + " segments.");
+    }
+
+    // Past the last valid record there may be parts of records that were not yet durable at a crash (pages reach
+    // the disk in any order). Left there, new appends could end right where one starts and replay would read it
+    private static void clearTail(MappedByteBuffer segment, int offset) {
+        boolean cleared = false;
+        for (int i = offset; i < SEGMENT_BYTES; i++) {
+            if (i % 8 == 0 && i + 8 <= SEGMENT_BYTES) {
+                if (segment.getLong(i) != 0) {
+                    segment.putLong(i, 0);
+                    cleared = true;
+                }
+                i += 7;
+            } else if (segment.get(i) != 0) {
+                segment.put(i, (byte) 0);
+                cleared = true;
+            }
+        }
+        if (cleared) {
+            segment.force();
+            Metrics.increment("message_log.torn_tail");
+        }
+    }
+
+    private static boolean checksumMatches(MappedByteBuffer segment, int offset, int length) {
+        byte[] record = new byte[length];
+        segment.get(offset + 8, record);
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        return (int) crc.getValue() == segment.getInt(offset + 4);
+    }
+
+    private static Message decode(MappedByteBuffer segment, int offset, int length) {
+        byte[] body = new byte[length - 1];
+        segment.get(offset + HEADER_BYTES, body);
+        return GSON.fromJson(new String(body, StandardCharsets.UTF_8), Message.class);
+    }
+
+    // Call with the lock held
+    private long locationOf(long messageId) {
+        int slot = Arrays.binarySearch(ids, 0, size, messageId);
+        return slot >= 0 ? locations[slot] : 0;
+    }
+
+    // Call with the lock held, or use the other read with the segment taken under it
+    private Message read(long location) {
+        return location != 0 ? read(segmentAt(location), location) : null;
+    }
+
+    private static Message read(MappedByteBuffer segment, long location) {
+        if (location == 0) {
+            return null;
+        }
+        int offset = (int) (location % SEGMENT_BYTES);
+        return decode(segment, offset, segment.getInt(offset));
+    }
+
+    private MappedByteBuffer segmentAt(long position) {
+        lock.lock();
+        try {
+            return segments.get((int) (position / SEGMENT_BYTES) - 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static String clientKey(int senderId, String clientMessageId) {
+        return clientMessageId != null ? senderId + ":" + clientMessageId : null;
+    }
+}
@@ -0,0 +1,298 @@
+package orgs.storage;
+
+import orgs.dao.ArchiveSegmentDao;
+import orgs.dao.MessageDao;
+import orgs.model.ArchiveSegment;
+import orgs.model.Message;
+import orgs.utils.Metrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Hot/cold tiering for messages. Once a day, each chat's messages older than its archive_after_days (or the
+ * server default) move, oldest first, into compressed segment files of up to SEGMENT_MESSAGES messages under
+ * the archive directory, indexed in archive_segments by (chat_id, id range). The archive is always a prefix of
+ * a chat's ids, so a history page reads segments up to the archived id and continues in messages after it.
+ *
+ * Segment files are written once. Archived messages can still be deleted, by their sender or with their sender's
+ * account: the deletion is recorded in archive_tombstones or archive_deleted_senders and reads leave the message
+ * out. Edits and view counts no longer reach them. Fewer than MIN_SEGMENT_MESSAGES old messages stay hot, so quiet
+ * chats do not produce a file per day.
+ *
+ * Every server reads the archive, so the directory has to be shared between them; only one at a time archives,
+ * the one holding the archiver lock (see ArchiveSegmentDao.runAsArchiver).
+ */
+public class MessageArchive {
+    private static final int SEGMENT_MESSAGES = 2_000;
+    private static final int MIN_SEGMENT_MESSAGES = 200;
+    private static final int SEGMENTS_PER_QUERY = 8;
+    private static final int CACHED_SEGMENTS = 32; // Decompressed, so paging through one segment reads it once
+    private static final int HANDOVER_STRIPES = 64;
+    private static final long RUN_INTERVAL_HOURS = 24;
+
+    private final Path directory;
+    private final int defaultArchiveAfterDays;
+    private final ArchiveSegmentDao segmentDao = new ArchiveSegmentDao();
+    private final MessageDao messageDao = new MessageDao();
+    // Pages hold their chat's read lock across their segment and table reads, a segment commit takes the write
+    // lock, so a page never sees a range in neither tier. Striped by chat: a commit only holds up chats sharing its stripe
+    private final ReadWriteLock[] handovers = new ReadWriteLock[HANDOVER_STRIPES];
+    private final Map<String, List<Message>> cache = new LinkedHashMap<String, List<Message>>(CACHED_SEGMENTS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<Message>> eldest) {
+            return size() > CACHED_SEGMENTS;
+        }
+    };
+    private final ScheduledExecutorService archiver = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "MessageArchive");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public MessageArchive(Path directory, int defaultArchiveAfterDays) {
+        this.directory = directory;
+        this.defaultArchiveAfterDays = defaultArchiveAfterDays;
+        for (int i = 0; i < HANDOVER_STRIPES; i++) {
+            handovers[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    public void start() {
+        archiver.scheduleWithFixedDelay(() -> {
+            if (!segmentDao.runAsArchiver(this::archiveOldMessages)) {
+                System.out.println("Archiving skipped: another server is archiving.");
+            }
+        }, 1, RUN_INTERVAL_HOURS, TimeUnit.HOURS);
+    }
+
+    public void stop() {
+        archiver.shutdown();
+    }
+
+    // A chat's messages after afterId in id order, from the segments first and then from messages. A segment that
+    // cannot be read fails the page: a short one would look to the client like the end of the history
+    public List<Message> getMessagesAfterId(long chatId, long afterId, int limit) throws IOException, SQLException {
+        List<Message> page = new ArrayList<>(Math.min(limit, 256));
+        ReadWriteLock handover = handoverOf(chatId);
+        handover.readLock().lock();
+        try {
+            long cursor = afterId;
+            while (true) {
+                List<ArchiveSegment> segments = segmentDao.getSegmentsAfter(chatId, cursor, SEGMENTS_PER_QUERY);
+                for (ArchiveSegment segment : segments) {
+                    for (Message message : visibleMessages(segment, cursor)) {
+                        if (message.getId() > cursor) {
+                            page.add(message);
+                            if (page.size() == limit) {
+                                return page;
+                            }
+                        }
+                    }
+                    cursor = segment.getLastMessageId();
+                }
+                if (segments.size() < SEGMENTS_PER_QUERY) {
+                    break;
+                }
+            }
+            page.addAll(messageDao.getMessagesAfterId(chatId, cursor, limit - page.size()));
+            return page;
+        } catch (IOException | SQLException e) {
+            System.err.println("Error reading archive of chat " + chatId + ": " + e.getMessage());
+            Metrics.increment("archive.read_errors");
+            throw e;
+        } finally {
+            handover.readLock().unlock();
+        }
+    }
+
+    // An archived message that has not been deleted, for DELETE_MESSAGE once the message has left messages
+    public Optional<Message> getMessage(long messageId) {
+        try {
+            for (ArchiveSegment segment : segmentDao.getSegmentsContaining(messageId)) {
+                for (Message message : visibleMessages(segment, messageId - 1)) {
+                    if (message.getId() == messageId) {
+                        return Optional.of(message);
+                    }
+                }
+            }
+        } catch (IOException | SQLException e) {
+            System.err.println("Error reading archived message " + messageId + ": " + e.getMessage());
+            Metrics.increment("archive.read_errors");
+        }
+        return Optional.empty();
+    }
+
+    // Deletes an archived message by tombstoning it; online members hear of it through the message_deleted event
+    public boolean deleteMessage(Message message) {
+        boolean deleted = segmentDao.addTombstone(message);
+        if (deleted) {
+            Metrics.increment("archive.messages_tombstoned");
+        }
+        return deleted;
+    }
+
+    // Leaves a deleted user's archived messages out of every chat's history
+    public boolean deleteSender(int userId) {
+        return segmentDao.addDeletedSender(userId);
+    }
+
+    // The segment's messages after afterId without those deleted since it was written
+    private List<Message> visibleMessages(ArchiveSegment segment, long afterId) throws IOException, SQLException {
+        List<Message> messages = readSegment(segment);
+        Set<Integer> senders = new HashSet<>();
+        for (Message message : messages) {
+            if (message.getId() > afterId) {
+                senders.add(message.getSenderId());
+            }
+        }
+        if (senders.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Set<Long> tombstones = segmentDao.getTombstones(segment.getChatId(), Math.max(afterId + 1, segment.getFirstMessageId()), segment.getLastMessageId());
+        Set<Integer> deletedSenders = segmentDao.getDeletedSenders(senders);
+        List<Message> visible = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            if (message.getId() > afterId && !tombstones.contains(message.getId()) && !deletedSenders.contains(message.getSenderId())) {
+                visible.add(message);
+            }
+        }
+        return visible;
+    }
+
+    // Returns the number of segments written
+    int archiveOldMessages() {
+        int written = 0;
+        try {
+            for (Map.Entry<Long, Integer> chat : segmentDao.getArchiveAfterDays().entrySet()) {
+                int days = chat.getValue() != null ? chat.getValue() : defaultArchiveAfterDays;
+                if (days <= 0) {
+                    continue;
+                }
+                Timestamp cutoff = Timestamp.from(Instant.now().minus(days, ChronoUnit.DAYS));
+                try {
+                    written += archiveChat(chat.getKey(), cutoff);
+                } catch (IOException e) {
+                    System.err.println("Error archiving chat " + chat.getKey() + ": " + e.getMessage()); // Retried next run
+                }
+            }
+            System.out.println("Archived " + written + " message segments.");
+        } catch (Exception e) {
+            System.err.println("Error archiving messages: " + e.getMessage()); // Keep the schedule alive
+        }
+        return written;
+    }
+
+    private int archiveChat(long chatId, Timestamp cutoff) throws IOException {
+        long archivedUpTo = segmentDao.getArchivedUpTo(chatId);
+        int written = 0;
+        while (archivedUpTo != -1) {
+            Timestamp probe = segmentDao.getSentAtOfNthMessageAfter(chatId, archivedUpTo, MIN_SEGMENT_MESSAGES);
+            if (probe == null || !probe.before(cutoff)) {
+                break;
+            }
+            List<Message> rows = segmentDao.getMessagesToArchive(chatId, archivedUpTo, cutoff, SEGMENT_MESSAGES);
+            if (rows.isEmpty()) {
+                break;
+            }
+            long firstId = rows.get(0).getId();
+            long lastId = rows.get(rows.size() - 1).getId();
+            List<Message> kept = new ArrayList<>(rows.size());
+            for (Message message : rows) {
+                if (!message.isDeleted()) {
+                    kept.add(message); // Soft-deleted rows are dropped with the range
+                }
+            }
+
+            String fileName = chatId + "/" + firstId + "-" + lastId + ".seg";
+            Path file = directory.resolve(fileName);
+            SegmentFile.write(file, kept);
+            boolean committed;
+            ReadWriteLock handover = handoverOf(chatId);
+            handover.writeLock().lock();
+            try {
+                committed = segmentDao.commitSegment(new ArchiveSegment(chatId, firstId, lastId, kept.size(), fileName));
+            } finally {
+                handover.writeLock().unlock();
+            }
+            if (!committed) {
+                // The commit may have gone through all the same (the connection dropped after COMMIT): only a file
+                // that no segment can be naming, one past the chat's archived prefix, is removed
+                long nowArchivedUpTo = segmentDao.getArchivedUpTo(chatId);
+                if (nowArchivedUpTo != -1 && nowArchivedUpTo < firstId) {
+                    Files.deleteIfExists(file);
+                }
+                break;
+            }
+            Metrics.increment("archive.segments_written");
+            Metrics.add("archive.messages_archived", kept.size());
+            Metrics.add("archive.rows_removed", rows.size());
+            written++;
+            archivedUpTo = lastId;
+        }
+        return written;
+    }
+
+    // Removes a deleted chat's segment files; its archive_segments rows go with the chat row
+    public void deleteChat(long chatId) {
+        Path chatDirectory = directory.resolve(String.valueOf(chatId));
+        ReadWriteLock handover = handoverOf(chatId);
+        handover.writeLock().lock();
+        try {
+            if (Files.isDirectory(chatDirectory)) {
+                try (Stream<Path> files = Files.list(chatDirectory)) {
+                    for (Path file : (Iterable<Path>) files::iterator) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+                Files.deleteIfExists(chatDirectory);
+            }
+            synchronized (cache) {
+                cache.keySet().removeIf(fileName -> fileName.startsWith(chatId + "/"));
+            }
+        } catch (IOException e) {
+            System.err.println("Error deleting archive of chat " + chatId + ": " + e.getMessage()); // Left behind, harmless
+        } finally {
+            handover.writeLock().unlock();
+        }
+    }
+
+    private ReadWriteLock handoverOf(long chatId) {
+        return handovers[Math.floorMod(Long.hashCode(chatId), HANDOVER_STRIPES)];
+    }
+
+    private List<Message> readSegment(ArchiveSegment segment) throws IOException {
+        synchronized (cache) {
+            List<Message> cached = cache.get(segment.getFileName());
+            if (cached != null) {
+                Metrics.increment("archive.segment_cache_hits");
+                return cached;
+            }
+        }
+        List<Message> messages = Collections.unmodifiableList(SegmentFile.read(directory.resolve(segment.getFileName())));
+        Metrics.increment("archive.segment_reads");
+        synchronized (cache) {
+            cache.put(segment.getFileName(), messages);
+        }
+        return messages;
+    }
+}
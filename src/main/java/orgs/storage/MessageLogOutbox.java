@@ -0,0 +1,123 @@
+package orgs.storage;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import orgs.dao.OutboxDao;
+import orgs.model.ChangeEvent;
+import orgs.model.Message;
+import orgs.utils.LocalDateTimeAdapter;
+import orgs.utils.Metrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies the message log into the change_events outbox, so the relay's subscribers (chat summaries, live edit
+ * notices, timeline rows) keep working when messages are not written to MySQL. This happens behind the send
+ * path: senders wait for the log only. How far the log has been copied is kept in a checkpoint file next to the
+ * segments, saved after each committed batch; a crash in between copies the batch again, which the subscribers
+ * already tolerate. The store only compacts segments that are wholly before the checkpoint.
+ */
+class MessageLogOutbox {
+    private static final int BATCH_SIZE = 500;
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
+            .create();
+
+    private final LogMessageStore store;
+    private final Path checkpointFile;
+    private final OutboxDao outboxDao = new OutboxDao();
+    private final ScheduledExecutorService publisher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "MessageLogOutbox");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long position; // Only touched by the publisher thread after start()
+
+    MessageLogOutbox(LogMessageStore store, Path directory) {
+        this.store = store;
+        this.checkpointFile = directory.resolve("outbox.checkpoint");
+    }
+
+    void start() {
+        try {
+            position = Files.exists(checkpointFile) ? Long.parseLong(Files.readString(checkpointFile).trim()) : 0;
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Error reading message log checkpoint, copying from the start: " + e.getMessage());
+            position = 0;
+        }
+        store.published(position);
+        publisher.scheduleWithFixedDelay(this::publish, POLL_INTERVAL_MILLIS, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void publish() {
+        try {
+            while (true) {
+                List<ChangeEvent> events = new ArrayList<>();
+                long next = store.tail(position, BATCH_SIZE, (type, message) -> {
+                    ChangeEvent event = eventOf(type, message);
+                    if (event != null) {
+                        events.add(event);
+                    }
+                });
+                if (next == position) {
+                    return;
+                }
+                if (!events.isEmpty() && !outboxDao.recordAll(events)) {
+                    return; // MySQL unavailable; the log keeps taking messages and the next tick retries
+                }
+                position = next;
+                Path temp = checkpointFile.resolveSibling("outbox.checkpoint.tmp");
+                Files.writeString(temp, Long.toString(next), StandardCharsets.UTF_8);
+                Files.move(temp, checkpointFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                store.published(next);
+                Metrics.add("message_log.events_recorded", events.size());
+                if (events.size() < BATCH_SIZE) {
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Error copying message log to the outbox: " + e.getMessage()); // Keep the schedule alive
+        }
+    }
+
+    // The same events MessageDao records in the MySQL backend; null for records that have none there (views,
+    // and the drops that stand for batch deletes and archiving)
+    private static ChangeEvent eventOf(byte type, Message message) {
+        if (type == LogMessageStore.VIEWED || type == LogMessageStore.CHAT_DROPPED || type == LogMessageStore.SENDER_DROPPED) {
+            return null;
+        }
+        ChangeEvent event = new ChangeEvent();
+        event.setChatId(message.getChatId());
+        event.setEntityId(message.getId());
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("messageId", message.getId());
+        if (type == LogMessageStore.CREATED) {
+            event.setEventType("message_created");
+            event.setPayload(GSON.toJson(message));
+            return event;
+        }
+        if (type == LogMessageStore.EDITED) {
+            event.setEventType("message_edited");
+            payload.put("content", message.getContent());
+            payload.put("editedAt", message.getEditedAt());
+        } else {
+            event.setEventType("message_deleted");
+        }
+        event.setPayload(GSON.toJson(payload));
+        return event;
+    }
+}
@@ -0,0 +1,131 @@
+package orgs.storage;
+
+import orgs.dao.MessageDao;
+import orgs.dao.ShardRouter;
+import orgs.utils.Metrics;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hard-deletes soft-deleted messages once they have been deleted for longer than the retention period. A pass
+ * walks messages by primary key in windows of CHUNK_ROWS rows, one DELETE per window, and sleeps between windows
+ * so that no more than rowsPerSecond rows go on average. When a window's DELETE takes longer than
+ * SLOW_CHUNK_MILLIS (or fails, finding the window included) the pause doubles, up to MAX_BACKOFF times; fast windows halve it again.
+ *
+ * Progress is reported as the purge.* metrics; purge.position against purge.max_id shows how far a pass is
+ * through purge.shard. Shards are walked one after the other, then the message log (if any) is compacted.
+ */
+public class MessagePurger {
+    private static final int CHUNK_ROWS = 1_000;
+    private static final long MIN_PAUSE_MILLIS = 20; // Even windows with nothing to delete cost a range scan
+    private static final long SLOW_CHUNK_MILLIS = 250;
+    private static final int MAX_BACKOFF = 64;
+    private static final int MAX_CONSECUTIVE_FAILURES = 5;
+    private static final long RUN_INTERVAL_HOURS = 6;
+
+    private final int retentionDays;
+    private final int rowsPerSecond;
+    private final MessageDao messageDao = new MessageDao();
+    private int backoff = 1;
+    private final ScheduledExecutorService purger = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "MessagePurger");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public MessagePurger(int retentionDays, int rowsPerSecond) {
+        this.retentionDays = retentionDays;
+        this.rowsPerSecond = Math.max(1, rowsPerSecond);
+    }
+
+    public void start() {
+        purger.scheduleWithFixedDelay(this::purgePass, 10, RUN_INTERVAL_HOURS * 60, TimeUnit.MINUTES);
+    }
+
+    public void stop() {
+        purger.shutdownNow(); // Interrupts the pause of a running pass; the next start begins a new one
+    }
+
+    // One walk over all ids of every shard; returns the number of rows removed
+    long purgePass() {
+        long purged = 0;
+        try {
+            Timestamp cutoff = Timestamp.from(Instant.now().minus(retentionDays, ChronoUnit.DAYS));
+            for (int shard = 0; shard < ShardRouter.shardCount(); shard++) {
+                Metrics.setGauge("purge.shard", shard);
+                purged += purgeShard(shard, cutoff);
+            }
+            messageDao.compactLog(cutoff); // The message log's deleted messages go with the same retention
+            Metrics.increment("purge.passes");
+            System.out.println("Purged " + purged + " soft-deleted messages.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // Shutting down
+        } catch (Exception e) {
+            System.err.println("Error purging messages: " + e.getMessage()); // Keep the schedule alive
+        }
+        return purged;
+    }
+
+    private long purgeShard(int shard, Timestamp cutoff) throws InterruptedException {
+        long purged = 0;
+        long maxId = messageDao.getMaxMessageId(shard);
+        if (maxId <= 0) {
+            return 0;
+        }
+        Metrics.setGauge("purge.max_id", maxId);
+        long position = 0;
+        int failures = 0;
+        while (position < maxId) {
+            long upTo = position;
+            int deleted;
+            long millis = 0;
+            try {
+                upTo = messageDao.getNthMessageIdAfter(shard, position, CHUNK_ROWS); // Ids are sparse, so windows go by rows
+                if (upTo == -1 || upTo > maxId) {
+                    upTo = maxId; // Fewer than CHUNK_ROWS rows left
+                }
+                long started = System.nanoTime();
+                deleted = messageDao.purgeSoftDeletedMessages(shard, position, upTo, cutoff);
+                millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+                Metrics.recordMillis("purge.chunk", millis);
+            } catch (SQLException e) {
+                System.err.println("Error finding the next purge window: " + e.getMessage());
+                deleted = -1; // A failed window, not the end of the shard
+            }
+
+            if (deleted < 0) {
+                if (++failures == MAX_CONSECUTIVE_FAILURES) {
+                    System.err.println("Stopping message purge of shard " + shard + " at id " + position + " after " + failures + " failed chunks.");
+                    break;
+                }
+                slowDown(); // Same window again after the pause
+            } else {
+                failures = 0;
+                purged += deleted;
+                position = upTo;
+                Metrics.add("purge.rows_deleted", deleted);
+                Metrics.increment("purge.chunks");
+                Metrics.setGauge("purge.position", position);
+                if (millis > SLOW_CHUNK_MILLIS) {
+                    slowDown();
+                } else if (backoff > 1) {
+                    backoff /= 2;
+                }
+            }
+            Metrics.setGauge("purge.backoff", backoff);
+            Thread.sleep(Math.max(MIN_PAUSE_MILLIS, deleted * 1000L / rowsPerSecond) * backoff);
+        }
+        return purged;
+    }
+
+    private void slowDown() {
+        backoff = Math.min(backoff * 2, MAX_BACKOFF);
+        Metrics.increment("purge.throttled");
+    }
+}
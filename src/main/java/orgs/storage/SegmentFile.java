@@ -0,0 +1,84 @@
+package orgs.storage;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import orgs.model.Message;
+import orgs.utils.LocalDateTimeAdapter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * On-disk form of an archive segment: magic, version and message count, then a GZIP stream of length-prefixed
+ * JSON messages in id order. A segment is written to a temporary file, forced to disk and moved into place,
+ * so it exists either complete or not at all; the GZIP trailer's CRC catches a damaged file on read.
+ */
+final class SegmentFile {
+    private static final int MAGIC = 0x54534547; // "TSEG"
+    private static final byte VERSION = 1;
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
+            .create();
+
+    private SegmentFile() {
+    }
+
+    static void write(Path file, List<Message> messages) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, BUFFER_BYTES))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(messages.size());
+            GZIPOutputStream gzip = new GZIPOutputStream(out, BUFFER_BYTES);
+            DataOutputStream records = new DataOutputStream(gzip);
+            for (Message message : messages) {
+                byte[] json = GSON.toJson(message).getBytes(StandardCharsets.UTF_8);
+                records.writeInt(json.length);
+                records.write(json);
+            }
+            records.flush();
+            gzip.finish();
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    static List<Message> read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_BYTES))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an archive segment: " + file);
+            }
+            byte version = in.readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported archive segment version " + version + ": " + file);
+            }
+            int count = in.readInt();
+            DataInputStream records = new DataInputStream(new GZIPInputStream(in, BUFFER_BYTES));
+            List<Message> messages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] json = new byte[records.readInt()];
+                records.readFully(json);
+                messages.add(GSON.fromJson(new String(json, StandardCharsets.UTF_8), Message.class));
+            }
+            return messages;
+        }
+    }
+}
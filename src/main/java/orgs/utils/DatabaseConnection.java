@@ -1,52 +1,351 @@
-
 package orgs.utils;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 public class DatabaseConnection {
 
-    private static final String JDBC_URL = "jdbc:mysql://localhost:3306/tuasil_messaging?useSSL=false&serverTimezone=UTC";
+    // Server-side prepared statements, so a statement is parsed and planned by MySQL once per connection;
+    // useCursorFetch makes setFetchSize() stream rows in batches instead of buffering the whole result
+    private static final String JDBC_URL = "jdbc:mysql://localhost:3306/tuasil_messaging?useSSL=false&serverTimezone=UTC"
+            + "&useServerPrepStmts=true&cachePrepStmts=true&prepStmtCacheSize=256&prepStmtCacheSqlLimit=4096"
+            + "&useCursorFetch=true";
     private static final String DB_USERNAME = "root";
     private static final String DB_PASSWORD = "730673145";
 
-    // The single instance of the Connection
-    private static Connection connection = null;
+    private static final int POOL_SIZE = 8; // Idle connections kept open; more are opened under load and closed after
+    // Open connections per database at most; beyond that getConnection waits for one to come back
+    private static final int MAX_CONNECTIONS = Integer.getInteger("tusal.db.maxConnections", 64);
+    private static final long CONNECTION_WAIT_MILLIS = 5_000;
+    private static final long WAIT_SLICE_MILLIS = 50; // A connection closed instead of pooled frees a slot, not an idle one
+    // A connection idle for longer is checked with isValid before it is handed out; MySQL drops idle ones after
+    // wait_timeout, and a restart or failover drops them all
+    private static final long VALIDATE_AFTER_IDLE_MILLIS = 30_000;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final int STATEMENTS_PER_CONNECTION = 128;
+
+    // Physical connections waiting to be handed out, one pool per database
+    private static final Pool primary = new Pool(JDBC_URL, "db");
+    private static final Map<String, Pool> shardPools = new ConcurrentHashMap<>();
+    // SQL -> registered name, so reuse can be reported per query (see orgs.dao.NamedQuery)
+    private static final Map<String, String> statementNames = new ConcurrentHashMap<>();
 
     // Private constructor to prevent direct instantiation
     private DatabaseConnection() {
         // Private constructor
     }
 
-    public static synchronized Connection getConnection() throws SQLException {
-        // If the connection is null or closed, re-establish it
-        if (connection == null || connection.isClosed()) {
+    /**
+     * Hands out a pooled connection. DAOs keep using try-with-resources: close() puts the connection back
+     * into the pool, and the PreparedStatements it prepared stay open in its statement cache, so preparing
+     * the same SQL again on that connection reuses the already parsed statement.
+     */
+    public static Connection getConnection() throws SQLException {
+        return primary.getConnection();
+    }
+
+    /**
+     * A pooled connection to another database, used for the message shards (see orgs.dao.ShardRouter). Each URL
+     * gets a pool of its own, with the same size, statement cache and credentials as the main one; the main
+     * database's own URL gets the main pool. The name only labels the pool's metrics (db.&lt;name&gt;.*).
+     */
+    public static Connection getConnection(String jdbcUrl, String name) throws SQLException {
+        if (jdbcUrl.equals(JDBC_URL)) {
+            return primary.getConnection();
+        }
+        return shardPools.computeIfAbsent(jdbcUrl, url -> new Pool(url, "db." + name)).getConnection();
+    }
+
+    public static String getPrimaryUrl() {
+        return JDBC_URL;
+    }
+
+    // Called once per query by orgs.dao.NamedQuery
+    public static void registerStatementName(String sql, String name) {
+        statementNames.put(sql, name);
+    }
+
+    public static void closeConnection() {
+        primary.close();
+        shardPools.values().forEach(Pool::close);
+        System.out.println("Database connections closed.");
+    }
+
+    private static final class Pool {
+        private final String jdbcUrl;
+        private final String metricPrefix;
+        private final BlockingQueue<PhysicalConnection> idle = new LinkedBlockingQueue<>();
+        private final Semaphore slots = new Semaphore(MAX_CONNECTIONS); // One per open physical connection
+
+        private Pool(String jdbcUrl, String metricPrefix) {
+            this.jdbcUrl = jdbcUrl;
+            this.metricPrefix = metricPrefix;
+        }
+
+        private Connection getConnection() throws SQLException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CONNECTION_WAIT_MILLIS);
+            PhysicalConnection physical = null;
+            while (physical == null) {
+                physical = usable(idle.poll());
+                if (physical != null) {
+                    break;
+                }
+                if (slots.tryAcquire()) {
+                    physical = open();
+                    break;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    Metrics.increment(metricPrefix + ".connection_timeouts");
+                    throw new SQLException("No database connection free within " + CONNECTION_WAIT_MILLIS + " ms (" + MAX_CONNECTIONS + " open)");
+                }
+                try {
+                    physical = usable(idle.poll(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(WAIT_SLICE_MILLIS)), TimeUnit.NANOSECONDS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted waiting for a database connection", e);
+                }
+            }
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new PooledConnectionHandler(physical));
+        }
+
+        // The idle connection if it still works, otherwise null after closing it
+        private PhysicalConnection usable(PhysicalConnection physical) throws SQLException {
+            if (physical == null) {
+                return null;
+            }
+            boolean valid;
+            if (physical.connection.isClosed()) {
+                valid = false;
+            } else if (System.currentTimeMillis() - physical.idleSinceMillis > VALIDATE_AFTER_IDLE_MILLIS) {
+                valid = physical.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+            } else {
+                valid = true;
+            }
+            if (!valid) {
+                Metrics.increment(metricPrefix + ".connections_evicted");
+                physical.discard();
+                return null;
+            }
+            return physical;
+        }
+
+        // Called holding a slot, which the connection keeps until it is discarded
+        private PhysicalConnection open() throws SQLException {
             try {
-                System.out.println("Attempting to establish new database connection...");
-                connection = DriverManager.getConnection(JDBC_URL, DB_USERNAME, DB_PASSWORD);
-                System.out.println("Database connection established successfully!");
+                PhysicalConnection physical = new PhysicalConnection(this, DriverManager.getConnection(jdbcUrl, DB_USERNAME, DB_PASSWORD));
+                Metrics.increment(metricPrefix + ".connections_opened");
+                Metrics.setGauge(metricPrefix + ".connections_open", MAX_CONNECTIONS - slots.availablePermits());
+                return physical;
             } catch (SQLException e) {
+                slots.release();
                 System.err.println("Failed to establish database connection: " + e.getMessage());
                 throw e; // Re-throw the exception for the caller to handle
             }
         }
-        return connection;
+
+        private void close() {
+            PhysicalConnection physical;
+            while ((physical = idle.poll()) != null) {
+                physical.discard();
+            }
+        }
     }
 
-    public static synchronized void closeConnection() {
-        if (connection != null) {
+    private static final class PhysicalConnection {
+        private final Pool pool;
+        private final Connection connection;
+        // Idle statements by SQL (and generated-keys flag), least recently used first
+        private final LinkedHashMap<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+        private volatile long idleSinceMillis = System.currentTimeMillis();
+        private boolean discarded;
+
+        private PhysicalConnection(Pool pool, Connection connection) {
+            this.pool = pool;
+            this.connection = connection;
+        }
+
+        // A statement is taken out of the cache while in use, so nested use of the same SQL gets its own
+        private synchronized PreparedStatement checkOut(String sql, int autoGeneratedKeys) throws SQLException {
+            String key = autoGeneratedKeys + ":" + sql;
+            PreparedStatement statement = statements.remove(key);
+            String name = statementNames.getOrDefault(sql, "unnamed");
+            if (statement != null) {
+                Metrics.increment("db.statements.reused");
+                Metrics.increment("db.statements." + name + ".reused");
+            } else {
+                statement = connection.prepareStatement(sql, autoGeneratedKeys);
+                Metrics.increment("db.statements.prepared");
+                Metrics.increment("db.statements." + name + ".prepared");
+            }
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, new CachedStatementHandler(this, key, statement));
+        }
+
+        private synchronized void checkIn(String key, PreparedStatement statement) {
             try {
-                if (!connection.isClosed()) {
-                    connection.close();
-                    System.out.println("Database connection closed.");
+                statement.clearParameters();
+                statement.clearBatch();
+                PreparedStatement previous = statements.put(key, statement);
+                if (previous != null) {
+                    previous.close(); // Both copies were in use at the same time; one is enough
                 }
+                Iterator<PreparedStatement> eldest = statements.values().iterator();
+                while (statements.size() > STATEMENTS_PER_CONNECTION) {
+                    eldest.next().close();
+                    eldest.remove();
+                }
+            } catch (SQLException e) {
+                closeQuietly(statement);
+            }
+        }
+
+        private synchronized void discard() {
+            if (discarded) {
+                return;
+            }
+            discarded = true;
+            pool.slots.release();
+            Metrics.setGauge(pool.metricPrefix + ".connections_open", MAX_CONNECTIONS - pool.slots.availablePermits());
+            statements.values().forEach(PhysicalConnection::closeQuietly);
+            statements.clear();
+            try {
+                connection.close();
             } catch (SQLException e) {
                 System.err.println("Error closing database connection: " + e.getMessage());
-                e.printStackTrace();
-            } finally {
-                connection = null; // Set to null after closing
+            }
+        }
+
+        private static void closeQuietly(Statement statement) {
+            try {
+                statement.close();
+            } catch (SQLException ignored) {
+                // Already unusable
+            }
+        }
+    }
+
+    // The Connection handed to DAOs: close() returns it to the pool, prepareStatement() goes through the cache
+    private static final class PooledConnectionHandler implements InvocationHandler {
+        private final PhysicalConnection physical;
+        private boolean closed;
+
+        private PooledConnectionHandler(PhysicalConnection physical) {
+            this.physical = physical;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        release();
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || physical.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + physical.connection;
+            }
+            if (closed) {
+                throw new SQLException("Connection already returned to the pool");
+            }
+            if (method.getName().equals("prepareStatement") && args.length == 1) {
+                return physical.checkOut((String) args[0], Statement.NO_GENERATED_KEYS);
+            }
+            if (method.getName().equals("prepareStatement") && args.length == 2 && args[1] instanceof Integer) {
+                return physical.checkOut((String) args[0], (Integer) args[1]);
+            }
+            try {
+                return method.invoke(physical.connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void release() {
+            try {
+                if (physical.connection.isClosed()) {
+                    physical.discard();
+                    return;
+                }
+                if (!physical.connection.getAutoCommit()) {
+                    physical.connection.rollback(); // Whatever the caller did not commit is not kept
+                    physical.connection.setAutoCommit(true);
+                }
+                if (physical.pool.idle.size() < POOL_SIZE) {
+                    physical.idleSinceMillis = System.currentTimeMillis();
+                    physical.pool.idle.offer(physical);
+                } else {
+                    physical.discard();
+                }
+            } catch (SQLException e) {
+                physical.discard();
+            }
+            Metrics.setGauge(physical.pool.metricPrefix + ".connections_idle", physical.pool.idle.size());
+        }
+    }
+
+    // The PreparedStatement handed to DAOs: close() puts it back into its connection's cache
+    private static final class CachedStatementHandler implements InvocationHandler {
+        private final PhysicalConnection physical;
+        private final String key;
+        private final PreparedStatement statement;
+        private boolean closed;
+
+        private CachedStatementHandler(PhysicalConnection physical, String key, PreparedStatement statement) {
+            this.physical = physical;
+            this.key = key;
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        physical.checkIn(key, statement);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || statement.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Cached" + statement;
+            }
+            if (closed) {
+                throw new SQLException("Statement already closed");
+            }
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,129 @@
+package orgs.utils;
+
+/**
+ * Approximate distinct count (HyperLogLog, 2^11 registers): a fixed 2 KB in memory however many values are
+ * added, with a standard error of about 2.3%. add() is safe to call from many threads; merge() and
+ * toBytes() should not race with each other on the same sketch.
+ *
+ * Serialized form: a format byte, then either the non-zero registers as (index, value) triples when few are
+ * set (a post with a handful of viewers takes a few bytes), or all registers packed at 6 bits each (1536 bytes).
+ */
+public final class HyperLogLog {
+    private static final int PRECISION = 11;
+    private static final int REGISTERS = 1 << PRECISION;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+    private static final int PACKED_BYTES = REGISTERS * 6 / 8;
+    private static final byte FORMAT_SPARSE = 1;
+    private static final byte FORMAT_PACKED = 2;
+
+    private final byte[] registers = new byte[REGISTERS];
+
+    // Returns true when the sketch changed
+    public boolean add(long value) {
+        long hash = mix(value);
+        int index = (int) (hash >>> (64 - PRECISION));
+        // The sentinel bit caps the rank at 64 - PRECISION + 1, so a register always fits in 6 bits
+        byte rank = (byte) (Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1);
+        if (registers[index] >= rank) {
+            return false; // The common case once a post has many viewers; no lock taken
+        }
+        synchronized (this) {
+            if (registers[index] >= rank) {
+                return false;
+            }
+            registers[index] = rank;
+            return true;
+        }
+    }
+
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+        if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+            estimate = REGISTERS * Math.log((double) REGISTERS / zeros); // Linear counting for small sets
+        }
+        return Math.round(estimate);
+    }
+
+    public static double standardError() {
+        return 1.04 / Math.sqrt(REGISTERS);
+    }
+
+    // Union: afterwards this sketch counts the values of both
+    public synchronized void merge(HyperLogLog other) {
+        for (int i = 0; i < REGISTERS; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    public synchronized byte[] toBytes() {
+        int nonZero = 0;
+        for (byte register : registers) {
+            if (register != 0) {
+                nonZero++;
+            }
+        }
+        if (1 + nonZero * 3 < 1 + PACKED_BYTES) {
+            byte[] bytes = new byte[1 + nonZero * 3];
+            bytes[0] = FORMAT_SPARSE;
+            int position = 1;
+            for (int i = 0; i < REGISTERS; i++) {
+                if (registers[i] != 0) {
+                    bytes[position++] = (byte) (i >>> 8);
+                    bytes[position++] = (byte) i;
+                    bytes[position++] = registers[i];
+                }
+            }
+            return bytes;
+        }
+        byte[] bytes = new byte[1 + PACKED_BYTES];
+        bytes[0] = FORMAT_PACKED;
+        for (int i = 0; i < REGISTERS; i += 4) { // Four 6-bit registers per three bytes
+            int bits = registers[i] << 18 | registers[i + 1] << 12 | registers[i + 2] << 6 | registers[i + 3];
+            int position = 1 + i / 4 * 3;
+            bytes[position] = (byte) (bits >>> 16);
+            bytes[position + 1] = (byte) (bits >>> 8);
+            bytes[position + 2] = (byte) bits;
+        }
+        return bytes;
+    }
+
+    public static HyperLogLog fromBytes(byte[] bytes) {
+        HyperLogLog sketch = new HyperLogLog();
+        if (bytes[0] == FORMAT_SPARSE) {
+            for (int position = 1; position + 2 < bytes.length; position += 3) {
+                int index = (bytes[position] & 0xFF) << 8 | (bytes[position + 1] & 0xFF);
+                sketch.registers[index] = bytes[position + 2];
+            }
+        } else if (bytes[0] == FORMAT_PACKED) {
+            for (int i = 0; i < REGISTERS; i += 4) {
+                int position = 1 + i / 4 * 3;
+                int bits = (bytes[position] & 0xFF) << 16 | (bytes[position + 1] & 0xFF) << 8 | (bytes[position + 2] & 0xFF);
+                sketch.registers[i] = (byte) (bits >>> 18 & 0x3F);
+                sketch.registers[i + 1] = (byte) (bits >>> 12 & 0x3F);
+                sketch.registers[i + 2] = (byte) (bits >>> 6 & 0x3F);
+                sketch.registers[i + 3] = (byte) (bits & 0x3F);
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown HyperLogLog format " + bytes[0]);
+        }
+        return sketch;
+    }
+
+    // SplitMix64 finalizer: sequential user ids spread evenly over the hash space
+    private static long mix(long value) {
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
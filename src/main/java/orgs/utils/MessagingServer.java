@@ -1,7 +1,9 @@
 package orgs.utils;
 // Recommend placing server code in a 'server' package
 
+import orgs.model.PendingDelivery;
 import orgs.models2.*; // Import all your model classes
+import orgs.server.OfflineDeliveryQueue;
 import orgs.utils.DatabaseConnection; // Your MySQL database connection singleton
 
 import java.io.BufferedReader;
@@ -13,18 +15,24 @@ import java.net.Socket;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class MessagingServer {
     private static final int PORT = 12345; // Port for clients to connect to
     private static final int THREAD_POOL_SIZE = 10; // Max concurrent client handlers
     private static ExecutorService clientThreadPool;
     private static Map<Long, PrintWriter> onlineUsers = new ConcurrentHashMap<>(); // Maps User ID to their PrintWriter
+    private static final long RETRANSMIT_CHECK_SECONDS = 10;
+    private static OfflineDeliveryQueue offlineDeliveryQueue = new OfflineDeliveryQueue("BACKLOG_TRUNCATED"); // Messages for users who are not connected
+    private static ScheduledExecutorService deliveryTimer; // Retransmits unacknowledged backlogs, expires old ones
 
     public static void main(String[] args) {
         System.out.println("Starting Messaging Server...");
@@ -41,6 +49,9 @@ public class MessagingServer {
         }
 
         clientThreadPool = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
+        deliveryTimer = Executors.newSingleThreadScheduledExecutor();
+        deliveryTimer.scheduleAtFixedRate(MessagingServer::retransmitDue, RETRANSMIT_CHECK_SECONDS, RETRANSMIT_CHECK_SECONDS, TimeUnit.SECONDS);
+        deliveryTimer.scheduleWithFixedDelay(offlineDeliveryQueue::expire, 1, 1, TimeUnit.HOURS);
 
         // 2. Start Server Socket
         try (ServerSocket serverSocket = new ServerSocket(PORT)) {
@@ -56,10 +67,34 @@ public class MessagingServer {
             System.err.println("Server exception: " + e.getMessage());
         } finally {
             clientThreadPool.shutdown(); // Shutdown thread pool when server stops
+            deliveryTimer.shutdown();
             System.out.println("Server stopped.");
         }
     }
 
+    // Backlog deliveries the client has not acknowledged within the retransmit window go out again
+    private static void retransmitDue() {
+        try {
+            onlineUsers.forEach((userId, writer) -> {
+                List<PendingDelivery> due = offlineDeliveryQueue.retransmitDue(userId.intValue());
+                if (!due.isEmpty()) {
+                    sendBacklog(writer, due);
+                }
+            });
+        } catch (Exception e) {
+            System.err.println("Error retransmitting deliveries: " + e.getMessage()); // Keep the schedule alive
+        }
+    }
+
+    // PENDING_MESSAGES:<count>, then one DELIVERY <delivery_id> <payload> line each; the client sends ACK for them
+    private static void sendBacklog(PrintWriter out, List<PendingDelivery> backlog) {
+        StringBuilder batch = new StringBuilder("PENDING_MESSAGES:").append(backlog.size());
+        for (PendingDelivery delivery : backlog) {
+            batch.append(System.lineSeparator()).append("DELIVERY ").append(delivery.getDeliveryId()).append(' ').append(delivery.getPayload());
+        }
+        out.println(batch); // One write for the whole backlog
+    }
+
     /**
      * ClientHandler is a Runnable that processes commands from a single client.
      */
@@ -101,6 +136,7 @@ public class MessagingServer {
                         System.err.println("Error updating user status on disconnect for " + currentUserId + ": " + e.getMessage());
                     } finally {
                         onlineUsers.remove(currentUserId); // Remove from online users map
+                        offlineDeliveryQueue.requeueUnacknowledged(currentUserId.intValue());
                     }
                 }
                 closeResources();
@@ -123,6 +159,9 @@ public class MessagingServer {
                     case "LOGOUT":
                         handleLogout();
                         break;
+                    case "ACK":
+                        handleAck(args);
+                        break;
                     case "UPDATE_USER_INFO":
                         handleUpdateUserInfo(args);
                         break;
@@ -173,6 +212,12 @@ public class MessagingServer {
                 onlineUsers.put(currentUserId, out); // Add to online users map
                 out.println("LOGIN_SUCCESS:" + currentUserId);
                 System.out.println("User " + currentUserId + " logged in.");
+
+                // Flush whatever arrived while the user was offline, then wait for ACK <delivery_id>[,<delivery_id>...]
+                List<PendingDelivery> backlog = offlineDeliveryQueue.drain(currentUserId.intValue());
+                if (!backlog.isEmpty()) {
+                    sendBacklog(out, backlog);
+                }
             } else {
                 out.println("LOGIN_FAILED: INVALID_CREDENTIALS");
             }
@@ -232,6 +277,7 @@ public class MessagingServer {
                 user.update(); // Update user status in DB
             }
             onlineUsers.remove(currentUserId); // Remove from online users map
+            offlineDeliveryQueue.requeueUnacknowledged(currentUserId.intValue());
             System.out.println("User " + currentUserId + " logged out.");
             currentUserId = null; // Clear the session's user ID
             out.println("LOGOUT_SUCCESS");
@@ -318,6 +364,20 @@ public class MessagingServer {
             }
         }
 
+        private void handleAck(String args) {
+            if (currentUserId == null) {
+                out.println("ERROR: NOT_LOGGED_IN");
+                return;
+            }
+            List<Long> deliveryIds = new ArrayList<>();
+            for (String id : args.trim().split(",")) {
+                if (!id.isBlank()) {
+                    deliveryIds.add(Long.parseLong(id.trim()));
+                }
+            }
+            offlineDeliveryQueue.acknowledge(currentUserId.intValue(), deliveryIds); // No reply, acks are fire-and-forget
+        }
+
 //        private void handleMessage(String args){
 //
 //        }
@@ -412,27 +472,27 @@ public class MessagingServer {
                     if (p.getUserId().equals(currentUserId)) {
                         continue; // Don't send back to sender
                     }
+                    // Format message for recipient to receive
+                    // e.g., INCOMING_MESSAGE <message_id> <chat_id> <sender_id> <type> <content> ...
+                    String incomingMsg = String.format("INCOMING_MESSAGE %d %d %d %s %s",
+                            newMessage.getMessageId(), chatId, currentUserId, messageType, content);
+                    // Add optional fields to incoming message
+                    if (mediaId != null) incomingMsg += " OPT:MEDIA_ID:" + mediaId;
+                    if (repliedToMessageId != null) incomingMsg += " OPT:REPLIED_TO:" + repliedToMessageId;
+                    if (forwardedFromUserId != null) incomingMsg += " OPT:FORWARD_FROM_USER:" + forwardedFromUserId;
+                    if (forwardedFromChatId != null) incomingMsg += " OPT:FORWARD_FROM_CHAT:" + forwardedFromChatId;
+
                     PrintWriter recipientWriter = onlineUsers.get(p.getUserId());
                     if (recipientWriter != null) {
-                        // Format message for recipient to receive
-                        // e.g., INCOMING_MESSAGE <message_id> <chat_id> <sender_id> <type> <content> ...
-                        String incomingMsg = String.format("INCOMING_MESSAGE %d %d %d %s %s",
-                                newMessage.getMessageId(), chatId, currentUserId, messageType, content);
-                        // Add optional fields to incoming message
-                        if (mediaId != null) incomingMsg += " OPT:MEDIA_ID:" + mediaId;
-                        if (repliedToMessageId != null) incomingMsg += " OPT:REPLIED_TO:" + repliedToMessageId;
-                        if (forwardedFromUserId != null) incomingMsg += " OPT:FORWARD_FROM_USER:" + forwardedFromUserId;
-                        if (forwardedFromChatId != null) incomingMsg += " OPT:FORWARD_FROM_CHAT:" + forwardedFromChatId;
-
                         recipientWriter.println(incomingMsg);
                         System.out.println("Forwarded message " + newMessage.getMessageId() + " to user " + p.getUserId());
                     } else {
-                        // Handle offline users (e.g., store for push notifications, update unread count)
-                        System.out.println("User " + p.getUserId() + " is offline. Message " + newMessage.getMessageId() + " for them.");
+                        // Handle offline users: queue the frame for delivery on their next login, update unread count
+                        System.out.println("User " + p.getUserId() + " is offline. Message " + newMessage.getMessageId() + " queued for them.");
+                        offlineDeliveryQueue.enqueue(p.getUserId().intValue(), chatId, newMessage.getMessageId(), incomingMsg);
                         // Increment unread count for offline users
                         p.setUnreadCount(p.getUnreadCount() + 1);
                         p.update(); // Update unread count in DB
-                        // TODO: Implement push notification logic here
                     }
                 }
                 // Update sender's last read message (optional, but good practice)
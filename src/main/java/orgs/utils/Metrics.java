@@ -0,0 +1,63 @@
+package orgs.utils;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Process-wide counters, gauges and timers; read through Metrics.snapshot()
+public final class Metrics {
+
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final Map<String, AtomicLong> gauges = new ConcurrentHashMap<>();
+    private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    private static final class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalMillis = new LongAdder();
+        private final AtomicLong maxMillis = new AtomicLong();
+    }
+
+    private Metrics() {
+        // Static helper
+    }
+
+    public static void increment(String name) {
+        add(name, 1);
+    }
+
+    public static void add(String name, long delta) {
+        counters.computeIfAbsent(name, n -> new LongAdder()).add(delta);
+    }
+
+    public static void setGauge(String name, long value) {
+        gauges.computeIfAbsent(name, n -> new AtomicLong()).set(value);
+    }
+
+    public static void recordMillis(String name, long millis) {
+        Timer timer = timers.computeIfAbsent(name, n -> new Timer());
+        timer.count.increment();
+        timer.totalMillis.add(millis);
+        timer.maxMillis.accumulateAndGet(millis, Math::max);
+    }
+
+    public static long counter(String name) {
+        LongAdder counter = counters.get(name);
+        return counter != null ? counter.sum() : 0;
+    }
+
+    // Timers are flattened into <name>.count, <name>.avg_ms and <name>.max_ms
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        counters.forEach((name, counter) -> snapshot.put(name, counter.sum()));
+        gauges.forEach((name, gauge) -> snapshot.put(name, gauge.get()));
+        timers.forEach((name, timer) -> {
+            long count = timer.count.sum();
+            snapshot.put(name + ".count", count);
+            snapshot.put(name + ".avg_ms", count > 0 ? timer.totalMillis.sum() / count : 0);
+            snapshot.put(name + ".max_ms", timer.maxMillis.get());
+        });
+        return snapshot;
+    }
+}
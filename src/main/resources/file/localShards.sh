@@ -0,0 +1,35 @@
+#!/bin/sh
+# Creates empty message shards for trying ShardRouter locally and prints the -Dtusal.shards value for them.
+# Each argument is one shard, host:port/database; the database is created (it must not exist yet) and gets
+# tusalShard.sql. Shards can be databases on the same MySQL as the main one or on other local instances:
+#
+#   sh localShards.sh localhost:3306/tusal_shard1 localhost:3307/tusal_shard2
+#
+# The main database is shard 0 and comes from tusalDB.sql as before. MYSQL_USER and MYSQL_PASSWORD default to the
+# credentials in orgs.utils.DatabaseConnection, which every shard is opened with; MYSQL is the client to run.
+set -e
+
+MYSQL=${MYSQL:-mysql}
+MYSQL_USER=${MYSQL_USER:-root}
+MYSQL_PASSWORD=${MYSQL_PASSWORD:-730673145}
+SCHEMA="$(dirname "$0")/tusalShard.sql"
+
+if [ $# -eq 0 ]; then
+    echo "Usage: $0 host:port/database ..." >&2
+    exit 1
+fi
+
+urls=""
+for shard in "$@"; do
+    address=${shard%%/*}
+    database=${shard#*/}
+    host=${address%%:*}
+    port=${address#*:}
+    [ "$host" = localhost ] && host=127.0.0.1 # TCP, not the client's default socket
+    "$MYSQL" -h "$host" -P "$port" -u "$MYSQL_USER" -p"$MYSQL_PASSWORD" -e "CREATE DATABASE \`$database\`"
+    "$MYSQL" -h "$host" -P "$port" -u "$MYSQL_USER" -p"$MYSQL_PASSWORD" "$database" < "$SCHEMA"
+    urls="$urls${urls:+,}jdbc:mysql://$address/$database?useSSL=false&serverTimezone=UTC"
+    echo "Created shard $database on $address" >&2
+done
+
+echo "-Dtusal.shards=$urls"
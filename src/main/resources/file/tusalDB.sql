@@ -15,7 +15,8 @@ CREATE TABLE users (
     is_online BOOLEAN DEFAULT FALSE,          -- FR-UM-7
     last_seen_at DATETIME,                    -- FR-UM-8
     created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
-    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    is_deleting BOOLEAN DEFAULT FALSE         -- Account deletion requested; the row goes once deletion_jobs has removed its data
 );
 
 -- 1.a. Related to User: Class UserSettings (Implicit from FR-SEC-x and references)
@@ -49,7 +50,7 @@ CREATE TABLE sessions (
 -- 2. Class: Chat
 -- Represents conversation threads: private, group, or channel
 CREATE TABLE chats (
-    id INT AUTO_INCREMENT PRIMARY KEY,
+    id BIGINT PRIMARY KEY,                       -- orgs.utils.SnowflakeIdGenerator; no AUTO_INCREMENT
     chat_type ENUM('private', 'group', 'channel') NOT NULL,
     chat_name VARCHAR(255),                      -- FR-CH-3, FR-CH-8 (for groups/channels)
     chat_picture_url VARCHAR(255),               -- FR-CH-3, FR-CH-8
@@ -58,6 +59,8 @@ CREATE TABLE chats (
     creator_id INT NOT NULL,                     -- Who created the chat/group/channel
     created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
     updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    archive_after_days INT,                      -- Messages older than this move to archive segments; NULL for the server default, 0 never
+    is_deleting BOOLEAN DEFAULT FALSE,           -- DELETE_CHAT requested; hidden from now on, removed in batches by deletion_jobs
     FOREIGN KEY (creator_id) REFERENCES users(id) ON DELETE RESTRICT -- Creator cannot be deleted if chat exists
 );
 
@@ -65,11 +68,11 @@ CREATE TABLE chats (
 -- Represents a user's involvement in a specific chat
 CREATE TABLE chat_participants (
     id INT AUTO_INCREMENT PRIMARY KEY,
-    chat_id INT NOT NULL,
+    chat_id BIGINT NOT NULL,
     user_id INT NOT NULL,
     role ENUM('member', 'admin', 'creator', 'subscriber') DEFAULT 'member', -- FR-CH-3, FR-CH-5, FR-CH-8
     unread_count INT DEFAULT 0,                                          -- FR-MSG-13
-    last_read_message_id INT,                                            -- FR-MSG-13 (Can be NULL)
+    last_read_message_id BIGINT,                                         -- FR-MSG-13 (Can be NULL)
     joined_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
     UNIQUE (chat_id, user_id), -- A user can only be a participant once per chat
     FOREIGN KEY (chat_id) REFERENCES chats(id) ON DELETE CASCADE,
@@ -92,28 +95,38 @@ CREATE TABLE media (
 -- 3. Class: Message
 -- Represents a unit of communication within a chat
 CREATE TABLE messages (
-    id INT AUTO_INCREMENT PRIMARY KEY,
-    chat_id INT NOT NULL,
+    id BIGINT PRIMARY KEY,                          -- orgs.utils.SnowflakeIdGenerator, so ids follow sent_at
+    chat_id BIGINT NOT NULL,
     sender_id INT NOT NULL,
     content TEXT,                                   -- FR-MSG-1, FR-MSG-3 (for caption)
     message_type ENUM('text', 'image', 'video', 'voiceNote', 'file', 'system') NOT NULL,
     sent_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,    -- NFR-PERF-1, FR-MSG-12
     media_id INT,                                   -- FR-MSG-3 (Nullable for text messages)
-    replied_to_message_id INT,                      -- FR-MSG-7 (Nullable)
+    replied_to_message_id BIGINT,                   -- FR-MSG-7 (Nullable)
     forwarded_from_user_id INT,                     -- FR-MSG-8 (Nullable)
-    forwarded_from_chat_id INT,                     -- FR-MSG-8 (Nullable)
+    forwarded_from_chat_id BIGINT,                  -- FR-MSG-8 (Nullable)
     edited_at DATETIME,                             -- FR-MSG-9 (Nullable)
     is_deleted BOOLEAN DEFAULT FALSE,               -- FR-MSG-10 (Soft delete)
+    deleted_at DATETIME,                            -- When it was soft-deleted; the purge hard-deletes it after the retention period
     view_count INT DEFAULT 0,                       -- FR-MSG-14 (For channels)
+    client_message_id VARCHAR(64),                  -- Idempotency key chosen by the sending client (Nullable)
+    sender_display_name VARCHAR(100),               -- Copied from users at insert, refreshed asynchronously on profile changes
+    reply_snippet VARCHAR(120),                     -- Start of the replied-to message (NULL when there is none or it was deleted)
     FOREIGN KEY (chat_id) REFERENCES chats(id) ON DELETE CASCADE,
     FOREIGN KEY (sender_id) REFERENCES users(id) ON DELETE CASCADE,
     FOREIGN KEY (media_id) REFERENCES media(id) ON DELETE SET NULL, -- Media can exist without a message or be deleted separately
-    FOREIGN KEY (replied_to_message_id) REFERENCES messages(id) ON DELETE SET NULL, -- Self-referencing
+    -- No foreign key on replied_to_message_id: the replied-to message may have moved to an archive segment
     FOREIGN KEY (forwarded_from_user_id) REFERENCES users(id) ON DELETE SET NULL, -- If forwarded, link to original sender
     FOREIGN KEY (forwarded_from_chat_id) REFERENCES chats(id) ON DELETE SET NULL , -- If forwarded, link to original chat
 
     -- Expert Engineer's Perspective: Index for efficient message retrieval by chat and time
-    INDEX idx_messages_chat_id_sent_at (chat_id, sent_at DESC)
+    INDEX idx_messages_chat_id_sent_at (chat_id, sent_at DESC),
+    -- Messages after a position in a chat: unread recounts, GET_CHAT_MESSAGES after an id
+    INDEX idx_messages_chat_id_id (chat_id, id),
+    -- Replies to an edited or deleted message get their preview refreshed (no foreign key to index it)
+    INDEX idx_messages_replied_to_message_id (replied_to_message_id),
+    -- A retried SEND_MESSAGE cannot insert a second row; NULLs (no key given) never collide
+    UNIQUE KEY uq_messages_sender_client_message_id (sender_id, client_message_id)
 );
 
 -- 6. Class: Contact
@@ -143,17 +156,169 @@ CREATE TABLE blocked_users (
 -- 7. Class: Notification (This refers to general in-app notifications, not necessarily push tokens)
 -- Stores records of notifications sent within the system
 CREATE TABLE notifications (
-    id INT AUTO_INCREMENT PRIMARY KEY,
+    id BIGINT PRIMARY KEY,           -- orgs.utils.SnowflakeIdGenerator
     recipient_user_id INT NOT NULL, -- FR-NOTIF-1
     message TEXT NOT NULL,           -- FR-NOTIF-1
     event_type VARCHAR(100),         -- E.g., 'new_message', 'group_add', 'admin_change'
-    related_chat_id INT,             -- Optional: Link to the chat if notification is chat-related
+    related_chat_id BIGINT,          -- Optional: Link to the chat if notification is chat-related
     is_read BOOLEAN DEFAULT FALSE,
     timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
     FOREIGN KEY (recipient_user_id) REFERENCES users(id) ON DELETE CASCADE,
     FOREIGN KEY (related_chat_id) REFERENCES chats(id) ON DELETE SET NULL
 );
 
+-- 8. Per-user update log (GET_UPDATES)
+-- One row per change a user has to learn about after a reconnect; the id doubles as the user's sync position
+CREATE TABLE user_updates (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    user_id INT NOT NULL,
+    update_type VARCHAR(32) NOT NULL,  -- 'new_message', 'edit_message', 'delete_message', 'participant_added', 'participant_removed', 'notification'
+    chat_id BIGINT,                    -- Nullable for updates that are not chat-related
+    message_id BIGINT,                 -- Nullable for non-message updates
+    payload TEXT,                      -- Compact JSON describing the change
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    -- A message is new only once: a change event the relay delivers again does not add a second row
+    new_message_id BIGINT AS (IF(update_type = 'new_message', message_id, NULL)) STORED,
+    FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE,
+    INDEX idx_user_updates_user_id_id (user_id, id),
+    UNIQUE KEY uq_user_updates_new_message (user_id, new_message_id)
+);
+
+-- 9. Store-and-forward queue for offline recipients
+-- Only holds the overflow of the in-memory per-user queue; rows are removed once the client acknowledges them,
+-- or when they expire or a user's backlog grows past its cap
+CREATE TABLE pending_deliveries (
+    user_id INT NOT NULL,
+    delivery_id BIGINT NOT NULL,       -- Assigned by the server, acknowledged by the client
+    chat_id BIGINT NOT NULL,
+    message_id BIGINT NOT NULL,
+    payload TEXT NOT NULL,             -- The frame exactly as it would have been pushed
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (user_id, delivery_id),
+    FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE,
+    INDEX idx_pending_deliveries_created_at (created_at) -- Expiry sweep (OfflineDeliveryQueue.expire)
+);
+
+-- 10. Transactional outbox (change events)
+-- Written in the same transaction as the change it describes. The server holding change_event_lease publishes rows
+-- in id order to the subscribers that must run once, and marks them; every server also reads them from its own
+-- cursor for its in-memory state. Published rows are deleted after a retention period
+CREATE TABLE change_events (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    event_type VARCHAR(32) NOT NULL,   -- 'message_created', 'message_updated', 'chat_deleted', 'participants_added', ...
+    chat_id BIGINT,                    -- Nullable for events that are not chat-related
+    entity_id BIGINT,                  -- The message, chat, participant or user the event is about
+    payload TEXT,                      -- JSON describing the change
+    created_at TIMESTAMP(3) DEFAULT CURRENT_TIMESTAMP(3),
+    published_at TIMESTAMP(3) NULL,    -- Set once the run-once subscribers have handled it
+    INDEX idx_change_events_published_at (published_at, id)
+    -- No foreign keys: events about deleted rows have to outlive them
+);
+
+-- Which server publishes change_events to the run-once subscribers; a single row, taken over once it expires
+CREATE TABLE change_event_lease (
+    id TINYINT PRIMARY KEY,            -- Always 1
+    node_id INT NOT NULL,              -- tusal.nodeId of the holder
+    expires_at TIMESTAMP(3) NOT NULL
+);
+INSERT INTO change_event_lease (id, node_id, expires_at) VALUES (1, -1, CURRENT_TIMESTAMP(3));
+
+-- 11. Unique viewers per message (approximate)
+-- A HyperLogLog sketch of the viewers' user ids, at most 1.5 KB per message however many views it gets
+CREATE TABLE message_viewer_sketches (
+    message_id BIGINT PRIMARY KEY,
+    sketch VARBINARY(1600) NOT NULL,   -- orgs.utils.HyperLogLog serialized form
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
+    -- No foreign key on message_id: the message may be on another shard (see shard_buckets)
+);
+
+-- 12. Chat list preview (denormalized)
+-- The last message of each chat, kept up to date from the change events so the chat list is one indexed read
+CREATE TABLE chat_summaries (
+    chat_id BIGINT PRIMARY KEY,
+    last_message_id BIGINT NOT NULL,            -- Only moves forward
+    last_sender_id INT,
+    last_message_snippet VARCHAR(120),          -- First characters of the content, '[type]' for media without text
+    last_message_deleted BOOLEAN DEFAULT FALSE,
+    last_message_at TIMESTAMP(3) NULL,
+    FOREIGN KEY (chat_id) REFERENCES chats(id) ON DELETE CASCADE
+    -- No foreign key on last_message_id: the row may briefly point at a purged message
+);
+
+-- Messages already counted in the members' unread counts, so a redelivered message_created is not counted twice.
+-- Only needed while an event can still be redelivered; rows older than a day are trimmed
+CREATE TABLE chat_unread_counted (
+    message_id BIGINT PRIMARY KEY,
+    chat_id BIGINT NOT NULL,
+    counted_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    INDEX idx_chat_unread_counted_counted_at (counted_at),
+    FOREIGN KEY (chat_id) REFERENCES chats(id) ON DELETE CASCADE
+);
+
+-- 13. Archive segments (cold messages)
+-- Index of the compressed segment files under the archive directory; each file holds one chat's messages
+-- first_message_id..last_message_id, which no longer exist in messages. Segments are written once and never changed
+CREATE TABLE archive_segments (
+    id INT AUTO_INCREMENT PRIMARY KEY,
+    chat_id BIGINT NOT NULL,
+    first_message_id BIGINT NOT NULL,
+    last_message_id BIGINT NOT NULL,
+    message_count INT NOT NULL,                 -- Soft-deleted messages in the range are dropped, not archived
+    file_name VARCHAR(255) NOT NULL,            -- Relative to the archive directory
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    FOREIGN KEY (chat_id) REFERENCES chats(id) ON DELETE CASCADE,
+    UNIQUE KEY uq_archive_segments_chat_range (chat_id, first_message_id),
+    INDEX idx_archive_segments_last_message_id (last_message_id) -- Finding the segment of one message id
+);
+
+-- Archived messages deleted after they were archived. Segment files are not rewritten; history pages leave these out
+CREATE TABLE archive_tombstones (
+    message_id BIGINT PRIMARY KEY,
+    chat_id BIGINT NOT NULL,
+    deleted_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    FOREIGN KEY (chat_id) REFERENCES chats(id) ON DELETE CASCADE,
+    INDEX idx_archive_tombstones_chat_id (chat_id, message_id)
+);
+
+-- Deleted users whose messages are still in segment files; history pages leave their messages out
+CREATE TABLE archive_deleted_senders (
+    sender_id INT PRIMARY KEY,                  -- No foreign key: the user row is gone
+    deleted_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+-- 14. Background deletion of chats and users
+-- DELETE_CHAT and DELETE_USER only mark the row and add a job here; the server removes the dependent rows in small
+-- batches, one step (table) after another, and deletes the chat or user row and the job last
+CREATE TABLE deletion_jobs (
+    id INT AUTO_INCREMENT PRIMARY KEY,
+    entity_type ENUM('chat', 'user') NOT NULL,
+    entity_id BIGINT NOT NULL,
+    step VARCHAR(32) NOT NULL,                  -- The step in progress; earlier steps are done, so a restart continues here
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    UNIQUE KEY uq_deletion_jobs_entity (entity_type, entity_id)
+    -- No foreign keys: the chat or user row and its job are deleted in the same transaction
+);
+
+-- 15. Message shard map
+-- Only used when the server runs with more than one message shard (-Dtusal.shards, see orgs.dao.ShardRouter).
+-- A chat's messages live on the shard of its bucket, CRC32(chat_id) % 1024. Missing buckets are added on shard 0,
+-- the main database; orgs.storage.BucketMover moves a bucket to another shard while the server keeps running
+CREATE TABLE shard_buckets (
+    bucket INT PRIMARY KEY,
+    shard_id INT NOT NULL,                      -- Where the bucket's messages are read and written
+    state ENUM('active', 'copying', 'frozen') NOT NULL DEFAULT 'active', -- 'frozen': writes are refused during a move's catch-up
+    target_shard_id INT,                        -- Destination of a move in progress (Nullable)
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
+);
+
+-- 16. Which shard map each server routes with
+-- Written by every server after it loads shard_buckets; BucketMover waits on it instead of guessing
+CREATE TABLE shard_map_acks (
+    node_id INT PRIMARY KEY,                    -- tusal.nodeId of the server process
+    map_read_at TIMESTAMP(3) NOT NULL           -- Database time just before the map it routes with was read
+);
+
 -- Add indexes for common lookup fields to improve performance
 CREATE INDEX idx_users_phone_number ON users(phone_number);
 CREATE INDEX idx_users_username ON users(username);
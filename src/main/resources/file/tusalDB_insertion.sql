@@ -81,22 +81,24 @@ INSERT INTO sessions (user_id, device_token, is_active, last_active_at) VALUES
 
 
 -- --- SECTION 3: Insert into CHATS (15 records) ---
-INSERT INTO chats (chat_type, chat_name, chat_picture_url, chat_description, public_link, creator_id) VALUES
-("private", "احمد", NULL, NULL, NULL, 1),
-("private", "زياد", NULL, NULL, NULL, 2),
-("private", "حفيظ", NULL, NULL, NULL, 3),
-("group", "Project Alpha", "http://example.com/c/project_alpha.jpg", "Team working on Project Alpha.", NULL, 1),
-("group", "Gaming Squad", "http://example.com/c/gaming_squad.jpg", "For all things gaming.", NULL, 3),
-("group", "Foodie Friends", "http://example.com/c/foodie_friends.jpg", "Sharing delicious recipes and restaurant finds.", NULL, 5),
-("channel", "Daily Tech News", "http://example.com/c/tech_news.jpg", "Latest updates in technology.", "daily_tech_news_channel", 2),
-("channel", "Art Inspiration", "http://example.com/c/art_insp.jpg", "Curated art inspiration.", "art_inspiration_channel", 4),
-("channel", "Travel Diaries", "http://example.com/c/travel_diaries.jpg", "Stories and photos from travels around the world.", "travel_diaries_channel", 9),
-("private", NULL, NULL, NULL, NULL, 4),
-("private", NULL, NULL, NULL, NULL, 5),
-("group", "Book Club Classics", "http://example.com/c/book_club.jpg", "Discussing classic literature.", NULL, 6),
-("channel", "Workout Tips", "http://example.com/c/workout.jpg", "Tips and routines for fitness.", "workout_tips_channel", 7),
-("group", "Music Production", "http://example.com/c/music_prod.jpg", "Discussing music production techniques.", NULL, 8),
-("channel", "Learning Hub", "http://example.com/c/learning_hub.jpg", "Resources for continuous learning.", "learning_hub_channel", 13);
+-- Chats, messages and notifications have no AUTO_INCREMENT (orgs.utils.SnowflakeIdGenerator), so seed rows carry
+-- their ids. They are far below every generated id, and within each chat message ids follow sent_at
+INSERT INTO chats (id, chat_type, chat_name, chat_picture_url, chat_description, public_link, creator_id) VALUES
+(1, "private", "احمد", NULL, NULL, NULL, 1),
+(2, "private", "زياد", NULL, NULL, NULL, 2),
+(3, "private", "حفيظ", NULL, NULL, NULL, 3),
+(4, "group", "Project Alpha", "http://example.com/c/project_alpha.jpg", "Team working on Project Alpha.", NULL, 1),
+(5, "group", "Gaming Squad", "http://example.com/c/gaming_squad.jpg", "For all things gaming.", NULL, 3),
+(6, "group", "Foodie Friends", "http://example.com/c/foodie_friends.jpg", "Sharing delicious recipes and restaurant finds.", NULL, 5),
+(7, "channel", "Daily Tech News", "http://example.com/c/tech_news.jpg", "Latest updates in technology.", "daily_tech_news_channel", 2),
+(8, "channel", "Art Inspiration", "http://example.com/c/art_insp.jpg", "Curated art inspiration.", "art_inspiration_channel", 4),
+(9, "channel", "Travel Diaries", "http://example.com/c/travel_diaries.jpg", "Stories and photos from travels around the world.", "travel_diaries_channel", 9),
+(10, "private", NULL, NULL, NULL, NULL, 4),
+(11, "private", NULL, NULL, NULL, NULL, 5),
+(12, "group", "Book Club Classics", "http://example.com/c/book_club.jpg", "Discussing classic literature.", NULL, 6),
+(13, "channel", "Workout Tips", "http://example.com/c/workout.jpg", "Tips and routines for fitness.", "workout_tips_channel", 7),
+(14, "group", "Music Production", "http://example.com/c/music_prod.jpg", "Discussing music production techniques.", NULL, 8),
+(15, "channel", "Learning Hub", "http://example.com/c/learning_hub.jpg", "Resources for continuous learning.", "learning_hub_channel", 13);
 
 
 -- --- SECTION 4: Insert into MEDIA (15 records) ---
@@ -138,41 +140,41 @@ INSERT INTO chat_participants (chat_id, user_id, role, unread_count) VALUES
 
 
 -- --- SECTION 6: Insert into MESSAGES (35 records) ---
-INSERT INTO messages (chat_id, sender_id, content, message_type, media_id, sent_at) VALUES
-(1, 1, "Hey Beta, long time no see! How are you?", "text", NULL, NOW() - INTERVAL 30 MINUTE),
-(1, 2, "Alpha! Good to hear from you. All well here. How about you?", "text", NULL, NOW() - INTERVAL 29 MINUTE),
-(1, 1, "Just wanted to share this awesome pic.", "text", NULL, NOW() - INTERVAL 28 MINUTE),
-(1, 1, NULL, "image", 1, NOW() - INTERVAL 27 MINUTE),
-(4, 1, "Team, Project Alpha update meeting tomorrow at 10 AM.", "text", NULL, NOW() - INTERVAL 25 MINUTE),
-(4, 2, "Understood. I will prepare the dev report.", "text", NULL, NOW() - INTERVAL 24 MINUTE),
-(4, 7, "Great, I will bring the UI mockups.", "text", NULL, NOW() - INTERVAL 23 MINUTE),
-(4, 1, "Please review the attached document.", "text", NULL, NOW() - INTERVAL 22 MINUTE),
-(4, 1, NULL, "file", 5, NOW() - INTERVAL 21 MINUTE),
-(5, 3, "Who is up for some gaming tonight?", "text", NULL, NOW() - INTERVAL 20 MINUTE),
-(5, 8, "Me! What are we playing?", "text", NULL, NOW() - INTERVAL 19 MINUTE),
-(5, 12, "I'm in if it's not too late.", "text", NULL, NOW() - INTERVAL 18 MINUTE),
-(5, 3, "Check out this new game trailer!", "text", NULL, NOW() - INTERVAL 17 MINUTE),
-(5, 3, NULL, "video", 2, NOW() - INTERVAL 16 MINUTE),
-(7, 2, "Breaking: New AI breakthrough announced!", "text", NULL, NOW() - INTERVAL 15 MINUTE),
-(7, 2, "Link to the full article: [https://tech.news/ai-breakthrough](https://tech.news/ai-breakthrough)", "text", NULL, NOW() - INTERVAL 14 MINUTE),
-(7, 2, "Latest smartphone models review. 📱", "text", NULL, NOW() - INTERVAL 13 MINUTE),
-(7, 2, "Don''t miss our weekly tech podcast!", "text", NULL, NOW() - INTERVAL 12 MINUTE),
-(6, 5, "Just tried an amazing new recipe!", "text", NULL, NOW() - INTERVAL 11 MINUTE),
-(6, 10, "Oh, share it!", "text", NULL, NOW() - INTERVAL 10 MINUTE),
-(6, 11, "Me too, please!", "text", NULL, NOW() - INTERVAL 9 MINUTE),
-(6, 5, "Here is the recipe.", "text", NULL, NOW() - INTERVAL 8 MINUTE),
-(6, 5, NULL, "file", 5, NOW() - INTERVAL 7 MINUTE),
-(8, 4, "New daily art inspiration: Abstract landscapes.", "text", NULL, NOW() - INTERVAL 6 MINUTE),
-(8, 4, NULL, "image", 4, NOW() - INTERVAL 5 MINUTE),
-(1, 2, "Glad to hear that, Alpha! What are you up to?", "text", NULL, NOW() - INTERVAL 4 MINUTE),
-(4, 7, "I'll send out the meeting invite now.", "text", NULL, NOW() - INTERVAL 3 MINUTE),
-(5, 12, "Okay, I'll be online in 15 mins.", "text", NULL, NOW() - INTERVAL 2 MINUTE),
-(7, 2, "Don''t forget to subscribe to our newsletter!", "text", NULL, NOW() - INTERVAL 1 MINUTE),
-(1, 1, "Just finished a big project, chilling now.", "text", NULL, NOW()),
-(15, 13, "Welcome to the Learning Hub!", "text", NULL, NOW() - INTERVAL 10 MINUTE),
-(15, 13, "We''ll be sharing resources on various topics.", "text", NULL, NOW() - INTERVAL 9 MINUTE),
-(14, 8, "Anyone has tips for mixing vocals?", "text", NULL, NOW() - INTERVAL 8 MINUTE),
-(12, 6, "Our next book for the club is \"1984\".", "text", NULL, NOW() - INTERVAL 7 MINUTE);
+INSERT INTO messages (id, chat_id, sender_id, content, message_type, media_id, sent_at) VALUES
+(1, 1, 1, "Hey Beta, long time no see! How are you?", "text", NULL, NOW() - INTERVAL 30 MINUTE),
+(2, 1, 2, "Alpha! Good to hear from you. All well here. How about you?", "text", NULL, NOW() - INTERVAL 29 MINUTE),
+(3, 1, 1, "Just wanted to share this awesome pic.", "text", NULL, NOW() - INTERVAL 28 MINUTE),
+(4, 1, 1, NULL, "image", 1, NOW() - INTERVAL 27 MINUTE),
+(5, 4, 1, "Team, Project Alpha update meeting tomorrow at 10 AM.", "text", NULL, NOW() - INTERVAL 25 MINUTE),
+(6, 4, 2, "Understood. I will prepare the dev report.", "text", NULL, NOW() - INTERVAL 24 MINUTE),
+(7, 4, 7, "Great, I will bring the UI mockups.", "text", NULL, NOW() - INTERVAL 23 MINUTE),
+(8, 4, 1, "Please review the attached document.", "text", NULL, NOW() - INTERVAL 22 MINUTE),
+(9, 4, 1, NULL, "file", 5, NOW() - INTERVAL 21 MINUTE),
+(10, 5, 3, "Who is up for some gaming tonight?", "text", NULL, NOW() - INTERVAL 20 MINUTE),
+(11, 5, 8, "Me! What are we playing?", "text", NULL, NOW() - INTERVAL 19 MINUTE),
+(12, 5, 12, "I'm in if it's not too late.", "text", NULL, NOW() - INTERVAL 18 MINUTE),
+(13, 5, 3, "Check out this new game trailer!", "text", NULL, NOW() - INTERVAL 17 MINUTE),
+(14, 5, 3, NULL, "video", 2, NOW() - INTERVAL 16 MINUTE),
+(15, 7, 2, "Breaking: New AI breakthrough announced!", "text", NULL, NOW() - INTERVAL 15 MINUTE),
+(16, 7, 2, "Link to the full article: [https://tech.news/ai-breakthrough](https://tech.news/ai-breakthrough)", "text", NULL, NOW() - INTERVAL 14 MINUTE),
+(17, 7, 2, "Latest smartphone models review. 📱", "text", NULL, NOW() - INTERVAL 13 MINUTE),
+(18, 7, 2, "Don''t miss our weekly tech podcast!", "text", NULL, NOW() - INTERVAL 12 MINUTE),
+(19, 6, 5, "Just tried an amazing new recipe!", "text", NULL, NOW() - INTERVAL 11 MINUTE),
+(20, 6, 10, "Oh, share it!", "text", NULL, NOW() - INTERVAL 10 MINUTE),
+(21, 6, 11, "Me too, please!", "text", NULL, NOW() - INTERVAL 9 MINUTE),
+(22, 6, 5, "Here is the recipe.", "text", NULL, NOW() - INTERVAL 8 MINUTE),
+(23, 6, 5, NULL, "file", 5, NOW() - INTERVAL 7 MINUTE),
+(24, 8, 4, "New daily art inspiration: Abstract landscapes.", "text", NULL, NOW() - INTERVAL 6 MINUTE),
+(25, 8, 4, NULL, "image", 4, NOW() - INTERVAL 5 MINUTE),
+(26, 1, 2, "Glad to hear that, Alpha! What are you up to?", "text", NULL, NOW() - INTERVAL 4 MINUTE),
+(27, 4, 7, "I'll send out the meeting invite now.", "text", NULL, NOW() - INTERVAL 3 MINUTE),
+(28, 5, 12, "Okay, I'll be online in 15 mins.", "text", NULL, NOW() - INTERVAL 2 MINUTE),
+(29, 7, 2, "Don''t forget to subscribe to our newsletter!", "text", NULL, NOW() - INTERVAL 1 MINUTE),
+(30, 1, 1, "Just finished a big project, chilling now.", "text", NULL, NOW()),
+(31, 15, 13, "Welcome to the Learning Hub!", "text", NULL, NOW() - INTERVAL 10 MINUTE),
+(32, 15, 13, "We''ll be sharing resources on various topics.", "text", NULL, NOW() - INTERVAL 9 MINUTE),
+(33, 14, 8, "Anyone has tips for mixing vocals?", "text", NULL, NOW() - INTERVAL 8 MINUTE),
+(34, 12, 6, "Our next book for the club is \"1984\".", "text", NULL, NOW() - INTERVAL 7 MINUTE);
 
 
 -- --- SECTION 7: Insert into CONTACTS (35 records) and BLOCKED_USERS (35 records) ---
@@ -195,42 +197,42 @@ INSERT INTO blocked_users (blocker_id, blocked_id) VALUES
 
 
 -- --- SECTION 8: Insert into NOTIFICATIONS (35 records) ---
-INSERT INTO notifications (recipient_user_id, message, event_type, related_chat_id, is_read, timestamp) VALUES
-(1, "New message from Beta Dev in Project Alpha.", "new_message", 4, FALSE, NOW() - INTERVAL 10 MINUTE),
-(1, "You were added to Foodie Friends group.", "group_add", 6, FALSE, NOW() - INTERVAL 9 MINUTE),
-(2, "Alpha User just posted a new image.", "new_media_post", 1, FALSE, NOW() - INTERVAL 8 MINUTE),
-(2, "New tech update available in Daily Tech News.", "channel_update", 7, FALSE, NOW() - INTERVAL 7 MINUTE),
-(3, "New message from Delta Artist in Art Inspiration.", "new_message", 8, TRUE, NOW() - INTERVAL 6 MINUTE),
-(3, "Your friend Alpha User is now online.", "user_online", NULL, FALSE, NOW() - INTERVAL 5 MINUTE),
-(4, "New message from Charlie Brown in Private Chat.", "new_message", 3, FALSE, NOW() - INTERVAL 4 MINUTE),
-(5, "Epsilon Chef: Recipe for Veggie Pizza uploaded.", "new_media_post", 6, FALSE, NOW() - INTERVAL 3 MINUTE),
-(6, "Zeta Reader: New book added to Book Club Classics.", "chat_update", 12, TRUE, NOW() - INTERVAL 2 MINUTE),
-(7, "Eta Hiker: Shared a new trail photo.", "new_media_post", 13, FALSE, NOW() - INTERVAL 1 MINUTE),
-(8, "Theta Music: New track released!", "new_media_post", 14, FALSE, NOW()),
-(9, "Iota Traveler: Shared new travel story.", "new_media_post", 9, TRUE, NOW() - INTERVAL 15 MINUTE),
-(10, "Kappa Writer: Has new article for review.", "new_media_post", NULL, FALSE, NOW() - INTERVAL 14 MINUTE),
-(11, "Lambda Builder: Started a new discussion in Project Alpha.", "new_message", 4, FALSE, NOW() - INTERVAL 13 MINUTE),
-(12, "Mu Innovator: Invited you to a new private chat.", "private_chat_invite", 10, FALSE, NOW() - INTERVAL 12 MINUTE),
-(13, "Nu Learner: Posted a question in Learning Hub.", "new_message", 15, FALSE, NOW() - INTERVAL 11 MINUTE),
-(14, "Xi Mentor: Sent you a private message.", "new_message", NULL, FALSE, NOW() - INTERVAL 10 MINUTE),
-(15, "Omicron Explorer: Is now online.", "user_online", NULL, FALSE, NOW() - INTERVAL 9 MINUTE),
-(1, "Project Alpha: New file uploaded by Delta Artist.", "new_media_post", 4, FALSE, NOW() - INTERVAL 8 MINUTE),
-(2, "Gaming Squad: New game night poll is up.", "chat_update", 5, FALSE, NOW() - INTERVAL 7 MINUTE),
-(3, "Daily Tech News: Live stream starting soon!", "channel_update", 7, FALSE, NOW() - INTERVAL 6 MINUTE),
-(4, "New message from Gamma Gamer in Gaming Squad.", "new_message", 5, FALSE, NOW() - INTERVAL 5 MINUTE),
-(5, "Foodie Friends: New recipe shared by Alice Smith.", "new_media_post", 6, FALSE, NOW() - INTERVAL 4 MINUTE),
-(6, "Book Club Classics: Discussion on Chapter 3.", "new_message", 12, TRUE, NOW() - INTERVAL 3 MINUTE),
-(7, "Workout Tips: New video uploaded!", "channel_update", 13, FALSE, NOW() - INTERVAL 2 MINUTE),
-(8, "Music Production: New sample pack available.", "new_media_post", 14, FALSE, NOW() - INTERVAL 1 MINUTE),
-(9, "Travel Diaries: New photo album posted.", "new_media_post", 9, TRUE, NOW()),
-(10, "Learning Hub: Weekly digest is out.", "channel_update", 15, FALSE, NOW() - INTERVAL 30 MINUTE),
-(11, "You have a new contact request from Alpha User.", "contact_request", NULL, FALSE, NOW() - INTERVAL 29 MINUTE),
-(12, "Your message to Charlie Brown was delivered.", "message_delivered", 3, TRUE, NOW() - INTERVAL 28 MINUTE),
-(13, "New member joined Project Alpha.", "group_add", 4, FALSE, NOW() - INTERVAL 27 MINUTE),
-(14, "Your contact Beta Dev is now online.", "user_online", NULL, FALSE, NOW() - INTERVAL 26 MINUTE),
-(15, "New message from Alpha User.", "new_message", 1, FALSE, NOW() - INTERVAL 25 MINUTE),
-(1, "Music Production: Live session announced.", "channel_update", 14, FALSE, NOW() - INTERVAL 24 MINUTE),
-(2, "Art Inspiration: New exhibit featured.", "channel_update", 8, FALSE, NOW() - INTERVAL 23 MINUTE);
+INSERT INTO notifications (id, recipient_user_id, message, event_type, related_chat_id, is_read, timestamp) VALUES
+(1, 1, "New message from Beta Dev in Project Alpha.", "new_message", 4, FALSE, NOW() - INTERVAL 10 MINUTE),
+(2, 1, "You were added to Foodie Friends group.", "group_add", 6, FALSE, NOW() - INTERVAL 9 MINUTE),
+(3, 2, "Alpha User just posted a new image.", "new_media_post", 1, FALSE, NOW() - INTERVAL 8 MINUTE),
+(4, 2, "New tech update available in Daily Tech News.", "channel_update", 7, FALSE, NOW() - INTERVAL 7 MINUTE),
+(5, 3, "New message from Delta Artist in Art Inspiration.", "new_message", 8, TRUE, NOW() - INTERVAL 6 MINUTE),
+(6, 3, "Your friend Alpha User is now online.", "user_online", NULL, FALSE, NOW() - INTERVAL 5 MINUTE),
+(7, 4, "New message from Charlie Brown in Private Chat.", "new_message", 3, FALSE, NOW() - INTERVAL 4 MINUTE),
+(8, 5, "Epsilon Chef: Recipe for Veggie Pizza uploaded.", "new_media_post", 6, FALSE, NOW() - INTERVAL 3 MINUTE),
+(9, 6, "Zeta Reader: New book added to Book Club Classics.", "chat_update", 12, TRUE, NOW() - INTERVAL 2 MINUTE),
+(10, 7, "Eta Hiker: Shared a new trail photo.", "new_media_post", 13, FALSE, NOW() - INTERVAL 1 MINUTE),
+(11, 8, "Theta Music: New track released!", "new_media_post", 14, FALSE, NOW()),
+(12, 9, "Iota Traveler: Shared new travel story.", "new_media_post", 9, TRUE, NOW() - INTERVAL 15 MINUTE),
+(13, 10, "Kappa Writer: Has new article for review.", "new_media_post", NULL, FALSE, NOW() - INTERVAL 14 MINUTE),
+(14, 11, "Lambda Builder: Started a new discussion in Project Alpha.", "new_message", 4, FALSE, NOW() - INTERVAL 13 MINUTE),
+(15, 12, "Mu Innovator: Invited you to a new private chat.", "private_chat_invite", 10, FALSE, NOW() - INTERVAL 12 MINUTE),
+(16, 13, "Nu Learner: Posted a question in Learning Hub.", "new_message", 15, FALSE, NOW() - INTERVAL 11 MINUTE),
+(17, 14, "Xi Mentor: Sent you a private message.", "new_message", NULL, FALSE, NOW() - INTERVAL 10 MINUTE),
+(18, 15, "Omicron Explorer: Is now online.", "user_online", NULL, FALSE, NOW() - INTERVAL 9 MINUTE),
+(19, 1, "Project Alpha: New file uploaded by Delta Artist.", "new_media_post", 4, FALSE, NOW() - INTERVAL 8 MINUTE),
+(20, 2, "Gaming Squad: New game night poll is up.", "chat_update", 5, FALSE, NOW() - INTERVAL 7 MINUTE),
+(21, 3, "Daily Tech News: Live stream starting soon!", "channel_update", 7, FALSE, NOW() - INTERVAL 6 MINUTE),
+(22, 4, "New message from Gamma Gamer in Gaming Squad.", "new_message", 5, FALSE, NOW() - INTERVAL 5 MINUTE),
+(23, 5, "Foodie Friends: New recipe shared by Alice Smith.", "new_media_post", 6, FALSE, NOW() - INTERVAL 4 MINUTE),
+(24, 6, "Book Club Classics: Discussion on Chapter 3.", "new_message", 12, TRUE, NOW() - INTERVAL 3 MINUTE),
+(25, 7, "Workout Tips: New video uploaded!", "channel_update", 13, FALSE, NOW() - INTERVAL 2 MINUTE),
+(26, 8, "Music Production: New sample pack available.", "new_media_post", 14, FALSE, NOW() - INTERVAL 1 MINUTE),
+(27, 9, "Travel Diaries: New photo album posted.", "new_media_post", 9, TRUE, NOW()),
+(28, 10, "Learning Hub: Weekly digest is out.", "channel_update", 15, FALSE, NOW() - INTERVAL 30 MINUTE),
+(29, 11, "You have a new contact request from Alpha User.", "contact_request", NULL, FALSE, NOW() - INTERVAL 29 MINUTE),
+(30, 12, "Your message to Charlie Brown was delivered.", "message_delivered", 3, TRUE, NOW() - INTERVAL 28 MINUTE),
+(31, 13, "New member joined Project Alpha.", "group_add", 4, FALSE, NOW() - INTERVAL 27 MINUTE),
+(32, 14, "Your contact Beta Dev is now online.", "user_online", NULL, FALSE, NOW() - INTERVAL 26 MINUTE),
+(33, 15, "New message from Alpha User.", "new_message", 1, FALSE, NOW() - INTERVAL 25 MINUTE),
+(34, 1, "Music Production: Live session announced.", "channel_update", 14, FALSE, NOW() - INTERVAL 24 MINUTE),
+(35, 2, "Art Inspiration: New exhibit featured.", "channel_update", 8, FALSE, NOW() - INTERVAL 23 MINUTE);
 
 
 -- Re-enable foreign key checks after all inserts are done
@@ -0,0 +1,51 @@
+-- Schema of an additional message shard (see orgs.dao.ShardRouter); the main database is shard 0 and uses tusalDB.sql.
+-- A shard holds the messages of the chats whose buckets are assigned to it, and the outbox events written with
+-- them. Users, chats and media stay in the main database, so there are no foreign keys to them here.
+-- Load it into the shard's own, empty database, e.g. with localShards.sh next to this file
+
+CREATE TABLE messages (
+    id BIGINT PRIMARY KEY,                          -- orgs.utils.SnowflakeIdGenerator; the same id on every shard
+    chat_id BIGINT NOT NULL,
+    sender_id INT NOT NULL,
+    content TEXT,
+    message_type ENUM('text', 'image', 'video', 'voiceNote', 'file', 'system') NOT NULL,
+    sent_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    media_id INT,
+    replied_to_message_id BIGINT,
+    forwarded_from_user_id INT,
+    forwarded_from_chat_id BIGINT,
+    edited_at DATETIME,
+    is_deleted BOOLEAN DEFAULT FALSE,
+    deleted_at DATETIME,
+    view_count INT DEFAULT 0,
+    client_message_id VARCHAR(64),
+    sender_display_name VARCHAR(100),
+    reply_snippet VARCHAR(120),
+    INDEX idx_messages_chat_id_sent_at (chat_id, sent_at DESC),
+    INDEX idx_messages_chat_id_id (chat_id, id),
+    INDEX idx_messages_sender_id (sender_id),
+    INDEX idx_messages_replied_to_message_id (replied_to_message_id),
+    -- Forward references, detached by the deletion jobs (the main database has foreign keys on these instead)
+    INDEX idx_messages_forwarded_from_user_id (forwarded_from_user_id),
+    INDEX idx_messages_forwarded_from_chat_id (forwarded_from_chat_id),
+    UNIQUE KEY uq_messages_sender_client_message_id (sender_id, client_message_id)
+);
+
+-- Drained by the server's ChangeEventRelay like the main database's outbox, with a lease of its own
+CREATE TABLE change_events (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    event_type VARCHAR(32) NOT NULL,
+    chat_id BIGINT,
+    entity_id BIGINT,
+    payload TEXT,
+    created_at TIMESTAMP(3) DEFAULT CURRENT_TIMESTAMP(3),
+    published_at TIMESTAMP(3) NULL,
+    INDEX idx_change_events_published_at (published_at, id)
+);
+
+CREATE TABLE change_event_lease (
+    id TINYINT PRIMARY KEY,
+    node_id INT NOT NULL,
+    expires_at TIMESTAMP(3) NOT NULL
+);
+INSERT INTO change_event_lease (id, node_id, expires_at) VALUES (1, -1, CURRENT_TIMESTAMP(3));